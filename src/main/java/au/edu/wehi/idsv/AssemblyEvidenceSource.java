@@ -8,6 +8,7 @@ import au.edu.wehi.idsv.sam.SAMFileUtil;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.sam.SamTags;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.FileSystemWorkQueue;
 import au.edu.wehi.idsv.visualisation.AssemblyTelemetry;
 import com.google.common.base.Stopwatch;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -69,12 +70,17 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 	public void assembleBreakends(ExecutorService threadpool) throws IOException {
 		assembleBreakends(threadpool, 0, 1);
 	}
+	public void assembleBreakends(ExecutorService threadpool, int jobNodeIndex, int jobNodes) throws IOException {
+		assembleBreakends(threadpool, jobNodeIndex, jobNodes, null);
+	}
 	/**
 	 * Perform breakend assembly 
 	 * @param threadpool 
+	 * @param workQueue shared work queue used to dynamically allocate chunks across job nodes.
+	 *                  If null, chunks are statically allocated based on the job node index.
 	 * @throws IOException 
 	 */
-	public void assembleBreakends(ExecutorService threadpool, int jobNodeIndex, int jobNodes) throws IOException {
+	public void assembleBreakends(ExecutorService threadpool, int jobNodeIndex, int jobNodes, FileSystemWorkQueue workQueue) throws IOException {
 		IntervalBed excludedRegions = new IntervalBed(getContext().getLinear());
 		IntervalBed safetyRegions = new IntervalBed(getContext().getLinear());
 		IntervalBed downsampledRegions = new IntervalBed(getContext().getLinear());
@@ -83,48 +89,172 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			threadpool = MoreExecutors.newDirectExecutorService();
 		}
 		invalidateSummaryCache();
+		// jobs sharing a work queue can have the same job index so per-job output files are keyed by a claimed worker index
+		int outputIndex = workQueue == null ? jobNodeIndex : claimWorkerIndex(workQueue, jobNodeIndex);
 		if (getContext().getConfig().getVisualisation().assemblyTelemetry) {
-			telemetry = new AssemblyTelemetry(getContext().getFileSystemContext().getAssemblyTelemetry(getFile(), jobNodeIndex), getContext().getDictionary());
+			telemetry = new AssemblyTelemetry(getContext().getFileSystemContext().getAssemblyTelemetry(getFile(), outputIndex), getContext().getDictionary());
 		}
 		List<QueryInterval[]> chunks = getContext().getReference().getIntervals(getContext().getConfig().chunkSize, getContext().getConfig().chunkSequenceChangePenalty);
 		List<File> assembledChunk = new ArrayList<>();
-		List<Future<Void>> tasks = new ArrayList<>();
-		for (int i = 0; i < chunks.size(); i++) {
-			if (i % jobNodes == jobNodeIndex) {
-				QueryInterval[] chunk = chunks.get(i);
-				File f = getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i);
-				int chunkNumber = i;
-				assembledChunk.add(f);
-				if (!f.exists()) {
-					tasks.add(threadpool.submit(() -> {
-						assembleChunk(f, chunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions);
-						return null;
-					}));
+		if (workQueue == null) {
+			List<Future<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < chunks.size(); i++) {
+				if (i % jobNodes == jobNodeIndex) {
+					QueryInterval[] chunk = chunks.get(i);
+					File f = getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i);
+					int chunkNumber = i;
+					assembledChunk.add(f);
+					if (!f.exists()) {
+						tasks.add(threadpool.submit(() -> {
+							assembleChunk(f, chunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions);
+							return null;
+						}));
+					}
 				}
 			}
+			runTasks(tasks);
+		} else {
+			for (int i = 0; i < chunks.size(); i++) {
+				assembledChunk.add(getContext().getFileSystemContext().getAssemblyChunkBam(getFile(), i));
+			}
+			assembleClaimedChunks(threadpool, workQueue, chunks, assembledChunk, excludedRegions, safetyRegions, downsampledRegions);
 		}
-		runTasks(tasks);
 		if (telemetry != null) {
 			telemetry.close();
 			telemetry = null;
 		}
-		excludedRegions.write(getContext().getFileSystemContext().getAssemblyExcludedRegions(getFile(), jobNodeIndex), "excludedDueToGraphComplexity");
-		safetyRegions.write(getContext().getFileSystemContext().getAssemblySafetyRegions(getFile(), jobNodeIndex), "subsetOfContigsCalledDueToGraphComplexity");
-		downsampledRegions.write(getContext().getFileSystemContext().getAssemblyDownsampledRegions(getFile(), jobNodeIndex), "subsetOfReadsAssembled");
+		excludedRegions.write(getContext().getFileSystemContext().getAssemblyExcludedRegions(getFile(), outputIndex), "excludedDueToGraphComplexity");
+		safetyRegions.write(getContext().getFileSystemContext().getAssemblySafetyRegions(getFile(), outputIndex), "subsetOfContigsCalledDueToGraphComplexity");
+		downsampledRegions.write(getContext().getFileSystemContext().getAssemblyDownsampledRegions(getFile(), outputIndex), "subsetOfReadsAssembled");
+		if (workQueue != null) {
+			workQueue.release(getWorkQueueWorkerName(outputIndex));
+		}
 		log.info(String.format("Breakend assembly complete (node %d, %d total)", jobNodeIndex, jobNodes));
-		List<File> deduplicatedChunks = assembledChunk;
 		long secondaryNotSplit = source.stream().mapToLong(ses -> ses.getMetrics().getIdsvMetrics().SECONDARY_NOT_SPLIT).sum();
 		if (secondaryNotSplit > 0) {
 			log.warn(String.format("Found %d secondary alignments that were not split read alignments. GRIDSS no longer supports multi-mapping alignment. These reads will be ignored.", secondaryNotSplit));
 		}
+		if (workQueue != null) {
+			mergeOnceAllChunksComplete(workQueue, assembledChunk);
+			return;
+		}
 		if (jobNodes > 1) {
 			log.info("Not merging assembly files since not all chunks were assembled.");
 			return;
 		}
+		mergeChunks(assembledChunk);
+	}
+	private static String getWorkQueueChunkName(int chunkNumber) {
+		return "chunk" + chunkNumber;
+	}
+	private static final String WORK_QUEUE_MERGE_ITEM = "merge";
+	private static String getWorkQueueWorkerName(int workerIndex) {
+		return "worker" + workerIndex;
+	}
+	/**
+	 * Claims a worker index for the per-job output files of this job.
+	 * 
+	 * The index is held for the lifetime of the job and is not reused
+	 * once the output files of a job using that index have been written.
+	 * @param jobNodeIndex first index to attempt to claim
+	 * @return worker index
+	 */
+	private int claimWorkerIndex(FileSystemWorkQueue workQueue, int jobNodeIndex) throws IOException {
+		for (int i = jobNodeIndex; ; i++) {
+			if (!workerOutputExists(i) && workQueue.tryClaim(getWorkQueueWorkerName(i))) {
+				// another job could have completed with this index before we claimed it
+				if (!workerOutputExists(i)) {
+					if (i != jobNodeIndex) {
+						log.info(String.format("Job index %d in use by another job. Using %d for assembly output files.", jobNodeIndex, i));
+					}
+					return i;
+				}
+				workQueue.release(getWorkQueueWorkerName(i));
+			}
+		}
+	}
+	private boolean workerOutputExists(int workerIndex) {
+		FileSystemContext fsc = getContext().getFileSystemContext();
+		return fsc.getAssemblyExcludedRegions(getFile(), workerIndex).exists()
+				|| fsc.getAssemblyTelemetry(getFile(), workerIndex).exists();
+	}
+	/**
+	 * Assembles all chunks not yet assembled or claimed by another node.
+	 * Returns once all chunks have been assembled by any node.
+	 */
+	private void assembleClaimedChunks(ExecutorService threadpool, FileSystemWorkQueue workQueue, List<QueryInterval[]> chunks, List<File> chunkFiles,
+			IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) {
+		// Chunk files are deleted after merging so the merged output needs
+		// to be checked after the chunk file to avoid reassembling the chunk
+		while (true) {
+			List<Future<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < chunks.size(); i++) {
+				QueryInterval[] chunk = chunks.get(i);
+				File f = chunkFiles.get(i);
+				int chunkNumber = i;
+				if (!f.exists() && !getFile().exists()) {
+					// chunks are claimed when the task starts so idle nodes pull work as they become available
+					tasks.add(threadpool.submit(() -> {
+						String item = getWorkQueueChunkName(chunkNumber);
+						if (!workQueue.tryClaim(item)) {
+							return null;
+						}
+						try {
+							// another node could have completed the chunk before we claimed it
+							if (!f.exists() && !getFile().exists()) {
+								assembleChunk(f, chunkNumber, chunk, excludedRegions, safetyRegions, downsampledRegions);
+							}
+						} finally {
+							workQueue.release(item);
+						}
+						return null;
+					}));
+				}
+			}
+			if (tasks.isEmpty()) {
+				return;
+			}
+			runTasks(tasks);
+			long remaining = chunkFiles.stream().filter(f -> !f.exists()).count();
+			if (remaining > 0 && !getFile().exists()) {
+				log.info(String.format("Waiting for %d assembly chunks being processed by other nodes.", remaining));
+				waitForWorkQueue();
+			}
+		}
+	}
+	private void mergeOnceAllChunksComplete(FileSystemWorkQueue workQueue, List<File> chunkFiles) throws IOException {
+		while (!getFile().exists()) {
+			if (workQueue.tryClaim(WORK_QUEUE_MERGE_ITEM)) {
+				try {
+					if (!getFile().exists()) {
+						mergeChunks(chunkFiles);
+					}
+				} finally {
+					workQueue.release(WORK_QUEUE_MERGE_ITEM);
+				}
+			} else {
+				log.info("Waiting for assembly chunk merge being performed by another node.");
+				waitForWorkQueue();
+			}
+		}
+	}
+	private void waitForWorkQueue() {
+		try {
+			Thread.sleep(WORK_QUEUE_POLL_INTERVAL_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		}
+	}
+	private static final long WORK_QUEUE_POLL_INTERVAL_MS = 10000;
+	private void mergeChunks(List<File> assembledChunk) throws IOException {
+		List<File> deduplicatedChunks = assembledChunk;
 		log.info("Merging assembly files");
 		// Merge chunk files
 		File out = getFile();
-		File tmpout = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(getFile()) : out;
+		// Always write to a temporary file as the existence of the output indicates to other nodes that the merge is complete
+		File tmpout = FileSystemContext.getWorkingFileFor(getFile());
+		FileHelper.delete(tmpout, true);
 		CommandLineProgramHelper gather = new CommandLineProgramHelper(new picard.sam.GatherBamFiles());
 		for (File f : deduplicatedChunks) {
 			gather.addArg("INPUT", f.getPath());
@@ -142,14 +272,9 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 		// Sorting is not required since each chunk was already sorted, and each chunk
 		// contains sequential genomic coordinates. We also don't need to index as we only need assembly.sv.bam indexed
 		// SAMFileUtil.sort(getContext().getFileSystemContext(), tmpout, getFile(), SortOrder.coordinate);
-		if (tmpout != out) {
-			FileHelper.move(tmpout, out, true);
-		}
+		FileHelper.move(tmpout, out, true);
 		invalidateSummaryCache();
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
-			if (tmpout != out) {
-				FileHelper.delete(tmpout, true);
-			}
 			for (File f : assembledChunk) {
 				FileHelper.delete(f, true);
 			}
@@ -207,7 +332,11 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 			timer.stop();
 			log.info(String.format("Completed assembly on %s in %ds (%s)", chuckName, timer.elapsed(TimeUnit.SECONDS), timer.toString()));
 		}
-		SAMFileUtil.sort(getContext().getFileSystemContext(), tmpout, output, SortOrder.coordinate);
+		// Chunk existence is used to determine completion so the chunk must only appear once fully written
+		File sortedout = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.sorted.");
+		FileHelper.delete(sortedout, true);
+		SAMFileUtil.sort(getContext().getFileSystemContext(), tmpout, sortedout, SortOrder.coordinate);
+		FileHelper.move(sortedout, output, true);
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 			tmpout.delete();
 			filteredout.delete();
@@ -231,9 +360,10 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 							   IntervalBed excludedRegions, IntervalBed safetyRegions, IntervalBed downsampledRegions) {
 		QueryInterval[] expanded = getExpanded(intervals);
 		try (CloseableIterator<DirectedEvidence> input = mergedIterator(source, expanded, EvidenceSortOrder.SAMRecordStartPosition)) {
-			Iterator<DirectedEvidence> throttledIt = throttled(input, downsampledRegions);
+			DirectedEvidenceDensityThrottlingIterator throttledIt = throttled(input, downsampledRegions);
 			Iterator<DirectedEvidence> errorCorrectedIt = errorCorrected(throttledIt);
 			PositionalAssembler assembler = new PositionalAssembler(getContext(), AssemblyEvidenceSource.this, assemblyNameGenerator, errorCorrectedIt, direction, excludedRegions, safetyRegions);
+			assembler.setDensityThrottle(throttledIt);
 			if (telemetry != null) {
 				assembler.setTelemetry(telemetry.getTelemetry(chunkNumber, direction));
 			}
@@ -359,7 +489,7 @@ public class AssemblyEvidenceSource extends SAMEvidenceSource {
 				ap.errorCorrection.k);
 		return out;
 	}
-	private Iterator<DirectedEvidence> throttled(Iterator<DirectedEvidence> it, IntervalBed downsampledRegions) {
+	private DirectedEvidenceDensityThrottlingIterator throttled(Iterator<DirectedEvidence> it, IntervalBed downsampledRegions) {
 		AssemblyConfiguration ap = getContext().getAssemblyParameters();
 		DirectedEvidenceDensityThrottlingIterator dit = new DirectedEvidenceDensityThrottlingIterator(
 				downsampledRegions,
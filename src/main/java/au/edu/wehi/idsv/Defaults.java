@@ -16,6 +16,7 @@ public class Defaults {
 	public static final boolean CACHE_REFERENCE;
 	public static final boolean ATTEMPT_ASSEMBLY_RECOVERY;
 	public static final boolean USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES;
+	public static final boolean USE_OPTIMISED_CLIQUE_DATA_STRUCTURES;
     public static final boolean EXPORT_INPROCESS_ALIGNMENTS;
 
     static {
@@ -32,6 +33,7 @@ public class Defaults {
 		CACHE_REFERENCE = !Boolean.valueOf(System.getProperty("reference.cache", "true"));
 		ATTEMPT_ASSEMBLY_RECOVERY = Boolean.valueOf(System.getProperty("assembly.recover", "true"));
 		USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES = Boolean.valueOf(System.getProperty("assembly.optimised_data_structures", "true"));
+		USE_OPTIMISED_CLIQUE_DATA_STRUCTURES = Boolean.valueOf(System.getProperty("clique.optimised_data_structures", "true"));
 		EXPORT_INPROCESS_ALIGNMENTS = Boolean.valueOf(System.getProperty("bwa.export", "false"));
 	}
 }
\ No newline at end of file
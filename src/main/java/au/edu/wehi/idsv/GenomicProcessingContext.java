@@ -4,7 +4,9 @@ import au.edu.wehi.idsv.bed.IntervalBed;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.vcf.BinaryVcfWriter;
 import au.edu.wehi.idsv.vcf.GridssVcfConstants;
+import au.edu.wehi.idsv.vcf.VcfFileUtil;
 import com.google.common.collect.Lists;
 import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.*;
@@ -13,7 +15,10 @@ import htsjdk.samtools.filter.*;
 import htsjdk.samtools.reference.IndexedFastaSequenceFile;
 import htsjdk.samtools.reference.ReferenceSequenceFile;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.writer.FastVCFWriter;
 import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
@@ -23,6 +28,7 @@ import picard.cmdline.CommandLineProgram;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -237,8 +243,18 @@ public class GenomicProcessingContext implements Closeable {
 	 * @return opened output VCF stream
 	 */
 	public VariantContextWriter getVariantContextWriter(File file, VCFHeader vcfHeader, boolean createIndex) {
-		VariantContextWriterBuilder builder = getVariantContextWriterBuilder(file, createIndex);
-		VariantContextWriter vcfWriter = builder.build();
+		VariantContextWriter vcfWriter;
+		if (VcfFileUtil.isBinaryVcf(file)) {
+			vcfWriter = new BinaryVcfWriter(file);
+		} else if (gridss.Defaults.FAST_VCF_WRITER && VariantContextWriterBuilder.determineOutputTypeFromFile(file) == VariantContextWriterBuilder.OutputType.VCF) {
+			try {
+				vcfWriter = new FastVCFWriter(file, IOUtil.maybeBufferOutputStream(new FileOutputStream(file)), getReference().getSequenceDictionary(), createIndex);
+			} catch (FileNotFoundException e) {
+				throw new RuntimeIOException(e);
+			}
+		} else {
+			vcfWriter = getVariantContextWriterBuilder(file, createIndex).build();
+		}
 		GridssVcfConstants.addHeaders(vcfHeader);
 		vcfHeader.setSequenceDictionary(getReference().getSequenceDictionary());
 		vcfWriter.writeHeader(vcfHeader);
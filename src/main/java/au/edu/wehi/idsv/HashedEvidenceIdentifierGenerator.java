@@ -1,12 +1,14 @@
 package au.edu.wehi.idsv;
 
-import com.google.common.hash.HashCode;
+import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import htsjdk.samtools.SAMRecord;
 
 import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.function.Consumer;
 
 /**
  * Generates evidence ID using hashes to reduce evidenceID size
@@ -16,12 +18,19 @@ import java.util.Base64;
  * The second block is the alignment unique hash for that segment (typically 6 bytes = 36 bits)
  * The final block is the overall evidenceid hash for that alignment (typically 6 bytes = 36 bits)
  * 
+ * Each block is the hash of the corresponding {@link StringEvidenceIdentifierGenerator} identifier.
+ * The identifier fields are streamed directly from the record into the hash functions
+ * so the intermediate identifier strings are never constructed.
+ * 
  * 
  * @author Daniel Cameron
  *
  */
 public class HashedEvidenceIdentifierGenerator implements EvidenceIdentifierGenerator {
-	private final StringEvidenceIdentifierGenerator gen = new StringEvidenceIdentifierGenerator();
+	/**
+	 * Field separator. Must match {@link StringEvidenceIdentifierGenerator}
+	 */
+	private static final byte SEPERATOR = '#';
 	private final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
 	//private final Base64.Decoder decoder = Base64.getUrlDecoder();
 	private HashFunction hf = Hashing.murmur3_128();
@@ -37,19 +46,74 @@ public class HashedEvidenceIdentifierGenerator implements EvidenceIdentifierGene
 		this(20, 6, 6);
 	}
 	/**
-	 * Hashes the given string, returning a string that does not contain any SAM or VCF special characters.
-	 * @param s
+	 * Encodes the given hash, returning a string that does not contain any SAM or VCF special characters.
+	 * @param hasher hash
 	 * @return string encoding hash
 	 */
 	// SAM read name regex: \*|[!-()+-<>-~][!-~]*
 	// !"#$%&'()+,-./0123456789:;<>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\]^_`abcdefghijklmnopqrstuvwxyz{|}~
 	// * = disallowed
-	private String hash(String s, int bytes) {
-		HashCode hc = hf.hashString(s, StandardCharsets.US_ASCII);
-		String encoded = encoder.encodeToString(hc.asBytes());
+	private String encode(Hasher hasher, int bytes) {
+		String encoded = encoder.encodeToString(hasher.hash().asBytes());
 		String truncated = encoded.substring(0, bytes);
 		return truncated;
 	}
+	private static void put(byte b, Hasher... hashers) {
+		for (Hasher h : hashers) {
+			h.putByte(b);
+		}
+	}
+	private static void put(String s, Hasher... hashers) {
+		for (Hasher h : hashers) {
+			h.putString(s, StandardCharsets.US_ASCII);
+		}
+	}
+	/**
+	 * Writes the decimal ASCII representation of the given integer
+	 */
+	private static void put(int value, Hasher... hashers) {
+		byte[] digits = new byte[11];
+		int offset = digits.length;
+		long v = Math.abs((long)value);
+		do {
+			digits[--offset] = (byte)('0' + v % 10);
+			v /= 10;
+		} while (v != 0);
+		if (value < 0) {
+			digits[--offset] = '-';
+		}
+		for (Hasher h : hashers) {
+			h.putBytes(digits, offset, digits.length - offset);
+		}
+	}
+	/**
+	 * @see StringEvidenceIdentifierGenerator#getSegmentUniqueName(SAMRecord)
+	 */
+	private static void putSegmentUniqueName(SAMRecord record, Hasher... hashers) {
+		put(record.getReadName(), hashers);
+		put(SEPERATOR, hashers);
+		put(SAMRecordUtil.getSegmentIndex(record), hashers);
+	}
+	/**
+	 * @see StringEvidenceIdentifierGenerator#getAlignmentUniqueName(SAMRecord)
+	 */
+	private static void putAlignmentUniqueSuffix(SAMRecord record, Hasher... hashers) {
+		if (!record.getReadUnmappedFlag()) {
+			put(SEPERATOR, hashers);
+			put(record.getReferenceName(), hashers);
+			put(SEPERATOR, hashers);
+			put(record.getAlignmentStart(), hashers);
+			put(SEPERATOR, hashers);
+			put(record.getReadNegativeStrandFlag() ? (byte)'-' : (byte)'+', hashers);
+			put(SEPERATOR, hashers);
+			put(record.getCigarString(), hashers);
+		} else {
+			put(SEPERATOR, hashers);
+			put(SEPERATOR, hashers);
+			put(SEPERATOR, hashers);
+			put(SEPERATOR, hashers);
+		}
+	}
 	@Override
 	public String extractAlignmentUniqueName(String evidenceId) {
 		return evidenceId.substring(0, segmentUniqueBytes + alignmentUniqueBytes);
@@ -60,32 +124,63 @@ public class HashedEvidenceIdentifierGenerator implements EvidenceIdentifierGene
 	}
 	@Override
 	public String getAlignmentUniqueName(SAMRecord record) {
-		String aun = gen.getAlignmentUniqueName(record);
-		return getSegmentUniqueName(record) + hash(aun, alignmentUniqueBytes);
+		Hasher segment = hf.newHasher();
+		Hasher alignment = hf.newHasher();
+		putSegmentUniqueName(record, segment, alignment);
+		putAlignmentUniqueSuffix(record, alignment);
+		return encode(segment, segmentUniqueBytes) + encode(alignment, alignmentUniqueBytes);
 	}
 	@Override
 	public String getSegmentUniqueName(SAMRecord record) {
-		String sun = gen.getSegmentUniqueName(record);
-		return hash(sun, segmentUniqueBytes);
+		Hasher segment = hf.newHasher();
+		putSegmentUniqueName(record, segment);
+		return encode(segment, segmentUniqueBytes);
+	}
+	/**
+	 * Calculates all three hash blocks in a single pass over the record fields 
+	 * @param record evidence record
+	 * @param evidenceSuffix writes the evidence-specific identifier suffix
+	 * @return evidenceID
+	 */
+	private String getEvidenceID(SAMRecord record, Consumer<Hasher> evidenceSuffix) {
+		Hasher segment = hf.newHasher();
+		Hasher alignment = hf.newHasher();
+		Hasher evidence = hf.newHasher();
+		putSegmentUniqueName(record, segment, alignment, evidence);
+		putAlignmentUniqueSuffix(record, alignment, evidence);
+		put(SEPERATOR, evidence);
+		evidenceSuffix.accept(evidence);
+		return encode(segment, segmentUniqueBytes) + encode(alignment, alignmentUniqueBytes) + encode(evidence, evidenceidUniqueBytes);
 	}
 	@Override
 	public String getEvidenceID(NonReferenceReadPair e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getLocalledMappedRead()) + hash(id, evidenceidUniqueBytes);
+		return getEvidenceID(e.getLocalledMappedRead(), h -> {
+			put("rp", h);
+			if (e.getBreakendSummary() != null) {
+				put((byte)e.getBreakendSummary().direction.toChar(), h);
+			}
+		});
 	}
 	@Override
 	public String getEvidenceID(SoftClipEvidence e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getSAMRecord()) + hash(id, evidenceidUniqueBytes);
+		return getEvidenceID(e.getSAMRecord(), h -> {
+			put("sc", h);
+			put((byte)e.getBreakendSummary().direction.toChar(), h);
+		});
 	}
 	@Override
 	public String getEvidenceID(SplitReadEvidence e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getSAMRecord()) + hash(id, evidenceidUniqueBytes);
+		return getEvidenceID(e.getSAMRecord(), h -> {
+			put("sr", h);
+			put((byte)e.getBreakendSummary().direction.toChar(), h);
+		});
 	}
 	@Override
 	public String getEvidenceID(IndelEvidence e) {
-		String id = gen.getEvidenceID(e);
-		return getAlignmentUniqueName(e.getSAMRecord()) + hash(id, evidenceidUniqueBytes);
+		return getEvidenceID(e.getSAMRecord(), h -> {
+			put(e.getIndelCigarOffset(), h);
+			put((byte)'i', h);
+			put((byte)e.getBreakendSummary().direction.toChar(), h);
+		});
 	}
 }
@@ -0,0 +1,274 @@
+package au.edu.wehi.idsv;
+
+import au.edu.wehi.idsv.bed.BedpeIterator;
+import au.edu.wehi.idsv.bed.BedpeRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.annotation.Strand;
+import htsjdk.tribble.bed.BEDCodec;
+import htsjdk.tribble.bed.BEDFeature;
+import htsjdk.tribble.readers.LineIterator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Compact lookup of the breakpoints and breakends in a panel of normals.
+ *
+ * Records are stored in flat int arrays ordered by the start of the (first) breakend.
+ * Overlapping records are found by binary search on the start position, with the
+ * search window widened by the longest breakend interval in the PON.
+ *
+ * The index can be written to disk and memory-mapped so large PONs
+ * do not need to be parsed for every sample filtered.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class PonIndex {
+	private static final long MAGIC = 0x6772696473737069L; // "gridsspi"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+	private static final int BREAKPOINT_FIELDS = 9;
+	private static final int BREAKEND_FIELDS = 5;
+	private static final int REF = 0;
+	private static final int DIRECTION = 1;
+	private static final int START = 2;
+	private static final int END = 3;
+	private static final int REF2 = 4;
+	private static final int DIRECTION2 = 5;
+	private static final int START2 = 6;
+	private static final int END2 = 7;
+	private static final int BREAKPOINT_COUNT = 8;
+	private static final int BREAKEND_COUNT = 4;
+	private final int breakpointSize;
+	private final int breakendSize;
+	private final int maxBreakpointWidth;
+	private final int maxBreakendWidth;
+	private final IntBuffer breakpoints;
+	private final IntBuffer breakends;
+
+	private PonIndex(int breakpointSize, int breakendSize, int maxBreakpointWidth, int maxBreakendWidth, IntBuffer breakpoints, IntBuffer breakends) {
+		this.breakpointSize = breakpointSize;
+		this.breakendSize = breakendSize;
+		this.maxBreakpointWidth = maxBreakpointWidth;
+		this.maxBreakendWidth = maxBreakendWidth;
+		this.breakpoints = breakpoints;
+		this.breakends = breakends;
+	}
+
+	public static class Builder {
+		private final IntArrayList breakpoints = new IntArrayList();
+		private final IntArrayList breakends = new IntArrayList();
+		public Builder add(BreakpointSummary bp, int count) {
+			breakpoints.addElements(breakpoints.size(), new int[] {
+					bp.referenceIndex, bp.direction.ordinal(), bp.start, bp.end,
+					bp.referenceIndex2, bp.direction2.ordinal(), bp.start2, bp.end2,
+					count });
+			return this;
+		}
+		public Builder add(BreakendSummary be, int count) {
+			if (be instanceof BreakpointSummary) return add((BreakpointSummary)be, count);
+			breakends.addElements(breakends.size(), new int[] { be.referenceIndex, be.direction.ordinal(), be.start, be.end, count });
+			return this;
+		}
+		public PonIndex build() {
+			int[] bp = sort(breakpoints.toIntArray(), BREAKPOINT_FIELDS);
+			int[] be = sort(breakends.toIntArray(), BREAKEND_FIELDS);
+			return new PonIndex(
+					bp.length / BREAKPOINT_FIELDS,
+					be.length / BREAKEND_FIELDS,
+					maxWidth(bp, BREAKPOINT_FIELDS),
+					maxWidth(be, BREAKEND_FIELDS),
+					IntBuffer.wrap(bp),
+					IntBuffer.wrap(be));
+		}
+		private static int[] sort(int[] records, int fields) {
+			int[][] rows = new int[records.length / fields][];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = Arrays.copyOfRange(records, i * fields, (i + 1) * fields);
+			}
+			Arrays.sort(rows, Comparator.<int[]>comparingInt(r -> r[REF]).thenComparingInt(r -> r[START]));
+			int[] sorted = new int[records.length];
+			for (int i = 0; i < rows.length; i++) {
+				System.arraycopy(rows[i], 0, sorted, i * fields, fields);
+			}
+			return sorted;
+		}
+		private static int maxWidth(int[] records, int fields) {
+			int width = 0;
+			for (int i = 0; i < records.length; i += fields) {
+				width = Math.max(width, records[i + END] - records[i + START]);
+			}
+			return width;
+		}
+	}
+
+	/**
+	 * Creates an index from a BEDPE and BED panel of normals written by GeneratePonBedpe
+	 */
+	public static PonIndex create(SAMSequenceDictionary dictionary, File bedpe, File bed) throws IOException {
+		Builder builder = new Builder();
+		if (bedpe != null) {
+			try (BedpeIterator it = new BedpeIterator(bedpe, dictionary)) {
+				while (it.hasNext()) {
+					BedpeRecord record = it.next();
+					builder.add(record.bp, Integer.parseInt(record.score));
+				}
+			}
+		}
+		if (bed != null) {
+			try (AbstractFeatureReader<BEDFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(bed.getPath(), new BEDCodec(), false)) {
+				for (BEDFeature feat : reader.iterator()) {
+					BreakendDirection direction = feat.getStrand() == Strand.FORWARD ? BreakendDirection.Forward : BreakendDirection.Backward;
+					builder.add(new BreakendSummary(dictionary.getSequenceIndex(feat.getContig()), direction, feat.getStart(), feat.getStart(), feat.getEnd()), (int)feat.getScore());
+				}
+			}
+		}
+		return builder.build();
+	}
+
+	public void write(File file) throws IOException {
+		long bytes = HEADER_BYTES + ((long)breakpointSize * BREAKPOINT_FIELDS + (long)breakendSize * BREAKEND_FIELDS) * Integer.BYTES;
+		if (bytes > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("PON too large to index");
+		}
+		ByteBuffer bb = ByteBuffer.allocate((int)bytes);
+		bb.putLong(MAGIC);
+		bb.putInt(VERSION);
+		bb.putInt(breakpointSize);
+		bb.putInt(breakendSize);
+		bb.putInt(maxBreakpointWidth);
+		bb.putInt(maxBreakendWidth);
+		bb.putInt(0);
+		for (int i = 0; i < breakpointSize * BREAKPOINT_FIELDS; i++) {
+			bb.putInt(breakpoints.get(i));
+		}
+		for (int i = 0; i < breakendSize * BREAKEND_FIELDS; i++) {
+			bb.putInt(breakends.get(i));
+		}
+		bb.flip();
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			FileChannel channel = fos.getChannel();
+			while (bb.hasRemaining()) {
+				channel.write(bb);
+			}
+		}
+	}
+
+	/**
+	 * Memory-maps an index previously written by write()
+	 */
+	public static PonIndex load(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			if (bb.remaining() < HEADER_BYTES || bb.getLong() != MAGIC) {
+				throw new IOException(file + " is not a PON index");
+			}
+			int version = bb.getInt();
+			if (version != VERSION) {
+				throw new IOException(String.format("%s has unsupported PON index version %d", file, version));
+			}
+			int breakpointSize = bb.getInt();
+			int breakendSize = bb.getInt();
+			int maxBreakpointWidth = bb.getInt();
+			int maxBreakendWidth = bb.getInt();
+			bb.position(HEADER_BYTES);
+			IntBuffer all = bb.slice().asIntBuffer();
+			all.limit(breakpointSize * BREAKPOINT_FIELDS);
+			IntBuffer breakpoints = all.slice();
+			all.limit(breakpointSize * BREAKPOINT_FIELDS + breakendSize * BREAKEND_FIELDS);
+			all.position(breakpointSize * BREAKPOINT_FIELDS);
+			IntBuffer breakends = all.slice();
+			return new PonIndex(breakpointSize, breakendSize, maxBreakpointWidth, maxBreakendWidth, breakpoints, breakends);
+		}
+	}
+
+	/**
+	 * Index of the first record that could overlap the given position
+	 */
+	private static int firstCandidate(IntBuffer records, int fields, int size, int referenceIndex, int start) {
+		int lo = 0;
+		int hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int offset = mid * fields;
+			int ref = records.get(offset + REF);
+			if (ref < referenceIndex || (ref == referenceIndex && records.get(offset + START) < start)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	private static boolean overlaps(int start1, int end1, int start2, int end2) {
+		return start1 <= end2 && start2 <= end1;
+	}
+
+	/**
+	 * Number of normals supporting the given breakpoint.
+	 * @param bp breakpoint to look up
+	 * @param margin additional distance either side of each breakend to consider overlapping
+	 * @return largest PON count of any overlapping breakpoint, or 0 if the breakpoint is not in the PON
+	 */
+	public int getBreakpointCount(BreakpointSummary bp, int margin) {
+		return Math.max(getBreakpointCountOneSided(bp, margin), getBreakpointCountOneSided(bp.remoteBreakpoint(), margin));
+	}
+
+	private int getBreakpointCountOneSided(BreakpointSummary bp, int margin) {
+		int count = 0;
+		int start = bp.start - margin;
+		int end = bp.end + margin;
+		for (int i = firstCandidate(breakpoints, BREAKPOINT_FIELDS, breakpointSize, bp.referenceIndex, start - maxBreakpointWidth); i < breakpointSize; i++) {
+			int offset = i * BREAKPOINT_FIELDS;
+			if (breakpoints.get(offset + REF) != bp.referenceIndex || breakpoints.get(offset + START) > end) break;
+			if (breakpoints.get(offset + DIRECTION) == bp.direction.ordinal()
+					&& overlaps(start, end, breakpoints.get(offset + START), breakpoints.get(offset + END))
+					&& breakpoints.get(offset + REF2) == bp.referenceIndex2
+					&& breakpoints.get(offset + DIRECTION2) == bp.direction2.ordinal()
+					&& overlaps(bp.start2 - margin, bp.end2 + margin, breakpoints.get(offset + START2), breakpoints.get(offset + END2))) {
+				count = Math.max(count, breakpoints.get(offset + BREAKPOINT_COUNT));
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Number of normals supporting the given single breakend.
+	 * @param be breakend to look up
+	 * @param margin additional distance either side of the breakend to consider overlapping
+	 * @return largest PON count of any overlapping single breakend, or 0 if the breakend is not in the PON
+	 */
+	public int getBreakendCount(BreakendSummary be, int margin) {
+		int count = 0;
+		int start = be.start - margin;
+		int end = be.end + margin;
+		for (int i = firstCandidate(breakends, BREAKEND_FIELDS, breakendSize, be.referenceIndex, start - maxBreakendWidth); i < breakendSize; i++) {
+			int offset = i * BREAKEND_FIELDS;
+			if (breakends.get(offset + REF) != be.referenceIndex || breakends.get(offset + START) > end) break;
+			if (breakends.get(offset + DIRECTION) == be.direction.ordinal()
+					&& overlaps(start, end, breakends.get(offset + START), breakends.get(offset + END))) {
+				count = Math.max(count, breakends.get(offset + BREAKEND_COUNT));
+			}
+		}
+		return count;
+	}
+
+	public int getBreakpointSize() {
+		return breakpointSize;
+	}
+
+	public int getBreakendSize() {
+		return breakendSize;
+	}
+}
@@ -13,7 +13,6 @@ import htsjdk.samtools.metrics.Header;
 import htsjdk.samtools.metrics.MetricBase;
 import htsjdk.samtools.metrics.MetricsFile;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
-import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.File;
@@ -107,13 +106,18 @@ public class ProcessingContext extends GenomicProcessingContext {
 	 */
 	@Override
 	public VariantContextWriter getVariantContextWriter(File file, boolean createIndex) {
-		VariantContextWriterBuilder builder = getVariantContextWriterBuilder(file, createIndex);
-		VariantContextWriter vcfWriter = builder.build();
+		final VCFHeader vcfHeader = new VCFHeader(Collections.emptySet(), categories);
+		return getVariantContextWriter(file, vcfHeader, createIndex);
+	}
+	/**
+	 * Gets the VCF header written by {@link #getVariantContextWriter(File, boolean)}
+	 * @return VCF header
+	 */
+	public VCFHeader getVariantContextHeader() {
 		final VCFHeader vcfHeader = new VCFHeader(Collections.emptySet(), categories);
 		GridssVcfConstants.addHeaders(vcfHeader);
 		vcfHeader.setSequenceDictionary(getReference().getSequenceDictionary());
-		vcfWriter.writeHeader(vcfHeader);
-		return vcfWriter;
+		return vcfHeader;
 	}
 	public EvidenceIdentifierGenerator getEvidenceIDGenerator() {
 		return eidgen;
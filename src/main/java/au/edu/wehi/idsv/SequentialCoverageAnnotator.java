@@ -2,6 +2,7 @@ package au.edu.wehi.idsv;
 
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SamReader;
@@ -36,19 +37,26 @@ public class SequentialCoverageAnnotator<T extends VariantContextDirectedEvidenc
 	private final List<Closeable> toclose = new ArrayList<>();
 	private final ExecutorService threadpool;
 	public SequentialCoverageAnnotator(ProcessingContext context, List<SAMEvidenceSource> sources, Iterator<T> it, int windowSize, ExecutorService threadpool) {
+		this(context, sources, null, it, windowSize, threadpool);
+	}
+	/**
+	 * @param intervals intervals to load coverage from. All input files must be indexed.
+	 * Coverage is loaded from the entire file if null.
+	 */
+	public SequentialCoverageAnnotator(ProcessingContext context, List<SAMEvidenceSource> sources, QueryInterval[] intervals, Iterator<T> it, int windowSize, ExecutorService threadpool) {
 		this.context = context;
-		this.reference = createLookup(context, sources, windowSize);
+		this.reference = createLookup(context, sources, intervals, windowSize);
 		this.it = it;
 		this.threadpool = threadpool;
 	}
-	private List<ReferenceCoverageLookup> createLookup(ProcessingContext context, List<SAMEvidenceSource> sources, int windowSize) {
+	private List<ReferenceCoverageLookup> createLookup(ProcessingContext context, List<SAMEvidenceSource> sources, QueryInterval[] intervals, int windowSize) {
 		List<ReferenceCoverageLookup> result = new ArrayList<>();
 		for (SAMEvidenceSource ses : sources) {
 			assert(ses.getSourceCategory() >= 0);
 			assert(ses.getSourceCategory() < context.getCategoryCount());
 			// one read-ahead thread per input file
 			SamReader reader = SamReaderFactory.makeDefault().referenceSequence(context.getReferenceFile()).open(ses.getFile());
-			SAMRecordIterator rawIterator = reader.iterator();
+			SAMRecordIterator rawIterator = intervals == null ? reader.iterator() : reader.queryOverlapping(intervals);
 			rawIterator.assertSorted(SortOrder.coordinate);
 			CloseableIterator<SAMRecord> sit = new AsyncBufferedIterator<SAMRecord>(rawIterator, ses.getFile().getName() + "-Coverage");
 			toclose.add(sit); // close the async iterator first to prevent aysnc reading from a closed stream 
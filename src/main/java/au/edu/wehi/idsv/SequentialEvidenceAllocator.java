@@ -13,6 +13,7 @@ import org.apache.commons.lang.NotImplementedException;
 import org.apache.commons.lang3.StringUtils;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -38,6 +39,7 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 	private final ArrayDeque<VariantEvidenceSupport> variantBuffer = new ArrayDeque<VariantEvidenceSupport>();
 	private final Map<String, VariantEvidenceSupport> bufferedVariantId = new HashMap<String, VariantEvidenceSupport>();
 	private final SetMultimap<String, VariantEvidenceSupport> assemblyAllocationLookup = HashMultimap.create();
+	private final Function<VariantContextDirectedEvidence, StructuralVariationCallBuilder> supportAccumulator;
 	public class VariantEvidenceSupport {
 		private final String id;
 		private final String mateid;
@@ -46,10 +48,21 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 		//public final long endLocation;
 		private final BreakendSummary location;
 		private final float score;
+		/**
+		 * Evidence allocated to this variant.
+		 * Empty if evidence is being accumulated directly into the call builder.
+		 */
 		public final List<DirectedEvidence> support = new ArrayList<>();
+		/**
+		 * Call builder that allocated evidence has been added to.
+		 * Null if evidence is not being accumulated. 
+		 */
+		public final StructuralVariationCallBuilder builder;
+		private final List<DirectedEvidence> allocatedAssemblies = new ArrayList<>();
 		public final VariantContextDirectedEvidence variant;
 		private VariantEvidenceSupport(VariantContextDirectedEvidence call) {
 			this.variant = call;
+			this.builder = supportAccumulator == null ? null : supportAccumulator.apply(call);
 			this.id = call.hasID() ? call.getID() : null;
 			this.mateid = call.hasID() ? (String)call.getAttribute(VcfSvConstants.MATE_BREAKEND_ID_KEY, null) : null;
 			this.eventid = (String)call.getAttribute(VcfSvConstants.BREAKEND_EVENT_ID_KEY, null);
@@ -60,7 +73,14 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 			//this.endLocation = context.getLinear().getEndLinearCoordinate(this.location);
 		}
 		private void attributeEvidence(DirectedEvidence e) {
-			support.add(e);
+			if (builder != null) {
+				builder.addEvidence(e);
+			} else {
+				support.add(e);
+			}
+			if (AssemblyAttributes.isAssembly(e)) {
+				allocatedAssemblies.add(e);
+			}
 		}
 		public String toString() {
 			return String.format("%s %f %s", location, score, id);
@@ -115,7 +135,29 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 			Iterator<? extends DirectedEvidence> assemblies,
 			int maxCallWindowSize,
 			boolean assignEvidenceToSingleBreakpoint) {
+		this(context, calls, reads, assemblies, maxCallWindowSize, assignEvidenceToSingleBreakpoint, null);
+	}
+	/**
+	 * Creates an evidence allocator that adds evidence to call builders as it is allocated.
+	 * This avoids holding all evidence supporting a call in memory until the call is complete.
+	 * @param context processing context
+	 * @param calls variant calls ordered by position
+	 * @param evidence evidence order by breakend position
+	 * @param maxCallWindowSize
+	 * @param assignEvidenceToSingleBreakpoint uniquely assign evidence to only the highest scoring call
+	 * @param supportAccumulator creates the call builder to add allocated evidence to.
+	 * If null, allocated evidence is returned in {@link VariantEvidenceSupport#support}
+	 */
+	public SequentialEvidenceAllocator(
+			ProcessingContext context,
+			Iterator<? extends VariantContextDirectedEvidence> calls,
+			Iterator<? extends DirectedEvidence> reads,
+			Iterator<? extends DirectedEvidence> assemblies,
+			int maxCallWindowSize,
+			boolean assignEvidenceToSingleBreakpoint,
+			Function<VariantContextDirectedEvidence, StructuralVariationCallBuilder> supportAccumulator) {
 		this.context = context;
+		this.supportAccumulator = supportAccumulator;
 		this.maxCallRange = maxCallWindowSize;
 		this.callIt = calls;
 		this.readIt = Iterators.peekingIterator(reads);
@@ -185,11 +227,9 @@ public class SequentialEvidenceAllocator implements Iterator<SequentialEvidenceA
 		} else {
 			breakendLookup.remove(variant);
 		}
-		for (DirectedEvidence ass : variant.support) {
-			if (AssemblyAttributes.isAssembly(ass)) {
-				if (!assemblyAllocationLookup.remove(ass.getAssociatedAssemblyName(), variant) && assignEvidenceToSingleBreakpoint) {
-					log.debug("Sanity failure: failed to remove assembly from lookup. Multiple evidence from single assembly assigned to this variant?");
-				}
+		for (DirectedEvidence ass : variant.allocatedAssemblies) {
+			if (!assemblyAllocationLookup.remove(ass.getAssociatedAssemblyName(), variant) && assignEvidenceToSingleBreakpoint) {
+				log.debug("Sanity failure: failed to remove assembly from lookup. Multiple evidence from single assembly assigned to this variant?");
 			}
 		}
 		return variant;
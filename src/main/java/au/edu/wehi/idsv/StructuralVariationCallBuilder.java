@@ -6,6 +6,8 @@ import au.edu.wehi.idsv.vcf.VcfFormatAttributes;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
 import com.google.common.collect.*;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
 import gridss.cmdline.programgroups.Assembly;
 import htsjdk.samtools.Cigar;
 import htsjdk.samtools.CigarElement;
@@ -13,34 +15,57 @@ import htsjdk.samtools.CigarOperator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
 import htsjdk.variant.variantcontext.VariantContextBuilder;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.function.ToDoubleFunction;
-import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 import java.util.stream.DoubleStream;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+/**
+ * Annotates a variant call with the evidence supporting it.
+ * 
+ * Assembly evidence is retained until the call is made. Read evidence is folded
+ * into per-category accumulators as it is added. Supporting fragments are
+ * tracked as 64-bit hashes of their fragment IDs so the per-read state retained
+ * is limited to a hash per fragment, the evidence ID when deduplicating evidence,
+ * and the read name when supporting read names are to be written.
+ */
 public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 	private static final Log log = Log.getInstance(StructuralVariationCallBuilder.class);
+	private static final HashFunction FRAGMENT_HASH = Hashing.murmur3_128();
 	private final ProcessingContext processContext;
 	private final CalledBreakpointPositionLookup calledBreakpointLookup;
 	private final VariantContextDirectedEvidence parent;
 	private final Set<String> encounteredEvidenceIDs;
-	private final List<DirectedBreakpoint> supportingBreakpoint = new ArrayList<>();
-	private final List<DirectedEvidence> supportingBreakend = new ArrayList<>();
+	private final SupportStatistics breakpointSupport = new SupportStatistics();
+	private final SupportStatistics breakendSupport = new SupportStatistics();
+	private DirectedBreakpoint bestBreakpoint = null;
+	private DirectedEvidence bestBreakend = null;
 	// breakpoint support
-	private final List<List<SplitReadEvidence>> supportingSR = new ArrayList<>();
-	private final List<List<IndelEvidence>> supportingIndel = new ArrayList<>();
-	private final List<List<DiscordantReadPair>> supportingDP = new ArrayList<>();
+	private final ReadSupport supportingSR;
+	private final ReadSupport supportingIndel;
+	private final ReadSupport supportingDP;
 	private final List<SingleReadEvidence> supportingAS = new ArrayList<>();
 	private final List<SingleReadEvidence> supportingRAS = new ArrayList<>();
 	private final List<SingleReadEvidence> supportingCAS = new ArrayList<>();
+	private final List<SingleReadEvidence> supportingLongReadSR = new ArrayList<>();
 	// breakend support
-	private final List<List<SoftClipEvidence>> supportingSC = new ArrayList<>();
-	private final List<List<UnmappedMateReadPair>> supportingOEA = new ArrayList<>();
+	private final ReadSupport supportingSC;
+	private final ReadSupport supportingOEA;
 	private final List<SoftClipEvidence> supportingBAS = new ArrayList<>();
+	// read support tracking
+	private final RangeSet<Integer> readAnchoredBases = TreeRangeSet.create();
+	private final Map<String, AssemblyNonsupport> readsByAssociatedAssembly = new HashMap<>();
+	private final List<LongSet> breakpointReadFragments = new ArrayList<>();
+	private final List<LongSet> breakendReadFragments = new ArrayList<>();
+	private final List<String> breakpointReadNames;
+	private final List<String> breakendReadNames;
+	private int strandBiasReads = 0;
+	private float strandBiasStrandReads = 0;
 	private boolean updateReadInformation = true;
 	private boolean updateAssemblyInformation= true;
 	public StructuralVariationCallBuilder(ProcessingContext processContext, CalledBreakpointPositionLookup lookup, VariantContextDirectedEvidence parent) {
@@ -53,12 +78,80 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 		this.parent = parent;
 		this.encounteredEvidenceIDs = deduplicateEvidence ? new HashSet<String>() : null;
 		ensureGenotypeBuilders(processContext);
-		for (int i = 0; i < processContext.getCategoryCount(); i++) {
-			supportingSR.add(new ArrayList<>());
-			supportingIndel.add(new ArrayList<>());
-			supportingDP.add(new ArrayList<>());
-			supportingSC.add(new ArrayList<>());
-			supportingOEA.add(new ArrayList<>());
+		int categories = processContext.getCategoryCount();
+		this.supportingSR = new ReadSupport(categories);
+		this.supportingIndel = new ReadSupport(categories);
+		this.supportingDP = new ReadSupport(categories);
+		this.supportingSC = new ReadSupport(categories);
+		this.supportingOEA = new ReadSupport(categories);
+		for (int i = 0; i < categories; i++) {
+			breakpointReadFragments.add(new LongOpenHashSet());
+			breakendReadFragments.add(new LongOpenHashSet());
+		}
+		boolean trackReadNames = processContext.getConfig().getVariantCalling().includeSupportingReadNames;
+		this.breakpointReadNames = trackReadNames ? new ArrayList<>() : null;
+		this.breakendReadNames = trackReadNames ? new ArrayList<>() : null;
+	}
+	/**
+	 * Count and total quality score of supporting reads of a single evidence type.
+	 * 
+	 * Quality scores are summed with the same compensated summation as DoubleStream.sum()
+	 */
+	private static class ReadSupport {
+		private final int[] count;
+		private final DoubleSummaryStatistics[] qual;
+		private final DoubleSummaryStatistics totalQual = new DoubleSummaryStatistics();
+		public ReadSupport(int categories) {
+			this.count = new int[categories];
+			this.qual = new DoubleSummaryStatistics[categories];
+			for (int i = 0; i < categories; i++) {
+				this.qual[i] = new DoubleSummaryStatistics();
+			}
+		}
+		public void add(int category, double evidenceQual) {
+			count[category]++;
+			qual[category].accept(evidenceQual);
+			totalQual.accept(evidenceQual);
+		}
+		public void addAll(ReadSupport support) {
+			for (int i = 0; i < count.length; i++) {
+				count[i] += support.count[i];
+				qual[i].combine(support.qual[i]);
+			}
+			totalQual.combine(support.totalQual);
+		}
+		public double qual(int category) {
+			return qual[category].getSum();
+		}
+		public double totalQual() {
+			return totalQual.getSum();
+		}
+	}
+	/**
+	 * Supporting reads associated with an assembly.
+	 * These are considered non-supporting if the associated assembly does not support the call. 
+	 */
+	private static class AssemblyNonsupport {
+		private final ReadSupport dp;
+		private final ReadSupport sr;
+		public AssemblyNonsupport(int categories) {
+			this.dp = new ReadSupport(categories);
+			this.sr = new ReadSupport(categories);
+		}
+	}
+	/**
+	 * Mapping quality summary statistics 
+	 */
+	private static class SupportStatistics {
+		private int count = 0;
+		private final DoubleSummaryStatistics mapq = new DoubleSummaryStatistics();
+		private double maxMapq = Double.NEGATIVE_INFINITY;
+		private double minMapq = Double.POSITIVE_INFINITY;
+		public void add(double meanMapq, double maxMapq, double minMapq) {
+			this.count++;
+			this.mapq.accept(meanMapq);
+			this.maxMapq = Math.max(this.maxMapq, maxMapq);
+			this.minMapq = Math.min(this.minMapq, minMapq);
 		}
 	}
 	private static int deduplicationMessageCount = 0;
@@ -92,16 +185,31 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 			encounteredEvidenceIDs.add(eid);
 		}
 		if (evidence instanceof DirectedBreakpoint) {
-			supportingBreakpoint.add((DirectedBreakpoint)evidence);
+			DirectedBreakpoint bp = (DirectedBreakpoint)evidence;
+			breakpointSupport.add((bp.getLocalMapq() + bp.getRemoteMapq()) / 2, Math.max(bp.getLocalMapq(), bp.getRemoteMapq()), Math.min(bp.getLocalMapq(), bp.getRemoteMapq()));
+			if (ByBestBreakpointDesc.compare(bp, bestBreakpoint) < 0) {
+				bestBreakpoint = bp;
+			}
 		} else {
-			supportingBreakend.add(evidence);
+			breakendSupport.add(evidence.getLocalMapq(), evidence.getLocalMapq(), evidence.getLocalMapq());
+			if (ByBestBreakendDesc.compare(evidence, bestBreakend) < 0) {
+				bestBreakend = evidence;
+			}
 		}
 		int category = ((SAMEvidenceSource)evidence.getEvidenceSource()).getSourceCategory();
 		assert(category < processContext.getCategoryCount());
+		if (!AssemblyAttributes.isAssembly(evidence)) {
+			addReadSupport(evidence, category);
+		}
 		if (evidence instanceof DiscordantReadPair) {
-			supportingDP.get(category).add((DiscordantReadPair)evidence);
+			DiscordantReadPair dp = (DiscordantReadPair)evidence;
+			supportingDP.add(category, dp.getBreakpointQual());
+			processAnchor(readAnchoredBases, dp.getLocalledMappedRead());
+			if (dp.getAssociatedAssemblyName() != null) {
+				getAssemblyNonsupport(dp.getAssociatedAssemblyName()).dp.add(category, dp.getBreakpointQual());
+			}
 		} else if (evidence instanceof UnmappedMateReadPair) {
-			supportingOEA.get(category).add((UnmappedMateReadPair)evidence);
+			supportingOEA.add(category, evidence.getBreakendQual());
 		} else if (evidence instanceof SingleReadEvidence) {
 			SingleReadEvidence sre = (SingleReadEvidence) evidence; 
 			if (AssemblyAttributes.isAssembly(sre)) {
@@ -116,11 +224,21 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 					supportingAS.add((SingleReadEvidence)sre);
 				}
 			} else if (sre instanceof SoftClipEvidence) {
-				supportingSC.get(category).add((SoftClipEvidence)sre);
+				supportingSC.add(category, sre.getBreakendQual());
 			} else if (sre instanceof SplitReadEvidence) {
-				supportingSR.get(category).add((SplitReadEvidence)sre);
+				SplitReadEvidence sr = (SplitReadEvidence)sre;
+				supportingSR.add(category, sr.getBreakpointQual());
+				processAnchor(readAnchoredBases, sr.getSAMRecord());
+				if (sr.getAssociatedAssemblyName() != null) {
+					getAssemblyNonsupport(sr.getAssociatedAssemblyName()).sr.add(category, sr.getBreakpointQual());
+				}
+				if (sr.getEvidenceSource().isLongReadLibrary()) {
+					supportingLongReadSR.add(sr);
+				}
 			} else if (sre instanceof IndelEvidence) {
-				supportingIndel.get(category).add((IndelEvidence) evidence);
+				IndelEvidence ie = (IndelEvidence)sre;
+				supportingIndel.add(category, ie.getBreakpointQual());
+				processAnchor(readAnchoredBases, ie.getSAMRecord());
 			} else {
 				throw new IllegalArgumentException("Unknown evidence type " + evidence.getClass().getName());
 			}
@@ -129,6 +247,33 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 		}
 		return this;
 	}
+	private AssemblyNonsupport getAssemblyNonsupport(String assemblyName) {
+		return readsByAssociatedAssembly.computeIfAbsent(assemblyName, k -> new AssemblyNonsupport(processContext.getCategoryCount()));
+	}
+	/**
+	 * Tracks fragment, read name, and strand bias information for read evidence
+	 */
+	private void addReadSupport(DirectedEvidence evidence, int category) {
+		boolean isBreakpoint = evidence instanceof DirectedBreakpoint;
+		addFragments((isBreakpoint ? breakpointReadFragments : breakendReadFragments).get(category), evidence.getOriginatingFragmentID(category));
+		if (evidence instanceof SingleReadEvidence) {
+			strandBiasReads++;
+			strandBiasStrandReads += evidence.getStrandBias();
+		}
+		List<String> readNames = isBreakpoint ? breakpointReadNames : breakendReadNames;
+		if (readNames != null) {
+			if (evidence instanceof NonReferenceReadPair) {
+				readNames.add(((NonReferenceReadPair)evidence).getLocalledMappedRead().getReadName());
+			} else if (evidence instanceof SingleReadEvidence) {
+				readNames.add(((SingleReadEvidence)evidence).getSAMRecord().getReadName());
+			}
+		}
+	}
+	private static void addFragments(LongSet fragments, Collection<String> fragmentIDs) {
+		for (String fragmentID : fragmentIDs) {
+			fragments.add(FRAGMENT_HASH.hashString(fragmentID, StandardCharsets.UTF_8).asLong());
+		}
+	}
 	private static void processAnchor(RangeSet<Integer> anchoredBases, SAMRecord record) {
 		if (record.getReadUnmappedFlag()) return;
 		if (CigarUtil.widthOfImprecision(record.getCigar()) > 0) return; // unanchored
@@ -238,9 +383,6 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 		String untemplated = "";// = parent.getBreakpointSequenceString();
 		String homo = parent.getAttributeAsString(VcfSvConstants.HOMOLOGY_SEQUENCE_KEY, "");
 		if (isBreakend()) {
-			DirectedEvidence bestBreakend = supportingBreakend.stream()
-					.sorted(ByBestBreakendDesc)
-					.findFirst().orElse(null);
 			if (bestBreakend != null && bestBreakend.isBreakendExact()) {
 				untemplated = new String(bestBreakend.getBreakendSequence());
 				nominalPosition = bestBreakend.getBreakendSummary();
@@ -256,9 +398,6 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 			CalledBreakpointPositionLookup.NominalPosition np = calledBreakpointLookup.removeUpper(event);
 			boolean isExact;
 			if (np == null) {
-				DirectedBreakpoint bestBreakpoint = supportingBreakpoint.stream()
-						.sorted(ByBestBreakpointDesc)
-						.findFirst().orElse(null);
 				if (bestBreakpoint != null && bestBreakpoint.isBreakendExact()) {
 					untemplated = bestBreakpoint.getUntemplatedSequence();
 					nominalPosition = bestBreakpoint.getBreakendSummary().centreAligned();
@@ -296,11 +435,8 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 			rmAttribute(VcfSvConstants.HOMOLOGY_SEQUENCE_KEY);
 			rmAttribute(VcfSvConstants.HOMOLOGY_LENGTH_KEY);
 		}
-		RangeSet<Integer> allAnchoredBases = TreeRangeSet.create();
 		// TODO: per sample support cigar
-		supportingSR.stream().flatMap(l -> l.stream()).forEach(e -> processAnchor(allAnchoredBases, e.getSAMRecord()));
-		supportingIndel.stream().flatMap(l -> l.stream()).forEach(e -> processAnchor(allAnchoredBases, e.getSAMRecord()));
-		supportingDP.stream().flatMap(l -> l.stream()).forEach(e -> processAnchor(allAnchoredBases, e.getLocalledMappedRead()));
+		RangeSet<Integer> allAnchoredBases = TreeRangeSet.create(readAnchoredBases);
 		supportingAS.stream().filter(e -> !shouldfilterAssemblyFromSupportInterval(e)).forEach(e -> processAnchor(allAnchoredBases, e.getSAMRecord()));
 		supportingRAS.stream().filter(e -> !shouldfilterAssemblyFromSupportInterval(e)).forEach(e -> processAnchor(allAnchoredBases, e.getSAMRecord()));
 		supportingCAS.stream().filter(e -> !shouldfilterAssemblyFromSupportInterval(e)).forEach(e -> processAnchor(allAnchoredBases, e.getSAMRecord()));
@@ -333,13 +469,7 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 			suportingAssemblies.addAll(supportingBAS);
 			suportingAssemblies.sort(Comparator.comparing(o -> o.getSAMRecord().getReadName()));
 			// Track long read support as well
-			for (List<SplitReadEvidence> list : supportingSR) {
-				for (SingleReadEvidence read : list) {
-					if (read.getEvidenceSource().isLongReadLibrary()) {
-						suportingAssemblies.add(read);
-					}
-				}
-			}
+			suportingAssemblies.addAll(supportingLongReadSR);
 			if (suportingAssemblies.size() > 0) {
 				attribute(VcfInfoAttributes.BREAKEND_ASSEMBLY_ID, suportingAssemblies.stream()
 						.map(o -> o.getSAMRecord().getReadName())
@@ -361,42 +491,37 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 
 	private void updateSupportingReadNames() {
 		if (isUpdateAssemblyInformation() & isUpdateReadInformation()) {
-			List<String> supportingBreakpointNames = Streams.concat(
-					supportingIndel.stream().flatMap(l -> l.stream()).map(e -> e.getSAMRecord().getReadName()),
-					supportingSR.stream().flatMap(l -> l.stream()).map(e -> e.getSAMRecord().getReadName()),
-					supportingDP.stream().flatMap(l -> l.stream()).map(e -> e.getLocalledMappedRead().getReadName()))
-					.distinct()
-					.sorted()
-					.collect(Collectors.toList());
-			List<String> supportingBreakendNames = Streams.concat(
-					supportingSC.stream().flatMap(l -> l.stream()).map(e -> e.getSAMRecord().getReadName()),
-					supportingOEA.stream().flatMap(l -> l.stream()).map(e -> e.getLocalledMappedRead().getReadName()))
-					.distinct()
-					.sorted()
-					.collect(Collectors.toList());
-			attribute(VcfInfoAttributes.SUPPORTING_BREAKPOINT_READ_NAMES.attribute(), supportingBreakpointNames);
-			attribute(VcfInfoAttributes.SUPPORTING_BREAKEND_READ_NAMES.attribute(), supportingBreakendNames);
+			sortDistinct(breakpointReadNames);
+			sortDistinct(breakendReadNames);
+			attribute(VcfInfoAttributes.SUPPORTING_BREAKPOINT_READ_NAMES.attribute(), breakpointReadNames);
+			attribute(VcfInfoAttributes.SUPPORTING_BREAKEND_READ_NAMES.attribute(), breakendReadNames);
 		}
 	}
 
+	/**
+	 * Sorts the given list and removes duplicates in place
+	 */
+	private static void sortDistinct(List<String> list) {
+		Collections.sort(list);
+		int size = 0;
+		for (int i = 0; i < list.size(); i++) {
+			if (size == 0 || !list.get(i).equals(list.get(size - 1))) {
+				list.set(size++, list.get(i));
+			}
+		}
+		list.subList(size, list.size()).clear();
+	}
+
 	private void updateStrandBias(Map<SingleReadEvidence, AssemblyAttributes> aaLookup) {
 		if (isUpdateReadInformation()) {
 			// Calculate strand bias purely from direct read support
-			int reads = 0;
-			float strandReads = 0;
-			for (DirectedEvidence de : Iterables.concat(supportingBreakpoint, supportingBreakend)) {
-				if (de instanceof SingleReadEvidence) {
-					SingleReadEvidence e = (SingleReadEvidence) de;
-					if (AssemblyAttributes.isAssembly(e)) {
-						AssemblyAttributes aa = aaLookup.get(de);
-						int asmReads = aa.getSupportingReadCount(null, null, ImmutableSet.of(AssemblyEvidenceSupport.SupportType.Read), null);
-						reads += asmReads;
-						strandReads += aa.getStrandBias() * asmReads;
-					} else {
-						reads++;
-						strandReads += e.getStrandBias();
-					}
-				}
+			int reads = strandBiasReads;
+			float strandReads = strandBiasStrandReads;
+			for (SingleReadEvidence e : Iterables.concat(supportingAS, supportingRAS, supportingCAS, supportingBAS)) {
+				AssemblyAttributes aa = aaLookup.get(e);
+				int asmReads = aa.getSupportingReadCount(null, null, ImmutableSet.of(AssemblyEvidenceSupport.SupportType.Read), null);
+				reads += asmReads;
+				strandReads += aa.getStrandBias() * asmReads;
 			}
 			if (reads > 0) {
 				attribute(VcfInfoAttributes.STRAND_BIAS.attribute(), strandReads / reads);
@@ -410,14 +535,18 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 			Set<String> assNames = supportingAS.stream()
 					.map(e -> e.getAssociatedAssemblyName())
 					.collect(Collectors.toSet());
-			sumIntAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_COUNT, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_COUNT,
-					supportingDP, e -> (e.getAssociatedAssemblyName() != null && !assNames.contains(e.getAssociatedAssemblyName())) ? 1 : 0);
-			sumIntAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_COUNT, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_COUNT,
-					supportingSR, e -> (e.getAssociatedAssemblyName() != null && !assNames.contains(e.getAssociatedAssemblyName())) ? 1 : 0);
-			sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_QUAL, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_QUAL,
-					supportingDP, e -> (e.getAssociatedAssemblyName() != null && !assNames.contains(e.getAssociatedAssemblyName())) ? e.getBreakpointQual() : 0);
-			sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_QUAL, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_QUAL,
-					supportingSR, e -> (e.getAssociatedAssemblyName() != null && !assNames.contains(e.getAssociatedAssemblyName())) ? e.getBreakpointQual() : 0);
+			ReadSupport nonsupportingDP = new ReadSupport(processContext.getCategoryCount());
+			ReadSupport nonsupportingSR = new ReadSupport(processContext.getCategoryCount());
+			for (Map.Entry<String, AssemblyNonsupport> entry : readsByAssociatedAssembly.entrySet()) {
+				if (!assNames.contains(entry.getKey())) {
+					nonsupportingDP.addAll(entry.getValue().dp);
+					nonsupportingSR.addAll(entry.getValue().sr);
+				}
+			}
+			sumIntAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_COUNT, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_COUNT, nonsupportingDP);
+			sumIntAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_COUNT, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_COUNT, nonsupportingSR);
+			sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_QUAL, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_READPAIR_QUAL, nonsupportingDP);
+			sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_QUAL, VcfFormatAttributes.BREAKPOINT_ASSEMBLED_NONSUPPORTING_SPLITREAD_QUAL, nonsupportingSR);
 		}
 		if (isUpdateAssemblyInformation()) {
 			// Assembly breakdown
@@ -471,19 +600,13 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 			int[] supportingBreakendFragments = new int[processContext.getCategoryCount()];
 			for (int i = 0; i < processContext.getCategoryCount(); i++) {
 				final int category = i;
-				Set<String> bpfrags = supportingBreakpoint.stream()
-						.map(e -> {
-							return getOriginatingFragmentIDs(aaLookup, category, e);
-						})
-						.flatMap(x -> x.stream())
-						.collect(Collectors.toSet());
+				LongSet bpfrags = new LongOpenHashSet(breakpointReadFragments.get(category));
+				Stream.of(supportingAS.stream(), supportingRAS.stream(), supportingCAS.stream())
+						.flatMap(x -> x)
+						.forEach(e -> addFragments(bpfrags, getOriginatingFragmentIDs(aaLookup, category, e)));
 				supportingBreakpointFragments[category] = bpfrags.size();
-				Set<String> befrags = supportingBreakend.stream()
-						.map(e -> {
-							return getOriginatingFragmentIDs(aaLookup, category, e);
-						})
-						.flatMap(x -> x.stream())
-						.collect(Collectors.toSet());
+				LongSet befrags = new LongOpenHashSet(breakendReadFragments.get(category));
+				supportingBAS.forEach(e -> addFragments(befrags, getOriginatingFragmentIDs(aaLookup, category, e)));
 				befrags.removeAll(bpfrags);
 				supportingBreakendFragments[category] = befrags.size();
 
@@ -499,14 +622,14 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 		if (isUpdateAssemblyInformation() && isUpdateReadInformation()) {
 			attribute(VcfInfoAttributes.CALLED_QUAL.attribute(), parent.getPhredScaledQual());
 			double beQual = supportingBAS.stream().mapToDouble(e -> e.getBreakendQual()).sum()
-					+ supportingSC.stream().flatMap(l -> l.stream()).mapToDouble(e -> e.getBreakendQual()).sum()
-					+ supportingOEA.stream().flatMap(l -> l.stream()).mapToDouble(e -> e.getBreakendQual()).sum();
+					+ supportingSC.totalQual()
+					+ supportingOEA.totalQual();
 			double bpQual = supportingAS.stream().mapToDouble(e -> ((DirectedBreakpoint) e).getBreakpointQual()).sum()
 					+ supportingRAS.stream().mapToDouble(e -> ((DirectedBreakpoint) e).getBreakpointQual()).sum()
 					+ supportingCAS.stream().mapToDouble(e -> ((DirectedBreakpoint) e).getBreakpointQual()).sum()
-					+ supportingSR.stream().flatMap(l -> l.stream()).mapToDouble(e -> e.getBreakpointQual()).sum()
-					+ supportingIndel.stream().flatMap(l -> l.stream()).mapToDouble(e -> e.getBreakpointQual()).sum()
-					+ supportingDP.stream().flatMap(l -> l.stream()).mapToDouble(e -> e.getBreakpointQual()).sum();
+					+ supportingSR.totalQual()
+					+ supportingIndel.totalQual()
+					+ supportingDP.totalQual();
 			attribute(VcfInfoAttributes.BREAKEND_QUAL.attribute(), beQual);
 			phredScore(isBreakend() ? beQual : bpQual);
 		}
@@ -531,17 +654,16 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 		double[] scq = null;
 		double[] umq = null;
 		if (isUpdateReadInformation()) {
-			sumIntAttr(VcfInfoAttributes.BREAKPOINT_SPLITREAD_COUNT, VcfFormatAttributes.BREAKPOINT_SPLITREAD_COUNT, supportingSR, e -> 1);
-			sumIntAttr(VcfInfoAttributes.BREAKPOINT_INDEL_COUNT, VcfFormatAttributes.BREAKPOINT_INDEL_COUNT, supportingIndel, e -> 1);
-			sumIntAttr(VcfInfoAttributes.BREAKPOINT_READPAIR_COUNT, VcfFormatAttributes.BREAKPOINT_READPAIR_COUNT, supportingDP, e -> 1);
-			sumIntAttr(VcfInfoAttributes.BREAKEND_SOFTCLIP_COUNT, VcfFormatAttributes.BREAKEND_SOFTCLIP_COUNT, supportingSC, e -> 1);
-			sumIntAttr(VcfInfoAttributes.BREAKEND_UNMAPPEDMATE_COUNT, VcfFormatAttributes.BREAKEND_UNMAPPEDMATE_COUNT, supportingOEA, e -> 1);
-			srq = sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_SPLITREAD_QUAL, VcfFormatAttributes.BREAKPOINT_SPLITREAD_QUAL, supportingSR, e -> e.getBreakpointQual());
-			iq = sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_INDEL_QUAL, VcfFormatAttributes.BREAKPOINT_INDEL_QUAL, supportingIndel, e -> e.getBreakpointQual());
-			rpq = sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_READPAIR_QUAL, VcfFormatAttributes.BREAKPOINT_READPAIR_QUAL, supportingDP, e -> e.getBreakpointQual());
-			scq = sumDoubleAttr(VcfInfoAttributes.BREAKEND_SOFTCLIP_QUAL, VcfFormatAttributes.BREAKEND_SOFTCLIP_QUAL, supportingSC, e -> e.getBreakendQual());
-			umq = sumDoubleAttr(VcfInfoAttributes.BREAKEND_UNMAPPEDMATE_QUAL, VcfFormatAttributes.BREAKEND_UNMAPPEDMATE_QUAL, supportingOEA, e -> e.getBreakendQual());
-			sumDoubleAttr(VcfInfoAttributes.BREAKEND_UNMAPPEDMATE_QUAL, VcfFormatAttributes.BREAKEND_UNMAPPEDMATE_QUAL, supportingOEA, e -> e.getBreakendQual());
+			sumIntAttr(VcfInfoAttributes.BREAKPOINT_SPLITREAD_COUNT, VcfFormatAttributes.BREAKPOINT_SPLITREAD_COUNT, supportingSR);
+			sumIntAttr(VcfInfoAttributes.BREAKPOINT_INDEL_COUNT, VcfFormatAttributes.BREAKPOINT_INDEL_COUNT, supportingIndel);
+			sumIntAttr(VcfInfoAttributes.BREAKPOINT_READPAIR_COUNT, VcfFormatAttributes.BREAKPOINT_READPAIR_COUNT, supportingDP);
+			sumIntAttr(VcfInfoAttributes.BREAKEND_SOFTCLIP_COUNT, VcfFormatAttributes.BREAKEND_SOFTCLIP_COUNT, supportingSC);
+			sumIntAttr(VcfInfoAttributes.BREAKEND_UNMAPPEDMATE_COUNT, VcfFormatAttributes.BREAKEND_UNMAPPEDMATE_COUNT, supportingOEA);
+			srq = sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_SPLITREAD_QUAL, VcfFormatAttributes.BREAKPOINT_SPLITREAD_QUAL, supportingSR);
+			iq = sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_INDEL_QUAL, VcfFormatAttributes.BREAKPOINT_INDEL_QUAL, supportingIndel);
+			rpq = sumDoubleAttr(VcfInfoAttributes.BREAKPOINT_READPAIR_QUAL, VcfFormatAttributes.BREAKPOINT_READPAIR_QUAL, supportingDP);
+			scq = sumDoubleAttr(VcfInfoAttributes.BREAKEND_SOFTCLIP_QUAL, VcfFormatAttributes.BREAKEND_SOFTCLIP_QUAL, supportingSC);
+			umq = sumDoubleAttr(VcfInfoAttributes.BREAKEND_UNMAPPEDMATE_QUAL, VcfFormatAttributes.BREAKEND_UNMAPPEDMATE_QUAL, supportingOEA);
 		}
 		if (isUpdateAssemblyInformation() && isUpdateReadInformation()) {
 			for (int i = 0; i < processContext.getCategoryCount(); i++) {
@@ -550,15 +672,15 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 			}
 		}
 		if (isUpdateReadInformation()) {
-			if (supportingBreakend.size() > 0) {
-				attribute(VcfInfoAttributes.BREAKEND_MEAN_SUPPORTING_MAPQ, supportingBreakend.stream().mapToDouble(de -> de.getLocalMapq()).average().getAsDouble());
-				attribute(VcfInfoAttributes.BREAKEND_MAX_SUPPORTING_MAPQ, supportingBreakend.stream().mapToDouble(de -> de.getLocalMapq()).max().getAsDouble());
-				attribute(VcfInfoAttributes.BREAKEND_MIN_SUPPORTING_MAPQ, supportingBreakend.stream().mapToDouble(de -> de.getLocalMapq()).min().getAsDouble());
+			if (breakendSupport.count > 0) {
+				attribute(VcfInfoAttributes.BREAKEND_MEAN_SUPPORTING_MAPQ, breakendSupport.mapq.getAverage());
+				attribute(VcfInfoAttributes.BREAKEND_MAX_SUPPORTING_MAPQ, breakendSupport.maxMapq);
+				attribute(VcfInfoAttributes.BREAKEND_MIN_SUPPORTING_MAPQ, breakendSupport.minMapq);
 			}
-			if (supportingBreakpoint.size() > 0) {
-				attribute(VcfInfoAttributes.MEAN_SUPPORTING_MAPQ, supportingBreakpoint.stream().mapToDouble(de -> (de.getLocalMapq() + de.getRemoteMapq()) / 2).average().getAsDouble());
-				attribute(VcfInfoAttributes.MAX_SUPPORTING_MAPQ, supportingBreakpoint.stream().mapToDouble(de -> Math.max(de.getLocalMapq(), de.getRemoteMapq())).max().getAsDouble());
-				attribute(VcfInfoAttributes.MIN_SUPPORTING_MAPQ, supportingBreakpoint.stream().mapToDouble(de -> Math.min(de.getLocalMapq(), de.getRemoteMapq())).min().getAsDouble());
+			if (breakpointSupport.count > 0) {
+				attribute(VcfInfoAttributes.MEAN_SUPPORTING_MAPQ, breakpointSupport.mapq.getAverage());
+				attribute(VcfInfoAttributes.MAX_SUPPORTING_MAPQ, breakpointSupport.maxMapq);
+				attribute(VcfInfoAttributes.MIN_SUPPORTING_MAPQ, breakpointSupport.minMapq);
 			}
 		}
 	}
@@ -604,30 +726,28 @@ public class StructuralVariationCallBuilder extends IdsvVariantContextBuilder {
 		attribute(infoAttr.attribute(), totalAssQual);
 		return prorata;
 	}
-	private <T> void sumIntAttr(
+	private void sumIntAttr(
 			VcfInfoAttributes infoAttr,
 			VcfFormatAttributes formatAttr,
-			List<List<T>> support,
-			ToIntFunction<T> f) {
-		assert(support.size() == processContext.getCategoryCount());
+			ReadSupport support) {
+		assert(support.count.length == processContext.getCategoryCount());
 		int sum = 0;
-		for (int i = 0; i < support.size(); i++) {
-			int value = support.get(i).stream().mapToInt(f).sum();
+		for (int i = 0; i < support.count.length; i++) {
+			int value = support.count[i];
 			genotypeBuilder.get(i).attribute(formatAttr.attribute(), value);
 			sum += value;
 		}
 		attribute(infoAttr, sum);
 	}
-	private <T extends DirectedEvidence> double[] sumDoubleAttr(
+	private double[] sumDoubleAttr(
 			VcfInfoAttributes infoAttr,
 			VcfFormatAttributes formatAttr,
-			List<List<T>> support,
-			ToDoubleFunction<T> f) {
-		assert(support.size() == processContext.getCategoryCount());
+			ReadSupport support) {
+		assert(support.qual.length == processContext.getCategoryCount());
 		double sum = 0;
 		double[] result = new double[processContext.getCategoryCount()]; 
-		for (int i = 0; i < support.size(); i++) {
-			double value = support.get(i).stream().mapToDouble(f).sum();
+		for (int i = 0; i < support.qual.length; i++) {
+			double value = support.qual(i);
 			genotypeBuilder.get(i).attribute(formatAttr.attribute(), value);
 			sum += value;
 			result[i] = value;
@@ -1,8 +1,6 @@
 package au.edu.wehi.idsv;
 
-import au.edu.wehi.idsv.util.BatchingIterator;
-import au.edu.wehi.idsv.util.DuplicatingIterable;
-import au.edu.wehi.idsv.util.FlatMapIterator;
+import au.edu.wehi.idsv.util.PartitioningIterable;
 import au.edu.wehi.idsv.visualisation.StateTracker;
 import au.edu.wehi.idsv.visualisation.TrackedState;
 import com.google.common.collect.ImmutableList;
@@ -30,7 +28,7 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 	private static final int ITERATOR_BUFFER_SIZE = 256;
 	private final VariantContextDirectedEvidence endOfStream;
 	private final ProcessingContext processContext;
-	private final DuplicatingIterable<List<DirectedEvidence>> iterable;
+	private final PartitioningIterable<DirectedEvidence> iterable;
 	private final QueryInterval[] filterInterval;
 	private final BlockingDeque<VariantContextDirectedEvidence> outBuffer = new LinkedBlockingDeque<>(ITERATOR_BUFFER_SIZE);
 	private VariantContextDirectedEvidence outBufferHeadNextValidRecord = null;
@@ -48,13 +46,14 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 		this.processContext = processContext;
 		boolean callBreakends = processContext.getVariantCallingParameters().callBreakends;
 		this.activeIterators = callBreakends ? 6 : 4;
-		this.iterable = new DuplicatingIterable<>(activeIterators, new BatchingIterator<>(evidence, ITERATOR_BUFFER_SIZE), 2);
+		// route each piece of evidence to the only caller that can use it
+		this.iterable = new PartitioningIterable<>(activeIterators, evidence, e -> partition(e, callBreakends), ITERATOR_BUFFER_SIZE, 2);
 		this.filterInterval = interval;
 		for (BreakendDirection localDir : BreakendDirection.values()) {
 			for (BreakendDirection remoteDir : BreakendDirection.values()) {
 				MaximalEvidenceCliqueIterator it = new MaximalEvidenceCliqueIterator(
 						processContext,
-						new FlatMapIterator<>(this.iterable.iterator()),
+						this.iterable.iterator(breakpointPartition(localDir, remoteDir)),
 						localDir,
 						remoteDir,
 						new SequentialIdGenerator(String.format("gridss%d%s%s_", Math.max(intervalNumber, 0), localDir.toChar(), remoteDir.toChar())));
@@ -63,13 +62,33 @@ public class VariantCallIterator implements CloseableIterator<VariantContextDire
 			if (callBreakends) {
 				BreakendMaximalEvidenceCliqueIterator it = new BreakendMaximalEvidenceCliqueIterator(
 						processContext,
-						new FlatMapIterator<>(this.iterable.iterator()),
+						this.iterable.iterator(breakendPartition(localDir)),
 						localDir,
 						new SequentialIdGenerator(String.format("gridss%d%s_", Math.max(intervalNumber, 0), localDir.toChar())));
 				async.add(new AsyncDirectionalIterator(it, localDir, null));
 			}
 		}
 	}
+	private static int breakpointPartition(BreakendDirection localDir, BreakendDirection remoteDir) {
+		return 2 * localDir.ordinal() + remoteDir.ordinal();
+	}
+	private static int breakendPartition(BreakendDirection dir) {
+		return 4 + dir.ordinal();
+	}
+	/**
+	 * Determines which caller the given evidence contributes to
+	 * @return partition of the caller, or -1 if the evidence is not used for variant calling
+	 */
+	private static int partition(DirectedEvidence e, boolean callBreakends) {
+		BreakendSummary bs = e.getBreakendSummary();
+		if (bs instanceof BreakpointSummary) {
+			return breakpointPartition(bs.direction, ((BreakpointSummary)bs).direction2);
+		}
+		if (!callBreakends || e instanceof DirectedBreakpoint) {
+			return -1;
+		}
+		return breakendPartition(bs.direction);
+	}
 	public VariantCallIterator(ProcessingContext processContext, Iterator<DirectedEvidence> evidence) {
 		this(processContext, evidence, null, -1);
 	}
@@ -2,10 +2,14 @@ package au.edu.wehi.idsv;
 
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.vcf.BinaryVcfCodec;
 import au.edu.wehi.idsv.vcf.VcfFileUtil;
 import com.google.common.util.concurrent.MoreExecutors;
 import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.Log;
+import htsjdk.samtools.util.SortingCollection;
+import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 
 import java.io.File;
@@ -14,6 +18,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 
 /**
@@ -33,6 +38,19 @@ public class VariantCaller {
 		this.assemblyEvidence = assemblyEvidence;
 	}
 	public void callBreakends(File vcf, ExecutorService threadpool) throws IOException {
+		callBreakends(vcf, threadpool, 0, 1);
+	}
+	/**
+	 * Calls structural variants
+	 * @param vcf output VCF
+	 * @param threadpool worker thread pool
+	 * @param jobNodeIndex zero-based index of this job
+	 * @param jobNodes total number of jobs variant calling has been spread across.
+	 *                 When multiple jobs are used, only the chunks allocated to this job are called
+	 *                 and the output needs to be gathered using {@link #gatherBreakends(ProcessingContext, File)}
+	 * @throws IOException
+	 */
+	public void callBreakends(File vcf, ExecutorService threadpool, int jobNodeIndex, int jobNodes) throws IOException {
 		samEvidence.stream().forEach(ses -> ses.assertPreprocessingComplete());
 		for (AssemblyEvidenceSource aes : assemblyEvidence) {
 			aes.assertPreprocessingComplete();
@@ -42,33 +60,56 @@ public class VariantCaller {
 			threadpool = MoreExecutors.newDirectExecutorService();
 		}
 		AggregateEvidenceSource es = new AggregateEvidenceSource(processContext, samEvidence, assemblyEvidence, SAMEvidenceSource.EvidenceSortOrder.EvidenceStartPosition);
-		List<QueryInterval[]> chunks = processContext.getReference().getIntervals(processContext.getConfig().chunkSize, processContext.getConfig().chunkSequenceChangePenalty);
-		List<File> calledChunk = new ArrayList<>();
+		List<QueryInterval[]> chunks = getChunks(processContext);
 		List<Future<Void>> tasks = new ArrayList<>();
 		
 		for (int i = 0; i < chunks.size(); i++) {
-			QueryInterval[] chunk = chunks.get(i);
-			File f = processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i);
-			int chunkNumber = i;
-			calledChunk.add(f);
-			if (!f.exists()) {
-				tasks.add(threadpool.submit(() -> { callChunk(f, es, chunkNumber, chunk); return null; }));
+			if (i % jobNodes == jobNodeIndex) {
+				QueryInterval[] chunk = chunks.get(i);
+				File f = processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i);
+				int chunkNumber = i;
+				if (!f.exists()) {
+					tasks.add(threadpool.submit(() -> { callChunk(f, es, chunkNumber, chunk); return null; }));
+				}
 			}
 		}
 		runTasks(tasks);
-		
+		log.info(String.format("Breakpoint identification complete (node %d, %d total)", jobNodeIndex, jobNodes));
+		if (jobNodes > 1) {
+			log.info("Not merging identified breakpoints since not all chunks were called.");
+			return;
+		}
+		gatherBreakends(processContext, vcf);
+	}
+	private static List<QueryInterval[]> getChunks(ProcessingContext processContext) {
+		return processContext.getReference().getIntervals(processContext.getConfig().chunkSize, processContext.getConfig().chunkSequenceChangePenalty);
+	}
+	/**
+	 * Merges the per-chunk variant calls into the final output VCF
+	 * @param processContext processing context. Chunking configuration must match that used for variant calling.
+	 * @param vcf output VCF
+	 * @throws IOException
+	 */
+	public static void gatherBreakends(ProcessingContext processContext, File vcf) throws IOException {
+		List<File> calledChunk = new ArrayList<>();
+		for (int i = 0; i < getChunks(processContext).size(); i++) {
+			calledChunk.add(processContext.getFileSystemContext().getVariantCallChunkVcf(vcf, i));
+		}
+		List<File> missing = calledChunk.stream().filter(f -> !f.exists()).collect(Collectors.toList());
+		if (missing.size() > 0) {
+			String msg = String.format("Unable to merge identified breakpoints: %d of %d chunks have not been called (including %s). "
+					+ "Ensure all variant calling jobs have completed successfully.", missing.size(), calledChunk.size(), missing.get(0));
+			log.error(msg);
+			throw new IllegalStateException(msg);
+		}
 		log.info("Merging identified breakpoints");
-		File mergedOut = FileSystemContext.getWorkingFileFor(vcf, "gridss.merged.");
-		VcfFileUtil.concat(processContext.getReference().getSequenceDictionary(), calledChunk, mergedOut);
-		
-		log.info("Sorting identified breakpoints");
-		VcfFileUtil.sort(processContext, mergedOut, vcf);
+		// each chunk is sorted when called so a merge is sufficient
+		VcfFileUtil.merge(processContext, calledChunk, vcf, IdsvVariantContext.VariantContextByLocationStart(processContext.getDictionary()));
 		// clean up chunked
 		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
 			for (File f : calledChunk) {
 				FileHelper.delete(f, true);
 			}
-			FileHelper.delete(mergedOut, true);
 		}
 	}
 	private void runTasks(List<Future<Void>> tasks) {
@@ -95,8 +136,17 @@ public class VariantCaller {
 					processContext.getDictionary().getSequence(chunk[chunk.length - 1].referenceIndex).getSequenceName(), chunk[chunk.length - 1].end);
 			String msg = "calling maximal cliques in " + chunkMsg;
 			File tmp = new File(output.getParent(), "gridss.tmp." + output.getName());
-			try (VariantCallIterator rawit = new VariantCallIterator(es, chunk, chunkNumber)) {
-				try (VariantContextWriter vcfWriter = processContext.getVariantContextWriter(tmp, false)) {
+			// Calls are output in clique order with each remote breakend immediately following its partner.
+			// Sorting each chunk as it is called allows the chunks to be merged instead of sorted.
+			// Every concurrently called chunk has its own collection so only a small number of calls are held in memory per chunk
+			SortingCollection<VariantContext> collection = SortingCollection.newInstance(
+					VariantContext.class,
+					new BinaryVcfCodec(processContext.getVariantContextHeader()),
+					IdsvVariantContext.VariantContextByLocationStart(processContext.getDictionary()),
+					Math.min(gridss.Defaults.VARIANT_CALL_CHUNK_RECORDS_IN_RAM, processContext.getFileSystemContext().getMaxBufferedRecordsPerFile()),
+					processContext.getFileSystemContext().getTemporaryDirectory().toPath());
+			try {
+				try (VariantCallIterator rawit = new VariantCallIterator(es, chunk, chunkNumber)) {
 					log.info("Start ", msg);
 					try (AsyncBufferedIterator<VariantContextDirectedEvidence> it = new AsyncBufferedIterator<>(rawit, "VariantCaller " + chunkMsg)) {
 						while (it.hasNext()) {
@@ -104,11 +154,21 @@ public class VariantCaller {
 							if (loc.getBreakendQual() >= processContext.getVariantCallingParameters().minScore || processContext.getVariantCallingParameters().writeFiltered) {
 								// If we're under min score with all possible evidence allocated, we're definitely going to fail
 								// when we restrict evidence to single breakpoint support
-								vcfWriter.add(loc);
+								collection.add(loc);
 							}
 						}
 					}
 				}
+				collection.doneAdding();
+				try (VariantContextWriter vcfWriter = processContext.getVariantContextWriter(tmp, false)) {
+					try (CloseableIterator<VariantContext> it = collection.iterator()) {
+						while (it.hasNext()) {
+							vcfWriter.add(it.next());
+						}
+					}
+				}
+			} finally {
+				collection.cleanup();
 			}
 			try {
 				FileHelper.move(tmp, output, true);
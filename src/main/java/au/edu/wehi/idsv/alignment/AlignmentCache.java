@@ -0,0 +1,165 @@
+package au.edu.wehi.idsv.alignment;
+
+import htsjdk.samtools.Cigar;
+import htsjdk.samtools.CigarOperator;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.Log;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded least recently used cache of aligner output keyed by read sequence.
+ *
+ * Cached alignments are returned as copies with the read name and base qualities
+ * of the requesting read. When base qualities are not part of the cache key,
+ * the aligner is assumed to ignore base qualities when performing alignment (as bwa mem does).
+ *
+ * This class is not thread-safe.
+ */
+public class AlignmentCache {
+	private static final Log log = Log.getInstance(AlignmentCache.class);
+	private final int maxSize;
+	private final boolean keyOnBaseQualities;
+	private final Map<String, Entry> cache;
+	private long hits = 0;
+	private long misses = 0;
+	/**
+	 * Alignments of a single read sequence
+	 */
+	public static class Entry {
+		private final List<SAMRecord> alignments = new ArrayList<>(2);
+		private boolean complete = false;
+		public List<SAMRecord> getAlignments() {
+			return alignments;
+		}
+		/**
+		 * Indicates whether all aligner output for this sequence has been received
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+		public void add(SAMRecord r) {
+			alignments.add(r);
+		}
+		public void complete() {
+			complete = true;
+		}
+	}
+	/**
+	 * @param maxSize maximum number of distinct sequences to cache
+	 * @param keyOnBaseQualities include base qualities in the cache key.
+	 *                           This should be set if the aligner uses base qualities during alignment.
+	 */
+	public AlignmentCache(int maxSize, boolean keyOnBaseQualities) {
+		if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive");
+		this.maxSize = maxSize;
+		this.keyOnBaseQualities = keyOnBaseQualities;
+		this.cache = createLruMap(maxSize);
+	}
+	private static <V> Map<String, V> createLruMap(int maxSize) {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+	public String getKey(FastqRecord fq) {
+		if (keyOnBaseQualities) {
+			return fq.getReadString() + '\t' + fq.getBaseQualityString();
+		}
+		return fq.getReadString();
+	}
+	/**
+	 * Looks up the alignments for the given read.
+	 * @return cached alignments, null if the sequence is not cached.
+	 * The returned entry is not necessarily complete as alignment of the sequence could still be in progress.
+	 */
+	public Entry get(FastqRecord fq) {
+		Entry entry = cache.get(getKey(fq));
+		if (entry == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return entry;
+	}
+	/**
+	 * Adds an empty entry for the given read
+	 * @return new cache entry
+	 */
+	public Entry add(FastqRecord fq) {
+		Entry entry = new Entry();
+		cache.put(getKey(fq), entry);
+		return entry;
+	}
+	/**
+	 * Creates a key-only copy of this cache with the same eviction order.
+	 * Performing the same lookups and insertions against both results in the same evictions,
+	 * allowing cache misses to be determined ahead of time.
+	 */
+	public Map<String, Boolean> createShadow() {
+		Map<String, Boolean> shadow = createLruMap(maxSize);
+		// iteration order of an access-ordered map is least to most recently used
+		for (String key : cache.keySet()) {
+			shadow.put(key, Boolean.TRUE);
+		}
+		return shadow;
+	}
+	/**
+	 * Copies the given cached alignment so it appears to be an alignment of the given read.
+	 * @param r cached alignment
+	 * @param fq read to create alignment for
+	 * @return alignment of fq
+	 */
+	public static SAMRecord restore(SAMRecord r, FastqRecord fq) {
+		SAMRecord result = r.deepCopy();
+		result.setReadName(fq.getReadName());
+		byte[] quals = fq.getBaseQualities();
+		if (result.getBaseQualities() != SAMRecord.NULL_QUALS && result.getBaseQualities().length > 0 && quals != null && quals.length > 0) {
+			if (result.getReadNegativeStrandFlag()) {
+				ArrayUtils.reverse(quals);
+			}
+			int start = 0;
+			int end = quals.length;
+			Cigar cigar = result.getCigar();
+			if (cigar != null && !cigar.isEmpty()) {
+				if (cigar.getFirstCigarElement().getOperator() == CigarOperator.HARD_CLIP) {
+					start += cigar.getFirstCigarElement().getLength();
+				}
+				if (cigar.numCigarElements() > 1 && cigar.getLastCigarElement().getOperator() == CigarOperator.HARD_CLIP) {
+					end -= cigar.getLastCigarElement().getLength();
+				}
+			}
+			if (end - start == result.getBaseQualities().length) {
+				result.setBaseQualities(Arrays.copyOfRange(quals, start, end));
+			}
+		}
+		return result;
+	}
+	/**
+	 * Number of requests for sequences that were in the cache
+	 */
+	public long getHits() {
+		return hits;
+	}
+	/**
+	 * Number of requests for sequences that were not in the cache
+	 */
+	public long getMisses() {
+		return misses;
+	}
+	public double getHitRate() {
+		long total = hits + misses;
+		return total == 0 ? 0 : hits / (double)total;
+	}
+	public void logStatistics(String name) {
+		log.info(String.format("%s alignment cache: %d hits, %d misses (%.1f%% hit rate)", name, hits, misses, 100 * getHitRate()));
+	}
+}
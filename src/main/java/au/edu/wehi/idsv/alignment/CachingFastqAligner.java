@@ -0,0 +1,111 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.FileSystemContext;
+import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
+import htsjdk.samtools.*;
+import htsjdk.samtools.fastq.BasicFastqWriter;
+import htsjdk.samtools.fastq.FastqReader;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.fastq.FastqWriter;
+import htsjdk.samtools.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Fastq aligner that only sends each distinct sequence to the underlying aligner once.
+ *
+ * The distinct uncached sequences are aligned by the underlying aligner and the
+ * output for every input read is then generated in input order from the cache.
+ * As the cache persists between invocations, sequences aligned by earlier invocations
+ * are not realigned.
+ */
+public class CachingFastqAligner implements FastqAligner {
+	private static final Log log = Log.getInstance(CachingFastqAligner.class);
+	private final FastqAligner underlying;
+	private final AlignmentCache cache;
+	private final SamReaderFactory readerFactory;
+	private final SAMFileWriterFactory writerFactory;
+	private SAMFileHeader header = null;
+	public CachingFastqAligner(FastqAligner underlying, AlignmentCache cache, SamReaderFactory readerFactory, SAMFileWriterFactory writerFactory) {
+		this.underlying = underlying;
+		this.cache = cache;
+		this.readerFactory = readerFactory;
+		this.writerFactory = writerFactory;
+	}
+	public AlignmentCache getCache() {
+		return cache;
+	}
+	@Override
+	public synchronized void align(File fastq, File output, File reference, int threads, SAMSequenceDictionary dict) throws IOException {
+		File uniqueFastq = FileSystemContext.getWorkingFileFor(new File(output.getPath() + ".fq"), "gridss.tmp.cached.");
+		File uniqueAligned = FileSystemContext.getWorkingFileFor(output, "gridss.tmp.cached.");
+		try {
+			int uniqueReads = writeUncachedReads(fastq, uniqueFastq);
+			if (uniqueReads > 0 || header == null) {
+				underlying.align(uniqueFastq, uniqueAligned, reference, threads, dict);
+			}
+			try (SamReader reader = uniqueReads > 0 || header == null ? readerFactory.open(uniqueAligned) : null) {
+				if (reader != null) {
+					header = reader.getFileHeader();
+				}
+				PeekingIterator<SAMRecord> it = reader == null ? Iterators.peekingIterator(Collections.emptyIterator()) : Iterators.peekingIterator(reader.iterator());
+				try (SAMFileWriter writer = writerFactory.clone().setCompressionLevel(0).makeWriter(header, false, output, reference)) {
+					writeAlignments(fastq, it, writer);
+				}
+			}
+			log.debug(String.format("Aligned %d distinct uncached reads from %s", uniqueReads, fastq));
+			cache.logStatistics(fastq.getName());
+		} finally {
+			FileHelper.delete(uniqueFastq, true);
+			FileHelper.delete(uniqueAligned, true);
+		}
+	}
+	/**
+	 * Writes reads that will not be found in the cache
+	 * @return number of reads written
+	 */
+	private int writeUncachedReads(File fastq, File uniqueFastq) {
+		// mirror the lookups that will be made when writing the output so we know which reads will not be cached
+		Map<String, Boolean> shadow = cache.createShadow();
+		int id = 0;
+		try (FastqReader reader = new FastqReader(fastq)) {
+			try (FastqWriter writer = new BasicFastqWriter(uniqueFastq)) {
+				for (FastqRecord fq : reader) {
+					String key = cache.getKey(fq);
+					if (shadow.get(key) == null) {
+						shadow.put(key, Boolean.TRUE);
+						writer.write(new FastqRecord(Integer.toString(id++), fq.getReadBases(), fq.getBaseQualityHeader(), fq.getBaseQualities()));
+					}
+				}
+			}
+		}
+		return id;
+	}
+	private void writeAlignments(File fastq, PeekingIterator<SAMRecord> it, SAMFileWriter writer) {
+		int id = 0;
+		try (FastqReader reader = new FastqReader(fastq)) {
+			for (FastqRecord fq : reader) {
+				AlignmentCache.Entry entry = cache.get(fq);
+				if (entry == null) {
+					entry = cache.add(fq);
+					String readName = Integer.toString(id++);
+					while (it.hasNext() && it.peek().getReadName().equals(readName)) {
+						entry.add(it.next());
+					}
+					entry.complete();
+				}
+				for (SAMRecord r : entry.getAlignments()) {
+					writer.addAlignment(AlignmentCache.restore(r, fq));
+				}
+			}
+		}
+		if (it.hasNext()) {
+			throw new IllegalStateException(String.format("Aligner returned alignment for unexpected read %s. Aligner output must match input order.", it.peek().getReadName()));
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package au.edu.wehi.idsv.alignment;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+/**
+ * Streaming aligner that only sends each distinct sequence to the underlying aligner once.
+ *
+ * Reads with a sequence that is already cached, or currently being aligned, are
+ * resolved from the cache. Alignments are returned in request order.
+ *
+ * The underlying aligner is sent reads with internal read names so the boundary
+ * between the alignments of consecutive reads can be determined. The alignments
+ * of the most recently aligned read are withheld until either the alignments of the
+ * next read are returned, or the aligner is flushed.
+ */
+public class CachingStreamingAligner implements StreamingAligner {
+	private final StreamingAligner underlying;
+	private final AlignmentCache cache;
+	/**
+	 * Requests that have not yet been returned, in request order
+	 */
+	private final ArrayDeque<Request> requests = new ArrayDeque<>();
+	/**
+	 * Entries sent to the underlying aligner that have not yet completed, in submission order
+	 */
+	private final ArrayDeque<Submission> inflight = new ArrayDeque<>();
+	private final ArrayDeque<SAMRecord> output = new ArrayDeque<>();
+	private long nextId = 0;
+	private static class Request {
+		private final FastqRecord fq;
+		private final AlignmentCache.Entry entry;
+		public Request(FastqRecord fq, AlignmentCache.Entry entry) {
+			this.fq = fq;
+			this.entry = entry;
+		}
+	}
+	private static class Submission {
+		private final String readName;
+		private final AlignmentCache.Entry entry;
+		public Submission(String readName, AlignmentCache.Entry entry) {
+			this.readName = readName;
+			this.entry = entry;
+		}
+	}
+	public CachingStreamingAligner(StreamingAligner underlying, AlignmentCache cache) {
+		this.underlying = underlying;
+		this.cache = cache;
+	}
+	public AlignmentCache getCache() {
+		return cache;
+	}
+	@Override
+	public synchronized void asyncAlign(FastqRecord fq) throws IOException {
+		AlignmentCache.Entry entry = cache.get(fq);
+		if (entry == null) {
+			entry = cache.add(fq);
+			String readName = Long.toString(nextId++);
+			inflight.add(new Submission(readName, entry));
+			underlying.asyncAlign(new FastqRecord(readName, fq.getReadBases(), fq.getBaseQualityHeader(), fq.getBaseQualities()));
+		}
+		requests.add(new Request(fq, entry));
+		collect(false);
+	}
+	/**
+	 * Receives alignments from the underlying aligner
+	 * @param flushed underlying aligner has been flushed and all alignments are available
+	 */
+	private void collect(boolean flushed) {
+		while (underlying.processedAlignmentRecords() > 0) {
+			SAMRecord r = underlying.getAlignment();
+			// alignments are returned in submission order
+			while (!inflight.isEmpty() && !inflight.peek().readName.equals(r.getReadName())) {
+				inflight.poll().entry.complete();
+			}
+			if (inflight.isEmpty()) {
+				throw new IllegalStateException(String.format("Aligner returned alignment for unexpected read %s. Aligner output must match input order.", r.getReadName()));
+			}
+			inflight.peek().entry.add(r);
+		}
+		if (flushed) {
+			while (!inflight.isEmpty()) {
+				inflight.poll().entry.complete();
+			}
+		}
+		while (!requests.isEmpty() && requests.peek().entry.isComplete()) {
+			Request request = requests.poll();
+			for (SAMRecord r : request.entry.getAlignments()) {
+				output.add(AlignmentCache.restore(r, request.fq));
+			}
+		}
+	}
+	@Override
+	public synchronized void flush() throws IOException {
+		underlying.flush();
+		collect(true);
+	}
+	@Override
+	public synchronized int processedAlignmentRecords() {
+		collect(false);
+		return output.size();
+	}
+	@Override
+	public synchronized int outstandingAlignmentRecord() {
+		return requests.size();
+	}
+	@Override
+	public synchronized SAMRecord getAlignment() {
+		SAMRecord r = output.poll();
+		if (r == null) {
+			throw new IllegalStateException("Call flush() or check processedAlignmentRecords() to ensure records are available.");
+		}
+		return r;
+	}
+	@Override
+	public void close() throws IOException {
+		flush();
+		underlying.close();
+		cache.logStatistics("Streaming");
+	}
+}
@@ -15,6 +15,7 @@ public class PositionalAssemblyConfiguration {
 		forceFullMemoizationRecalculationAt = config.getFloat("forceFullMemoizationRecalculationAt");
 		safetyModePathCountThreshold = config.getInt("safetyModePathCountThreshold");
 		safetyModeContigsToCall = config.getInt("safetyModeContigsToCall");
+		preemptiveDownsamplingDensityPortion = config.getFloat("preemptiveDownsamplingDensityPortion");
 		if (retainWidthMultiple < 1) {
 			throw new IllegalArgumentException("retainWidthMultiple must be at least 1");
 		}
@@ -24,6 +25,9 @@ public class PositionalAssemblyConfiguration {
 		if (maximumNodeDensity <= 0) {
 			throw new IllegalArgumentException("maximumNodeDensity must be positive");
 		}
+		if (preemptiveDownsamplingDensityPortion < 0 || preemptiveDownsamplingDensityPortion > 1) {
+			throw new IllegalArgumentException("preemptiveDownsamplingDensityPortion must be between 0 and 1");
+		}
 	}
 	/**
 	 * Maximum length of a single path node. Leaves longer that this length will not be collapsed.
@@ -52,6 +56,13 @@ public class PositionalAssemblyConfiguration {
 	 */
 	public float maximumNodeDensity;
 	public int maxPathLengthInBases(int readLength) { return (int)(maxPathLengthMultiple * readLength); }
+	/**
+	 * Portion of {@link #maximumNodeDensity} at which evidence downsampling is tightened
+	 * to reduce the likelihood of the maximum density being reached.
+	 * A value of 0 disables pre-emptive downsampling.
+	 */
+	public float preemptiveDownsamplingDensityPortion;
+	public double preemptiveDownsamplingNodeDensity() { return preemptiveDownsamplingDensityPortion * maximumNodeDensity; }
 	/**
 	 * Removes self-intersecting kmers from reads prior to inclusion in the positional de Bruijn graph.
 	 * Removing such nodes reduces the misassembly rate and improves runtime performance.
@@ -1,146 +1,118 @@
 package au.edu.wehi.idsv.debruijn;
 
-import au.edu.wehi.idsv.picard.InMemoryReferenceSequenceFile;
-import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
-import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.reference.ReferenceSequence;
-import htsjdk.samtools.util.Log;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.ints.IntList;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
 
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 /**
  * Counts matching kmers
  */
 public class ContigKmerCounter {
-    private static final Log log = Log.getInstance(ContigKmerCounter.class);
-    private final List<String> contigs = new ArrayList<>();
-    private final KmerLookup kmerLookup;
-    private final LongList counts = new LongArrayList();
+    private final ContigKmerIndex index;
+    private final long[] counts;
     private final int k;
     public ContigKmerCounter(List<String> contigs, List<byte[]> sequences, int k, int stride) {
-        this(deduplicatedReference(contigs, sequences), k, stride);
-    }
-
-    private static TwoBitBufferedReferenceSequenceFile deduplicatedReference(List<String> contigs, List<byte[]> sequences) {
-        contigs = Lists.newArrayList(contigs);
-        sequences = Lists.newArrayList(sequences);
-        Set<String> found = new HashSet<>();
-        for (int i = 0; i < contigs.size(); i++) {
-            if (found.contains(contigs.get(i))) {
-                contigs.remove(i);
-                sequences.remove(i);
-                i--;
-            } else {
-                found.add(contigs.get(i));
-            }
-        }
-        return new TwoBitBufferedReferenceSequenceFile(new InMemoryReferenceSequenceFile(contigs, sequences));
+        this(ContigKmerIndex.build(
+                IntStream.range(0, contigs.size())
+                        .mapToObj(i -> new ReferenceSequence(contigs.get(i), i, sequences.get(i)))
+                        .iterator(),
+                k,
+                stride));
     }
     public ContigKmerCounter(List<ReferenceSequence> ref, int k, int stride) {
-        this(
-            ref.stream().map(rs -> rs.getName()).collect(Collectors.toList()),
-            ref.stream().map(rs -> rs.getBases()).collect(Collectors.toList()),
-            k,
-            stride);
+        this(ContigKmerIndex.build(ref.iterator(), k, stride));
     }
     public ContigKmerCounter(TwoBitBufferedReferenceSequenceFile reference, int k, int stride) {
-        this.k = k;
-        this.kmerLookup = k <= 16 ? new KmerLookup32() : new KmerLookup64();
-        for (SAMSequenceRecord ssr : reference.getSequenceDictionary().getSequences()) {
-            String contig = ssr.getContig();
-            TwoBitBufferedReferenceSequenceFile.PackedReferenceSequence prs = reference.getPackedSequence(contig);
-            log.debug("Adding:\t" + contig);
-            sequentialAddToLookup(contig, prs, stride);
-        }
+        this(ContigKmerIndex.build(
+                reference.getSequenceDictionary().getSequences().stream()
+                        .map(SAMSequenceRecord::getContig)
+                        .map(reference::getSequence)
+                        .iterator(),
+                k,
+                stride));
     }
-
-    private void sequentialAddToLookup(String contig, TwoBitBufferedReferenceSequenceFile.PackedReferenceSequence prs, int stride) {
-        if (contigs.contains(contig)) return; // prevent double-counting
-        contigs.add(contig);
-        counts.add(0);
-        int contigId = contigs.size() - 1;
-        for (int i = 0; i < prs.length() - k + 1; i += stride) {
-            int startRefPos = i + 1;
-            int endRefPos = i + k;
-            if (!prs.anyAmbiguous(startRefPos, endRefPos)) {
-                long kmer = prs.getKmer(i, k);
-                sequentialAddToLookup(contigId, kmer);
-                sequentialAddToLookup(contigId, KmerEncodingHelper.reverseComplement(k, kmer));
-            }
-        }
+    public ContigKmerCounter(ContigKmerIndex index) {
+        this.index = index;
+        this.k = index.getK();
+        this.counts = new long[index.getContigs().size()];
     }
 
-    private void sequentialAddToLookup(int contigId, long kmer) {
-        IntList value = kmerLookup.getKmer(kmer);
-        if (value == null) {
-            value = new IntArrayList(4);
-            value.add(contigId);
-            kmerLookup.putKmer(kmer, value);
-        } else if (value.getInt(value.size() - 1) != contigId) { // repeated kmers in the reference shouldn't count multiple times
-            value.add(contigId);
-        }
+    public int count(byte[] seq) {
+        return count(seq, counts);
     }
 
-    public int count(byte[] seq) {
+    private int count(byte[] seq, long[] counts) {
         int hits = 0;
         PackedSequence fps = new PackedSequence(seq, false, false);
         //PackedSequence bps = new PackedSequence(seq, true, true); // don't need to RC the reads since we added the RC of the reference
         for (int i = 0; i < seq.length - k + 1; i++) {
-            hits += count(fps.getKmer(i, k));
-            //hits += count(bps.getKmer(i, k));
+            hits += index.count(fps.getKmer(i, k), counts);
         }
         return hits;
     }
 
-    private int count(long kmer) {
-        IntList hits = kmerLookup.getKmer(kmer);
-        if (hits == null) return 0;
-        hits.forEach((int refIndex) -> counts.set(refIndex, counts.getLong(refIndex) + 1));
-        return hits.size();
-    }
-
-    public List<String> getContigs() {
-        return contigs;
-    }
-    public LongList getKmerCounts() {
-        return counts;
-    }
-    private abstract static class KmerLookup {
-        protected abstract void putKmer(long kmer, IntList list);
-
-        protected abstract IntList getKmer(long kmer);
-    }
-    private static class KmerLookup32 extends KmerLookup {
-        private final Int2ObjectOpenHashMap<IntList> kmerLookup = new Int2ObjectOpenHashMap<>();
-        @Override
-        protected void putKmer(long kmer, IntList list) {
-            kmerLookup.put((int)kmer, list);
+    /**
+     * Counts the kmers of all the given sequences using multiple threads.
+     * Sequences are processed in batches with each thread counting into its own
+     * array. The per-thread counts are merged once all sequences have been counted.
+     * @param sequences sequences to count
+     * @param threads number of worker threads
+     * @param batchSize number of sequences taken from the iterator at a time
+     */
+    public void count(Iterator<byte[]> sequences, int threads, int batchSize) {
+        ExecutorService threadpool = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("ContigKmerCounter-%d").build());
+        try {
+            List<Future<long[]>> results = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                results.add(threadpool.submit(() -> {
+                    long[] threadCounts = new long[counts.length];
+                    for (List<byte[]> batch = nextBatch(sequences, batchSize); !batch.isEmpty(); batch = nextBatch(sequences, batchSize)) {
+                        for (byte[] seq : batch) {
+                            count(seq, threadCounts);
+                        }
+                    }
+                    return threadCounts;
+                }));
+            }
+            for (Future<long[]> result : results) {
+                long[] threadCounts = result.get();
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] += threadCounts[i];
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            threadpool.shutdownNow();
         }
+    }
 
-        @Override
-        protected IntList getKmer(long kmer) {
-            return kmerLookup.get((int)kmer);
+    private static List<byte[]> nextBatch(Iterator<byte[]> sequences, int batchSize) {
+        List<byte[]> batch = new ArrayList<>(batchSize);
+        synchronized (sequences) {
+            while (batch.size() < batchSize && sequences.hasNext()) {
+                batch.add(sequences.next());
+            }
         }
+        return batch;
     }
-    private static class KmerLookup64 extends KmerLookup {
-        private final Long2ObjectOpenHashMap<IntList> kmerLookup = new Long2ObjectOpenHashMap<>();
-        @Override
-        protected void putKmer(long kmer, IntList list) {
-            kmerLookup.put(kmer, list);
-        }
 
-        @Override
-        protected IntList getKmer(long kmer) { return kmerLookup.get(kmer); }
+    public List<String> getContigs() {
+        return index.getContigs();
+    }
+    public LongList getKmerCounts() {
+        return LongArrayList.wrap(counts);
     }
 }
@@ -0,0 +1,582 @@
+package au.edu.wehi.idsv.debruijn;
+
+import au.edu.wehi.idsv.FileSystemContext;
+import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile.PackedReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.Log;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Immutable lookup of the contigs containing each kmer.
+ *
+ * Each (kmer, contig) pair is stored once in kmer order, with a prefix
+ * table of the first pair of each kmer prefix used to narrow the binary search.
+ * Both strands of the reference are included.
+ *
+ * The index can be written to disk and memory-mapped so the index
+ * for a large reference only needs to be built once. Indexes written
+ * directly to disk are built with an external sort so the index
+ * does not need to fit on the heap.
+ */
+public class ContigKmerIndex {
+	private static final Log log = Log.getInstance(ContigKmerIndex.class);
+	private static final long MAGIC = 0x677269647373_6b69L; // "gridsski"
+	private static final int VERSION = 2;
+	private static final int MAX_PREFIX_BITS = 24;
+	/**
+	 * Number of (kmer, contig) pairs sorted in memory before spilling to disk
+	 */
+	public static final int DEFAULT_PAIRS_PER_CHUNK = 1 << 24;
+	private static final int PAIR_BYTES = Long.BYTES + Integer.BYTES;
+	private static final int IO_BUFFER_SIZE = 1 << 16;
+	private final int k;
+	private final int stride;
+	private final int prefixBits;
+	private final List<String> contigs;
+	private final Map<String, Long> sources;
+	private final long size;
+	/**
+	 * Index of the first pair of each kmer prefix
+	 */
+	private final Section buckets;
+	private final Section kmers;
+	private final Section contigIds;
+
+	private ContigKmerIndex(int k, int stride, int prefixBits, List<String> contigs, Map<String, Long> sources, long size, Section buckets, Section kmers, Section contigIds) {
+		this.k = k;
+		this.stride = stride;
+		this.prefixBits = prefixBits;
+		this.contigs = Collections.unmodifiableList(contigs);
+		this.sources = Collections.unmodifiableMap(sources);
+		this.size = size;
+		this.buckets = buckets;
+		this.kmers = kmers;
+		this.contigIds = contigIds;
+	}
+
+	/**
+	 * Builds an in-memory index
+	 * @param sequences contigs to index. Contigs with the same name as an earlier contig are ignored.
+	 * @param k kmer size
+	 * @param stride distance between indexed kmers
+	 */
+	public static ContigKmerIndex build(Iterator<ReferenceSequence> sequences, int k, int stride) {
+		List<String> contigs = new ArrayList<>();
+		LongArrayList kmerList = new LongArrayList();
+		IntArrayList contigList = new IntArrayList();
+		addPairs(sequences, k, stride, contigs, (kmer, contigId) -> {
+			kmerList.add(kmer);
+			contigList.add(contigId);
+		});
+		long[] ka = kmerList.elements();
+		int[] ca = contigList.elements();
+		int size = sortDistinct(ka, ca, kmerList.size());
+		int prefixBits = prefixBits(k, size);
+		Section buckets = Section.allocate(((1L << prefixBits) + 1) * Long.BYTES);
+		Section kmers = Section.allocate((long)size * Long.BYTES);
+		Section contigIds = Section.allocate((long)size * Integer.BYTES);
+		BucketWriter bw = new BucketWriter(buckets, k, prefixBits);
+		for (int i = 0; i < size; i++) {
+			bw.add(i, ka[i]);
+			kmers.putLong(i, ka[i]);
+			contigIds.putInt(i, ca[i]);
+		}
+		bw.finish(size);
+		return new ContigKmerIndex(k, stride, prefixBits, contigs, new LinkedHashMap<>(), size, buckets, kmers, contigIds);
+	}
+
+	/**
+	 * Builds an index and writes it to the given file.
+	 *
+	 * (kmer, contig) pairs are sorted in chunks of at most pairsPerChunk pairs
+	 * which are spilled to temporary files alongside the output file then merged.
+	 * Heap usage is bounded by the chunk size and the prefix table, not the index size.
+	 *
+	 * @param sequences contigs to index. Contigs with the same name as an earlier contig are ignored.
+	 * @param k kmer size
+	 * @param stride distance between indexed kmers
+	 * @param sources description of the files the contigs were loaded from, recorded in the index header
+	 * @param file output file
+	 * @param pairsPerChunk number of (kmer, contig) pairs to sort in memory
+	 */
+	public static void write(Iterator<ReferenceSequence> sequences, int k, int stride, Map<String, Long> sources, File file, int pairsPerChunk) throws IOException {
+		List<String> contigs = new ArrayList<>();
+		List<File> chunkFiles = new ArrayList<>();
+		File kmerFile = FileSystemContext.getWorkingFileFor(file, "gridss.tmp.kmers.");
+		File contigIdFile = FileSystemContext.getWorkingFileFor(file, "gridss.tmp.contigs.");
+		try {
+			ChunkWriter chunkWriter = new ChunkWriter(file, pairsPerChunk, chunkFiles);
+			addPairs(sequences, k, stride, contigs, chunkWriter);
+			chunkWriter.flush();
+			long size = mergeChunks(chunkFiles, kmerFile, contigIdFile);
+			int prefixBits = prefixBits(k, size);
+			Section buckets = Section.allocate(((1L << prefixBits) + 1) * Long.BYTES);
+			BucketWriter bw = new BucketWriter(buckets, k, prefixBits);
+			try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(kmerFile), IO_BUFFER_SIZE))) {
+				for (long i = 0; i < size; i++) {
+					bw.add(i, dis.readLong());
+				}
+			}
+			bw.finish(size);
+			try (FileOutputStream fos = new FileOutputStream(file)) {
+				writeHeader(fos, k, stride, prefixBits, size, contigs, sources);
+				FileChannel channel = fos.getChannel();
+				buckets.write(channel);
+				append(kmerFile, channel);
+				append(contigIdFile, channel);
+			}
+		} finally {
+			for (File f : chunkFiles) {
+				f.delete();
+			}
+			kmerFile.delete();
+			contigIdFile.delete();
+		}
+	}
+
+	public static void write(Iterator<ReferenceSequence> sequences, int k, int stride, Map<String, Long> sources, File file) throws IOException {
+		write(sequences, k, stride, sources, file, DEFAULT_PAIRS_PER_CHUNK);
+	}
+
+	private interface PairConsumer {
+		void accept(long kmer, int contigId);
+	}
+
+	/**
+	 * Generates the (kmer, contig) pairs of both strands of the given contigs
+	 */
+	private static void addPairs(Iterator<ReferenceSequence> sequences, int k, int stride, List<String> contigs, PairConsumer consumer) {
+		Set<String> found = new HashSet<>();
+		while (sequences.hasNext()) {
+			ReferenceSequence rs = sequences.next();
+			if (!found.add(rs.getName())) continue; // prevent double-counting
+			int contigId = contigs.size();
+			contigs.add(rs.getName());
+			log.debug("Adding:\t" + rs.getName());
+			PackedReferenceSequence prs = new PackedReferenceSequence(rs);
+			for (int i = 0; i < prs.length() - k + 1; i += stride) {
+				int startRefPos = i + 1;
+				int endRefPos = i + k;
+				if (!prs.anyAmbiguous(startRefPos, endRefPos)) {
+					long kmer = prs.getKmer(i, k);
+					consumer.accept(kmer, contigId);
+					consumer.accept(KmerEncodingHelper.reverseComplement(k, kmer), contigId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sorts the first n pairs and removes duplicates
+	 * @return number of distinct pairs
+	 */
+	private static int sortDistinct(long[] ka, int[] ca, int n) {
+		it.unimi.dsi.fastutil.Arrays.parallelQuickSort(0, n, (a, b) -> compare(ka[a], ca[a], ka[b], ca[b]), (a, b) -> {
+			long kt = ka[a];
+			ka[a] = ka[b];
+			ka[b] = kt;
+			int ct = ca[a];
+			ca[a] = ca[b];
+			ca[b] = ct;
+		});
+		// repeated kmers in the reference shouldn't count multiple times
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (size == 0 || ka[i] != ka[size - 1] || ca[i] != ca[size - 1]) {
+				ka[size] = ka[i];
+				ca[size] = ca[i];
+				size++;
+			}
+		}
+		return size;
+	}
+
+	private static int compare(long kmer1, int contig1, long kmer2, int contig2) {
+		int cmp = Long.compareUnsigned(kmer1, kmer2);
+		return cmp != 0 ? cmp : Integer.compare(contig1, contig2);
+	}
+
+	/**
+	 * Sorts (kmer, contig) pairs in chunks and spills them to disk
+	 */
+	private static class ChunkWriter implements PairConsumer {
+		private final File file;
+		private final List<File> chunkFiles;
+		private final int pairsPerChunk;
+		private long[] ka = new long[0];
+		private int[] ca = new int[0];
+		private int n = 0;
+		public ChunkWriter(File file, int pairsPerChunk, List<File> chunkFiles) {
+			if (pairsPerChunk <= 0) throw new IllegalArgumentException("pairsPerChunk must be positive");
+			this.file = file;
+			this.pairsPerChunk = pairsPerChunk;
+			this.chunkFiles = chunkFiles;
+		}
+		@Override
+		public void accept(long kmer, int contigId) {
+			if (n == ka.length) {
+				// grow on demand so small references don't allocate a full chunk
+				int capacity = (int)Math.min(pairsPerChunk, Math.max(1024, 2L * ka.length));
+				ka = Arrays.copyOf(ka, capacity);
+				ca = Arrays.copyOf(ca, capacity);
+			}
+			ka[n] = kmer;
+			ca[n] = contigId;
+			n++;
+			if (n == pairsPerChunk) {
+				flush();
+			}
+		}
+		public void flush() {
+			if (n == 0 && !chunkFiles.isEmpty()) return;
+			int size = sortDistinct(ka, ca, n);
+			File chunkFile = FileSystemContext.getWorkingFileFor(file, "gridss.tmp.chunk" + chunkFiles.size() + ".");
+			chunkFiles.add(chunkFile);
+			try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(chunkFile), IO_BUFFER_SIZE))) {
+				for (int i = 0; i < size; i++) {
+					dos.writeLong(ka[i]);
+					dos.writeInt(ca[i]);
+				}
+			} catch (IOException e) {
+				throw new RuntimeIOException(e);
+			}
+			n = 0;
+		}
+	}
+
+	/**
+	 * Sorted (kmer, contig) pairs spilled to disk
+	 */
+	private static class ChunkReader implements Comparable<ChunkReader> {
+		private final DataInputStream in;
+		private long remaining;
+		private long kmer;
+		private int contigId;
+		public ChunkReader(File file) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE));
+			this.remaining = file.length() / PAIR_BYTES;
+		}
+		public boolean advance() throws IOException {
+			if (remaining == 0) return false;
+			remaining--;
+			kmer = in.readLong();
+			contigId = in.readInt();
+			return true;
+		}
+		@Override
+		public int compareTo(ChunkReader o) {
+			return compare(kmer, contigId, o.kmer, o.contigId);
+		}
+	}
+
+	/**
+	 * Merges the sorted chunks into separate kmer and contig files
+	 * @return number of distinct pairs
+	 */
+	private static long mergeChunks(List<File> chunkFiles, File kmerFile, File contigIdFile) throws IOException {
+		List<ChunkReader> readers = new ArrayList<>(chunkFiles.size());
+		long size = 0;
+		try (DataOutputStream kmerOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(kmerFile), IO_BUFFER_SIZE));
+			 DataOutputStream contigOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(contigIdFile), IO_BUFFER_SIZE))) {
+			PriorityQueue<ChunkReader> queue = new PriorityQueue<>(Math.max(1, chunkFiles.size()));
+			for (File f : chunkFiles) {
+				ChunkReader reader = new ChunkReader(f);
+				readers.add(reader);
+				if (reader.advance()) {
+					queue.add(reader);
+				}
+			}
+			long lastKmer = 0;
+			int lastContigId = -1;
+			while (!queue.isEmpty()) {
+				ChunkReader reader = queue.poll();
+				if (size == 0 || reader.kmer != lastKmer || reader.contigId != lastContigId) {
+					lastKmer = reader.kmer;
+					lastContigId = reader.contigId;
+					kmerOut.writeLong(lastKmer);
+					contigOut.writeInt(lastContigId);
+					size++;
+				}
+				if (reader.advance()) {
+					queue.add(reader);
+				}
+			}
+		} finally {
+			for (ChunkReader reader : readers) {
+				reader.in.close();
+			}
+		}
+		return size;
+	}
+
+	private static void append(File file, FileChannel out) throws IOException {
+		try (FileChannel in = new FileInputStream(file).getChannel()) {
+			long position = 0;
+			long size = in.size();
+			while (position < size) {
+				position += in.transferTo(position, size - position, out);
+			}
+		}
+	}
+
+	private static int prefixBits(int k, long size) {
+		return Math.min(2 * k, Math.min(MAX_PREFIX_BITS, 63 - Long.numberOfLeadingZeros(Math.max(1, size))));
+	}
+
+	/**
+	 * Populates the prefix table from kmers in sorted order
+	 */
+	private static class BucketWriter {
+		private final Section buckets;
+		private final int k;
+		private final int prefixBits;
+		private int bucket = 0;
+		public BucketWriter(Section buckets, int k, int prefixBits) {
+			this.buckets = buckets;
+			this.k = k;
+			this.prefixBits = prefixBits;
+			buckets.putLong(0, 0);
+		}
+		public void add(long index, long kmer) {
+			int prefix = prefix(kmer, k, prefixBits);
+			while (bucket < prefix) {
+				buckets.putLong(++bucket, index);
+			}
+		}
+		public void finish(long size) {
+			while (bucket < 1 << prefixBits) {
+				buckets.putLong(++bucket, size);
+			}
+		}
+	}
+
+	private static int prefix(long kmer, int k, int prefixBits) {
+		if (prefixBits == 0) return 0;
+		return (int)(kmer >>> (2 * k - prefixBits));
+	}
+
+	/**
+	 * Writes the index to the given file
+	 */
+	public void write(File file) throws IOException {
+		try (FileOutputStream fos = new FileOutputStream(file)) {
+			writeHeader(fos, k, stride, prefixBits, size, contigs, sources);
+			WritableByteChannel channel = Channels.newChannel(fos);
+			buckets.write(channel);
+			kmers.write(channel);
+			contigIds.write(channel);
+		}
+	}
+
+	private static void writeHeader(FileOutputStream fos, int k, int stride, int prefixBits, long size, List<String> contigs, Map<String, Long> sources) throws IOException {
+		DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+		dos.writeLong(MAGIC);
+		dos.writeInt(VERSION);
+		dos.writeInt(k);
+		dos.writeInt(stride);
+		dos.writeInt(prefixBits);
+		dos.writeLong(size);
+		dos.writeInt(contigs.size());
+		for (String contig : contigs) {
+			dos.writeUTF(contig);
+		}
+		dos.writeInt(sources.size());
+		for (Map.Entry<String, Long> source : sources.entrySet()) {
+			dos.writeUTF(source.getKey());
+			dos.writeLong(source.getValue());
+		}
+		// align sections to the element size
+		while (dos.size() % Long.BYTES != 0) {
+			dos.writeByte(0);
+		}
+		dos.flush();
+	}
+
+	/**
+	 * Loads an index previously written by write().
+	 * The index is memory-mapped and not loaded onto the heap.
+	 */
+	public static ContigKmerIndex load(File file) throws IOException {
+		try (FileInputStream fis = new FileInputStream(file)) {
+			// unbuffered so the channel position matches the bytes read
+			DataInputStream dis = new DataInputStream(fis);
+			if (dis.readLong() != MAGIC) {
+				throw new IOException(file + " is not a kmer index");
+			}
+			int version = dis.readInt();
+			if (version != VERSION) {
+				throw new IOException(String.format("%s has unsupported kmer index version %d", file, version));
+			}
+			int k = dis.readInt();
+			int stride = dis.readInt();
+			int prefixBits = dis.readInt();
+			long size = dis.readLong();
+			int contigCount = dis.readInt();
+			List<String> contigs = new ArrayList<>(contigCount);
+			for (int i = 0; i < contigCount; i++) {
+				contigs.add(dis.readUTF());
+			}
+			int sourceCount = dis.readInt();
+			Map<String, Long> sources = new LinkedHashMap<>();
+			for (int i = 0; i < sourceCount; i++) {
+				sources.put(dis.readUTF(), dis.readLong());
+			}
+			FileChannel channel = fis.getChannel();
+			long offset = (channel.position() + Long.BYTES - 1) / Long.BYTES * Long.BYTES;
+			Section buckets = Section.map(channel, offset, ((1L << prefixBits) + 1) * Long.BYTES);
+			offset += buckets.bytes;
+			Section kmers = Section.map(channel, offset, size * Long.BYTES);
+			offset += kmers.bytes;
+			Section contigIds = Section.map(channel, offset, size * Integer.BYTES);
+			return new ContigKmerIndex(k, stride, prefixBits, contigs, sources, size, buckets, kmers, contigIds);
+		}
+	}
+
+	/**
+	 * Increments the count of every contig containing the given kmer
+	 * @param kmer kmer to lookup
+	 * @param counts per contig counts
+	 * @return number of contigs containing the kmer
+	 */
+	public int count(long kmer, long[] counts) {
+		int prefix = prefix(kmer, k, prefixBits);
+		long lo = buckets.getLong(prefix);
+		long hi = buckets.getLong(prefix + 1);
+		// find first pair for the kmer
+		while (lo < hi) {
+			long mid = (lo + hi) >>> 1;
+			if (Long.compareUnsigned(kmers.getLong(mid), kmer) < 0) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		int hits = 0;
+		for (long i = lo; i < size && kmers.getLong(i) == kmer; i++) {
+			counts[contigIds.getInt(i)]++;
+			hits++;
+		}
+		return hits;
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int getStride() {
+		return stride;
+	}
+
+	public List<String> getContigs() {
+		return contigs;
+	}
+
+	/**
+	 * Files the index was built from, and their sizes
+	 */
+	public Map<String, Long> getSources() {
+		return sources;
+	}
+
+	/**
+	 * Number of (kmer, contig) pairs in the index
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Array stored across multiple buffers to allow for more than 2GB of data.
+	 */
+	private static class Section {
+		private static final int CHUNK_BITS = 30;
+		private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+		private final ByteBuffer[] chunks;
+		private final long bytes;
+
+		private Section(ByteBuffer[] chunks, long bytes) {
+			this.chunks = chunks;
+			this.bytes = bytes;
+		}
+
+		private static int chunkCount(long bytes) {
+			return (int)((bytes + CHUNK_MASK) >>> CHUNK_BITS);
+		}
+
+		private static int chunkSize(long bytes, int chunk) {
+			return (int)Math.min(1L << CHUNK_BITS, bytes - ((long)chunk << CHUNK_BITS));
+		}
+
+		public static Section allocate(long bytes) {
+			ByteBuffer[] chunks = new ByteBuffer[chunkCount(bytes)];
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = ByteBuffer.allocate(chunkSize(bytes, i));
+			}
+			return new Section(chunks, bytes);
+		}
+
+		public static Section map(FileChannel channel, long offset, long bytes) throws IOException {
+			ByteBuffer[] chunks = new ByteBuffer[chunkCount(bytes)];
+			for (int i = 0; i < chunks.length; i++) {
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + ((long)i << CHUNK_BITS), chunkSize(bytes, i));
+			}
+			return new Section(chunks, bytes);
+		}
+
+		public void write(WritableByteChannel channel) throws IOException {
+			for (ByteBuffer chunk : chunks) {
+				ByteBuffer bb = chunk.duplicate();
+				bb.clear();
+				while (bb.hasRemaining()) {
+					channel.write(bb);
+				}
+			}
+		}
+
+		// Element sizes divide the chunk size so elements never span chunks
+		public long getLong(long index) {
+			long pos = index * Long.BYTES;
+			return chunks[(int)(pos >>> CHUNK_BITS)].getLong((int)(pos & CHUNK_MASK));
+		}
+
+		public void putLong(long index, long value) {
+			long pos = index * Long.BYTES;
+			chunks[(int)(pos >>> CHUNK_BITS)].putLong((int)(pos & CHUNK_MASK), value);
+		}
+
+		public int getInt(long index) {
+			long pos = index * Integer.BYTES;
+			return chunks[(int)(pos >>> CHUNK_BITS)].getInt((int)(pos & CHUNK_MASK));
+		}
+
+		public void putInt(long index, int value) {
+			long pos = index * Integer.BYTES;
+			chunks[(int)(pos >>> CHUNK_BITS)].putInt((int)(pos & CHUNK_MASK), value);
+		}
+	}
+}
@@ -35,6 +35,13 @@ public class PackedKmerList {
 	public long kmer(int offset) {
 		return seq.getKmer(offset, k);
 	}
+	/**
+	 * Encodes all kmers
+	 * @return encoded kmers in offset order
+	 */
+	public long[] kmers() {
+		return seq.getKmers(k);
+	}
 	public int weight(int offset) {
 		assert(offset < length());
 		if (weights == null) return 0;
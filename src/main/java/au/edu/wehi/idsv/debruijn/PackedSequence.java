@@ -12,6 +12,7 @@ import java.math.RoundingMode;
  *
  */
 public class PackedSequence implements Serializable {
+	private static final long serialVersionUID = -8769790295923840212L;
 	private static final int BITS_PER_BASE = 2;
 	private static final int BASES_PER_WORD = Long.SIZE / BITS_PER_BASE;
 	private static final int ARRAY_SHIFT = Long.SIZE - 1 - Long.numberOfLeadingZeros(BASES_PER_WORD);
@@ -264,6 +265,26 @@ public class PackedSequence implements Serializable {
 		}
     }
 
+	/**
+	 * Encodes every kmer in this sequence.
+	 *
+	 * Kmers are calculated by rolling the previous kmer forward by a single base
+	 * which is considerably cheaper than unpacking each kmer independently.
+	 * @param k kmer size
+	 * @return encoded kmers in sequence order
+	 */
+	public long[] getKmers(final int k) {
+		long[] kmers = new long[kmers(k)];
+		if (kmers.length == 0) return kmers;
+		long mask = k == BASES_PER_WORD ? -1L : (1L << (BITS_PER_BASE * k)) - 1;
+		long kmer = getKmer(0, k);
+		kmers[0] = kmer;
+		for (int i = 1; i < kmers.length; i++) {
+			kmer = ((kmer << BITS_PER_BASE) | (getBaseEncoded(i + k - 1) & BASE_MASK)) & mask;
+			kmers[i] = kmer;
+		}
+		return kmers;
+	}
 	/**
 	 * Number of kmers in this sequence
 	 * @param k
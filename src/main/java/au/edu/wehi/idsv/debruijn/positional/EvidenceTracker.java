@@ -1,13 +1,17 @@
 package au.edu.wehi.idsv.debruijn.positional;
 
 import au.edu.wehi.idsv.Defaults;
+import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerSupportNodeMultimap;
 import au.edu.wehi.idsv.util.IntervalUtil;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongLinkedOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSortedSet;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectOpenHashSet;
 
 import java.util.*;
@@ -24,38 +28,85 @@ import static au.edu.wehi.idsv.Defaults.SANITY_CHECK_EVIDENCE_TRACKER;
  */
 public class EvidenceTracker {
 	//public static EvidenceTracker TEMP_HACK_CURRENT_TRACKER = null;
-	private final Long2ObjectOpenHashMap<LinkedList<KmerSupportNode>> lookup = new Long2ObjectOpenHashMap<>();
-	private final Object2ObjectOpenHashMap<String, List<KmerEvidence>> id = new Object2ObjectOpenHashMap<>();
+	private final KmerSupportNodeMultimap lookup = new KmerSupportNodeMultimap();
+	/**
+	 * Evidence ID to evidence handle lookup.
+	 * Evidence IDs are only looked up when evidence is added or removed:
+	 * the per-kmer lookup stores the int handle of the evidence.
+	 */
+	private final Object2IntOpenHashMap<String> id = new Object2IntOpenHashMap<>();
+	/**
+	 * KmerEvidence associated with each evidence handle.
+	 * Read pairs can have two: one each of the anchored and unanchored reads
+	 */
+	private final ObjectArrayList<KmerEvidence[]> handleEvidence = new ObjectArrayList<>();
+	private final IntArrayList freeHandles = new IntArrayList();
 	private long evidenceTotal = 0;
 	/**
 	 * Tracks evidence emitted from the given iterator
 	 */
 	public EvidenceTracker() {
+		id.defaultReturnValue(KmerSupportNodeMultimap.NONE);
 	}
 	/**
 	 * Tracks the given evidence
 	 * @param support
 	 */
 	public KmerSupportNode track(KmerSupportNode support) {
-		long kmer = support.lastKmer();
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list == null) {
-			list = new LinkedList<KmerSupportNode>();
-			lookup.put(kmer, list);
+		track(support.evidence(), support.offset());
+		return support;
+	}
+	/**
+	 * Tracks the support node of the given kmer of the given evidence
+	 * @param ke evidence
+	 * @param offset kmer offset
+	 */
+	public void track(KmerEvidence ke, int offset) {
+		lookup.put(ke.kmer(offset), ke, offset, handle(ke));
+	}
+	/**
+	 * Tracks the support nodes of the given kmers of the given evidence.
+	 * The evidence ID is only looked up once for all the kmers of the evidence.
+	 * @param ke evidence
+	 * @param offsets kmer offsets
+	 */
+	public void track(KmerEvidence ke, IntList offsets) {
+		if (offsets.isEmpty()) return;
+		int handle = handle(ke);
+		for (int i = 0; i < offsets.size(); i++) {
+			int offset = offsets.getInt(i);
+			lookup.put(ke.kmer(offset), ke, offset, handle);
 		}
-		list.add(support);
-		KmerEvidence ke = support.evidence();
+	}
+	/**
+	 * Gets the handle of the given evidence, allocating a new handle if the evidence is not yet tracked
+	 */
+	private int handle(KmerEvidence ke) {
 		String evidenceId = ke.evidence().getEvidenceID();
-		List<KmerEvidence> idvalue = id.get(evidenceId);
-		if (idvalue == null) {
+		int handle = id.getInt(evidenceId);
+		if (handle == KmerSupportNodeMultimap.NONE) {
 			evidenceTotal++;
-			idvalue = new ArrayList<>();
-			id.put(evidenceId, idvalue);
+			handle = allocateHandle(ke);
+			id.put(evidenceId, handle);
+		} else {
+			KmerEvidence[] kes = handleEvidence.get(handle);
+			if (!Arrays.asList(kes).contains(ke)) {
+				kes = Arrays.copyOf(kes, kes.length + 1);
+				kes[kes.length - 1] = ke;
+				handleEvidence.set(handle, kes);
+			}
 		}
-		if (!idvalue.contains(ke)) {
-			idvalue.add(ke);
+		return handle;
+	}
+	private int allocateHandle(KmerEvidence ke) {
+		KmerEvidence[] kes = new KmerEvidence[] { ke };
+		if (!freeHandles.isEmpty()) {
+			int handle = freeHandles.popInt();
+			handleEvidence.set(handle, kes);
+			return handle;
 		}
-		return support;
+		handleEvidence.add(kes);
+		return handleEvidence.size() - 1;
 	}
 	/**
 	 * Stops tracking all nodes associated with all of the given evidence
@@ -63,52 +114,55 @@ public class EvidenceTracker {
 	 */
 	public Set<KmerEvidence> remove(Set<KmerEvidence> evidenceSet) {
 		Set<KmerEvidence> evidenceToRemove = new ObjectOpenHashSet<>();
+		IntSet handlesToRemove = new IntOpenHashSet();
 		LongSortedSet kmersInSet = new LongLinkedOpenHashSet();
 		for (KmerEvidence evidence : evidenceSet) {
-			addToRemoveList(evidence, evidenceToRemove, kmersInSet);
+			addToRemoveList(evidence, evidenceToRemove, handlesToRemove, kmersInSet);
 		}
 		for (long kmer : kmersInSet) {
-			remove(kmer, evidenceToRemove);
+			remove(kmer, handlesToRemove);
+		}
+		for (int handle : handlesToRemove) {
+			handleEvidence.set(handle, null);
+			freeHandles.add(handle);
 		}
 		if (SANITY_CHECK_EVIDENCE_TRACKER) {
 			sanityCheck();
 		}
 		return evidenceToRemove;
 	}
-	private void addToRemoveList(KmerEvidence evidence, Set<KmerEvidence> removeSet, LongSortedSet kmersInSet) {
+	private void addToRemoveList(KmerEvidence evidence, Set<KmerEvidence> removeSet, IntSet handleSet, LongSortedSet kmersInSet) {
 		// Need to remove all KmerEvidence associated with the evidence
 		// Read pairs can have two: one each of the anchored and unanchored reads
-		Collection<KmerEvidence> trackedKmerEvidenceForEvidence = id.remove(evidence.evidence().getEvidenceID());
-		if (trackedKmerEvidenceForEvidence == null) {
+		int handle = id.removeInt(evidence.evidence().getEvidenceID());
+		if (handle == KmerSupportNodeMultimap.NONE) {
 			// Will happen when we attempt to remove the second KmerEvidence in a read pair
 			return;
 		}
-		removeSet.addAll(trackedKmerEvidenceForEvidence);
+		handleSet.add(handle);
+		KmerEvidence[] trackedKmerEvidenceForEvidence = handleEvidence.get(handle);
+		Collections.addAll(removeSet, trackedKmerEvidenceForEvidence);
 		for (KmerEvidence e : trackedKmerEvidenceForEvidence) {
 			for (int i = 0; i < e.length(); i++) {
-				KmerSupportNode node = e.node(i);
-				if (node != null) {
-					kmersInSet.add(node.firstKmer());
+				if (e.hasSupport(i)) {
+					kmersInSet.add(e.kmer(i));
 				}
 			}
 		}
 	}
 	/**
 	 * Stops tracking all nodes associated with the given evidence 
-	 * @param evidence
+	 * @param handles evidence handles
 	 */
-	private void remove(long kmer, Collection<KmerEvidence> evidence) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (evidence.contains(n.evidence())) {
-					it.remove();
-				}
-			}
-			if (list.size() == 0) {
-				lookup.remove(kmer);
+	private void remove(long kmer, IntSet handles) {
+		int prev = KmerSupportNodeMultimap.NONE;
+		int slot = lookup.first(kmer);
+		while (slot != KmerSupportNodeMultimap.NONE) {
+			if (handles.contains(lookup.handle(slot))) {
+				slot = lookup.remove(kmer, prev, slot);
+			} else {
+				prev = slot;
+				slot = lookup.next(slot);
 			}
 		}
 	}
@@ -156,19 +210,18 @@ public class EvidenceTracker {
 	 * @param end
 	 */
 	private void toCollection(Collection<KmerEvidence> collection, long kmer, int start, int end, boolean remove) {
-		LinkedList<KmerSupportNode> list = lookup.get(kmer);
-		if (list != null) {
-			ListIterator<KmerSupportNode> it = list.listIterator();
-			while (it.hasNext()) {
-				KmerSupportNode n = it.next();
-				if (IntervalUtil.overlapsClosed(start, end, n.lastStart(), n.lastEnd())) {
-					if (remove) {
-						it.remove();
-					}
-					KmerEvidence e = n.evidence();
-					collection.add(e);
+		int prev = KmerSupportNodeMultimap.NONE;
+		int slot = lookup.first(kmer);
+		while (slot != KmerSupportNodeMultimap.NONE) {
+			if (IntervalUtil.overlapsClosed(start, end, lookup.lastStart(slot), lookup.lastEnd(slot))) {
+				collection.add(lookup.evidence(slot));
+				if (remove) {
+					slot = lookup.remove(kmer, prev, slot);
+					continue;
 				}
 			}
+			prev = slot;
+			slot = lookup.next(slot);
 		}
 	}
 	public boolean matchesExpected(KmerPathSubnode pn) {
@@ -184,18 +237,15 @@ public class EvidenceTracker {
 	public boolean matchesExpected(int expectedWidthWeight, LongArrayList kmers, int start, int end) {
 		int evidenceWeight = 0;
 		for (long kmer : kmers) {
-			LinkedList<KmerSupportNode> list = lookup.get(kmer);
-			if (list != null) {
-				for (KmerSupportNode n : list) {
-					evidenceWeight += n.weight() * IntervalUtil.overlapsWidthClosed(start, end, n.lastStart(), n.lastEnd());
-				}
+			for (int slot = lookup.first(kmer); slot != KmerSupportNodeMultimap.NONE; slot = lookup.next(slot)) {
+				evidenceWeight += lookup.weight(slot) * IntervalUtil.overlapsWidthClosed(start, end, lookup.lastStart(slot), lookup.lastEnd(slot));
 			}
 		}
 		assert(evidenceWeight == expectedWidthWeight);
 		return evidenceWeight == expectedWidthWeight;
 	}
 	public boolean isTracked(String evidenceId) {
-		return id.keySet().contains(evidenceId);
+		return id.containsKey(evidenceId);
 	}
 	public class PathNodeAssertionInterceptor implements Iterator<KmerPathNode> {
 		private final Iterator<KmerPathNode> underlying;
@@ -236,7 +286,7 @@ public class EvidenceTracker {
 		}
 	}
 	public Set<KmerEvidence> getTrackedEvidence() {
-		return id.values().stream().flatMap(x -> x.stream()).collect(Collectors.toSet());
+		return handleEvidence.stream().filter(Objects::nonNull).flatMap(x -> Arrays.stream(x)).collect(Collectors.toSet());
 	}
 	public long tracking_evidenceTotal() {
 		return evidenceTotal;
@@ -245,18 +295,16 @@ public class EvidenceTracker {
 		return id.size();
 	}
 	public int tracking_kmerCount() {
-		return lookup.size();
+		return lookup.kmerCount();
 	}
 	public int tracking_supportNodeCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).sum();
+		return lookup.size();
 	}
 	public int tracking_maxKmerSupportNodesCount() {
-		return lookup.values().stream().mapToInt(x -> x.size()).max().orElse(0);
+		return lookup.maxChainLength();
 	}
 	public void sanityCheck() {
 		Set<String> lookupEid = lookup.values()
-				.stream()
-				.flatMap(ll -> ll.stream())
 				.map(ksn -> ksn.evidence().evidence().getEvidenceID())
 				.collect(Collectors.toSet());
 		Set<String> idEid = id.keySet().stream().collect(Collectors.toSet());
@@ -265,8 +313,6 @@ public class EvidenceTracker {
 		missingInIds.removeAll(idEid);
 		missingInLookup.removeAll(lookupEid);
 		Set<KmerEvidence> kes = lookup.values()
-				.stream()
-				.flatMap(ll -> ll.stream())
 				.map(ksn -> ksn.evidence())
 				.collect(Collectors.toSet());
 		List<KmerSupportNode> missingKsn = new ArrayList<>();
@@ -274,8 +320,7 @@ public class EvidenceTracker {
 			for (int i = 0; i < ke.length(); i++) {
 				KmerSupportNode ksn = ke.node(i);
 				if (ksn != null) {
-					LinkedList<KmerSupportNode> list = lookup.get(ksn.firstKmer());
-					if (!list.contains(ksn)) {
+					if (!lookup.contains(ksn.firstKmer(), ke, i)) {
 						missingKsn.add(ksn);
 					}
 				}
@@ -0,0 +1,101 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import au.edu.wehi.idsv.util.DensityThrottlingIterator;
+import htsjdk.samtools.util.Log;
+
+/**
+ * Tracks the size of the positional de Bruijn graph as it is loaded
+ * and pre-emptively tightens the evidence density throttle when the
+ * graph density approaches the maximum assembly node density.
+ *
+ * Exceeding the maximum node density requires the assembly graph to be
+ * rebuilt from downsampled evidence. Since the throttle is applied to
+ * evidence that has not yet been loaded into the graph, tightening
+ * downsampling as the density increases reduces the likelihood of
+ * such rebuilds occurring.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class GraphDensityTracker {
+	private static final Log log = Log.getInstance(GraphDensityTracker.class);
+	/**
+	 * Minimum throttle scaling factor
+	 */
+	private static final double MIN_THROTTLE_SCALE = 1.0 / 64;
+	private final DensityThrottlingIterator<?> throttle;
+	private final double preemptiveNodeDensity;
+	private double throttleScale = 1;
+	private int windowNodes = 0;
+	private int windowEdges = 0;
+	private long windowKmers = 0;
+	private long totalNodes = 0;
+	private long totalEdges = 0;
+	private long totalKmers = 0;
+	private double lastDensity = 0;
+	/**
+	 * @param throttle evidence density throttle to adjust. Can be null if the graph size is only to be tracked.
+	 * @param preemptiveNodeDensity non-reference node density at which downsampling is tightened
+	 */
+	public GraphDensityTracker(DensityThrottlingIterator<?> throttle, double preemptiveNodeDensity) {
+		this.throttle = throttle;
+		this.preemptiveNodeDensity = preemptiveNodeDensity;
+	}
+	/**
+	 * Adds a newly loaded graph node to the current window
+	 * @param node node loaded into the assembly graph
+	 */
+	public void add(KmerPathNode node) {
+		if (node.isReference()) return;
+		windowNodes++;
+		windowEdges += node.prev().size();
+		windowKmers += (long)node.length() * node.width();
+	}
+	/**
+	 * Completes the current window.
+	 * @param start window start position
+	 * @param end window end position (exclusive)
+	 */
+	public void windowLoaded(int start, int end) {
+		int width = end - start;
+		if (width <= 0) return;
+		lastDensity = windowNodes / (double)width;
+		totalNodes += windowNodes;
+		totalEdges += windowEdges;
+		totalKmers += windowKmers;
+		if (throttle != null && preemptiveNodeDensity > 0) {
+			double scale = throttleScale;
+			if (lastDensity > preemptiveNodeDensity) {
+				scale = Math.max(MIN_THROTTLE_SCALE, scale * preemptiveNodeDensity / lastDensity);
+			} else if (lastDensity < preemptiveNodeDensity / 2) {
+				scale = Math.min(1, scale * 2);
+			}
+			if (scale != throttleScale) {
+				if (scale < throttleScale) {
+					log.debug(String.format("Graph density of %.2f (%d nodes, %d edges, %d kmers) over %d-%d. Tightening downsampling to %.3f of target density.",
+							lastDensity, windowNodes, windowEdges, windowKmers, start, end, scale));
+				}
+				throttleScale = scale;
+				throttle.setDensityScale(throttleScale);
+			}
+		}
+		windowNodes = 0;
+		windowEdges = 0;
+		windowKmers = 0;
+	}
+	public double getLastDensity() {
+		return lastDensity;
+	}
+	public double getThrottleScale() {
+		return throttleScale;
+	}
+	public long getTotalNodes() {
+		return totalNodes;
+	}
+	public long getTotalEdges() {
+		return totalEdges;
+	}
+	public long getTotalKmers() {
+		return totalKmers;
+	}
+}
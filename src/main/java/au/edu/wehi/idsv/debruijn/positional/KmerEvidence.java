@@ -40,17 +40,40 @@ public class KmerEvidence extends PackedKmerList {
 	private final int refContigLength;
 	private final int firstAnchorKmer;
 	private final int lastAnchorKmer;
+	/**
+	 * Encoded kmers. Decoded once per read with a single rolling pass over the
+	 * packed sequence so kmer lookups do not need to unpack the sequence.
+	 */
+	private final long[] kmers;
+	/**
+	 * Kmers that provide no support
+	 */
 	private BitSet ambiguous;
 	private final int start;
 	private final int end;
 	private final float score;
 	private final boolean isReadPairAnchorRead;
-	private Integer hashCode = null;
+	private int hashCode = 0;
+	/**
+	 * Support node for the given kmer
+	 * @return support node, null if the kmer provides no support
+	 */
 	public KmerSupportNode node(int offset) {
-		if (ambiguous != null && ambiguous.get(offset)) {
+		if (!hasSupport(offset)) {
 			return null;
 		}
-		return new KmerSupportNode(this, offset);
+		return new KmerSupportNode(this, offset, kmers[offset]);
+	}
+	/**
+	 * Determines whether the given kmer provides support.
+	 * Ambiguous kmers do not have a support node.
+	 */
+	public boolean hasSupport(int offset) {
+		return ambiguous == null || !ambiguous.get(offset);
+	}
+	@Override
+	public long kmer(int offset) {
+		return kmers[offset];
 	}
 	public float evidenceQuality() { return score; }
 	public DirectedEvidence evidence() { return evidence; }
@@ -105,11 +128,12 @@ public class KmerEvidence extends PackedKmerList {
 		this.firstAnchorKmer = firstAnchoredKmer;
 		this.lastAnchorKmer = lastAnchoredKmer;
 		this.score = evidenceQual;
+		this.isReadPairAnchorRead = isReadPairAnchorRead;
+		this.kmers = kmers();
 		this.ambiguous = ambiguousKmers(k, bases);
 		if (start != end && evidence.getEvidenceSource().getContext().getConfig().getAssembly().positional.trimSelfIntersectingReads) {
 			this.ambiguous = flagSelfIntersectingKmersAsAmbiguous(this.ambiguous);
 		}
-		this.isReadPairAnchorRead = isReadPairAnchorRead;
 	}
 	/**
 	 * Treats kmers that self-intersect with earlier nodes as ambiguous.
@@ -352,7 +376,7 @@ public class KmerEvidence extends PackedKmerList {
 	}
 	@Override
 	public int hashCode() {
-		if (hashCode == null) {
+		if (hashCode == 0) {
 			hashCode = evidence.getEvidenceID().hashCode() + start + (isReadPairAnchorRead ? 1 : 0);
 		}
 		return hashCode;
@@ -10,7 +10,8 @@ import au.edu.wehi.idsv.debruijn.KmerEncodingHelper;
 public class KmerSupportNode implements KmerNode {
 	private final int offset;
 	private final KmerEvidence evidence;
-	public long lastKmer() { return evidence.kmer(offset); }
+	private final long kmer;
+	public long lastKmer() { return kmer; }
 	public int lastStart() { return evidence.startPosition() + offset; }
 	public int lastEnd() { return evidence.endPosition() + offset; }
 	public int weight() { return evidence.weight(offset); }
@@ -18,8 +19,12 @@ public class KmerSupportNode implements KmerNode {
 	public KmerEvidence evidence() { return evidence; }
 	public int offset() { return offset; }
 	public KmerSupportNode(KmerEvidence evidence, int offset) {
+		this(evidence, offset, evidence.kmer(offset));
+	}
+	KmerSupportNode(KmerEvidence evidence, int offset, long kmer) {
 		this.evidence = evidence;
 		this.offset = offset;
+		this.kmer = kmer;
 	}
 	@Override
 	public String toString() {
@@ -94,6 +94,7 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 	private long consumed = 0;
 	private PositionalDeBruijnGraphTracker exportTracker = null;
 	private AssemblyChunkTelemetry telemetry = null;
+	private GraphDensityTracker densityTracker = null;
 	private Set<KmerEvidence> untrackedEvidenceStillBeingProcessed = null;
 	public int getReferenceIndex() { return referenceIndex; }
 
@@ -422,6 +423,9 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 				assert(evidenceTracker.matchesExpected(new KmerPathSubnode(node)));
 			}
 			addToGraph(node);
+			if (densityTracker != null) {
+				densityTracker.add(node);
+			}
 			consumed++;
 			if (!node.isReference()) {
 				count++;
@@ -429,6 +433,9 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 		}
 		int advanceWidth = nextPosition() - lastNextPosition;
 		float density = advanceWidth <= 0 ? 0 : count / (float)advanceWidth;
+		if (densityTracker != null) {
+			densityTracker.windowLoaded(lastNextPosition, nextPosition());
+		}
 		boolean filtered = false;
 		if (density > aes.getContext().getAssemblyParameters().positional.maximumNodeDensity) {
 			log.debug(String.format("Density of %.2f at %s:%d-%d exceeds maximum: error correcting and downsampling.", density, contigName, lastNextPosition, nextPosition()));
@@ -1229,6 +1236,12 @@ public class NonReferenceContigAssembler implements Iterator<SAMRecord> {
 	public void setTelemetry(AssemblyChunkTelemetry telemetry) {
 		this.telemetry = telemetry;
 	}
+	public GraphDensityTracker getDensityTracker() {
+		return densityTracker;
+	}
+	public void setDensityTracker(GraphDensityTracker densityTracker) {
+		this.densityTracker = densityTracker;
+	}
 	public ContigStats tracking_lastContig() {
 		return stats;
 	}
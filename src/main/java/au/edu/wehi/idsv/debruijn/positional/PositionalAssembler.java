@@ -8,6 +8,7 @@ import au.edu.wehi.idsv.configuration.VisualisationConfiguration;
 import au.edu.wehi.idsv.debruijn.ReadErrorCorrector;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.sam.SamTags;
+import au.edu.wehi.idsv.util.DensityThrottlingIterator;
 import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.util.FilenameUtil;
 import au.edu.wehi.idsv.util.IntervalUtil;
@@ -44,6 +45,8 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 	private final IntervalBed safetyRegions;
 	private EvidenceTracker evidenceTracker = null;
 	private boolean contigGeneratedSinceException = false;
+	private DensityThrottlingIterator<?> densityThrottle = null;
+	private GraphDensityTracker densityTracker = null;
 	public PositionalAssembler(ProcessingContext context, AssemblyEvidenceSource source, AssemblyIdGenerator assemblyNameGenerator, Iterator<DirectedEvidence> backingIterator, BreakendDirection direction, IntervalBed excludedRegions, IntervalBed safetyRegions) {
 		this.context = context;
 		this.source = source;
@@ -338,6 +341,10 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 			}
 		}
 		currentAssembler.setTelemetry(getTelemetry());
+		if (densityTracker == null) {
+			densityTracker = new GraphDensityTracker(densityThrottle, ap.positional.preemptiveDownsamplingNodeDensity());
+		}
+		currentAssembler.setDensityTracker(densityTracker);
 		return currentAssembler;
 	}
 	public AssemblyChunkTelemetry getTelemetry() {
@@ -346,6 +353,13 @@ public class PositionalAssembler implements Iterator<SAMRecord> {
 	public void setTelemetry(AssemblyChunkTelemetry assemblyChunkTelemetry) {
 		this.telemetry = assemblyChunkTelemetry;
 	}
+	/**
+	 * Sets the density throttle of the evidence being assembled. The throttle will
+	 * be tightened as the assembly graph density approaches the maximum node density.
+	 */
+	public void setDensityThrottle(DensityThrottlingIterator<?> densityThrottle) {
+		this.densityThrottle = densityThrottle;
+	}
 	private static class ReferenceIndexIterator implements PeekingIterator<DirectedEvidence> {
 		private final PeekingIterator<DirectedEvidence> it;
 		private final int referenceIndex;
@@ -4,12 +4,13 @@ import au.edu.wehi.idsv.Defaults;
 import au.edu.wehi.idsv.DirectedEvidence;
 import au.edu.wehi.idsv.NonReferenceReadPair;
 import au.edu.wehi.idsv.SingleReadEvidence;
-import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerNodeByFirstStartPriorityQueue;
+import au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures.KmerSupportNodeByFirstStartPriorityQueue;
 import au.edu.wehi.idsv.util.MessageThrottler;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.util.Log;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 
 import java.util.*;
 
@@ -37,7 +38,11 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	 */
 	private final int emitOffset;
 	private final int maxSupportStartPositionOffset;
-	private final Queue<KmerSupportNode> buffer = Defaults.USE_OPTIMISED_ASSEMBLY_DATA_STRUCTURES ? new KmerNodeByFirstStartPriorityQueue<>(16) : new PriorityQueue<>(1024, KmerNodeUtil.ByFirstStart);
+	/**
+	 * Support nodes of the evidence loaded but not yet emitted
+	 */
+	private final KmerSupportNodeByFirstStartPriorityQueue buffer = new KmerSupportNodeByFirstStartPriorityQueue();
+	private KmerSupportNode peeked = null;
 	private final EvidenceTracker tracker;
 	private final int disallowMismatch;
 	private int inputPosition = Integer.MIN_VALUE;
@@ -105,15 +110,10 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 		if (e == null) {
 			return;
 		}
-		List<KmerSupportNode> supportNodes = new ArrayList<KmerSupportNode>(e.length() + (e2 == null ? 0 : e2.length()));
-		boolean hasNonReference = addSupport(supportNodes, de, e);
-		addSupport(supportNodes, de, e2);
-		if (Defaults.SANITY_CHECK_ASSEMBLY_GRAPH && supportNodes.size() > 0) {
-			int start = supportNodes.stream().mapToInt(n -> n.firstStart()).min().orElse(0);
-			int end = supportNodes.stream().mapToInt(n -> n.lastEnd()).max().orElse(Integer.MAX_VALUE);
-			if (end - start > maxSupportStartPositionOffset) {
-			}
-		}
+		IntArrayList support = new IntArrayList(e.length());
+		IntArrayList support2 = new IntArrayList(e2 == null ? 0 : e2.length());
+		boolean hasNonReference = addSupport(support, de, e);
+		hasNonReference |= addSupport(support2, de, e2);
 		if (hasNonReference) {
 			// only add evidence that provides support for an SV
 			// If we have no non-reference kmers then we might
@@ -121,12 +121,8 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 			// never remove it from the graph
 			// SC or RPs with no non-reference kmers can occur when
 			// an ambiguous base case exist in the soft clip/mate  
-			buffer.addAll(supportNodes);
-			if (tracker != null) {
-				for (KmerSupportNode sn : supportNodes) {
-					tracker.track(sn);
-				}
-			}
+			addToBuffer(e, support);
+			addToBuffer(e2, support2);
 		} else {
 			log.debug("Ref anchor");
 		}
@@ -134,15 +130,28 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 			tracker.sanityCheck();
 		}
 	}
-	private boolean addSupport(List<KmerSupportNode> supportNodes, DirectedEvidence de, KmerEvidence e) {
+	private void addToBuffer(KmerEvidence e, IntArrayList support) {
+		for (int i = 0; i < support.size(); i++) {
+			buffer.add(e, support.getInt(i));
+		}
+		if (tracker != null) {
+			tracker.track(e, support);
+		}
+	}
+	/**
+	 * Finds the supporting kmers of the given evidence
+	 * @param support kmer offsets of the supporting kmers
+	 * @return true if any supporting kmer is non-reference
+	 */
+	private boolean addSupport(IntArrayList support, DirectedEvidence de, KmerEvidence e) {
 		boolean hasNonReference = false;
 		if (e != null) {
 			for (int i = 0; i < e.length(); i++) {
-				KmerSupportNode support = e.node(i); 
-				if (support != null) {
+				if (e.hasSupport(i)) {
+					int firstStart = e.startPosition() + i;
 					// make sure that we are actually able to resort into kmer order
-					boolean isOutOfOrder = support.firstStart() < lastPosition;
-					boolean kmerToFarFromEvidence = support.firstStart() < de.getBreakendSummary().start - maxSupportStartPositionOffset;
+					boolean isOutOfOrder = firstStart < lastPosition;
+					boolean kmerToFarFromEvidence = firstStart < de.getBreakendSummary().start - maxSupportStartPositionOffset;
 					if (isOutOfOrder || kmerToFarFromEvidence) {
 						SAMRecord read = null;
 						if (de instanceof SingleReadEvidence) {
@@ -163,24 +172,23 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 											+ " Kmer support starts at %d which is more than %d before the breakpoint start position at %s",
 									de.getEvidenceID(),
 									readString,
-									support.firstStart(), maxSupportStartPositionOffset, de.getBreakendSummary());
+									firstStart, maxSupportStartPositionOffset, de.getBreakendSummary());
 						} else {
 							msg = String.format("Error: kmer out of order for evidence %s. Kmer at position %d after emitting kmer at %d",
 									de.getEvidenceID(),
-									support.firstStart(),
+									firstStart,
 									lastPosition);
 						}
 						log.error(msg);
 						// Try to continue
 						//throw new RuntimeException(msg);
-					} else if (support.weight() <= 0) {
-						String msg = String.format("Invalid support weight of %d for evidence %s", support.weight(), de.getEvidenceID());
+					} else if (e.weight(i) <= 0) {
+						String msg = String.format("Invalid support weight of %d for evidence %s", e.weight(i), de.getEvidenceID());
 						log.error(msg);
 						throw new RuntimeException(msg);
 					} else {
-						assert(support.weight() > 0);
-						supportNodes.add(support);
-						hasNonReference |= !support.isReference();
+						support.add(i);
+						hasNonReference |= !e.isAnchored(i);
 					}
 				}
 			}
@@ -195,7 +203,9 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	@Override
 	public KmerSupportNode next() {
 		ensureBuffer();
-		KmerSupportNode node = buffer.poll();
+		KmerSupportNode node = peekBuffer();
+		buffer.poll();
+		peeked = null;
 		assert(node.lastStart() >= lastPosition);
 		lastPosition = node.lastStart();
 		return node;
@@ -203,10 +213,21 @@ public class SupportNodeIterator implements PeekingIterator<KmerSupportNode> {
 	@Override
 	public KmerSupportNode peek() {
 		ensureBuffer();
-		return buffer.peek();
+		return peekBuffer();
+	}
+	/**
+	 * Support node at the head of the buffer.
+	 * Repeated peeks at the same node return the same instance.
+	 */
+	private KmerSupportNode peekBuffer() {
+		if (buffer.isEmpty()) return null;
+		if (peeked == null || peeked.evidence() != buffer.peekEvidence() || peeked.offset() != buffer.peekOffset()) {
+			peeked = buffer.peek();
+		}
+		return peeked;
 	}
 	private void ensureBuffer() {
-		while (underlying.hasNext() && (buffer.isEmpty() || buffer.peek().lastStart() > inputPosition - emitOffset)) {
+		while (underlying.hasNext() && (buffer.isEmpty() || buffer.peekFirstStart() > inputPosition - emitOffset)) {
 			inputPosition = underlying.peek().getUnderlyingSAMRecord().getAlignmentStart();
 			advance();
 		}
@@ -0,0 +1,107 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.debruijn.positional.KmerEvidence;
+import au.edu.wehi.idsv.debruijn.positional.KmerSupportNode;
+
+import java.util.Arrays;
+
+/**
+ * Priority queue of kmer support nodes ordered by start position.
+ *
+ * Nodes are stored as their evidence and kmer offset in parallel primitive
+ * arrays arranged as a binary heap keyed on the node start position.
+ * Buffered nodes are addressed by int index and no KmerSupportNode is
+ * allocated until a node is removed from the queue.
+ */
+public class KmerSupportNodeByFirstStartPriorityQueue {
+	private static final int INITIAL_CAPACITY = 1024;
+	private int[] start = new int[INITIAL_CAPACITY];
+	private int[] offset = new int[INITIAL_CAPACITY];
+	private KmerEvidence[] evidence = new KmerEvidence[INITIAL_CAPACITY];
+	private int size = 0;
+	/**
+	 * Adds the support node of the given kmer of the given evidence
+	 * @param e evidence
+	 * @param kmerOffset kmer offset
+	 */
+	public void add(KmerEvidence e, int kmerOffset) {
+		if (size == start.length) {
+			int capacity = start.length * 2;
+			start = Arrays.copyOf(start, capacity);
+			offset = Arrays.copyOf(offset, capacity);
+			evidence = Arrays.copyOf(evidence, capacity);
+		}
+		int nodeStart = e.startPosition() + kmerOffset;
+		int i = size++;
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (start[parent] <= nodeStart) break;
+			set(i, parent);
+			i = parent;
+		}
+		start[i] = nodeStart;
+		offset[i] = kmerOffset;
+		evidence[i] = e;
+	}
+	/**
+	 * Removes the node with the lowest start position
+	 * @return removed node
+	 */
+	public KmerSupportNode poll() {
+		if (size == 0) return null;
+		KmerSupportNode head = peek();
+		size--;
+		if (size > 0) {
+			int lastStart = start[size];
+			int lastOffset = offset[size];
+			KmerEvidence lastEvidence = evidence[size];
+			int i = 0;
+			int half = size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && start[child + 1] < start[child]) {
+					child++;
+				}
+				if (lastStart <= start[child]) break;
+				set(i, child);
+				i = child;
+			}
+			start[i] = lastStart;
+			offset[i] = lastOffset;
+			evidence[i] = lastEvidence;
+		}
+		evidence[size] = null;
+		return head;
+	}
+	private void set(int to, int from) {
+		start[to] = start[from];
+		offset[to] = offset[from];
+		evidence[to] = evidence[from];
+	}
+	/**
+	 * Creates the node with the lowest start position
+	 * @return node, null if the queue is empty
+	 */
+	public KmerSupportNode peek() {
+		if (size == 0) return null;
+		return evidence[0].node(offset[0]);
+	}
+	/**
+	 * Start position of the node with the lowest start position
+	 */
+	public int peekFirstStart() {
+		return start[0];
+	}
+	public KmerEvidence peekEvidence() {
+		return evidence[0];
+	}
+	public int peekOffset() {
+		return offset[0];
+	}
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	public int size() {
+		return size;
+	}
+}
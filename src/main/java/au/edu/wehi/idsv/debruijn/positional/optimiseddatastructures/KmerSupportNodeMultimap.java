@@ -0,0 +1,171 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.debruijn.positional.KmerEvidence;
+import au.edu.wehi.idsv.debruijn.positional.KmerSupportNode;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Multimap of kmer to KmerSupportNode.
+ *
+ * The nodes for each kmer are stored as a singly-linked chain of slots in
+ * parallel primitive arrays with an open-addressing kmer to chain head lookup.
+ * Each node is stored as its evidence and kmer offset so no node objects
+ * are retained, and a KmerSupportNode is only created when requested.
+ * Each slot also records an integer handle for the evidence the node
+ * belongs to so evidence can be matched without object lookups.
+ *
+ * Slots are addressed by int index. Released slots are reused.
+ */
+public class KmerSupportNodeMultimap {
+	public static final int NONE = -1;
+	private static final int INITIAL_CAPACITY = 1024;
+	private final Long2IntOpenHashMap head = new Long2IntOpenHashMap();
+	private KmerEvidence[] evidence = new KmerEvidence[INITIAL_CAPACITY];
+	private int[] offset = new int[INITIAL_CAPACITY];
+	private int[] handle = new int[INITIAL_CAPACITY];
+	private int[] next = new int[INITIAL_CAPACITY];
+	/**
+	 * Number of slots that have ever been allocated
+	 */
+	private int allocated = 0;
+	private int freeHead = NONE;
+	private int size = 0;
+	public KmerSupportNodeMultimap() {
+		head.defaultReturnValue(NONE);
+	}
+	/**
+	 * Adds the given node
+	 * @param kmer kmer to add the node to
+	 * @param e evidence of the node to add
+	 * @param kmerOffset kmer offset of the node within the evidence
+	 * @param evidenceHandle handle of the evidence the node belongs to
+	 * @return slot the node was placed in
+	 */
+	public int put(long kmer, KmerEvidence e, int kmerOffset, int evidenceHandle) {
+		int slot = allocateSlot();
+		evidence[slot] = e;
+		offset[slot] = kmerOffset;
+		handle[slot] = evidenceHandle;
+		next[slot] = head.get(kmer);
+		head.put(kmer, slot);
+		size++;
+		return slot;
+	}
+	private int allocateSlot() {
+		if (freeHead != NONE) {
+			int slot = freeHead;
+			freeHead = next[slot];
+			return slot;
+		}
+		if (allocated == evidence.length) {
+			int capacity = evidence.length * 2;
+			evidence = Arrays.copyOf(evidence, capacity);
+			offset = Arrays.copyOf(offset, capacity);
+			handle = Arrays.copyOf(handle, capacity);
+			next = Arrays.copyOf(next, capacity);
+		}
+		return allocated++;
+	}
+	/**
+	 * First slot in the chain for the given kmer
+	 * @return slot, or NONE if no nodes are present for the given kmer
+	 */
+	public int first(long kmer) {
+		return head.get(kmer);
+	}
+	/**
+	 * Slot following the given slot in the kmer chain
+	 * @return slot, or NONE if this is the last slot in the chain
+	 */
+	public int next(int slot) {
+		return next[slot];
+	}
+	/**
+	 * Creates the support node in the given slot
+	 */
+	public KmerSupportNode node(int slot) {
+		return evidence[slot].node(offset[slot]);
+	}
+	public KmerEvidence evidence(int slot) {
+		return evidence[slot];
+	}
+	public int offset(int slot) {
+		return offset[slot];
+	}
+	public int lastStart(int slot) {
+		return evidence[slot].startPosition() + offset[slot];
+	}
+	public int lastEnd(int slot) {
+		return evidence[slot].endPosition() + offset[slot];
+	}
+	public int weight(int slot) {
+		return evidence[slot].weight(offset[slot]);
+	}
+	public int handle(int slot) {
+		return handle[slot];
+	}
+	/**
+	 * Removes the given slot from the kmer chain
+	 * @param kmer kmer chain containing the slot
+	 * @param prev slot preceding the slot to be removed, or NONE if the slot is the head of the chain
+	 * @param slot slot to remove
+	 * @return slot following the removed slot
+	 */
+	public int remove(long kmer, int prev, int slot) {
+		assert(prev == NONE ? head.get(kmer) == slot : next[prev] == slot);
+		int following = next[slot];
+		if (prev == NONE) {
+			if (following == NONE) {
+				head.remove(kmer);
+			} else {
+				head.put(kmer, following);
+			}
+		} else {
+			next[prev] = following;
+		}
+		evidence[slot] = null;
+		next[slot] = freeHead;
+		freeHead = slot;
+		size--;
+		return following;
+	}
+	public boolean contains(long kmer, KmerEvidence e, int kmerOffset) {
+		for (int slot = first(kmer); slot != NONE; slot = next[slot]) {
+			if (offset[slot] == kmerOffset && e.equals(evidence[slot])) {
+				return true;
+			}
+		}
+		return false;
+	}
+	public int chainLength(long kmer) {
+		int length = 0;
+		for (int slot = first(kmer); slot != NONE; slot = next[slot]) {
+			length++;
+		}
+		return length;
+	}
+	/**
+	 * Number of nodes
+	 */
+	public int size() {
+		return size;
+	}
+	/**
+	 * Number of distinct kmers
+	 */
+	public int kmerCount() {
+		return head.size();
+	}
+	public int maxChainLength() {
+		return head.keySet().stream().mapToInt(kmer -> chainLength(kmer)).max().orElse(0);
+	}
+	public Stream<KmerSupportNode> values() {
+		return IntStream.range(0, allocated)
+				.filter(slot -> evidence[slot] != null)
+				.mapToObj(slot -> node(slot));
+	}
+}
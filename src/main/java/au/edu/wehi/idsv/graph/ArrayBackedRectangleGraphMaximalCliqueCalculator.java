@@ -0,0 +1,576 @@
+package au.edu.wehi.idsv.graph;
+
+import au.edu.wehi.idsv.Defaults;
+import au.edu.wehi.idsv.visualisation.TrackedState;
+import com.google.common.collect.ImmutableList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntRBTreeMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Calculates all maximal cliques of a rectangle graph.
+ *
+ * This uses the same sweep-line algorithm as RectangleGraphMaximalCliqueCalculator
+ * but stores rectangles and scanline intervals in parallel primitive arrays
+ * addressed by int index instead of as objects.
+ *
+ * - Active rectangles are ordered by array-backed binary heaps of rectangle indices
+ * that compare the primitive coordinate arrays directly.
+ * - Scanline intervals form an array-backed doubly linked list. Once the scanline
+ * contains many intervals, they are also indexed by a balanced tree keyed on
+ * interval start. When no rectangles are active on the scanline, the scanline
+ * position is advanced by tree lookup instead of walking every intervening
+ * interval since the pending scanline weight is only applied to intervals
+ * covered by active rectangles. The index is not maintained for small
+ * scanlines as walking a short list is cheaper than tree maintenance.
+ * - Adjacent intervals are only considered for merging at the boundaries at which
+ * a rectangle was removed instead of rescanning the entire scanline.
+ *
+ * @author Daniel Cameron
+ */
+public class ArrayBackedRectangleGraphMaximalCliqueCalculator implements RectangleGraphMaximalCliqueCaller {
+	private static final int NONE = -1;
+	private static final int RELEASED = -2;
+	private static final int INITIAL_CAPACITY = 16;
+	/**
+	 * Start position of the end of scanline sentinel interval
+	 */
+	private static final long SCANLINE_END = Long.MAX_VALUE - 1;
+	/**
+	 * Number of uncovered intervals to step through before falling back to a tree lookup
+	 */
+	private static final int MAX_UNWEIGHTED_SCAN_STEPS = 8;
+	/**
+	 * Number of scanline intervals at which the interval index is built
+	 */
+	private static final int INDEX_INTERVAL_THRESHOLD = 256;
+	/**
+	 * Number of scanline intervals at which the interval index is discarded
+	 */
+	private static final int UNINDEX_INTERVAL_THRESHOLD = 64;
+	private long lastStartX = Long.MIN_VALUE;
+	private long lastStartY = Long.MIN_VALUE;
+	private List<RectangleGraphNode> outBuffer;
+	// Rectangles
+	private long[] startX = new long[INITIAL_CAPACITY];
+	private long[] endX = new long[INITIAL_CAPACITY];
+	private long[] startY = new long[INITIAL_CAPACITY];
+	private long[] endY = new long[INITIAL_CAPACITY];
+	private long[] weight = new long[INITIAL_CAPACITY];
+	private int rectanglesAllocated = 0;
+	private final IntArrayList freeRectangles = new IntArrayList();
+	private final RectangleHeap activeEndingX = new RectangleHeap() {
+		@Override
+		protected boolean less(int a, int b) {
+			if (endX[a] != endX[b]) return endX[a] < endX[b];
+			if (startY[a] != startY[b]) return startY[a] < startY[b];
+			return endY[a] < endY[b];
+		}
+	};
+	/**
+	 * Contains rectangles of which the start Y has been processed but the end Y has not yet been encountered
+	 */
+	private final RectangleHeap activeScanlineEndingY = new RectangleHeap() {
+		@Override
+		protected boolean less(int a, int b) {
+			return endY[a] < endY[b];
+		}
+	};
+	// Scanline intervals. Scanline coordinates use half-open intervals.
+	private long[] intervalStartY = new long[INITIAL_CAPACITY];
+	/**
+	 * Long.MAX_VALUE indicates this interval is not maximal
+	 */
+	private long[] intervalStartX = new long[INITIAL_CAPACITY];
+	private long[] intervalWeight = new long[INITIAL_CAPACITY];
+	private int[] intervalStartHere = new int[INITIAL_CAPACITY];
+	private int[] intervalEndHere = new int[INITIAL_CAPACITY];
+	private int[] intervalNext = new int[INITIAL_CAPACITY];
+	private int[] intervalPrev = new int[INITIAL_CAPACITY];
+	private int intervalsAllocated = 0;
+	private int freeIntervalHead = NONE;
+	private int intervalCount = 0;
+	/**
+	 * Interval lookup by start position. Null if the scanline is not currently indexed.
+	 */
+	private Long2IntRBTreeMap intervalByStartY = null;
+	private final int activeScanlineStart;
+	private int activeScanlineCurrentPosition;
+	private long activeScanlineActiveWeight = 0;
+	private long scanlineX = Long.MIN_VALUE;
+	/**
+	 * Intervals starting at a boundary at which a rectangle was removed from the current scanline
+	 */
+	private final IntArrayList mergeCandidates = new IntArrayList();
+	private final IntArrayList endingCurrentScanline = new IntArrayList();
+	public ArrayBackedRectangleGraphMaximalCliqueCalculator() {
+		int sentinel = allocateInterval(SCANLINE_END, 0, 0, NONE, NONE);
+		activeScanlineStart = allocateInterval(Long.MIN_VALUE, 0, 0, NONE, sentinel);
+		intervalPrev[sentinel] = activeScanlineStart;
+		activeScanlineCurrentPosition = activeScanlineStart;
+		assert(sanityCheckScanlineComplete());
+	}
+	/**
+	 * Array-backed binary min-heap of rectangle indices
+	 */
+	private abstract class RectangleHeap {
+		private int[] heap = new int[INITIAL_CAPACITY];
+		private int size = 0;
+		protected abstract boolean less(int a, int b);
+		public boolean isEmpty() {
+			return size == 0;
+		}
+		public int size() {
+			return size;
+		}
+		public int peek() {
+			return heap[0];
+		}
+		public void add(int r) {
+			if (size == heap.length) {
+				heap = Arrays.copyOf(heap, size * 2);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (!less(r, heap[parent])) break;
+				heap[i] = heap[parent];
+				i = parent;
+			}
+			heap[i] = r;
+		}
+		public int poll() {
+			int result = heap[0];
+			int r = heap[--size];
+			int i = 0;
+			int half = size >>> 1;
+			while (i < half) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && less(heap[child + 1], heap[child])) {
+					child++;
+				}
+				if (!less(heap[child], r)) break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = r;
+			return result;
+		}
+		public int get(int i) {
+			return heap[i];
+		}
+	}
+	private int allocateRectangle(RectangleGraphNode node) {
+		int r;
+		if (!freeRectangles.isEmpty()) {
+			r = freeRectangles.popInt();
+		} else {
+			if (rectanglesAllocated == startX.length) {
+				int capacity = rectanglesAllocated * 2;
+				startX = Arrays.copyOf(startX, capacity);
+				endX = Arrays.copyOf(endX, capacity);
+				startY = Arrays.copyOf(startY, capacity);
+				endY = Arrays.copyOf(endY, capacity);
+				weight = Arrays.copyOf(weight, capacity);
+			}
+			r = rectanglesAllocated++;
+		}
+		startX[r] = node.startX;
+		endX[r] = node.endX;
+		startY[r] = node.startY;
+		endY[r] = node.endY;
+		weight[r] = node.weight;
+		return r;
+	}
+	private int allocateInterval(long y, long w, int endHere, int prev, int next) {
+		int i;
+		if (freeIntervalHead != NONE) {
+			i = freeIntervalHead;
+			freeIntervalHead = intervalNext[i];
+		} else {
+			if (intervalsAllocated == intervalStartY.length) {
+				int capacity = intervalsAllocated * 2;
+				intervalStartY = Arrays.copyOf(intervalStartY, capacity);
+				intervalStartX = Arrays.copyOf(intervalStartX, capacity);
+				intervalWeight = Arrays.copyOf(intervalWeight, capacity);
+				intervalStartHere = Arrays.copyOf(intervalStartHere, capacity);
+				intervalEndHere = Arrays.copyOf(intervalEndHere, capacity);
+				intervalNext = Arrays.copyOf(intervalNext, capacity);
+				intervalPrev = Arrays.copyOf(intervalPrev, capacity);
+			}
+			i = intervalsAllocated++;
+		}
+		intervalStartY[i] = y;
+		intervalStartX[i] = Long.MAX_VALUE;
+		intervalWeight[i] = w;
+		intervalStartHere[i] = 0;
+		intervalEndHere[i] = endHere;
+		intervalNext[i] = next;
+		intervalPrev[i] = prev;
+		intervalCount++;
+		if (intervalByStartY == null && intervalCount >= INDEX_INTERVAL_THRESHOLD) {
+			buildIndex();
+		}
+		if (intervalByStartY != null) {
+			intervalByStartY.put(y, i);
+		}
+		return i;
+	}
+	private void releaseInterval(int i) {
+		intervalCount--;
+		if (intervalByStartY != null) {
+			if (intervalCount < UNINDEX_INTERVAL_THRESHOLD) {
+				intervalByStartY = null;
+			} else {
+				intervalByStartY.remove(intervalStartY[i]);
+			}
+		}
+		intervalNext[i] = freeIntervalHead;
+		intervalPrev[i] = RELEASED;
+		freeIntervalHead = i;
+	}
+	private void buildIndex() {
+		intervalByStartY = new Long2IntRBTreeMap();
+		intervalByStartY.defaultReturnValue(NONE);
+		for (int i = activeScanlineStart; i != NONE; i = intervalNext[i]) {
+			intervalByStartY.put(intervalStartY[i], i);
+		}
+	}
+	/**
+	 * End coordinate of the half-open interval
+	 */
+	private long intervalEndY(int i) {
+		int next = intervalNext[i];
+		if (next == NONE) return Long.MAX_VALUE;
+		return intervalStartY[next];
+	}
+	/**
+	 * Finds the scanline interval containing the given position
+	 * @param from interval to search from if the scanline is not indexed. Must start at or before y
+	 */
+	private int intervalContaining(int from, long y) {
+		if (intervalByStartY != null) {
+			return intervalByStartY.get(intervalByStartY.headMap(y + 1).lastLongKey());
+		}
+		assert(intervalStartY[from] <= y);
+		int i = from;
+		while (intervalEndY(i) <= y) {
+			i = intervalNext[i];
+		}
+		return i;
+	}
+	/**
+	 * Splits the given interval so an interval starts at the given position
+	 */
+	private void splitAt(int i, long y) {
+		assert(y >= intervalStartY[i]);
+		assert(y < intervalEndY(i));
+		if (y == intervalStartY[i]) return;
+		int split = allocateInterval(y, intervalWeight[i], intervalEndHere[i], i, intervalNext[i]);
+		intervalPrev[intervalNext[i]] = split;
+		intervalEndHere[i] = 0;
+		intervalNext[i] = split;
+		intervalStartX[i] = Long.MAX_VALUE;
+	}
+	private List<RectangleGraphNode> getCalledCliques() {
+		List<RectangleGraphNode> result = outBuffer == null ? ImmutableList.<RectangleGraphNode>of() : outBuffer;
+		outBuffer = null;
+		return result;
+	}
+	@Override
+	public List<RectangleGraphNode> next(RectangleGraphNode node) {
+		assert(node.startX <= node.endX);
+		assert(node.startY <= node.endY);
+		assert(node.weight > 0);
+		assert(node.startX >= scanlineX);
+		assert(node.startX > lastStartX || (node.startX == lastStartX && node.startY >= lastStartY));
+		lastStartX = node.startX;
+		lastStartY = node.startY;
+		if (node.startX != scanlineX) {
+			scanlineCompleteProcessing(1);
+			// advance scanline
+			processEndXBefore(node.startX);
+			scanlineX = node.startX;
+		}
+		int r = allocateRectangle(node);
+		incorporateInCurrentScanline(r, 1);
+		activeEndingX.add(r);
+		return getCalledCliques();
+	}
+	private void mergeIntervals() {
+		assert(activeScanlineEndingY.isEmpty()); // can't merge in the middle of processing
+		for (int j = 0; j < mergeCandidates.size(); j++) {
+			int i = mergeCandidates.getInt(j);
+			// make sure we don't merge our end sentinel
+			if (intervalPrev[i] == RELEASED || i == activeScanlineStart || intervalNext[i] == NONE) continue;
+			if (intervalStartHere[i] != 0) continue;
+			int prev = intervalPrev[i];
+			if (intervalEndHere[prev] != 0) continue;
+			// we can merge these together since the separating node is no longer around
+			assert(intervalWeight[prev] == intervalWeight[i]);
+			assert(intervalStartX[prev] == Long.MAX_VALUE);
+			assert(intervalStartX[i] == Long.MAX_VALUE);
+			intervalEndHere[prev] = intervalEndHere[i];
+			intervalNext[prev] = intervalNext[i];
+			intervalPrev[intervalNext[i]] = prev;
+			releaseInterval(i);
+		}
+		mergeCandidates.clear();
+	}
+	private boolean sanityCheckScanlineActive() {
+		if (!Defaults.SANITY_CHECK_CLIQUE) return true;
+		assert(sanityCheck());
+		assert(!activeScanlineEndingY.isEmpty());
+		assert(activeScanlineActiveWeight > 0);
+		assert(intervalStartY[activeScanlineCurrentPosition] < SCANLINE_END);
+		assert(intervalEndY(activeScanlineCurrentPosition) < Long.MAX_VALUE);
+		return true;
+	}
+	private boolean sanityCheckScanlineComplete() {
+		if (!Defaults.SANITY_CHECK_CLIQUE) return true;
+		assert(sanityCheck());
+		assert(activeScanlineCurrentPosition == activeScanlineStart);
+		assert(activeScanlineEndingY.isEmpty());
+		assert(activeScanlineActiveWeight == 0);
+		for (int i = intervalNext[activeScanlineStart]; i != NONE && intervalNext[i] != NONE; i = intervalNext[i]) {
+			if (intervalNext[intervalNext[i]] != NONE) {
+				// something should be splitting this node from the previous one
+				assert(intervalEndHere[i] > 0 || intervalStartHere[intervalNext[i]] > 0);
+			}
+		}
+		return true;
+	}
+	private boolean sanityCheck() {
+		if (!Defaults.SANITY_CHECK_CLIQUE) return true;
+		assert(intervalStartY[activeScanlineStart] == Long.MIN_VALUE);
+		assert(intervalWeight[activeScanlineStart] == 0);
+		assert(intervalStartHere[activeScanlineStart] == 0);
+		assert(intervalEndHere[activeScanlineStart] == 0);
+		int count = 0;
+		for (int last = NONE, i = activeScanlineStart; i != NONE; last = i, i = intervalNext[i]) {
+			count++;
+			assert(intervalStartY[i] < intervalEndY(i));
+			assert(intervalByStartY == null || intervalByStartY.get(intervalStartY[i]) == i);
+			if (last != NONE) {
+				assert(intervalEndY(last) == intervalStartY[i]);
+			}
+			assert(intervalPrev[i] == last);
+			if (intervalNext[i] == NONE) {
+				// sentinel
+				assert(intervalStartY[i] == SCANLINE_END);
+				assert(intervalWeight[i] == 0);
+				assert(intervalStartHere[i] == 0);
+				assert(intervalEndHere[i] == 0);
+			}
+		}
+		assert(count == intervalCount);
+		assert(intervalByStartY == null || count == intervalByStartY.size());
+		long w = 0;
+		for (int j = 0; j < activeScanlineEndingY.size(); j++) {
+			int r = activeScanlineEndingY.get(j);
+			assert(startY[r] <= intervalStartY[activeScanlineCurrentPosition]);
+			w += weight[r];
+		}
+		assert(activeScanlineActiveWeight == w);
+		return true;
+	}
+	/**
+	 * Advances the current scanline position to the starting interval
+	 * of the given rectangle and adds the given rectangle to the scanline active
+	 * set
+	 * @param r rectangle to start processing
+	 * @param multiplier 1 indicates we are incorporating the start of the given rectangle to the current scanline
+	 * -1 indicates we are incorporating the end of the given rectangle to the current scanline
+	 */
+	private void incorporateInCurrentScanline(int r, int multiplier) {
+		assert(multiplier == -1 || multiplier == 1);
+		assert(scanlineX == (multiplier == 1 ? startX[r] : endX[r]));
+		long y = startY[r];
+		assert(intervalStartY[activeScanlineCurrentPosition] <= y);
+		scanlineProcessYEndBefore(y, multiplier);
+		if (intervalStartY[activeScanlineCurrentPosition] != y) {
+			splitAt(activeScanlineCurrentPosition, y);
+			scanlineProcessYEndBefore(y, multiplier);
+		}
+		activeScanlineActiveWeight += weight[r];
+		intervalStartHere[activeScanlineCurrentPosition] += multiplier;
+		if (multiplier == -1) {
+			mergeCandidates.add(activeScanlineCurrentPosition);
+		}
+		activeScanlineEndingY.add(r);
+		assert(intervalStartY[activeScanlineCurrentPosition] == y);
+		assert(sanityCheckScanlineActive());
+	}
+	/**
+	 * Advances the current scanline position to the half-open interval containing the given y position.
+	 * @param endYBefore position to advance to
+	 * @param multiplier 1 indicates we are incorporating the start of rectangles to the current scanline
+	 * -1 indicates we are incorporating the end of rectangles to the current scanline
+	 */
+	private void scanlineProcessYEndBefore(long endYBefore, int multiplier) {
+		assert(multiplier == -1 || multiplier == 1);
+		while (!activeScanlineEndingY.isEmpty() && endY[activeScanlineEndingY.peek()] < endYBefore) {
+			int r = activeScanlineEndingY.poll();
+			long endYexclusive = endY[r] + 1;
+			int yendCount = 1;
+			long yendWeight = weight[r];
+			if (multiplier == -1) {
+				freeRectangles.add(r);
+			}
+			while (!activeScanlineEndingY.isEmpty() && endY[activeScanlineEndingY.peek()] + 1 == endYexclusive) {
+				r = activeScanlineEndingY.poll();
+				yendCount++;
+				yendWeight += weight[r];
+				if (multiplier == -1) {
+					freeRectangles.add(r);
+				}
+			}
+			advanceScanlineToIntervalContaining(endYexclusive - 1, multiplier);
+			if (intervalEndY(activeScanlineCurrentPosition) > endYexclusive) {
+				splitAt(activeScanlineCurrentPosition, endYexclusive);
+			}
+			// no need to advance here since our current position is correct
+			intervalEndHere[activeScanlineCurrentPosition] += yendCount * multiplier;
+			if (multiplier == -1) {
+				mergeCandidates.add(intervalNext[activeScanlineCurrentPosition]);
+			}
+			advanceScanlineToIntervalContaining(endYexclusive, multiplier); // move on past our closing position
+			activeScanlineActiveWeight -= yendWeight;
+		}
+		// advance position to node containing endYBefore
+		advanceScanlineToIntervalContaining(endYBefore, multiplier);
+	}
+	/**
+	 * Advances the current scanline to the interval containing the given position.
+	 * This method is responsible for updating scanline weights based on activeScanlineActiveWeight
+	 * @param y included in half-open interval to advance scanline to
+	 */
+	private void advanceScanlineToIntervalContaining(long y, int multiplier) {
+		int i = activeScanlineCurrentPosition;
+		assert(intervalStartY[i] <= y); // can't advance backwards
+		if (intervalEndY(i) > y) return;
+		if (activeScanlineActiveWeight == 0) {
+			// intervals not covered by any active rectangle are unchanged
+			// so we can skip directly to the interval containing y
+			for (int steps = 0; steps < MAX_UNWEIGHTED_SCAN_STEPS; steps++) {
+				i = intervalNext[i];
+				if (intervalEndY(i) > y) {
+					activeScanlineCurrentPosition = i;
+					return;
+				}
+			}
+			activeScanlineCurrentPosition = intervalContaining(i, y);
+			return;
+		}
+		while (intervalEndY(i) <= y) {
+			intervalWeight[i] += activeScanlineActiveWeight * multiplier;
+			// could be maximal if we're adding new evidence
+			// if we're removing evidence then we're now definitely not maximal
+			intervalStartX[i] = Long.MAX_VALUE;
+			if (multiplier == 1 && intervalStartHere[i] > 0 && intervalEndHere[i] > 0) {
+				intervalStartX[i] = scanlineX;
+			}
+			i = intervalNext[i];
+		}
+		activeScanlineCurrentPosition = i;
+		assert(intervalStartY[i] <= y);
+		assert(intervalEndY(i) > y);
+	}
+	/**
+	 * Calls maximum cliques
+	 * Maximum cliques will always occur within one of the intervals of the rectangles ending on the current scanline
+	 */
+	private void callMaximumCliques() {
+		int index = 0;
+		int i = activeScanlineStart;
+		while (index < endingCurrentScanline.size()) {
+			int r = endingCurrentScanline.getInt(index);
+			long callStartY = startY[r];
+			long endYexclusive = endY[r] + 1;
+			index++;
+			while (index < endingCurrentScanline.size() && startY[endingCurrentScanline.getInt(index)] <= endYexclusive) {
+				// expand the current calling interval due to overlap
+				endYexclusive = Math.max(endYexclusive, endY[endingCurrentScanline.getInt(index)] + 1);
+				index++;
+			}
+			// advance to interval
+			i = intervalContaining(i, callStartY);
+			assert(intervalStartY[i] == callStartY);
+			// call cliques in interval
+			while (intervalStartY[i] < endYexclusive) {
+				if (intervalStartX[i] != Long.MAX_VALUE) {
+					outBuffer.add(new RectangleGraphNode(
+							intervalStartX[i], scanlineX,
+							intervalStartY[i], intervalEndY(i) - 1, // convert back from half-open to close interval
+							intervalWeight[i]));
+				}
+				i = intervalNext[i];
+			}
+			assert(intervalStartY[i] == endYexclusive);
+		}
+	}
+	private void scanlineCompleteProcessing(int multiplier) {
+		scanlineProcessYEndBefore(SCANLINE_END, multiplier);
+		// reset ready for next scanline
+		activeScanlineCurrentPosition = activeScanlineStart;
+		if (multiplier == -1) {
+			// removal of nodes can result in adjacent intervals requiring merge
+			mergeIntervals();
+		}
+		assert(sanityCheckScanlineComplete());
+	}
+	private void processEndXBefore(long endBeforeX) {
+		outBuffer = new ArrayList<RectangleGraphNode>();
+		while (!activeEndingX.isEmpty() && endX[activeEndingX.peek()] < endBeforeX) {
+			scanlineX = endX[activeEndingX.peek()];
+			processEndingXOnCurrentScanline();
+		}
+	}
+	private void processEndingXOnCurrentScanline() {
+		assert(activeScanlineEndingY.isEmpty());
+		endingCurrentScanline.clear();
+		while (!activeEndingX.isEmpty() && endX[activeEndingX.peek()] == scanlineX) {
+			endingCurrentScanline.add(activeEndingX.poll());
+		}
+		callMaximumCliques();
+		for (int j = 0; j < endingCurrentScanline.size(); j++) {
+			incorporateInCurrentScanline(endingCurrentScanline.getInt(j), -1);
+		}
+		scanlineCompleteProcessing(-1);
+	}
+	@Override
+	public List<RectangleGraphNode> complete() {
+		scanlineCompleteProcessing(1);
+		processEndXBefore(Long.MAX_VALUE);
+		return outBuffer;
+	}
+
+	@Override
+	public String[] trackedNames() {
+		return new String[] {
+			"outBufferSize",
+			"activeEndingXSize",
+			"activeScanlineEndingYSize",
+			"scanlineIntervals",
+		};
+	}
+
+	@Override
+	public Object[] trackedState() {
+		return new Object[] {
+				outBuffer == null ? 0 : outBuffer.size(),
+				activeEndingX.size(),
+				activeScanlineEndingY.size(),
+				intervalCount,
+		};
+	}
+
+	@Override
+	public Collection<TrackedState> trackedObjects() {
+		return ImmutableList.of(this);
+	}
+}
@@ -26,7 +26,7 @@ import java.util.PriorityQueue;
  * 
  * @author Daniel Cameron
  */
-public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
+public class RectangleGraphMaximalCliqueCalculator implements RectangleGraphMaximalCliqueCaller {
 	private RectangleGraphNode lastNode = null;
 	private List<RectangleGraphNode> outBuffer;
 	private final PriorityQueue<RectangleGraphNode> activeEndingX = new PriorityQueue<RectangleGraphNode>(11, RectangleGraphNode.ByEndXStartYEndY); // sorted by endX
@@ -143,11 +143,7 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 		outBuffer = null;
 		return result;
 	}
-	/**
-	 * Advances to the next position
-	 * @param node
-	 * @return
-	 */
+	@Override
 	public List<RectangleGraphNode> next(RectangleGraphNode node) {
 		assert(node.startX <= node.endX);
 		assert(node.startY <= node.endY);
@@ -377,6 +373,7 @@ public class RectangleGraphMaximalCliqueCalculator implements TrackedState {
 		}
 		scanlineCompleteProcessing(-1);
 	}
+	@Override
 	public List<RectangleGraphNode> complete() {
 		scanlineCompleteProcessing(1);
 		processEndXBefore(Long.MAX_VALUE);
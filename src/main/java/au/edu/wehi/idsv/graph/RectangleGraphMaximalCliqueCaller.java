@@ -0,0 +1,26 @@
+package au.edu.wehi.idsv.graph;
+
+import au.edu.wehi.idsv.visualisation.TrackedState;
+
+import java.util.List;
+
+/**
+ * Streaming maximal clique caller for rectangle graphs.
+ *
+ * Nodes must be supplied in ByStartXY order.
+ *
+ * @author Daniel Cameron
+ */
+public interface RectangleGraphMaximalCliqueCaller extends TrackedState {
+	/**
+	 * Advances to the next position
+	 * @param node next node in ByStartXY order
+	 * @return maximal cliques that can no longer change
+	 */
+	List<RectangleGraphNode> next(RectangleGraphNode node);
+	/**
+	 * Completes processing
+	 * @return all remaining maximal cliques
+	 */
+	List<RectangleGraphNode> complete();
+}
@@ -1,7 +1,6 @@
 package au.edu.wehi.idsv.kraken;
 
-import au.edu.wehi.idsv.ncbi.MinimalTaxonomyNode;
-import au.edu.wehi.idsv.ncbi.TaxonomyHelper;
+import au.edu.wehi.idsv.ncbi.TaxonomyIndex;
 import htsjdk.samtools.util.Log;
 import org.apache.commons.collections4.iterators.ReverseListIterator;
 
@@ -9,7 +8,6 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Checks whether this read could be part of the given taxonomic subset.
@@ -33,13 +31,19 @@ public class KrakenClassificationChecker {
      */
     private final boolean[] badTaxId;
     public KrakenClassificationChecker(List<Integer> taxonomyIdOfInterest, File nodesdmp) throws IOException {
+        this(taxonomyIdOfInterest, nodesdmp, null);
+    }
+    /**
+     * @param taxonomyIndex taxonomy index file for nodesdmp. Can be null.
+     */
+    public KrakenClassificationChecker(List<Integer> taxonomyIdOfInterest, File nodesdmp, File taxonomyIndex) throws IOException {
         log.info("Loading NCBI taxonomy from ", nodesdmp);
-        Map<Integer, MinimalTaxonomyNode> lookup = TaxonomyHelper.parseMinimal(nodesdmp);
-        this.goodTaxId = TaxonomyHelper.createInclusionLookup(taxonomyIdOfInterest, lookup);
-        this.badTaxId = setupBadTaxId(goodTaxId, lookup, taxonomyIdOfInterest);
+        TaxonomyIndex taxonomy = TaxonomyIndex.open(nodesdmp, taxonomyIndex);
+        this.goodTaxId = taxonomy.createInclusionLookup(taxonomyIdOfInterest);
+        this.badTaxId = setupBadTaxId(goodTaxId, taxonomy, taxonomyIdOfInterest);
     }
 
-    private boolean[] setupBadTaxId(boolean[] goodTaxId, Map<Integer, MinimalTaxonomyNode> lookup, List<Integer> taxonomyIdOfInterest) {
+    private boolean[] setupBadTaxId(boolean[] goodTaxId, TaxonomyIndex taxonomy, List<Integer> taxonomyIdOfInterest) {
         boolean[] badTaxId = new boolean[goodTaxId.length];
         for (int i = 0 ; i < goodTaxId.length; i++) {
             badTaxId[i] = !goodTaxId[i];
@@ -49,7 +53,7 @@ public class KrakenClassificationChecker {
             while (ancestorTaxId != lastTaxId) {
                 badTaxId[ancestorTaxId] = false;
                 lastTaxId = ancestorTaxId;
-                ancestorTaxId = lookup.get(ancestorTaxId).parentTaxId;
+                ancestorTaxId = taxonomy.getParent(ancestorTaxId);
 
             }
         }
@@ -80,4 +84,74 @@ public class KrakenClassificationChecker {
         }
         return foundGood;
     }
+
+    /**
+     * Checks the given Kraken2 output line without parsing it into a KrakenClassification.
+     * This method is thread-safe.
+     * @param line buffer containing the line
+     * @param start start offset of the line
+     * @param end end offset of the line, excluding the line terminator
+     */
+    public boolean isOfInterest(byte[] line, int start, int end) {
+        int taxIdStart = nextField(line, nextField(line, start, end), end);
+        int taxonomyId = parseTaxonomyId(line, taxIdStart, end);
+        if (goodTaxId[taxonomyId]) return true;
+        int kmerStart = nextField(line, nextField(line, taxIdStart, end), end);
+        int pairSeparator = indexOfPairSeparator(line, kmerStart, end);
+        if (pairSeparator < 0) {
+            return isOfInterest(line, kmerStart, end, true) || isOfInterest(line, kmerStart, end, false);
+        }
+        return isOfInterest(line, kmerStart, pairSeparator, true) || isOfInterest(line, kmerStart, pairSeparator, false)
+                || isOfInterest(line, pairSeparator + 3, end, true) || isOfInterest(line, pairSeparator + 3, end, false);
+    }
+    private boolean isOfInterest(byte[] line, int start, int end, boolean forward) {
+        // same traversal as isOfInterest(Iterator<KrakenKmerClassification>)
+        boolean foundGood = false;
+        int i = forward ? start : end - 1;
+        while (forward ? i < end : i >= start) {
+            if (line[i] == ' ') {
+                i += forward ? 1 : -1;
+                continue;
+            }
+            int tokenStart = i;
+            if (forward) {
+                while (i < end && line[i] != ' ') i++;
+            } else {
+                while (i >= start && line[i] != ' ') i--;
+                tokenStart = i + 1;
+            }
+            int taxonomyId = parseTaxonomyId(line, tokenStart, end);
+            if (taxonomyId != KrakenKmerClassification.AMBIGUOUS) {
+                foundGood |= goodTaxId[taxonomyId];
+                if (badTaxId[taxonomyId]) {
+                    break;
+                }
+            }
+        }
+        return foundGood;
+    }
+    private static int nextField(byte[] line, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (line[i] == '\t') return i + 1;
+        }
+        return end;
+    }
+    private static int indexOfPairSeparator(byte[] line, int start, int end) {
+        for (int i = start; i + 2 < end; i++) {
+            if (line[i] == '|' && line[i + 1] == ':' && line[i + 2] == '|') return i;
+        }
+        return -1;
+    }
+    /**
+     * Parses a taxonomy ID. Non-numeric IDs such as the A:n ambiguous kmer
+     * and -:- reading frame tokens are treated as ambiguous.
+     */
+    private static int parseTaxonomyId(byte[] line, int start, int end) {
+        if (start >= end || line[start] < '0' || line[start] > '9') return KrakenKmerClassification.AMBIGUOUS;
+        int taxonomyId = 0;
+        for (int i = start; i < end && line[i] >= '0' && line[i] <= '9'; i++) {
+            taxonomyId = taxonomyId * 10 + (line[i] - '0');
+        }
+        return taxonomyId;
+    }
 }
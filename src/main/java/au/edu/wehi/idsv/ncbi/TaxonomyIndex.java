@@ -0,0 +1,312 @@
+package au.edu.wehi.idsv.ncbi;
+
+import au.edu.wehi.idsv.FileSystemContext;
+import au.edu.wehi.idsv.util.FileHelper;
+import htsjdk.samtools.util.Log;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Compact representation of the NCBI taxonomy tree.
+ *
+ * Nodes are labelled with their pre-order interval in a depth-first traversal
+ * of the tree so ancestor queries are constant time.
+ *
+ * Parsing nodes.dmp is slow so the index can be written to an index file
+ * and memory-mapped by subsequent invocations.
+ */
+public class TaxonomyIndex {
+    private static final Log log = Log.getInstance(TaxonomyIndex.class);
+    private static final long MAGIC = 0x6772696473737478L; // "gridsstx"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int NOT_PRESENT = -1;
+    private final int maxTaxId;
+    private final IntBuffer parent;
+    /**
+     * Pre-order index of each node
+     */
+    private final IntBuffer enter;
+    /**
+     * Pre-order index after the last descendant of each node
+     */
+    private final IntBuffer exit;
+
+    private TaxonomyIndex(int maxTaxId, IntBuffer parent, IntBuffer enter, IntBuffer exit) {
+        this.maxTaxId = maxTaxId;
+        this.parent = parent;
+        this.enter = enter;
+        this.exit = exit;
+    }
+
+    /**
+     * Loads the taxonomy for the given nodes.dmp, using the given index file if it is up to date.
+     * If the index file is missing or out of date, it is recreated.
+     * @param nodesdmp nodes.dmp from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip
+     * @param indexFile taxonomy index file. If null, nodes.dmp is parsed and the index is only held in memory.
+     */
+    public static TaxonomyIndex open(File nodesdmp, File indexFile) throws IOException {
+        if (indexFile == null) {
+            return parse(nodesdmp);
+        }
+        if (indexFile.exists()) {
+            TaxonomyIndex index = load(indexFile, nodesdmp);
+            if (index != null) {
+                return index;
+            }
+            log.info("Recreating out of date taxonomy index ", indexFile);
+        }
+        TaxonomyIndex index = parse(nodesdmp);
+        File tmp = FileSystemContext.getWorkingFileFor(indexFile);
+        index.write(tmp, nodesdmp);
+        FileHelper.move(tmp, indexFile, false);
+        return index;
+    }
+
+    /**
+     * Parses nodes.dmp from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip
+     *
+     * @param nodesdmp nodes.dmp file
+     */
+    public static TaxonomyIndex parse(File nodesdmp) throws IOException {
+        log.info("Creating taxonomy index from ", nodesdmp);
+        IntArrayList taxIds = new IntArrayList();
+        IntArrayList parentTaxIds = new IntArrayList();
+        try (BufferedReader br = Files.newBufferedReader(nodesdmp.toPath())) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                // only the first two fields are required
+                int taxIdEnd = line.indexOf('\t');
+                int parentStart = line.indexOf('|', taxIdEnd) + 2;
+                int parentEnd = line.indexOf('\t', parentStart);
+                taxIds.add(Integer.parseInt(line.substring(0, taxIdEnd)));
+                parentTaxIds.add(Integer.parseInt(line.substring(parentStart, parentEnd)));
+            }
+        }
+        int maxTaxId = 0;
+        for (int i = 0; i < taxIds.size(); i++) {
+            maxTaxId = Math.max(maxTaxId, taxIds.getInt(i));
+        }
+        int[] parent = new int[maxTaxId + 1];
+        Arrays.fill(parent, NOT_PRESENT);
+        for (int i = 0; i < taxIds.size(); i++) {
+            parent[taxIds.getInt(i)] = parentTaxIds.getInt(i);
+        }
+        return fromParents(parent);
+    }
+
+    /**
+     * Labels each node with its pre-order interval
+     * @param parent parent of each taxid or NOT_PRESENT
+     */
+    private static TaxonomyIndex fromParents(int[] parent) {
+        int n = parent.length;
+        // compressed child lists
+        int[] childOffset = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            if (!isRoot(parent, i)) {
+                childOffset[parent[i] + 1]++;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            childOffset[i + 1] += childOffset[i];
+        }
+        int[] children = new int[childOffset[n]];
+        int[] childCount = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (!isRoot(parent, i)) {
+                children[childOffset[parent[i]] + childCount[parent[i]]++] = i;
+            }
+        }
+        int[] enter = new int[n];
+        int[] exit = new int[n];
+        Arrays.fill(enter, NOT_PRESENT);
+        Arrays.fill(exit, NOT_PRESENT);
+        int[] stack = new int[n];
+        int[] nextChild = new int[n];
+        int order = 0;
+        for (int root = 0; root < n; root++) {
+            if (parent[root] == NOT_PRESENT || !isRoot(parent, root)) continue;
+            int depth = 0;
+            stack[depth++] = root;
+            enter[root] = order++;
+            nextChild[root] = childOffset[root];
+            while (depth > 0) {
+                int node = stack[depth - 1];
+                if (nextChild[node] < childOffset[node + 1]) {
+                    int child = children[nextChild[node]++];
+                    enter[child] = order++;
+                    nextChild[child] = childOffset[child];
+                    stack[depth++] = child;
+                } else {
+                    exit[node] = order;
+                    depth--;
+                }
+            }
+        }
+        return new TaxonomyIndex(n - 1, IntBuffer.wrap(parent), IntBuffer.wrap(enter), IntBuffer.wrap(exit));
+    }
+
+    /**
+     * Nodes that are their own parent, or whose parent is not in the taxonomy are treated as roots
+     */
+    private static boolean isRoot(int[] parent, int taxId) {
+        int p = parent[taxId];
+        return p == NOT_PRESENT || p == taxId || p < 0 || p >= parent.length || parent[p] == NOT_PRESENT;
+    }
+
+    private void write(File file, File nodesdmp) throws IOException {
+        int n = maxTaxId + 1;
+        ByteBuffer bb = ByteBuffer.allocate(HEADER_BYTES + 3 * n * Integer.BYTES);
+        bb.putLong(MAGIC);
+        bb.putInt(VERSION);
+        bb.putInt(maxTaxId);
+        bb.putLong(nodesdmp.length());
+        bb.putLong(nodesdmp.lastModified());
+        for (IntBuffer buffer : new IntBuffer[] { parent, enter, exit }) {
+            for (int i = 0; i < n; i++) {
+                bb.putInt(buffer.get(i));
+            }
+        }
+        bb.flip();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            FileChannel channel = fos.getChannel();
+            while (bb.hasRemaining()) {
+                channel.write(bb);
+            }
+        }
+    }
+
+    /**
+     * Memory-maps a cached index
+     * @return index, or null if the index was not created from the current nodes.dmp
+     */
+    private static TaxonomyIndex load(File file, File nodesdmp) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            ByteBuffer bb = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (bb.remaining() < HEADER_BYTES || bb.getLong() != MAGIC || bb.getInt() != VERSION) {
+                return null;
+            }
+            int maxTaxId = bb.getInt();
+            if (bb.getLong() != nodesdmp.length() || bb.getLong() != nodesdmp.lastModified()) {
+                return null;
+            }
+            long n = maxTaxId + 1;
+            if (raf.length() != HEADER_BYTES + 3 * n * Integer.BYTES) {
+                return null;
+            }
+            IntBuffer parent = section(bb, 0, n);
+            IntBuffer enter = section(bb, 1, n);
+            IntBuffer exit = section(bb, 2, n);
+            return new TaxonomyIndex(maxTaxId, parent, enter, exit);
+        }
+    }
+
+    private static IntBuffer section(ByteBuffer bb, int ordinal, long n) {
+        ByteBuffer slice = bb.duplicate();
+        slice.position((int)(HEADER_BYTES + ordinal * n * Integer.BYTES));
+        slice.limit((int)(HEADER_BYTES + (ordinal + 1) * n * Integer.BYTES));
+        return slice.slice().asIntBuffer();
+    }
+
+    public int maxTaxId() {
+        return maxTaxId;
+    }
+
+    public boolean contains(int taxId) {
+        return taxId >= 0 && taxId <= maxTaxId && parent.get(taxId) != NOT_PRESENT;
+    }
+
+    /**
+     * Parent of the given taxa. The root of the taxonomy is its own parent.
+     */
+    public int getParent(int taxId) {
+        if (!contains(taxId)) {
+            throw new IllegalArgumentException(String.format("taxid %d not found in NCBI taxonomy", taxId));
+        }
+        return parent.get(taxId);
+    }
+
+    /**
+     * Determines whether the given taxa is, or is a descendant of, the given ancestor taxa.
+     */
+    public boolean isDescendantOf(int taxId, int ancestorTaxId) {
+        if (!contains(taxId) || !contains(ancestorTaxId)) return false;
+        int position = enter.get(taxId);
+        return enter.get(ancestorTaxId) <= position && position < exit.get(ancestorTaxId);
+    }
+
+    /**
+     * Creates a lookup table indicating whether that node is included, or is a child of
+     * any of the given NCBI taxonomy IDs.
+     * @param taxIds taxonomy IDs to search for
+     * @return lookup table of inclusion(true) or exclusion(false) any of the given taxonomy IDs.
+     */
+    public boolean[] createInclusionLookup(Collection<Integer> taxIds) {
+        int n = maxTaxId + 1;
+        // number of included subtrees starting/ending at each pre-order position
+        int[] delta = new int[n + 1];
+        boolean[] result = new boolean[n];
+        for (int taxId : taxIds) {
+            result[taxId] = true;
+            if (contains(taxId)) {
+                delta[enter.get(taxId)]++;
+                delta[exit.get(taxId)]--;
+            }
+        }
+        for (int i = 1; i <= n; i++) {
+            delta[i] += delta[i - 1];
+        }
+        for (int i = 0; i < n; i++) {
+            if (contains(i) && delta[enter.get(i)] > 0) {
+                result[i] = true;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds the ancestors of all included taxa
+     * @param taxa inclusion lookup
+     * @return lookup of the given taxa and their ancestors
+     */
+    public boolean[] addAncestors(boolean[] taxa) {
+        boolean[] result = Arrays.copyOf(taxa, taxa.length);
+        for (int i = 0; i < taxa.length; i++) {
+            if (taxa[i] && contains(i)) {
+                // iterate up the tree until we reach an ancestor we've already added
+                int node = i;
+                while (contains(parent.get(node)) && parent.get(node) != node) {
+                    node = parent.get(node);
+                    if (result[node] && !taxa[node]) break;
+                    result[node] = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    public boolean[] leafNodes() {
+        int n = maxTaxId + 1;
+        boolean[] result = new boolean[n];
+        Arrays.fill(result, true);
+        for (int i = 0; i < n; i++) {
+            int p = parent.get(i);
+            if (p >= 0 && p < n) {
+                result[p] = false;
+            }
+        }
+        return result;
+    }
+}
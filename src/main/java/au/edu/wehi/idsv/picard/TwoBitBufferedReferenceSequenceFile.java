@@ -89,6 +89,7 @@ public class TwoBitBufferedReferenceSequenceFile implements ReferenceSequenceFil
 		}
 	}
 	public static class PackedReferenceSequence extends PackedSequence implements Serializable {
+		private static final long serialVersionUID = 3269599221678964284L;
 		private final String name;
 	    private final int contigIndex;
 	    private final long length;
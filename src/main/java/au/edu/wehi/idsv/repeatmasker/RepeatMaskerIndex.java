@@ -0,0 +1,247 @@
+package au.edu.wehi.idsv.repeatmasker;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import htsjdk.samtools.TextCigarCodec;
+import htsjdk.samtools.util.Log;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.CloseableTribbleIterator;
+import htsjdk.tribble.annotation.Strand;
+import htsjdk.tribble.readers.LineIterator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Random access lookup of RepeatMasker annotations by query sequence.
+ *
+ * RepeatMasker does not retain the ordering of the query sequences so
+ * records are grouped by query sequence name and located by binary search
+ * on the hash of the query sequence name. Within each query sequence,
+ * records are retained in RepeatMasker output order.
+ *
+ * Records are stored in a compact serialised form and only decoded on lookup.
+ * Lookups are thread-safe.
+ */
+public class RepeatMaskerIndex {
+    private static final Log log = Log.getInstance(RepeatMaskerIndex.class);
+    /**
+     * hash, record offset, record count, padding
+     */
+    private static final int CONTIG_ENTRY_BYTES = 24;
+    private static final HashFunction HASH = Hashing.murmur3_128();
+    private final int contigCount;
+    private final int recordCount;
+    private final ByteBuffer contigs;
+    private final ByteBuffer records;
+
+    private RepeatMaskerIndex(int contigCount, int recordCount, ByteBuffer contigs, ByteBuffer records) {
+        this.contigCount = contigCount;
+        this.recordCount = recordCount;
+        this.contigs = contigs;
+        this.records = records;
+    }
+
+    /**
+     * Parses the given RepeatMasker output into an in-memory index
+     * @param rm RepeatMasker output or detailed alignment file
+     */
+    public static RepeatMaskerIndex create(File rm) throws IOException {
+        log.info("Creating RepeatMasker index from ", rm);
+        LongArrayList hashes = new LongArrayList();
+        IntArrayList offsets = new IntArrayList();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        try (AbstractFeatureReader<RepeatMaskerFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(rm.getPath(), new RepeatMaskerCodec(), false)) {
+            try (CloseableTribbleIterator<RepeatMaskerFeature> it = reader.iterator()) {
+                while (it.hasNext()) {
+                    RepeatMaskerFeature f = it.next();
+                    hashes.add(hash(f.getContig()));
+                    offsets.add(out.size());
+                    writeRecord(out, f);
+                    if (out.size() < 0) {
+                        throw new IllegalArgumentException(rm + " too large to index");
+                    }
+                }
+            }
+        }
+        out.flush();
+        int recordCount = hashes.size();
+        byte[] unsorted = buffer.toByteArray();
+        // stable sort retains RepeatMasker ordering within each query sequence
+        Integer[] order = new Integer[recordCount];
+        for (int i = 0; i < recordCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> hashes.getLong(i)));
+        ByteBuffer records = ByteBuffer.allocate(unsorted.length);
+        LongArrayList contigHash = new LongArrayList();
+        IntArrayList contigOffset = new IntArrayList();
+        IntArrayList contigRecordCount = new IntArrayList();
+        String lastContig = null;
+        for (int i : order) {
+            int start = offsets.getInt(i);
+            int end = i + 1 < recordCount ? offsets.getInt(i + 1) : unsorted.length;
+            String contig = readString(ByteBuffer.wrap(unsorted, start, end - start));
+            if (lastContig == null || !lastContig.equals(contig)) {
+                contigHash.add(hashes.getLong(i));
+                contigOffset.add(records.position());
+                contigRecordCount.add(0);
+                lastContig = contig;
+            }
+            contigRecordCount.set(contigRecordCount.size() - 1, contigRecordCount.getInt(contigRecordCount.size() - 1) + 1);
+            records.put(unsorted, start, end - start);
+        }
+        records.flip();
+        ByteBuffer contigs = ByteBuffer.allocate(contigHash.size() * CONTIG_ENTRY_BYTES);
+        for (int i = 0; i < contigHash.size(); i++) {
+            contigs.putLong(contigHash.getLong(i));
+            contigs.putLong(contigOffset.getInt(i));
+            contigs.putInt(contigRecordCount.getInt(i));
+            contigs.putInt(0);
+        }
+        contigs.flip();
+        log.info("Indexed ", recordCount, " RepeatMasker records over ", contigHash.size(), " sequences.");
+        return new RepeatMaskerIndex(contigHash.size(), recordCount, contigs, records);
+    }
+
+    private static long hash(String contig) {
+        return HASH.hashString(contig, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static void writeRecord(DataOutputStream out, RepeatMaskerFeature f) throws IOException {
+        // query sequence name must be first as it is used for hash collision resolution
+        writeString(out, f.getContig());
+        out.writeInt(f.getStart());
+        out.writeInt(f.getEnd());
+        out.writeFloat(f.getSwScore());
+        out.writeByte(f.getStrand().ordinal());
+        writeString(out, f.getRepeatType());
+        writeString(out, f.getRepeatClass());
+        writeString(out, f.getUniqueID());
+        RepeatAlignmentSummaryInformation rasi = f.getRepeatAlignmentSummaryInformation();
+        out.writeFloat(rasi.getPercentageSubstituted());
+        out.writeFloat(rasi.getPercentageDeleted());
+        out.writeFloat(rasi.getPercentageInserted());
+        out.writeInt(rasi.getBasesInQueryPastMatch());
+        out.writeInt(rasi.getMatchStart());
+        out.writeInt(rasi.getMatchEnd());
+        out.writeInt(rasi.getBasesInRepeatPastMatch());
+        RepeatAlignmentInformation rai = f.getRepeatAlignmentInformation(false);
+        out.writeBoolean(rai != null);
+        if (rai != null) {
+            writeString(out, rai.getCigar().toString());
+            out.writeInt(rai.getRepeatStart());
+            out.writeInt(rai.getNestedBases());
+        }
+    }
+
+    private static RepeatMaskerFeature readRecord(ByteBuffer bb) {
+        RepeatMaskerFeature f = new RepeatMaskerFeature();
+        f.setContig(readString(bb));
+        f.setStart(bb.getInt());
+        f.setEnd(bb.getInt());
+        f.setSwScore(bb.getFloat());
+        f.setStrand(Strand.values()[bb.get()]);
+        f.setRepeatType(readString(bb));
+        f.setRepeatClass(readString(bb));
+        f.setUniqueID(readString(bb));
+        RepeatAlignmentSummaryInformation rasi = new RepeatAlignmentSummaryInformation();
+        rasi.setPercentageSubstituted(bb.getFloat());
+        rasi.setPercentageDeleted(bb.getFloat());
+        rasi.setPercentageInserted(bb.getFloat());
+        rasi.setBasesInQueryPastMatch(bb.getInt());
+        rasi.setMatchStart(bb.getInt());
+        rasi.setMatchEnd(bb.getInt());
+        rasi.setBasesInRepeatPastMatch(bb.getInt());
+        f.setRepeatAlignmentSummaryInformation(rasi);
+        if (bb.get() != 0) {
+            RepeatAlignmentInformation rai = new RepeatAlignmentInformation();
+            rai.setCigar(TextCigarCodec.decode(readString(bb)));
+            rai.setRepeatStart(bb.getInt());
+            rai.setNestedBases(bb.getInt());
+            f.setAlignment(rai);
+        }
+        return f;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer bb) {
+        byte[] b = new byte[bb.getInt()];
+        bb.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private long contigHash(int i) {
+        return contigs.getLong(i * CONTIG_ENTRY_BYTES);
+    }
+
+    /**
+     * RepeatMasker annotations of the given query sequence
+     * @param contig query sequence name
+     * @return annotations in RepeatMasker output order
+     */
+    public List<RepeatMaskerFeature> getFeatures(String contig) {
+        List<RepeatMaskerFeature> result = new ArrayList<>();
+        long hash = hash(contig);
+        int lo = 0;
+        int hi = contigCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (contigHash(mid) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        // scan all query sequences with a matching hash
+        for (int i = lo; i < contigCount && contigHash(i) == hash; i++) {
+            int offset = (int)contigs.getLong(i * CONTIG_ENTRY_BYTES + Long.BYTES);
+            int count = contigs.getInt(i * CONTIG_ENTRY_BYTES + 2 * Long.BYTES);
+            // duplicate so lookups do not share buffer position
+            ByteBuffer bb = records.duplicate();
+            bb.position(offset);
+            for (int j = 0; j < count; j++) {
+                RepeatMaskerFeature f = readRecord(bb);
+                if (!f.getContig().equals(contig)) break;
+                result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * RepeatMasker annotations overlapping the given interval of the given query sequence
+     * @param contig query sequence name
+     * @param start 1-based start position
+     * @param end 1-based inclusive end position
+     * @return overlapping annotations in RepeatMasker output order
+     */
+    public List<RepeatMaskerFeature> getOverlapping(String contig, int start, int end) {
+        List<RepeatMaskerFeature> result = getFeatures(contig);
+        result.removeIf(f -> f.getStart() > end || f.getEnd() < start);
+        return result;
+    }
+
+    /**
+     * Number of RepeatMasker records in the index
+     */
+    public int size() {
+        return recordCount;
+    }
+}
@@ -0,0 +1,274 @@
+package au.edu.wehi.idsv.util;
+
+import au.edu.wehi.idsv.visualisation.TrackedState;
+import com.google.common.collect.ImmutableList;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Performs a given transformation operation over all elements of an iterator.
+ * Elements are transformed in fixed size batches with each batch processed
+ * as a single task. Batches are transformed in parallel with
+ * the order of the resultant iteration unchanged.
+ *
+ * Scheduling and reordering is performed per batch instead of per element,
+ * making batches of many records suitable for transforms that are cheap
+ * relative to the cost of task dispatch.
+ * Batch containers are reused once all results of a batch have been returned.
+ *
+ * The number of records read ahead of the consumer is bounded by both the
+ * number of batches in flight and, if a record size function is supplied,
+ * by the estimated size in bytes of the records in flight. At least one batch
+ * is always in flight so records larger than the byte limit are still processed.
+ *
+ * Exceptions thrown by the transform are rethrown on the consuming thread.
+ * Once an exception has been rethrown, batches in flight are abandoned and
+ * subsequent calls to hasNext() and next() throw an IllegalStateException.
+ *
+ * This class is not thread-safe and access from multiple threads should
+ * be synchronised.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class BatchedParallelTransformIterator<T, U> implements CloseableIterator<U>, TrackedState {
+	private static class Batch<T, U> {
+		private long ordinal;
+		private long bytes;
+		private final ArrayList<T> input;
+		private final ArrayList<U> output;
+		private volatile Throwable error;
+		public Batch(int batchSize) {
+			this.input = new ArrayList<>(batchSize);
+			this.output = new ArrayList<>(batchSize);
+		}
+	}
+	protected final Iterator<T> it;
+	private final Function<T, U> f;
+	private final int batchSize;
+	private final int batchesInFlight;
+	private final ToLongFunction<T> recordSize;
+	private final long maxBytesInFlight;
+	private final Executor threadpool;
+	private final ArrayBlockingQueue<Batch<T, U>> completed;
+	private final PriorityQueue<Batch<T, U>> results = new PriorityQueue<>(Comparator.comparingLong((Batch<T, U> b) -> b.ordinal));
+	private final ArrayDeque<Batch<T, U>> free = new ArrayDeque<>();
+	private volatile boolean closed = false;
+	/**
+	 * Transform exception rethrown to the consumer
+	 */
+	private volatile Throwable failure = null;
+	/**
+	 * Number of batches that have been read from the underlying iterator
+	 * but not yet returned from this iterator
+	 */
+	private int dispatched = 0;
+	/**
+	 * Estimated size of the records in dispatched batches
+	 */
+	private long bytesInFlight = 0;
+	/**
+	 * Ordinal of the last batch read from the underlying iterator
+	 */
+	private long lastDispatchedOrdinal = -1;
+	/**
+	 * Batch currently being returned
+	 */
+	private Batch<T, U> current = null;
+	private int currentOffset = 0;
+	/**
+	 * Instantiates a new iterator
+	 * @param it underlying iterator
+	 * @param f transform function
+	 * @param batchSize number of records to transform in each task
+	 * @param batchesInFlight number of batches to process in parallel
+	 * @param threadpool thread pool to perform transformation in
+	 */
+	public BatchedParallelTransformIterator(final Iterator<T> it, final Function<T, U> f, final int batchSize, final int batchesInFlight, final Executor threadpool) {
+		this(it, f, batchSize, batchesInFlight, null, Long.MAX_VALUE, threadpool);
+	}
+	/**
+	 * Instantiates a new iterator
+	 * @param it underlying iterator
+	 * @param f transform function
+	 * @param batchSize number of records to transform in each task
+	 * @param batchesInFlight maximum number of batches to process in parallel
+	 * @param recordSize estimated size in bytes of each record
+	 * @param maxBytesInFlight maximum estimated size of the records read ahead of the consumer
+	 * @param threadpool thread pool to perform transformation in
+	 */
+	public BatchedParallelTransformIterator(final Iterator<T> it, final Function<T, U> f, final int batchSize, final int batchesInFlight, final ToLongFunction<T> recordSize, final long maxBytesInFlight, final Executor threadpool) {
+		if (batchSize <= 0) throw new IllegalArgumentException("batchSize must be positive");
+		if (batchesInFlight <= 0) throw new IllegalArgumentException("batchesInFlight must be positive");
+		if (maxBytesInFlight <= 0) throw new IllegalArgumentException("maxBytesInFlight must be positive");
+		this.it = it;
+		this.f = f;
+		this.batchSize = batchSize;
+		this.batchesInFlight = batchesInFlight;
+		this.recordSize = recordSize;
+		this.maxBytesInFlight = maxBytesInFlight;
+		this.completed = new ArrayBlockingQueue<>(batchesInFlight);
+		this.threadpool = threadpool;
+	}
+
+	public U transform(T t) {
+		return f.apply(t);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (failure != null) throw new IllegalStateException("Transform failed", failure);
+		if (closed) return false;
+		return (current != null && currentOffset < current.output.size()) || dispatched > 0 || it.hasNext();
+	}
+
+	@Override
+	public U next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		while (current == null || currentOffset >= current.output.size()) {
+			if (current != null) {
+				recycle(current);
+				current = null;
+			}
+			dispatch();
+			current = takeNextBatch();
+			currentOffset = 0;
+			dispatched--;
+			bytesInFlight -= current.bytes;
+			// refill our pipeline now that there is space for the next batch
+			dispatch();
+		}
+		return current.output.get(currentOffset++);
+	}
+	private Batch<T, U> takeNextBatch() {
+		long nextOrdinal = lastDispatchedOrdinal - dispatched + 1;
+		while (results.isEmpty() || results.peek().ordinal != nextOrdinal) {
+			try {
+				results.add(completed.take());
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		Batch<T, U> batch = results.poll();
+		if (batch.error != null) {
+			// the batch is never returned so our in-flight accounting is no longer valid
+			failure = batch.error;
+			if (batch.error instanceof RuntimeException) throw (RuntimeException)batch.error;
+			if (batch.error instanceof Error) throw (Error)batch.error;
+			throw new RuntimeException(batch.error);
+		}
+		return batch;
+	}
+	private void recycle(Batch<T, U> batch) {
+		batch.input.clear();
+		batch.output.clear();
+		batch.error = null;
+		free.add(batch);
+	}
+	private boolean canDispatch() {
+		if (dispatched == 0) return true;
+		return dispatched < batchesInFlight && bytesInFlight < maxBytesInFlight;
+	}
+	/**
+	 * Dispatches batches until the in-flight limits have been reached.
+	 */
+	private void dispatch() {
+		while (!closed && failure == null && canDispatch() && it.hasNext()) {
+			Batch<T, U> batch = free.isEmpty() ? new Batch<>(batchSize) : free.poll();
+			long bytes = 0;
+			while (batch.input.size() < batchSize && it.hasNext()) {
+				T record = it.next();
+				batch.input.add(record);
+				if (recordSize != null) {
+					bytes += recordSize.applyAsLong(record);
+					if (bytesInFlight + bytes >= maxBytesInFlight) break;
+				}
+			}
+			batch.bytes = bytes;
+			batch.ordinal = ++lastDispatchedOrdinal;
+			bytesInFlight += bytes;
+			dispatched++;
+			threadpool.execute(() -> {
+				try {
+					for (T record : batch.input) {
+						if (closed || failure != null) break;
+						batch.output.add(transform(record));
+					}
+				} catch (Throwable e) {
+					batch.error = e;
+				}
+				completed.add(batch);
+			});
+		}
+	}
+	/**
+	 * Stops processing. Batches already in flight are abandoned
+	 * and the underlying iterator is closed.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		CloserUtil.close(it);
+	}
+	/**
+	 * Number of batches read from the underlying iterator but not yet returned
+	 */
+	public int getBatchesInFlight() {
+		return dispatched;
+	}
+	/**
+	 * Estimated size of the records read from the underlying iterator but not yet returned
+	 */
+	public long getBytesInFlight() {
+		return bytesInFlight;
+	}
+	/**
+	 * Number of batches that have completed transformation but not yet been received by the consumer
+	 */
+	public int getCompletedQueueDepth() {
+		return completed.size();
+	}
+	/**
+	 * Number of completed batches waiting for earlier batches to complete
+	 */
+	public int getReorderQueueDepth() {
+		return results.size();
+	}
+
+	@Override
+	public String[] trackedNames() {
+		return new String[] {
+				"batchesInFlight",
+				"bytesInFlight",
+				"completedQueueDepth",
+				"reorderQueueDepth",
+		};
+	}
+
+	@Override
+	public Object[] trackedState() {
+		return new Object[] {
+				getBatchesInFlight(),
+				getBytesInFlight(),
+				getCompletedQueueDepth(),
+				getReorderQueueDepth(),
+		};
+	}
+
+	@Override
+	public Collection<TrackedState> trackedObjects() {
+		return ImmutableList.of(this);
+	}
+}
@@ -30,6 +30,7 @@ public abstract class DensityThrottlingIterator<T> implements PeekingIterator<T>
 	private final LongPriorityQueue inWindow = new LongArrayFIFOQueue();
 	private final LongPriorityQueue emittedInWindow = new LongArrayFIFOQueue();
 	private final Random random = new Random(0); // Seed set for reproducible results
+	private double densityScale = 1;
 	private T nextRecord = null;
 	
 	/**
@@ -73,7 +74,7 @@ public abstract class DensityThrottlingIterator<T> implements PeekingIterator<T>
 			// accept all record under the threshold
 			return false;
 		}
-		double x = ((inWindow.size() / windowSize) - acceptDensity) / maxDensity;
+		double x = ((inWindow.size() / windowSize) - acceptDensity * densityScale) / (maxDensity * densityScale);
 		if (Math.exp(-x) >= random.nextDouble()) {
 			// exponential back-off did not filter
 			emittedInWindow.enqueue(position);
@@ -82,7 +83,14 @@ public abstract class DensityThrottlingIterator<T> implements PeekingIterator<T>
 		return true;
 	}
 	public boolean isBelowUnconditionalAcceptanceThreshold() {
-		return emittedInWindow.size() / windowSize < acceptDensity;
+		return emittedInWindow.size() / windowSize < acceptDensity * densityScale;
+	}
+	/**
+	 * Scales the acceptance and target densities of subsequent records
+	 * @param densityScale scaling factor
+	 */
+	public void setDensityScale(double densityScale) {
+		this.densityScale = densityScale;
 	}
 	public double currentDensity() {
 		return inWindow.size() / windowSize;
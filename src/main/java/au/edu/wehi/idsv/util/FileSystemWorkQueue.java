@@ -0,0 +1,222 @@
+package au.edu.wehi.idsv.util;
+
+import htsjdk.samtools.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work queue shared across processes through a common file system.
+ *
+ * Work items are claimed by atomically creating a lease file in the queue directory.
+ * Each claim writes a unique token to its lease file. Leases are refreshed in the
+ * background for as long as they are held. A lease that has not been refreshed within
+ * the lease duration is considered abandoned (for example, the owning node has died)
+ * and can be claimed by another process.
+ *
+ * A lease file is only ever deleted by the holder of the removal marker for the
+ * token it contains. Removal markers are themselves created atomically so the
+ * owner releasing a lease and any number of processes reclaiming it as abandoned
+ * cannot remove a lease that has since been claimed by another process.
+ *
+ * Lease expiry is based on file modification times so lease durations should be
+ * considerably longer than the expected clock skew between nodes.
+ *
+ * Completion tracking is the responsibility of the caller: the queue only tracks
+ * which process is currently working on an item.
+ */
+public class FileSystemWorkQueue implements Closeable {
+	private static final Log log = Log.getInstance(FileSystemWorkQueue.class);
+	private static final String LEASE_SUFFIX = ".lease";
+	private static final String REMOVAL_SUFFIX = ".removing";
+	private final File directory;
+	private final String prefix;
+	private final long leaseDurationMs;
+	private final String owner;
+	private final Map<String, Lease> held = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService heartbeat;
+	private static class Lease {
+		private final File file;
+		private final String token;
+		public Lease(File file, String token) {
+			this.file = file;
+			this.token = token;
+		}
+	}
+	/**
+	 * @param directory shared directory in which to store lease files
+	 * @param prefix lease filename prefix. All processes sharing the queue must use the same prefix.
+	 * @param leaseDurationMs time in milliseconds after which an unrefreshed lease is considered abandoned
+	 */
+	public FileSystemWorkQueue(File directory, String prefix, long leaseDurationMs) {
+		if (leaseDurationMs <= 0) throw new IllegalArgumentException("Lease duration must be positive");
+		this.directory = directory;
+		this.prefix = prefix;
+		this.leaseDurationMs = leaseDurationMs;
+		this.owner = ManagementFactory.getRuntimeMXBean().getName();
+		this.heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "FileSystemWorkQueue heartbeat");
+			t.setDaemon(true);
+			return t;
+		});
+		long refreshInterval = Math.max(1, leaseDurationMs / 4);
+		heartbeat.scheduleAtFixedRate(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+	}
+	public File getLeaseFile(String item) {
+		return new File(directory, prefix + "." + item + LEASE_SUFFIX);
+	}
+	private File getRemovalMarker(File lease, String token) {
+		return new File(directory, lease.getName() + "." + token + REMOVAL_SUFFIX);
+	}
+	/**
+	 * Attempts to claim the given work item.
+	 * A work item can only be held by a single claim at any one time, including
+	 * claims made by different threads of the same process.
+	 * @param item work item name
+	 * @return true if the caller now holds the lease for the work item,
+	 * false if the item is currently leased
+	 */
+	public boolean tryClaim(String item) throws IOException {
+		File lease = getLeaseFile(item);
+		if (tryCreate(item, lease)) {
+			return true;
+		}
+		String token = readToken(lease);
+		if (token != null && isExpired(lease)) {
+			if (remove(lease, token, true)) {
+				log.warn(String.format("Reclaimed expired lease %s held by %s", lease, readOwner(lease, token)));
+			}
+			return tryCreate(item, lease);
+		}
+		return false;
+	}
+	/**
+	 * Releases the lease on the given work item
+	 * @param item work item name
+	 */
+	public void release(String item) throws IOException {
+		Lease lease = held.remove(item);
+		if (lease != null) {
+			if (!remove(lease.file, lease.token, false)) {
+				log.warn(String.format("Lease %s was reclaimed by another process before it was released", lease.file));
+			}
+		}
+	}
+	/**
+	 * Determines whether the given work item is currently leased by any process.
+	 */
+	public boolean isClaimed(String item) {
+		File lease = getLeaseFile(item);
+		return lease.exists() && !isExpired(lease);
+	}
+	private boolean tryCreate(String item, File lease) throws IOException {
+		String token = UUID.randomUUID().toString();
+		try {
+			Files.write(Files.createFile(lease.toPath()), (token + "\t" + owner).getBytes(StandardCharsets.UTF_8));
+		} catch (FileAlreadyExistsException e) {
+			return false;
+		}
+		held.put(item, new Lease(lease, token));
+		return true;
+	}
+	/**
+	 * Removes the given lease file if it still holds the given claim token.
+	 * @param onlyIfExpired only remove the lease if it has expired
+	 * @return true if the lease was removed by this call
+	 */
+	private boolean remove(File lease, String token, boolean onlyIfExpired) throws IOException {
+		File marker = getRemovalMarker(lease, token);
+		if (!tryCreateMarker(marker)) {
+			return false;
+		}
+		try {
+			// Only the holder of the marker can remove a lease containing this token
+			// so the lease file cannot be replaced between this check and the delete
+			if (token.equals(readToken(lease)) && (!onlyIfExpired || isExpired(lease))) {
+				Files.delete(lease.toPath());
+				return true;
+			}
+			return false;
+		} finally {
+			marker.delete();
+		}
+	}
+	private boolean tryCreateMarker(File marker) throws IOException {
+		try {
+			Files.createFile(marker.toPath());
+			return true;
+		} catch (FileAlreadyExistsException e) {
+			if (isExpired(marker)) {
+				// Left behind by a process that died during removal.
+				// The marker is held for a few file operations so this does not race with a live remover.
+				log.warn("Removing abandoned lease removal marker " + marker);
+				marker.delete();
+			}
+			return false;
+		}
+	}
+	private boolean isExpired(File lease) {
+		long lastModified = lease.lastModified();
+		// lastModified() returns 0 if the file has just been removed
+		return lastModified != 0 && System.currentTimeMillis() - lastModified > leaseDurationMs;
+	}
+	/**
+	 * Reads the claim token of the given lease
+	 * @return claim token, null if the lease does not exist or has not yet been written
+	 */
+	private static String readToken(File lease) {
+		String content = readLease(lease);
+		if (content == null || !content.contains("\t")) return null;
+		return content.substring(0, content.indexOf('\t'));
+	}
+	private static String readOwner(File lease, String token) {
+		String content = readLease(lease);
+		if (content == null || !content.contains("\t")) return token;
+		return content.substring(content.indexOf('\t') + 1);
+	}
+	private static String readLease(File lease) {
+		try {
+			return new String(Files.readAllBytes(lease.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	private void refresh() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, Lease> entry : held.entrySet()) {
+			Lease lease = entry.getValue();
+			if (!lease.token.equals(readToken(lease.file))) {
+				log.warn(String.format("Lease %s has been reclaimed by another process", lease.file));
+				held.remove(entry.getKey(), lease);
+			} else if (!lease.file.setLastModified(now)) {
+				log.warn("Unable to refresh lease " + lease.file);
+			}
+		}
+	}
+	/**
+	 * Stops refreshing and releases all leases held by this process.
+	 */
+	@Override
+	public void close() {
+		heartbeat.shutdownNow();
+		for (String item : new ArrayList<>(held.keySet())) {
+			try {
+				release(item);
+			} catch (IOException e) {
+				log.warn(e, "Unable to release lease on " + item);
+			}
+		}
+	}
+}
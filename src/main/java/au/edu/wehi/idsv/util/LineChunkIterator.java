@@ -0,0 +1,101 @@
+package au.edu.wehi.idsv.util;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits a stream into chunks of whole lines.
+ *
+ * Each chunk contains one or more complete newline-terminated lines
+ * with only the final chunk possibly missing the trailing newline.
+ * Chunks are split at the last newline before the target chunk size
+ * unless a single line is longer than the chunk size.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class LineChunkIterator implements CloseableIterator<byte[]> {
+	private final InputStream in;
+	private final int chunkSize;
+	/**
+	 * Partial line read from the stream after the last chunk
+	 */
+	private byte[] remainder = new byte[0];
+	private byte[] nextChunk = null;
+	private boolean eof = false;
+	/**
+	 * @param in input stream
+	 * @param chunkSize target chunk size in bytes
+	 */
+	public LineChunkIterator(InputStream in, int chunkSize) {
+		if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive");
+		this.in = in;
+		this.chunkSize = chunkSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (nextChunk == null) {
+			nextChunk = readChunk();
+		}
+		return nextChunk != null;
+	}
+
+	@Override
+	public byte[] next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		byte[] chunk = nextChunk;
+		nextChunk = null;
+		return chunk;
+	}
+
+	private byte[] readChunk() {
+		byte[] buffer = Arrays.copyOf(remainder, Math.max(chunkSize, remainder.length + 1));
+		int length = remainder.length;
+		int searchFrom = 0;
+		try {
+			while (true) {
+				while (!eof && length < buffer.length) {
+					int read = in.read(buffer, length, buffer.length - length);
+					if (read < 0) {
+						eof = true;
+					} else {
+						length += read;
+					}
+				}
+				int lastNewline = lastIndexOf(buffer, searchFrom, length, (byte)'\n');
+				if (lastNewline >= 0) {
+					remainder = Arrays.copyOfRange(buffer, lastNewline + 1, length);
+					return Arrays.copyOf(buffer, lastNewline + 1);
+				}
+				if (eof) {
+					remainder = new byte[0];
+					return length == 0 ? null : Arrays.copyOf(buffer, length);
+				}
+				// line longer than our chunk size
+				searchFrom = length;
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+
+	private static int lastIndexOf(byte[] buffer, int from, int to, byte b) {
+		for (int i = to - 1; i >= from; i--) {
+			if (buffer[i] == b) return i;
+		}
+		return -1;
+	}
+
+	@Override
+	public void close() {
+		CloserUtil.close(in);
+	}
+}
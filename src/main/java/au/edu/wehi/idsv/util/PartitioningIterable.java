@@ -0,0 +1,161 @@
+package au.edu.wehi.idsv.util;
+
+import htsjdk.samtools.util.Log;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+/**
+ * Partitions the given iterator into disjoint streams, feeding internal buffers from a background thread.
+ *
+ * Each record is routed to at most one partition. Records are passed to each partition in batches
+ * and the relative order of records within each partition is retained.
+ *
+ * <b>Separate consumer threads are required as
+ * iterator calls block the calling thread when sufficiently
+ * far ahead of other iterators.
+ * </b>
+ * @author Daniel Cameron
+ *
+ */
+public class PartitioningIterable<T> implements Closeable {
+	private static final Log log = Log.getInstance(PartitioningIterable.class);
+	private static final Object endofstream = new Object();
+	private static final AtomicInteger threadCount = new AtomicInteger(0);
+	private final Iterator<T> it;
+	private final ToIntFunction<T> partitioner;
+	private final int batchSize;
+	private final List<BlockingQueue<Object>> queues = new ArrayList<>();
+	private final List<PartitionIterator> iterators = new ArrayList<>();
+	private FeedingThread thread;
+	private volatile Exception error = null;
+	/**
+	 * Partitions an iterator
+	 * @param nPartitions number of partitions
+	 * @param it underlying iterator
+	 * @param partitioner partition to route each record to. Records with a negative partition are discarded.
+	 * @param batchSize number of records passed to each partition at a time
+	 * @param maxBatches maximum number of batches that can be buffered for each partition
+	 */
+	public PartitioningIterable(int nPartitions, Iterator<T> it, ToIntFunction<T> partitioner, int batchSize, int maxBatches) {
+		if (it == null) throw new IllegalArgumentException();
+		if (batchSize <= 0) throw new IllegalArgumentException("batch size must be greater than zero.");
+		if (maxBatches <= 0) throw new IllegalArgumentException("buffer size must be greater than zero.");
+		this.it = it;
+		this.partitioner = partitioner;
+		this.batchSize = batchSize;
+		for (int i = 0; i < nPartitions; i++) {
+			queues.add(new ArrayBlockingQueue<Object>(maxBatches));
+			iterators.add(new PartitionIterator(queues.get(i)));
+		}
+		this.thread = new FeedingThread();
+		this.thread.setName(String.format("PartitioningIterable-%d", threadCount.incrementAndGet()));
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	/**
+	 * Iterator over the records of the given partition
+	 */
+	public Iterator<T> iterator(int partition) {
+		return iterators.get(partition);
+	}
+	/**
+	 * Stops reading from the underlying iterator.
+	 */
+	@Override
+	public void close() {
+		thread.interrupt();
+	}
+	private class FeedingThread extends Thread {
+		@Override
+		public void run() {
+			List<List<T>> batches = new ArrayList<>(queues.size());
+			for (int i = 0; i < queues.size(); i++) {
+				batches.add(new ArrayList<>(batchSize));
+			}
+			try {
+				while (it.hasNext()) {
+					T n = it.next();
+					int partition = partitioner.applyAsInt(n);
+					if (partition < 0) continue;
+					List<T> batch = batches.get(partition);
+					batch.add(n);
+					if (batch.size() >= batchSize) {
+						queues.get(partition).put(batch);
+						batches.set(partition, new ArrayList<>(batchSize));
+					}
+				}
+				for (int i = 0; i < queues.size(); i++) {
+					if (!batches.get(i).isEmpty()) {
+						queues.get(i).put(batches.get(i));
+					}
+				}
+				eos();
+			} catch (InterruptedException e) {
+				log.debug("Interrupted waiting to feed next record - ending stream early");
+				for (BlockingQueue<Object> queue : queues) {
+					queue.clear();
+					queue.offer(endofstream);
+				}
+			} catch (Exception e) {
+				log.error("Error traversing iterator", e);
+				error = e;
+				for (BlockingQueue<Object> queue : queues) {
+					queue.clear();
+					queue.offer(endofstream);
+				}
+			}
+		}
+		private void eos() throws InterruptedException {
+			for (BlockingQueue<Object> queue : queues) {
+				queue.put(endofstream);
+			}
+		}
+	}
+	private class PartitionIterator implements Iterator<T> {
+		private final BlockingQueue<Object> queue;
+		private Iterator<T> currentBatch = Collections.emptyIterator();
+		private boolean eos = false;
+		public PartitionIterator(BlockingQueue<Object> queue) {
+			this.queue = queue;
+		}
+		@SuppressWarnings("unchecked")
+		private void ensureNext() {
+			while (!eos && !currentBatch.hasNext()) {
+				Object batch;
+				try {
+					batch = queue.take();
+				} catch (InterruptedException e) {
+					log.debug("Interrupted waiting for next record");
+					throw new RuntimeException(e);
+				}
+				if (batch == endofstream) {
+					eos = true;
+				} else {
+					currentBatch = ((List<T>)batch).iterator();
+				}
+			}
+			if (error != null) {
+				throw new RuntimeException(error);
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			ensureNext();
+			return currentBatch.hasNext();
+		}
+		@Override
+		public T next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			return currentBatch.next();
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package au.edu.wehi.idsv.vcf;
+
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.samtools.util.SortingCollection;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.Genotype;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFFilterHeaderLine;
+import htsjdk.variant.vcf.VCFFormatHeaderLine;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Lossless binary encoding of VCF records for intermediate files.
+ *
+ * Unlike BCF, attribute values retain their in-memory types and full double precision
+ * so a record written to a VCF after a round trip is identical to the original record.
+ * Contig names, header field names and sample names are encoded as offsets into
+ * a symbol table built from the VCF header.
+ *
+ * Each record is prefixed by its length in bytes.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class BinaryVcfCodec implements SortingCollection.Codec<VariantContext> {
+	private static final String SOURCE = "Unknown";
+	private static final int LITERAL_SYMBOL = -1;
+	private static final int NO_CALL_ALLELE = -1;
+	private static final int LITERAL_ALLELE = -2;
+	private static final byte UNFILTERED = 0;
+	private static final byte PASS = 1;
+	private static final byte FILTERED = 2;
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_TRUE = 1;
+	private static final byte TYPE_FALSE = 2;
+	private static final byte TYPE_INT = 3;
+	private static final byte TYPE_DOUBLE = 4;
+	private static final byte TYPE_STRING = 5;
+	private static final byte TYPE_LIST = 6;
+	private final VCFHeader header;
+	private final String[] symbols;
+	private final Map<String, Integer> symbolLookup;
+	private final boolean writeGenotypes;
+	private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream(4096);
+	private final DataOutputStream record = new DataOutputStream(recordBuffer);
+	private byte[] readBuffer = new byte[4096];
+	private DataOutputStream out;
+	private DataInputStream in;
+
+	public BinaryVcfCodec(VCFHeader header) {
+		this.header = header;
+		// symbol order must not depend on the header line order since
+		// the header read back from the file is in VCF header sort order
+		Set<String> symbolSet = new LinkedHashSet<>();
+		if (header.getSequenceDictionary() != null) {
+			for (SAMSequenceRecord seq : header.getSequenceDictionary().getSequences()) {
+				symbolSet.add(seq.getSequenceName());
+			}
+		}
+		Set<String> fields = new TreeSet<>();
+		for (VCFInfoHeaderLine line : header.getInfoHeaderLines()) {
+			fields.add(line.getID());
+		}
+		for (VCFFormatHeaderLine line : header.getFormatHeaderLines()) {
+			fields.add(line.getID());
+		}
+		for (VCFFilterHeaderLine line : header.getFilterLines()) {
+			fields.add(line.getID());
+		}
+		fields.addAll(header.getGenotypeSamples());
+		symbolSet.addAll(fields);
+		this.symbols = symbolSet.toArray(new String[0]);
+		this.symbolLookup = new HashMap<>(symbols.length * 2);
+		for (int i = 0; i < symbols.length; i++) {
+			symbolLookup.put(symbols[i], i);
+		}
+		// consistent with VCFWriter which does not write genotypes without samples
+		this.writeGenotypes = header.hasGenotypingData();
+	}
+
+	public VCFHeader getHeader() {
+		return header;
+	}
+
+	@Override
+	public void setOutputStream(OutputStream os) {
+		this.out = os instanceof DataOutputStream ? (DataOutputStream)os : new DataOutputStream(os);
+	}
+
+	@Override
+	public void setInputStream(InputStream is) {
+		this.in = is instanceof DataInputStream ? (DataInputStream)is : new DataInputStream(is);
+	}
+
+	@Override
+	public void encode(VariantContext vc) {
+		try {
+			recordBuffer.reset();
+			writeRecord(vc);
+			out.writeInt(recordBuffer.size());
+			recordBuffer.writeTo(out);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+	}
+
+	@Override
+	public VariantContext decode() {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		if (readBuffer.length < length) {
+			readBuffer = new byte[Math.max(length, 2 * readBuffer.length)];
+		}
+		try {
+			in.readFully(readBuffer, 0, length);
+		} catch (IOException e) {
+			throw new RuntimeIOException(e);
+		}
+		return readRecord(ByteBuffer.wrap(readBuffer, 0, length));
+	}
+
+	@Override
+	public BinaryVcfCodec clone() {
+		return new BinaryVcfCodec(header);
+	}
+
+	private void writeRecord(VariantContext vc) throws IOException {
+		writeSymbol(vc.getContig());
+		record.writeInt(vc.getStart());
+		record.writeInt(vc.getEnd());
+		writeString(vc.getID());
+		List<Allele> alleles = vc.getAlleles();
+		record.writeInt(alleles.size());
+		for (Allele a : alleles) {
+			writeString(a.getDisplayString());
+			record.writeBoolean(a.isReference());
+		}
+		record.writeBoolean(vc.hasLog10PError());
+		if (vc.hasLog10PError()) {
+			record.writeDouble(vc.getLog10PError());
+		}
+		if (vc.isFiltered()) {
+			record.writeByte(FILTERED);
+			record.writeInt(vc.getFilters().size());
+			for (String filter : vc.getFilters()) {
+				writeSymbol(filter);
+			}
+		} else {
+			record.writeByte(vc.filtersWereApplied() ? PASS : UNFILTERED);
+		}
+		Map<String, Object> attributes = vc.getAttributes();
+		record.writeInt(attributes.size());
+		for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+			writeSymbol(entry.getKey());
+			writeValue(entry.getValue());
+		}
+		if (writeGenotypes && vc.hasGenotypes()) {
+			record.writeInt(vc.getNSamples());
+			for (Genotype g : vc.getGenotypes()) {
+				writeGenotype(vc, g);
+			}
+		} else {
+			record.writeInt(0);
+		}
+	}
+
+	private void writeGenotype(VariantContext vc, Genotype g) throws IOException {
+		writeSymbol(g.getSampleName());
+		record.writeInt(g.getPloidy());
+		for (Allele a : g.getAlleles()) {
+			if (a.isNoCall()) {
+				record.writeInt(NO_CALL_ALLELE);
+			} else {
+				int index = vc.getAlleleIndex(a);
+				record.writeInt(index >= 0 ? index : LITERAL_ALLELE);
+				if (index < 0) {
+					writeString(a.getDisplayString());
+					record.writeBoolean(a.isReference());
+				}
+			}
+		}
+		record.writeBoolean(g.isPhased());
+		record.writeInt(g.getGQ());
+		record.writeInt(g.getDP());
+		writeValue(g.getAD());
+		writeValue(g.getPL());
+		writeValue(g.getFilters());
+		Map<String, Object> attributes = g.getExtendedAttributes();
+		record.writeInt(attributes.size());
+		for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+			writeSymbol(entry.getKey());
+			writeValue(entry.getValue());
+		}
+	}
+
+	private void writeSymbol(String symbol) throws IOException {
+		Integer index = symbolLookup.get(symbol);
+		if (index == null) {
+			record.writeInt(LITERAL_SYMBOL);
+			writeString(symbol);
+		} else {
+			record.writeInt(index);
+		}
+	}
+
+	private void writeString(String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		record.writeInt(b.length);
+		record.write(b);
+	}
+
+	/**
+	 * Writes the given attribute value.
+	 * Arrays are written as lists and unknown types are written as strings
+	 * since both are formatted identically when writing a VCF.
+	 */
+	private void writeValue(Object value) throws IOException {
+		if (value == null) {
+			record.writeByte(TYPE_NULL);
+		} else if (value instanceof Boolean) {
+			record.writeByte((Boolean)value ? TYPE_TRUE : TYPE_FALSE);
+		} else if (value instanceof Integer) {
+			record.writeByte(TYPE_INT);
+			record.writeInt((Integer)value);
+		} else if (value instanceof Double) {
+			record.writeByte(TYPE_DOUBLE);
+			record.writeDouble((Double)value);
+		} else if (value instanceof Collection) {
+			Collection<?> list = (Collection<?>)value;
+			record.writeByte(TYPE_LIST);
+			record.writeInt(list.size());
+			for (Object o : list) {
+				writeValue(o);
+			}
+		} else if (value.getClass().isArray()) {
+			int length = Array.getLength(value);
+			record.writeByte(TYPE_LIST);
+			record.writeInt(length);
+			for (int i = 0; i < length; i++) {
+				writeValue(Array.get(value, i));
+			}
+		} else {
+			record.writeByte(TYPE_STRING);
+			writeString(value.toString());
+		}
+	}
+
+	private VariantContext readRecord(ByteBuffer bb) {
+		VariantContextBuilder builder = new VariantContextBuilder()
+				.source(SOURCE)
+				.chr(readSymbol(bb))
+				.start(bb.getInt())
+				.stop(bb.getInt())
+				.id(readString(bb));
+		int alleleCount = bb.getInt();
+		List<Allele> alleles = new ArrayList<>(alleleCount);
+		for (int i = 0; i < alleleCount; i++) {
+			alleles.add(readAllele(bb));
+		}
+		builder.alleles(alleles);
+		if (bb.get() != 0) {
+			builder.log10PError(bb.getDouble());
+		}
+		switch (bb.get()) {
+			case FILTERED:
+				int filterCount = bb.getInt();
+				Set<String> filters = new LinkedHashSet<>(filterCount * 2);
+				for (int i = 0; i < filterCount; i++) {
+					filters.add(readSymbol(bb));
+				}
+				builder.filters(filters);
+				break;
+			case PASS:
+				builder.passFilters();
+				break;
+			default:
+				builder.unfiltered();
+				break;
+		}
+		builder.attributes(readAttributes(bb));
+		int genotypeCount = bb.getInt();
+		if (genotypeCount > 0) {
+			List<Genotype> genotypes = new ArrayList<>(genotypeCount);
+			for (int i = 0; i < genotypeCount; i++) {
+				genotypes.add(readGenotype(bb, alleles));
+			}
+			builder.genotypes(genotypes);
+		}
+		return builder.make();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Genotype readGenotype(ByteBuffer bb, List<Allele> vcAlleles) {
+		GenotypeBuilder builder = new GenotypeBuilder(readSymbol(bb));
+		int ploidy = bb.getInt();
+		List<Allele> alleles = new ArrayList<>(ploidy);
+		for (int i = 0; i < ploidy; i++) {
+			int index = bb.getInt();
+			if (index == NO_CALL_ALLELE) {
+				alleles.add(Allele.NO_CALL);
+			} else if (index == LITERAL_ALLELE) {
+				alleles.add(readAllele(bb));
+			} else {
+				alleles.add(vcAlleles.get(index));
+			}
+		}
+		builder.alleles(alleles);
+		builder.phased(bb.get() != 0);
+		builder.GQ(bb.getInt());
+		builder.DP(bb.getInt());
+		builder.AD(toIntArray((List<Object>)readValue(bb)));
+		builder.PL(toIntArray((List<Object>)readValue(bb)));
+		builder.filter((String)readValue(bb));
+		builder.attributes(readAttributes(bb));
+		return builder.make();
+	}
+
+	private Map<String, Object> readAttributes(ByteBuffer bb) {
+		int count = bb.getInt();
+		Map<String, Object> attributes = new HashMap<>(count * 2);
+		for (int i = 0; i < count; i++) {
+			String key = readSymbol(bb);
+			attributes.put(key, readValue(bb));
+		}
+		return attributes;
+	}
+
+	private static int[] toIntArray(List<Object> list) {
+		if (list == null) return null;
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = (Integer)list.get(i);
+		}
+		return array;
+	}
+
+	private Allele readAllele(ByteBuffer bb) {
+		String bases = readString(bb);
+		return Allele.create(bases, bb.get() != 0);
+	}
+
+	private String readSymbol(ByteBuffer bb) {
+		int index = bb.getInt();
+		if (index == LITERAL_SYMBOL) {
+			return readString(bb);
+		}
+		return symbols[index];
+	}
+
+	private static String readString(ByteBuffer bb) {
+		int length = bb.getInt();
+		String s = new String(bb.array(), bb.arrayOffset() + bb.position(), length, StandardCharsets.UTF_8);
+		bb.position(bb.position() + length);
+		return s;
+	}
+
+	private static Object readValue(ByteBuffer bb) {
+		byte type = bb.get();
+		switch (type) {
+			case TYPE_NULL:
+				return null;
+			case TYPE_TRUE:
+				return Boolean.TRUE;
+			case TYPE_FALSE:
+				return Boolean.FALSE;
+			case TYPE_INT:
+				return bb.getInt();
+			case TYPE_DOUBLE:
+				return bb.getDouble();
+			case TYPE_STRING:
+				return readString(bb);
+			case TYPE_LIST:
+				int length = bb.getInt();
+				List<Object> list = new ArrayList<>(length);
+				for (int i = 0; i < length; i++) {
+					list.add(readValue(bb));
+				}
+				return list;
+			default:
+				throw new IllegalStateException(String.format("Unknown binary VCF value type %d", type));
+		}
+	}
+}
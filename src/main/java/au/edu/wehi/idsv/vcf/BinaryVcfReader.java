@@ -0,0 +1,123 @@
+package au.edu.wehi.idsv.vcf;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.tribble.readers.LineIteratorImpl;
+import htsjdk.tribble.readers.SynchronousLineReader;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFReader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads VCF records written by {@link BinaryVcfWriter}.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class BinaryVcfReader implements VCFReader {
+	private final File file;
+	private final DataInputStream in;
+	private final byte[] headerBytes;
+	private final BinaryVcfCodec codec;
+	private boolean iterating = false;
+
+	public BinaryVcfReader(File file) {
+		this.file = file;
+		try {
+			this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			this.headerBytes = readPreamble(file, in);
+		} catch (IOException e) {
+			throw new RuntimeIOException("Unable to read " + file, e);
+		}
+		VCFHeader header = (VCFHeader)new VCFCodec().readActualHeader(new LineIteratorImpl(new SynchronousLineReader(new ByteArrayInputStream(headerBytes))));
+		this.codec = new BinaryVcfCodec(header);
+		this.codec.setInputStream(in);
+	}
+
+	/**
+	 * Reads the file preamble
+	 * @return VCF header text
+	 */
+	static byte[] readPreamble(File file, DataInputStream in) throws IOException {
+		if (in.readLong() != BinaryVcfWriter.MAGIC) {
+			throw new IOException(file + " is not a GRIDSS binary VCF");
+		}
+		int version = in.readInt();
+		if (version != BinaryVcfWriter.VERSION) {
+			throw new IOException(String.format("%s has unsupported binary VCF version %d", file, version));
+		}
+		byte[] header = new byte[in.readInt()];
+		in.readFully(header);
+		return header;
+	}
+
+	/**
+	 * VCF header text as written to the file
+	 */
+	byte[] getHeaderBytes() {
+		return headerBytes;
+	}
+
+	@Override
+	public VCFHeader getHeader() {
+		return codec.getHeader();
+	}
+
+	public VCFHeader getFileHeader() {
+		return getHeader();
+	}
+
+	@Override
+	public CloseableIterator<VariantContext> query(String chrom, int start, int end) {
+		throw new UnsupportedOperationException("Binary VCF files are not indexed");
+	}
+
+	@Override
+	public boolean isQueryable() {
+		return false;
+	}
+
+	@Override
+	public CloseableIterator<VariantContext> iterator() {
+		if (iterating) {
+			throw new IllegalStateException("Binary VCF files can only be iterated once: " + file);
+		}
+		iterating = true;
+		return new CloseableIterator<VariantContext>() {
+			private VariantContext next = codec.decode();
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			@Override
+			public VariantContext next() {
+				if (next == null) throw new NoSuchElementException();
+				VariantContext current = next;
+				next = codec.decode();
+				return current;
+			}
+			@Override
+			public void close() {
+				BinaryVcfReader.this.close();
+			}
+		};
+	}
+
+	@Override
+	public void close() {
+		try {
+			in.close();
+		} catch (IOException e) {
+			throw new RuntimeIOException("Error closing " + file, e);
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package au.edu.wehi.idsv.vcf;
+
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes VCF records in the GRIDSS intermediate binary format.
+ *
+ * The file consists of a magic number, format version, and the VCF header text
+ * followed by records encoded by {@link BinaryVcfCodec}.
+ * Files with identical headers can be concatenated by copying the records verbatim.
+ *
+ * @author Daniel Cameron
+ *
+ */
+public class BinaryVcfWriter implements VariantContextWriter {
+	static final long MAGIC = 0x6772696473737663L; // "gridssvc"
+	static final int VERSION = 1;
+	private final File file;
+	private final DataOutputStream out;
+	private BinaryVcfCodec codec;
+
+	public BinaryVcfWriter(File file) {
+		this.file = file;
+		try {
+			this.out = new DataOutputStream(IOUtil.maybeBufferOutputStream(new FileOutputStream(file)));
+		} catch (IOException e) {
+			throw new RuntimeIOException("Unable to create " + file, e);
+		}
+	}
+
+	@Override
+	public void writeHeader(VCFHeader header) {
+		if (codec != null) {
+			throw new IllegalStateException("Header already written to " + file);
+		}
+		try {
+			writePreamble(out, toBytes(header));
+		} catch (IOException e) {
+			throw new RuntimeIOException("Error writing " + file, e);
+		}
+		setHeader(header);
+	}
+
+	@Override
+	public void setHeader(VCFHeader header) {
+		codec = new BinaryVcfCodec(header);
+		codec.setOutputStream(out);
+	}
+
+	@Override
+	public void add(VariantContext vc) {
+		if (codec == null) {
+			throw new IllegalStateException("The VCF Header must be written before records can be added: " + file);
+		}
+		codec.encode(vc);
+	}
+
+	@Override
+	public boolean checkError() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			throw new RuntimeIOException("Error closing " + file, e);
+		}
+	}
+
+	static void writePreamble(DataOutputStream out, byte[] header) throws IOException {
+		out.writeLong(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(header.length);
+		out.write(header);
+	}
+
+	/**
+	 * Serialises the header as VCF header text
+	 */
+	private static byte[] toBytes(VCFHeader header) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		VariantContextWriter writer = new VariantContextWriterBuilder()
+				.setOutputStream(bytes)
+				.clearOptions()
+				.clearIndexCreator()
+				.build();
+		writer.writeHeader(header);
+		writer.close();
+		return bytes.toByteArray();
+	}
+}
@@ -3,8 +3,10 @@ package au.edu.wehi.idsv.vcf;
 import au.edu.wehi.idsv.alignment.StreamingAligner;
 import au.edu.wehi.idsv.alignment.StreamingAlignerIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.util.BatchedParallelTransformIterator;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
+import com.google.common.util.concurrent.MoreExecutors;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.fastq.FastqRecord;
 import htsjdk.samtools.util.CloseableIterator;
@@ -20,36 +22,103 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Annotates VCF records with the alignments of their inserted sequences.
+ *
+ * Inserted sequences are fed to the aligner from a background thread that streams the VCF
+ * independently of the consumer. Both the feeder and the consumer track recently aligned
+ * sequences in identically sized LRU caches. As both see the same sequence stream, their caches
+ * evolve identically, so each sequence is sent to the aligner only once while it remains cached.
+ *
+ * Alignments are read back in input order and records are annotated in parallel batches.
+ */
 public class InsertedSequenceAnnotator implements CloseableIterator<VariantContext> {
 	public static final byte DEFAULT_QUAL_SCORE = 20;
+	/**
+	 * Number of distinct inserted sequences to retain alignments for
+	 */
+	public static final int DEFAULT_SEQUENCE_CACHE_SIZE = 65536;
 	private static final Log log = Log.getInstance(InsertedSequenceAnnotator.class);
 	private static final Pattern breakendRegex = Pattern.compile("^(.(?<leftins>.*))?[\\[\\]].*[\\[\\]]((?<rightins>.*).)?$");
 	private final File vcf;
 	private final int minRealignmentLength;
 	private final boolean stripExistingBEALN;
 	private final boolean skipExistingBEALN;
-	private CloseableIterator<VariantContext> vcfStream;
-	private PeekingIterator<SAMRecord> alignerStream;
-	private Thread feedingAligner;
-	private VariantContext nextRecord = null;
+	private final int sequenceCacheSize;
+	private final CloseableIterator<VariantContext> vcfStream;
+	private final PeekingIterator<SAMRecord> alignerStream;
+	private final BatchedParallelTransformIterator<AlignedBatch, List<VariantContext>> annotatedStream;
+	private final Map<String, List<String>> alignmentCache;
+	private final Thread feedingAligner;
+	private Iterator<VariantContext> currentBatch = Collections.emptyIterator();
+	private int nextAlignmentId = 0;
 	public InsertedSequenceAnnotator(File vcf, StreamingAligner aligner, int minRealignmentLength, boolean stripExistingBEALN, boolean skipExistingBEALN) {
+		this(vcf, aligner, minRealignmentLength, stripExistingBEALN, skipExistingBEALN, gridss.Defaults.PARALLEL_TRANSFORM_BATCH_SIZE, 1, DEFAULT_SEQUENCE_CACHE_SIZE, MoreExecutors.directExecutor());
+	}
+	/**
+	 * @param vcf VCF to annotate
+	 * @param aligner aligner to align inserted sequences with. The aligner is closed once all sequences have been sent.
+	 * @param minRealignmentLength minimum inserted sequence length to align
+	 * @param stripExistingBEALN remove existing alignment annotations
+	 * @param skipExistingBEALN do not annotate records that already have alignment annotations
+	 * @param batchSize number of VCF records to annotate in each task
+	 * @param batchesInFlight number of batches to annotate in parallel
+	 * @param sequenceCacheSize number of distinct inserted sequences to retain alignments for
+	 * @param threadpool thread pool to annotate records in
+	 */
+	public InsertedSequenceAnnotator(File vcf, StreamingAligner aligner, int minRealignmentLength, boolean stripExistingBEALN, boolean skipExistingBEALN,
+			int batchSize, int batchesInFlight, int sequenceCacheSize, Executor threadpool) {
 		this.vcf = vcf;
 		this.minRealignmentLength = minRealignmentLength;
 		this.stripExistingBEALN = stripExistingBEALN;
 		this.skipExistingBEALN = skipExistingBEALN;
+		this.sequenceCacheSize = sequenceCacheSize;
+		this.alignmentCache = createSequenceCache(sequenceCacheSize);
 		this.vcfStream = getVcf();
 		StreamingAlignerIterator sai = new StreamingAlignerIterator(aligner);
 		this.alignerStream = Iterators.peekingIterator(sai);
+		this.annotatedStream = new BatchedParallelTransformIterator<>(
+				Iterators.transform(Iterators.partition(vcfStream, batchSize), this::alignBatch),
+				this::annotateBatch,
+				1,
+				batchesInFlight,
+				threadpool);
 		this.feedingAligner = new Thread(() -> feedStreamingAligner(sai, aligner));
 		this.feedingAligner.setName("feedAligner");
 		this.feedingAligner.start();
 	}
-
+	/**
+	 * VCF records with the alignments of their inserted sequences
+	 */
+	private static class AlignedBatch {
+		private final List<VariantContext> records;
+		private final List<String> sequences;
+		private final Map<String, List<String>> alignments;
+		public AlignedBatch(List<VariantContext> records, List<String> sequences, Map<String, List<String>> alignments) {
+			this.records = records;
+			this.sequences = sequences;
+			this.alignments = alignments;
+		}
+	}
+	private static <V> Map<String, V> createSequenceCache(int size) {
+		return new LinkedHashMap<String, V>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > size;
+			}
+		};
+	}
 	private CloseableIterator<VariantContext> getVcf() {
 		VCFFileReader vcfReader = new VCFFileReader(vcf, false);
 		CloseableIterator<VariantContext> it = vcfReader.iterator();
@@ -83,24 +152,39 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 		return vc;
 	}
 	private boolean shouldSkipRecord(VariantContext vc) {
-		return skipExistingBEALN && vc.hasAttribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute());
+		// stripped records no longer have any alignments
+		return skipExistingBEALN && !stripExistingBEALN && vc.hasAttribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute());
+	}
+	/**
+	 * Gets the sequence to align for the given record
+	 * @return sequence to align, null if the record should not be aligned
+	 */
+	private String getRealignmentSequence(VariantContext vc) {
+		if (shouldSkipRecord(vc)) {
+			return null;
+		}
+		String seqstr = getBreakendSequence(vc);
+		if (Strings.isNullOrEmpty(seqstr) || seqstr.length() < minRealignmentLength) {
+			return null;
+		}
+		return seqstr;
 	}
 	private void feedStreamingAligner(StreamingAlignerIterator wrapper, StreamingAligner aligner) {
 		try {
 			try (CloseableIterator<VariantContext> it = getVcf()) {
+				// mirrors the consumer cache so we know which sequences the consumer still has alignments for
+				Map<String, Integer> submitted = createSequenceCache(sequenceCacheSize);
+				int alignmentId = 0;
 				while (it.hasNext()) {
-					VariantContext vc = stripIfNeeded(it.next());
-					if (shouldSkipRecord(vc)) {
-						// skip this record
-					} else {
-						String seqstr = getBreakendSequence(vc);
-						if (!Strings.isNullOrEmpty(seqstr) && seqstr.length() >= minRealignmentLength) {
-							byte[] seq = seqstr.getBytes(StandardCharsets.UTF_8);
-							byte[] qual = new byte[seq.length];
-							Arrays.fill(qual, DEFAULT_QUAL_SCORE);
-							FastqRecord fq = new FastqRecord(vc.getID(), seq, null, qual);
-							aligner.asyncAlign(fq);
-						}
+					String seqstr = getRealignmentSequence(it.next());
+					if (seqstr != null && submitted.get(seqstr) == null) {
+						submitted.put(seqstr, alignmentId);
+						byte[] seq = seqstr.getBytes(StandardCharsets.UTF_8);
+						byte[] qual = new byte[seq.length];
+						Arrays.fill(qual, DEFAULT_QUAL_SCORE);
+						FastqRecord fq = new FastqRecord(Integer.toString(alignmentId), seq, null, qual);
+						aligner.asyncAlign(fq);
+						alignmentId++;
 					}
 				}
 			} catch (IOException e) {
@@ -120,51 +204,75 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 			System.exit(1);
 		}
 	}
-
-	@Override
-	public boolean hasNext() {
-		ensureNext();
-		return nextRecord != null;
+	/**
+	 * Reads the alignments for the given records from the aligner.
+	 * This method must be called on batches in VCF order.
+	 */
+	private AlignedBatch alignBatch(List<VariantContext> records) {
+		List<String> sequences = new ArrayList<>(records.size());
+		Map<String, List<String>> alignments = new HashMap<>();
+		for (VariantContext vc : records) {
+			String seqstr = getRealignmentSequence(vc);
+			sequences.add(seqstr);
+			if (seqstr != null) {
+				List<String> aln = alignmentCache.get(seqstr);
+				if (aln == null) {
+					aln = writeAlignmentAnnotation(readAlignments(Integer.toString(nextAlignmentId++)));
+					alignmentCache.put(seqstr, aln);
+				}
+				alignments.put(seqstr, aln);
+			}
+		}
+		return new AlignedBatch(records, sequences, alignments);
 	}
-	@Override
-	public VariantContext next() {
-		ensureNext();
-		if (!hasNext()) throw new NoSuchElementException();
-		VariantContext result = nextRecord;
-		nextRecord = null;
+	private List<SAMRecord> readAlignments(String readName) {
+		List<SAMRecord> alignments = new ArrayList<>();
+		while (alignerStream.hasNext() && alignerStream.peek().getReadName().equals(readName)) {
+			SAMRecord r = alignerStream.next();
+			if (!r.getReadUnmappedFlag()) {
+				alignments.add(r);
+			}
+		}
+		return alignments;
+	}
+	private List<VariantContext> annotateBatch(AlignedBatch batch) {
+		List<VariantContext> result = new ArrayList<>(batch.records.size());
+		for (int i = 0; i < batch.records.size(); i++) {
+			VariantContext vc = stripIfNeeded(batch.records.get(i));
+			if (!shouldSkipRecord(vc)) {
+				String seqstr = batch.sequences.get(i);
+				vc = annotate(vc, seqstr == null ? Collections.emptyList() : batch.alignments.get(seqstr));
+			}
+			result.add(vc);
+		}
 		return result;
 	}
-	private void ensureNext() {
-		if (nextRecord != null) {
-			return;
+
+	@Override
+	public boolean hasNext() {
+		while (!currentBatch.hasNext() && annotatedStream.hasNext()) {
+			currentBatch = annotatedStream.next().iterator();
 		}
-		if (!vcfStream.hasNext()) {
-			nextRecord = null;
+		if (!currentBatch.hasNext()) {
 			if (alignerStream.hasNext()) {
 				log.debug("Traversing aligner stream to enable graceful termination.");
 				while(alignerStream.hasNext()) {
 					// consume the aligner output so everything closes gracefully
+					alignerStream.next();
 				}
 			}
-			return;
-		}
-		nextRecord = stripIfNeeded(vcfStream.next());
-		if (!shouldSkipRecord(nextRecord)) {
-			annotateNextRecord();
+			return false;
 		}
+		return true;
 	}
-	private void annotateNextRecord() {
-		String readName = nextRecord.getID();
-		List<SAMRecord> alignments = new ArrayList<>();
-		while (alignerStream.hasNext() && alignerStream.peek().getReadName().equals(readName)) {
-			SAMRecord r = alignerStream.next();
-			if (!r.getReadUnmappedFlag()) {
-				alignments.add(r);
-			}
-		}
-		VariantContextBuilder builder = new VariantContextBuilder(nextRecord);
-		List<String> existingAlignments = nextRecord.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null);
-		List<String> newAlignments = writeAlignmentAnnotation(alignments);
+	@Override
+	public VariantContext next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		return currentBatch.next();
+	}
+	private static VariantContext annotate(VariantContext vc, List<String> newAlignments) {
+		VariantContextBuilder builder = new VariantContextBuilder(vc);
+		List<String> existingAlignments = vc.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null);
 		List<String> mergedAlignments = new ArrayList<>();
 		if (existingAlignments != null && existingAlignments.size() > 0) {
 			mergedAlignments.addAll(existingAlignments);
@@ -175,7 +283,7 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 		} else {
 			builder.attribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), mergedAlignments);
 		}
-		nextRecord = builder.make();
+		return builder.make();
 	}
 	public static List<String> writeAlignmentAnnotation(List<SAMRecord> alignments) {
 		List<String> aln = new ArrayList<>(alignments.size());
@@ -215,6 +323,7 @@ public class InsertedSequenceAnnotator implements CloseableIterator<VariantConte
 	public void close() {
 		log.debug("Closing UntemplatedSequenceAnnotator");
 		// TODO: close feeding thread more cleanly than just shutting down the process
+		annotatedStream.close();
 		vcfStream.close();
 		//alignerStream.close();
 	}
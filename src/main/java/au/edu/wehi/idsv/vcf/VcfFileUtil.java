@@ -6,8 +6,12 @@ import au.edu.wehi.idsv.IntermediateFileUtil;
 import au.edu.wehi.idsv.ProcessingContext;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.PeekingIterator;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.SortingCollection;
 import htsjdk.variant.variantcontext.VariantContext;
@@ -16,16 +20,42 @@ import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
-import htsjdk.variant.vcf.VCFRecordCodec;
+import htsjdk.variant.vcf.VCFReader;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
 
 public class VcfFileUtil {
 	private static final Log log = Log.getInstance(VcfFileUtil.class);
+	/**
+	 * File extension of intermediate VCFs written in the GRIDSS binary format
+	 */
+	public static final String BINARY_VCF_SUFFIX = ".gridss.bvcf";
+	public static boolean isBinaryVcf(File file) {
+		return file.getName().endsWith(BINARY_VCF_SUFFIX);
+	}
+	/**
+	 * Opens a VCF, BCF, or GRIDSS binary VCF file for sequential reading
+	 * @param file input file
+	 * @return reader
+	 */
+	public static VCFReader open(File file) {
+		if (isBinaryVcf(file)) {
+			return new BinaryVcfReader(file);
+		}
+		return new VCFFileReader(file, false);
+	}
 	/**
 	 * Sorts a VCF according to the given sort order
 	 * @param input unsorted input
@@ -86,12 +116,12 @@ public class VcfFileUtil {
 				FileHelper.delete(tmpout, true);
 			}
 			try {
-				try (VCFFileReader reader = new VCFFileReader(input, false)) {
-					VCFHeader header = reader.getFileHeader();
+				try (VCFReader reader = open(input)) {
+					VCFHeader header = reader.getHeader();
 					try (CloseableIterator<VariantContext> rit = reader.iterator()) {
 						collection = SortingCollection.newInstance(
 								VariantContext.class,
-								new VCFRecordCodec(header),
+								new BinaryVcfCodec(header),
 								sortComparator,
 								processContext.getFileSystemContext().getMaxBufferedRecordsPerFile(),
 								processContext.getFileSystemContext().getTemporaryDirectory().toPath());
@@ -122,35 +152,143 @@ public class VcfFileUtil {
 			return null;
 		}
 	}
+	/**
+	 * Merges VCFs that are each sorted according to the given sort order.
+	 * Records are streamed from all inputs concurrently so only the head record of each input is held in memory.
+	 * @param input sorted input files
+	 * @param output sorted output to write
+	 * @param sortComparator sort order of the input and output files
+	 * @throws IOException
+	 */
+	public static void merge(ProcessingContext processContext, List<File> input, File output, Comparator<VariantContext> sortComparator) throws IOException {
+		if (IntermediateFileUtil.checkIntermediate(output)) {
+			log.info("Not merging as output already exists: " + output);
+			return;
+		}
+		File tmpout = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(output, "gridss.tmp.merging.") : output;
+		List<VCFReader> readers = new ArrayList<>(input.size());
+		try {
+			List<PeekingIterator<VariantContext>> iterators = new ArrayList<>(input.size());
+			for (File f : input) {
+				VCFReader reader = open(f);
+				readers.add(reader);
+				iterators.add(Iterators.peekingIterator(reader.iterator()));
+			}
+			try (VariantContextWriter writer = processContext.getVariantContextWriter(tmpout, false)) {
+				try (AsyncBufferedIterator<VariantContext> it = new AsyncBufferedIterator<>(new MergingIterator(iterators, sortComparator), "VcfMerge")) {
+					while (it.hasNext()) {
+						writer.add(it.next());
+					}
+				}
+			}
+			if (tmpout != output) {
+				FileHelper.move(tmpout, output, true);
+			}
+		} finally {
+			for (VCFReader reader : readers) {
+				CloserUtil.close(reader);
+			}
+			if (tmpout != output & tmpout.exists()) {
+				FileHelper.delete(tmpout, true);
+			}
+		}
+	}
+	/**
+	 * k-way merge of sorted iterators.
+	 * Records comparing equal are returned in input order.
+	 */
+	private static class MergingIterator extends AbstractIterator<VariantContext> {
+		private final PriorityQueue<Integer> queue;
+		private final List<PeekingIterator<VariantContext>> iterators;
+		public MergingIterator(List<PeekingIterator<VariantContext>> iterators, Comparator<VariantContext> sortComparator) {
+			this.iterators = iterators;
+			this.queue = new PriorityQueue<>(Math.max(1, iterators.size()), Comparator.<Integer, VariantContext>comparing(i -> iterators.get(i).peek(), sortComparator).thenComparing(i -> i));
+			for (int i = 0; i < iterators.size(); i++) {
+				if (iterators.get(i).hasNext()) {
+					queue.add(i);
+				}
+			}
+		}
+		@Override
+		protected VariantContext computeNext() {
+			Integer i = queue.poll();
+			if (i == null) {
+				return endOfData();
+			}
+			PeekingIterator<VariantContext> it = iterators.get(i);
+			VariantContext result = it.next();
+			if (it.hasNext()) {
+				queue.add(i);
+			}
+			return result;
+		}
+	}
 	/**
 	 * Concatenates the input files in order.
+	 * GRIDSS binary VCFs with identical headers are concatenated without decoding the records.
 	 * @param input input files.
 	 * @param output output file
 	 * @throws IOException
 	 */
 	public static void concat(SAMSequenceDictionary dictionary, List<File> input, File output) throws IOException {
 		File tmpout = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(output, "gridss.tmp.concat.") : output;
-		try (VariantContextWriter writer = new VariantContextWriterBuilder()
-				.setOutputFile(tmpout)
-				.setReferenceDictionary(dictionary)
-				.unsetOption(Options.INDEX_ON_THE_FLY)
-				.build()) {
-			for (int i = 0; i < input.size(); i++) {
-				try (VCFFileReader reader = new VCFFileReader(input.get(i), false)) {
-					if (i == 0) {
-						writer.writeHeader(reader.getFileHeader());
-					}
-					try (AsyncBufferedIterator<VariantContext> it = new AsyncBufferedIterator<>(reader.iterator(), input.get(i).getName())) {
-						while (it.hasNext()) {
-							writer.add(it.next());
+		if (isBinaryVcf(output) && input.size() > 0 && input.stream().allMatch(VcfFileUtil::isBinaryVcf)) {
+			concatBinary(input, tmpout);
+		} else {
+			try (VariantContextWriter writer = isBinaryVcf(tmpout) ? new BinaryVcfWriter(tmpout) : new VariantContextWriterBuilder()
+					.setOutputFile(tmpout)
+					.setReferenceDictionary(dictionary)
+					.unsetOption(Options.INDEX_ON_THE_FLY)
+					.build()) {
+				for (int i = 0; i < input.size(); i++) {
+					try (VCFReader reader = open(input.get(i))) {
+						if (i == 0) {
+							writer.writeHeader(reader.getHeader());
+						}
+						try (AsyncBufferedIterator<VariantContext> it = new AsyncBufferedIterator<>(reader.iterator(), input.get(i).getName())) {
+							while (it.hasNext()) {
+								writer.add(it.next());
+							}
 						}
 					}
 				}
+				writer.close();
 			}
-			writer.close();
 		}
 		if (tmpout != output) {
 			FileHelper.move(tmpout, output, true);
 		}
 	}
+	/**
+	 * Concatenates binary VCFs by copying the encoded records of each file.
+	 * Records can only be copied verbatim if every file was written with the same header
+	 * as the header determines the symbol table used to encode the records.
+	 */
+	private static void concatBinary(List<File> input, File output) throws IOException {
+		byte[] header = null;
+		try (FileOutputStream fos = new FileOutputStream(output)) {
+			FileChannel out = fos.getChannel();
+			for (File f : input) {
+				try (FileInputStream fis = new FileInputStream(f)) {
+					DataInputStream in = new DataInputStream(fis);
+					byte[] fileHeader = BinaryVcfReader.readPreamble(f, in);
+					if (header == null) {
+						header = fileHeader;
+						DataOutputStream dos = new DataOutputStream(fos);
+						BinaryVcfWriter.writePreamble(dos, header);
+						dos.flush();
+					} else if (!Arrays.equals(header, fileHeader)) {
+						throw new IllegalArgumentException(String.format("Unable to concatenate %s: VCF header differs from %s", f, input.get(0)));
+					}
+					// readPreamble does not buffer so the channel is positioned at the first record
+					FileChannel channel = fis.getChannel();
+					long position = channel.position();
+					long size = channel.size();
+					while (position < size) {
+						position += channel.transferTo(position, size - position, out);
+					}
+				}
+			}
+		}
+	}
 }
@@ -78,7 +78,7 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 		CloseableIterator<DirectedEvidence> rawReads = new AsyncBufferedIterator<>(getReadIterator(), "mergedReads-allocation");
 		CloseableIterator<DirectedEvidence> reads = new AsyncBufferedIterator<>(annotateAssembly(rawReads), "annotate-associated-assembly");
 		CloseableIterator<DirectedEvidence> assemblies = new AsyncBufferedIterator<>(getAssemblyIterator(), "assembly-allocation");
-		Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, reads, assemblies, SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), true);
+		Iterator<VariantEvidenceSupport> annotator = new SequentialEvidenceAllocator(getContext(), calls, reads, assemblies, SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), true, this::createCallBuilder);
 		CloseableIterator<VariantEvidenceSupport> bufferedAnnotator = new AsyncBufferedIterator<>(annotator, "annotator", 2, 8);
 		Iterator<VariantContextDirectedEvidence> it = Iterators.transform(bufferedAnnotator, bp -> annotate(bp));
 		it = Iterators.filter(it, v -> v != null);
@@ -111,15 +111,16 @@ public class AllocateEvidence extends VcfTransformCommandLineProgram {
 		AutoClosingMergedIterator mergedAssemblies = new AutoClosingMergedIterator(rawAssemblies, new SAMRecordCoordinateOnlyComparator());
 		return new AutoClosingIterator<>(new AssemblyAssociator(it, mergedAssemblies, windowSize), assToClose.toArray(new Closeable[0]));
 	}
-	private VariantContextDirectedEvidence annotate(VariantEvidenceSupport ves) {
-		VariantCallingConfiguration vc = getContext().getConfig().getVariantCalling();
-		StructuralVariationCallBuilder builder = new StructuralVariationCallBuilder(getContext(), lookup, ves.variant);
+	private StructuralVariationCallBuilder createCallBuilder(VariantContextDirectedEvidence call) {
+		StructuralVariationCallBuilder builder = new StructuralVariationCallBuilder(getContext(), lookup, call);
 		builder.setUpdateAssemblyInformation(ALLOCATE_ASSEMBLIES);
 		builder.setUpdateReadInformation(ALLOCATE_READS);
-		for (DirectedEvidence e : ves.support) {
-			builder.addEvidence(e);
-		}
-		VariantContextDirectedEvidence be = builder.make();
+		return builder;
+	}
+	private VariantContextDirectedEvidence annotate(VariantEvidenceSupport ves) {
+		VariantCallingConfiguration vc = getContext().getConfig().getVariantCalling();
+		// evidence has already been added to the builder during allocation
+		VariantContextDirectedEvidence be = ves.builder.make();
 		if (ALLOCATE_READS && ALLOCATE_ASSEMBLIES) {
 			if (!vc.writeFiltered) {
 				if (be.isFiltered()) return null;
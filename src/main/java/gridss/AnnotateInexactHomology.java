@@ -5,13 +5,14 @@ import au.edu.wehi.idsv.VariantContextDirectedEvidence;
 import au.edu.wehi.idsv.alignment.BreakpointHomology;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
 import au.edu.wehi.idsv.util.ParallelTransformIterator;
-import gridss.cmdline.VcfTransformCommandLineProgram;
+import gridss.cmdline.ChunkedVcfTransformCommandLineProgram;
+import htsjdk.samtools.QueryInterval;
 import htsjdk.samtools.util.CloseableIterator;
 
 import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
 
-public class AnnotateInexactHomology extends VcfTransformCommandLineProgram {
+public class AnnotateInexactHomology extends ChunkedVcfTransformCommandLineProgram {
 	@Override
 	public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, ExecutorService threadpool) {
 		Iterator<VariantContextDirectedEvidence> it = new ParallelTransformIterator<VariantContextDirectedEvidence, VariantContextDirectedEvidence>(
@@ -21,6 +22,11 @@ public class AnnotateInexactHomology extends VcfTransformCommandLineProgram {
 				threadpool);
 		return new AutoClosingIterator<>(it, calls);
 	}
+	@Override
+	public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, QueryInterval[] evidenceIntervals, ExecutorService threadpool) {
+		// homology only depends on the reference genome
+		return iterator(calls, threadpool);
+	}
 	public static void main(String[] argv) {
         System.exit(new AnnotateInexactHomology().instanceMain(argv));
     }
@@ -10,6 +10,7 @@ import au.edu.wehi.idsv.vcf.InsertedSequenceAnnotator;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.SamReaderFactory;
@@ -30,6 +31,8 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
@@ -99,6 +102,7 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
         IOUtil.assertFileIsWritable(OUTPUT);
         IOUtil.assertFileIsReadable(REFERENCE_SEQUENCE);
         log.info("Annotating inserted sequences in " + INPUT);
+        ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AnnotateInsertedSequence-%d").build());
         try {
             SAMSequenceDictionary dict = new IndexedFastaSequenceFile(REFERENCE_SEQUENCE).getSequenceDictionary();
             Iterator<VariantContext> it;
@@ -116,7 +120,11 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
                         sa,
                         MIN_SEQUENCE_LENGTH,
                         ALIGNMENT == AlignmentStatus.REPLACE,
-                        ALIGNMENT == AlignmentStatus.ADD_MISSING);
+                        ALIGNMENT == AlignmentStatus.ADD_MISSING,
+                        Defaults.PARALLEL_TRANSFORM_BATCH_SIZE,
+                        2 * WORKER_THREADS,
+                        InsertedSequenceAnnotator.DEFAULT_SEQUENCE_CACHE_SIZE,
+                        threadpool);
                 it = ann;
             } else {
                 VCFFileReader vcfReader = new VCFFileReader(INPUT, false);
@@ -138,6 +146,8 @@ public class AnnotateInsertedSequence extends ReferenceCommandLineProgram {
         } catch (IOException e) {
             log.error(e);
             throw new RuntimeException(e);
+        } finally {
+            threadpool.shutdown();
         }
         return 0;
     }
@@ -1,23 +1,49 @@
 package gridss;
 
 import au.edu.wehi.idsv.*;
-import gridss.cmdline.VcfTransformCommandLineProgram;
+import gridss.cmdline.ChunkedVcfTransformCommandLineProgram;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
 import htsjdk.samtools.util.CloseableIterator;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 
-public class AnnotateReferenceCoverage extends VcfTransformCommandLineProgram {
+public class AnnotateReferenceCoverage extends ChunkedVcfTransformCommandLineProgram {
 	/**
 	 * Defensive programming safety margin around expected window size
 	 */
 	private final int WINDOW_SIZE_SAFETY_MARGIN = 100000;
 	@Override
 	public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, ExecutorService threadpool) {
+		return iterator(calls, null, threadpool);
+	}
+	@Override
+	public CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, QueryInterval[] evidenceIntervals, ExecutorService threadpool) {
 		ProcessingContext context = getContext();
 		List<SAMEvidenceSource> sources = getSamEvidenceSources();
-		int windowSize = SAMEvidenceSource.maximumWindowSize(context, sources, null);
-		return new SequentialCoverageAnnotator<VariantContextDirectedEvidence>(context, sources, calls, 2 * windowSize + WINDOW_SIZE_SAFETY_MARGIN, threadpool);
+		return new SequentialCoverageAnnotator<VariantContextDirectedEvidence>(context, sources, evidenceIntervals, calls, getWindowSize(), threadpool);
+	}
+	private int getWindowSize() {
+		return 2 * SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), null) + WINDOW_SIZE_SAFETY_MARGIN;
+	}
+	@Override
+	protected boolean canTransformChunks() {
+		// coverage is only loaded for each chunk if we can query the input files
+		for (SAMEvidenceSource ses : getSamEvidenceSources()) {
+			try (SamReader reader = SamReaderFactory.makeDefault().referenceSequence(getContext().getReferenceFile()).open(ses.getFile())) {
+				if (!reader.hasIndex()) return false;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+	@Override
+	protected int getChunkPadding() {
+		return Math.max(super.getChunkPadding(), getWindowSize());
 	}
 	public static void main(String[] argv) {
         System.exit(new AnnotateReferenceCoverage().instanceMain(argv));
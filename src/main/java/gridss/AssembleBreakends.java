@@ -3,6 +3,7 @@ package gridss;
 import au.edu.wehi.idsv.AssemblyEvidenceSource;
 import au.edu.wehi.idsv.ProcessingContext;
 import au.edu.wehi.idsv.SAMEvidenceSource;
+import au.edu.wehi.idsv.util.FileSystemWorkQueue;
 import com.google.common.collect.ImmutableList;
 import gridss.cmdline.MultipleSamFileCommandLineProgram;
 import htsjdk.samtools.util.IOUtil;
@@ -31,6 +32,16 @@ public class AssembleBreakends extends MultipleSamFileCommandLineProgram {
 			"Work will be allocated across all jobs based on an even distribution of genomic regions to process. " +
 			"After all jobs have completed, output should be gathered by rerunning AssembleBreakends with JOB_NODES=1.", optional=true)
 	public int JOB_NODES = 1;
+	@Argument(doc="Dynamically allocate assembly work across jobs. " +
+			"Instead of a fixed allocation of genomic regions to each job, jobs claim regions " +
+			"through lock files in the working directory as they become idle. " +
+			"Requires all jobs to share the same WORKING_DIR. " +
+			"The output is gathered by whichever job finishes last so no additional gather job is required. " +
+			"Jobs do not require a unique JOB_INDEX: per-job region and telemetry files use the first index at or after JOB_INDEX not in use by another job.", optional=true)
+	public boolean DYNAMIC_JOB_ALLOCATION = false;
+	@Argument(doc="Number of seconds without an update after which work claimed by a job is assumed to be abandoned and will be reallocated to another job. " +
+			"Only used when DYNAMIC_JOB_ALLOCATION is set.", optional=true)
+	public int JOB_LEASE_SECONDS = 600;
 	public static void main(String[] argv) {
         System.exit(new AssembleBreakends().instanceMain(argv));
     }
@@ -40,7 +51,14 @@ public class AssembleBreakends extends MultipleSamFileCommandLineProgram {
 		ProcessingContext pc = getContext();
 		List<SAMEvidenceSource> sources = getSamEvidenceSources();
     	AssemblyEvidenceSource assembler = new AssemblyEvidenceSource(pc, sources, OUTPUT);
-    	assembler.assembleBreakends(threadpool, JOB_INDEX, JOB_NODES);
+    	if (DYNAMIC_JOB_ALLOCATION) {
+			File queueDir = pc.getFileSystemContext().getIntermediateDirectory(OUTPUT);
+			try (FileSystemWorkQueue workQueue = new FileSystemWorkQueue(queueDir, OUTPUT.getName() + ".assembly", JOB_LEASE_SECONDS * 1000L)) {
+				assembler.assembleBreakends(threadpool, JOB_INDEX, JOB_NODES, workQueue);
+			}
+		} else {
+			assembler.assembleBreakends(threadpool, JOB_INDEX, JOB_NODES);
+		}
     	return 0;
 	}
 	@Override
@@ -60,6 +78,9 @@ public class AssembleBreakends extends MultipleSamFileCommandLineProgram {
 		if (JOB_INDEX >= JOB_NODES) {
 			return new String[] { "JOB_INDEX is zero-based: JOB_INDEX must be less than JOB_NODES."};
 		}
+		if (JOB_LEASE_SECONDS <= 0) {
+			return new String[] { "JOB_LEASE_SECONDS must be positive."};
+		}
 		return super.customCommandLineValidation();
 	}
 }
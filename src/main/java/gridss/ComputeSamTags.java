@@ -5,7 +5,7 @@ import au.edu.wehi.idsv.SAMRecordChangeTracker;
 import au.edu.wehi.idsv.picard.ReferenceLookup;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.FileHelper;
-import au.edu.wehi.idsv.util.ParallelTransformIterator;
+import au.edu.wehi.idsv.util.BatchedParallelTransformIterator;
 import au.edu.wehi.idsv.util.UngroupingIterator;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
@@ -118,7 +118,7 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 				ProgressLogger progress = new ProgressLogger(log);
 				ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(false).setNameFormat("ComputeSamTags-%d").build());
     			try (SAMRecordIterator it = reader.iterator()) {
-					Iterator<SAMRecord> asyncIt = transform(threadpool, Defaults.ASYNC_BUFFER_SIZE, it, tracker);
+					Iterator<SAMRecord> asyncIt = transform(threadpool, Defaults.PARALLEL_TRANSFORM_BATCH_SIZE, 2 * WORKER_THREADS, it, tracker);
     				File tmpoutput = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(OUTPUT, "gridss.tmp.ComputeSamTags.") : OUTPUT;
     				try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpoutput)) {
 						while (asyncIt.hasNext()) {
@@ -141,7 +141,13 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 		}
     	return 0;
 	}
-	public Iterator<SAMRecord> transform(Executor threadpool, int batchSize, Iterator<SAMRecord> it, SAMRecordChangeTracker tracker) {
+	/**
+	 * Transforms the given read name grouped records
+	 * @param threadpool thread pool to perform transformation in
+	 * @param batchSize number of read name groups to process in each task
+	 * @param batchesInFlight number of batches to process in parallel
+	 */
+	public Iterator<SAMRecord> transform(Executor threadpool, int batchSize, int batchesInFlight, Iterator<SAMRecord> it, SAMRecordChangeTracker tracker) {
 		final Set<String> tags = TAGS;
 		final boolean softenHardClips = SOFTEN_HARD_CLIPS;
 		final boolean fixMates = FIX_MATE_INFORMATION;
@@ -151,7 +157,7 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 		final int supplementaryOverlap = SUPPLEMENTARY_ALIGNMENT_OVERLAP_THRESHOLD;
 		final boolean fixTerminalCigar = FIX_TERMINAL_CIGAR_INDEL;
 		final ReferenceLookup reference = isReferenceRequired() ? getReference() : null;
-		ParallelTransformIterator<List<SAMRecord>, List<SAMRecord>> parallelIt = new ParallelTransformIterator<>(
+		BatchedParallelTransformIterator<List<SAMRecord>, List<SAMRecord>> parallelIt = new BatchedParallelTransformIterator<>(
 				SAMRecordUtil.groupedByReadName(it),
 				r -> trackedTransform(
 					tracker,
@@ -166,9 +172,23 @@ public class ComputeSamTags extends ReferenceCommandLineProgram {
 					fixTerminalCigar,
 					reference),
 				batchSize,
+				batchesInFlight,
+				ComputeSamTags::estimatedSize,
+				Defaults.PARALLEL_TRANSFORM_MAX_BYTES_IN_FLIGHT,
 				threadpool);
 		return new UngroupingIterator(parallelIt);
 	}
+	/**
+	 * Estimated in-memory size of the given records
+	 */
+	private static long estimatedSize(List<SAMRecord> records) {
+		long size = 0;
+		for (SAMRecord r : records) {
+			// read bases and qualities plus record, cigar and tag overhead
+			size += 2 * r.getReadLength() + 512;
+		}
+		return size;
+	}
 	public static List<SAMRecord> trackedTransform(
 			SAMRecordChangeTracker tracker,
 			List<SAMRecord> records,
@@ -4,9 +4,29 @@ public class Defaults {
 	public static final boolean IGNORE_FILE_TIMESTAMPS;
 	public static final int ASYNC_BUFFERS;
 	public static final int ASYNC_BUFFER_SIZE;
+	/**
+	 * Number of records processed by each task of batched parallel transforms
+	 */
+	public static final int PARALLEL_TRANSFORM_BATCH_SIZE;
+	/**
+	 * Maximum estimated size of the records read ahead by batched parallel transforms
+	 */
+	public static final long PARALLEL_TRANSFORM_MAX_BYTES_IN_FLIGHT;
+	/**
+	 * Number of threads used to collect single pass metrics over disjoint regions of indexed input files
+	 */
+	public static final int METRICS_SHARDS;
+	/**
+	 * Maximum number of calls held in memory by each variant calling chunk while sorting its output
+	 */
+	public static final int VARIANT_CALL_CHUNK_RECORDS_IN_RAM;
 	public static final boolean DELETE_TEMPORARY_FILES;
 	public static final int SUPPRESS_DATA_ERROR_MESSAGES_AFTER;
 	public static final boolean WRITE_ZERO_OR_EMTPY_VCF_FIELDS;
+	/**
+	 * Write VCF output with FastVCFWriter instead of the htsjdk VCF writer
+	 */
+	public static final boolean FAST_VCF_WRITER;
 	/**
 	 * Output to temporary file. This allows restarting when a process is killed
 	 * without having to worry about partially written output files being used
@@ -22,9 +42,14 @@ public class Defaults {
 		IGNORE_FILE_TIMESTAMPS = Boolean.valueOf(System.getProperty("gridss.ignoreTimestamps", "true"));
 		ASYNC_BUFFERS = Integer.parseInt(System.getProperty("gridss.async.buffers", "2"));
 		ASYNC_BUFFER_SIZE = Integer.parseInt(System.getProperty("gridss.async.buffersize", "300"));
+		PARALLEL_TRANSFORM_BATCH_SIZE = Integer.parseInt(System.getProperty("gridss.parallel.batchsize", "2048"));
+		PARALLEL_TRANSFORM_MAX_BYTES_IN_FLIGHT = Long.parseLong(System.getProperty("gridss.parallel.maxbytes", Long.toString(256L * 1024 * 1024)));
+		METRICS_SHARDS = Integer.parseInt(System.getProperty("gridss.metrics.shards", Integer.toString(Runtime.getRuntime().availableProcessors())));
+		VARIANT_CALL_CHUNK_RECORDS_IN_RAM = Integer.parseInt(System.getProperty("gridss.variantcall.chunkRecordsInRam", "10000"));
 		DELETE_TEMPORARY_FILES = !Boolean.valueOf(System.getProperty("gridss.keepTempFiles", "false"));
 		SUPPRESS_DATA_ERROR_MESSAGES_AFTER = Integer.parseInt(System.getProperty("gridss.logSpamLimit", "100"));
 		WRITE_ZERO_OR_EMTPY_VCF_FIELDS = Boolean.valueOf(System.getProperty("gridss.writeZeroOrEmptyVcfFields", "true"));
+		FAST_VCF_WRITER = Boolean.valueOf(System.getProperty("gridss.fastVcfWriter", "true"));
 		DEFENSIVE_GC = Boolean.valueOf(System.getProperty("gridss.defensiveGC", "false"));
 		OUTPUT_TO_TEMP_FILE = Boolean.valueOf(System.getProperty("gridss.output_to_temp_file", "false"));
 	}
@@ -0,0 +1,35 @@
+package gridss;
+
+import au.edu.wehi.idsv.VariantCaller;
+import gridss.cmdline.FullEvidenceCommandLineProgram;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import picard.cmdline.StandardOptionDefinitions;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+@CommandLineProgramProperties(
+		summary = "Merges the per-chunk structural variant calls of IdentifyVariants jobs run with JOB_NODES greater than 1. "
+				+ "Arguments should match those used for IdentifyVariants.",
+        oneLineSummary = "Merges IdentifyVariants calls from multiple jobs.",
+        programGroup = gridss.cmdline.programgroups.VariantCalling.class
+)
+public class GatherIdentifiedVariants extends FullEvidenceCommandLineProgram {
+	private static final Log log = Log.getInstance(GatherIdentifiedVariants.class);
+	@Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="VCF structural variation calls.")
+    public File OUTPUT_VCF;
+	public static void main(String[] argv) {
+        System.exit(new GatherIdentifiedVariants().instanceMain(argv));
+    }
+	@Override
+	public int doWork(ExecutorService threadpool) throws IOException {
+		IOUtil.assertFileIsWritable(OUTPUT_VCF);
+		VariantCaller.gatherBreakends(getContext(), OUTPUT_VCF);
+		log.info("Raw variant calls written to " + OUTPUT_VCF);
+		return 0;
+	}
+}
@@ -7,17 +7,22 @@ import au.edu.wehi.idsv.bed.BedpeWriter;
 import au.edu.wehi.idsv.configuration.GridssConfiguration;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.util.FileHelper;
 import au.edu.wehi.idsv.util.WindowedSortingIterator;
 import au.edu.wehi.idsv.vcf.VcfFormatAttributes;
 import au.edu.wehi.idsv.vcf.VcfSvConstants;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.CloserUtil;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.Tribble;
 import htsjdk.tribble.annotation.Strand;
 import htsjdk.tribble.bed.BEDCodec;
 import htsjdk.tribble.bed.BEDFeature;
@@ -32,15 +37,22 @@ import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -70,7 +82,10 @@ public class GeneratePonBedpe extends CommandLineProgram {
 	@Argument(doc="Include imprecise calls in the panel of normals.", optional=true)
 	public boolean INCLUDE_IMPRECISE_CALLS = false;
 	private int MAX_BREAKPOINT_HOMOLOGY_LENGTH = 2000;
-	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available with a maximum of one 1 per input file.", shortName="THREADS")
+	@Argument(doc="Binary index of the output PON. The index can be memory-mapped for fast lookup of PON breakpoints and breakends.", optional=true)
+	public File OUTPUT_INDEX = null;
+	@Argument(doc="Number of worker threads to spawn. Defaults to number of cores available with a maximum of one 1 per input file."
+			+ " If all input VCFs are indexed, each chromosome is processed in parallel.", shortName="THREADS")
 	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 
 	@Override
@@ -123,30 +138,29 @@ public class GeneratePonBedpe extends CommandLineProgram {
 			}
 			GenomicProcessingContext pc = new GenomicProcessingContext(new FileSystemContext(TMP_DIR.get(0), TMP_DIR.get(0), MAX_RECORDS_IN_RAM), REFERENCE_SEQUENCE, null);
 			pc.setCommandLineProgram(this);
-			Iterator<Pair<BreakendSummary, Integer>> mergedIt = Iterators.mergeSorted(ImmutableList.of(
-					filteredMerge(pc, INPUT, NORMAL_ORDINAL),
-					getExistingPON(pc.getDictionary(), INPUT_BEDPE, INPUT_BED)), ByBreakendStartEnd);
-			BedpeMergingCounter pe = new BedpeMergingCounter();
-			BedMergingCounter se = new BedMergingCounter(true);
-			BedpeWriter writer = new BedpeWriter(pc.getDictionary(), OUTPUT_BEDPE);
-			BufferedWriter seWriter = Files.newBufferedWriter(OUTPUT_BED.toPath(), StandardCharsets.US_ASCII);
-			while(mergedIt.hasNext()) {
-				Pair<BreakendSummary, Integer> record = mergedIt.next();
-				if (record.getFirst() instanceof BreakpointSummary) {
-					Pair<BreakpointSummary, Integer> bpRecord = Pair.create((BreakpointSummary)record.getFirst(), record.getSecond());
-					writeBedpe(pe.process(bpRecord), writer);
-				} else {
-					writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.process(record));
+			if (WORKER_THREADS > 1 && INPUT.stream().allMatch(GeneratePonBedpe::isIndexed)) {
+				generatePerContig(pc);
+			} else {
+				Iterator<Pair<BreakendSummary, Integer>> mergedIt = Iterators.mergeSorted(ImmutableList.of(
+						filteredMerge(pc, INPUT, NORMAL_ORDINAL),
+						getExistingPON(pc.getDictionary(), INPUT_BEDPE, INPUT_BED)), ByBreakendStartEnd);
+				try (BedpeWriter writer = new BedpeWriter(pc.getDictionary(), OUTPUT_BEDPE);
+						BufferedWriter seWriter = Files.newBufferedWriter(OUTPUT_BED.toPath(), StandardCharsets.US_ASCII)) {
+					writePon(pc, mergedIt, writer, seWriter);
 				}
 			}
-			writeBedpe(pe.finish(), writer);
-			writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.finish());
-			writer.close();
-			seWriter.close();
+			if (OUTPUT_INDEX != null) {
+				log.info("Writing PON index to ", OUTPUT_INDEX);
+				PonIndex index = PonIndex.create(pc.getDictionary(), OUTPUT_BEDPE, OUTPUT_BED);
+				File tmp = FileSystemContext.getWorkingFileFor(OUTPUT_INDEX);
+				index.write(tmp);
+				FileHelper.move(tmp, OUTPUT_INDEX, false);
+			}
 		} catch (IOException e) {
 			log.error(e);
 			return 1;
-		} catch (InterruptedException e) {
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
 		}
 		log.error("Imprecise call inclusion not recommended due to overly aggressive PON matching.");
 		return 0;
@@ -172,6 +186,129 @@ public class GeneratePonBedpe extends CommandLineProgram {
 		Iterator<Pair<BreakendSummary, Integer>> seItTransformed = Iterators.transform(reader.iterator(), (BEDFeature x) -> toPair(dictionary, x));
 		return new AutoClosingIterator<>(Iterators.mergeSorted(ImmutableList.of(peItTransformed, seItTransformed), ByBreakendStartEnd), reader, peIt);
 	}
+	private void writePon(GenomicProcessingContext pc, Iterator<Pair<BreakendSummary, Integer>> it, BedpeWriter writer, BufferedWriter seWriter) throws IOException {
+		BedpeMergingCounter pe = new BedpeMergingCounter();
+		BedMergingCounter se = new BedMergingCounter(true);
+		while (it.hasNext()) {
+			Pair<BreakendSummary, Integer> record = it.next();
+			if (record.getFirst() instanceof BreakpointSummary) {
+				Pair<BreakpointSummary, Integer> bpRecord = Pair.create((BreakpointSummary)record.getFirst(), record.getSecond());
+				writeBedpe(pe.process(bpRecord), writer);
+			} else {
+				writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.process(record));
+			}
+		}
+		writeBedpe(pe.finish(), writer);
+		writeBed(pc.getReference().getSequenceDictionary(), seWriter, se.finish());
+	}
+
+	private static boolean isIndexed(File vcf) {
+		return Tribble.indexFile(vcf).exists() || Tribble.tabixIndexFile(vcf).exists();
+	}
+
+	/**
+	 * Generates the PON for each chromosome in parallel.
+	 * Merging only occurs between breakends on the same chromosome so
+	 * each chromosome is independent.
+	 */
+	private void generatePerContig(GenomicProcessingContext pc) throws IOException, InterruptedException, ExecutionException {
+		SAMSequenceDictionary dict = pc.getDictionary();
+		File[][] existing = splitExistingPON(pc);
+		log.info("Generating PON for each chromosome in parallel");
+		ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("GeneratePonBedpe-%d").build());
+		try (OutputStream bedpeOut = new BufferedOutputStream(new FileOutputStream(OUTPUT_BEDPE));
+				OutputStream bedOut = new BufferedOutputStream(new FileOutputStream(OUTPUT_BED))) {
+			List<Future<File[]>> contigOutputs = new ArrayList<>(dict.size());
+			for (SAMSequenceRecord contig : dict.getSequences()) {
+				contigOutputs.add(threadpool.submit(() -> generateContig(pc, contig, existing[contig.getSequenceIndex()])));
+			}
+			for (int i = 0; i < contigOutputs.size(); i++) {
+				File[] files = contigOutputs.get(i).get();
+				Files.copy(files[0].toPath(), bedpeOut);
+				Files.copy(files[1].toPath(), bedOut);
+				Files.delete(files[0].toPath());
+				Files.delete(files[1].toPath());
+				if (existing[i] != null) {
+					Files.delete(existing[i][0].toPath());
+					Files.delete(existing[i][1].toPath());
+				}
+			}
+		} finally {
+			threadpool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Splits the existing PON into a BEDPE and BED file for each chromosome
+	 * so each chromosome can be streamed independently.
+	 * @return BEDPE and BED file of each chromosome, null for chromosomes without existing PON records
+	 */
+	private File[][] splitExistingPON(GenomicProcessingContext pc) throws IOException {
+		SAMSequenceDictionary dict = pc.getDictionary();
+		File[][] split = new File[dict.size()][];
+		Iterator<Pair<BreakendSummary, Integer>> it = getExistingPON(dict, INPUT_BEDPE, INPUT_BED);
+		BedpeWriter writer = null;
+		BufferedWriter seWriter = null;
+		int referenceIndex = -1;
+		try {
+			while (it.hasNext()) {
+				Pair<BreakendSummary, Integer> record = it.next();
+				BreakendSummary bs = record.getFirst();
+				if (bs.referenceIndex != referenceIndex) {
+					if (bs.referenceIndex < referenceIndex) {
+						throw new IllegalArgumentException(String.format("Existing PON is not sorted: %s found after records on %s",
+								bs, dict.getSequence(referenceIndex).getSequenceName()));
+					}
+					CloserUtil.close(writer);
+					CloserUtil.close(seWriter);
+					referenceIndex = bs.referenceIndex;
+					String prefix = "gridss.tmp.existing." + referenceIndex + ".";
+					split[referenceIndex] = new File[] {
+							FileSystemContext.getWorkingFileFor(OUTPUT_BEDPE, prefix),
+							FileSystemContext.getWorkingFileFor(OUTPUT_BED, prefix) };
+					writer = new BedpeWriter(dict, split[referenceIndex][0]);
+					seWriter = Files.newBufferedWriter(split[referenceIndex][1].toPath(), StandardCharsets.US_ASCII);
+				}
+				if (bs instanceof BreakpointSummary) {
+					writer.write((BreakpointSummary)bs, ".", Integer.toString(record.getSecond()));
+				} else {
+					writeBed(dict, seWriter, bs, record.getSecond());
+				}
+			}
+		} finally {
+			CloserUtil.close(writer);
+			CloserUtil.close(seWriter);
+			CloserUtil.close(it);
+		}
+		return split;
+	}
+
+	private File[] generateContig(GenomicProcessingContext pc, SAMSequenceRecord contig, File[] existing) throws IOException {
+		String prefix = "gridss.tmp." + contig.getSequenceIndex() + ".";
+		File bedpe = FileSystemContext.getWorkingFileFor(OUTPUT_BEDPE, prefix);
+		File bed = FileSystemContext.getWorkingFileFor(OUTPUT_BED, prefix);
+		List<CloseableIterator<Pair<BreakendSummary, Integer>>> fileIt = new ArrayList<>();
+		Iterator<Pair<BreakendSummary, Integer>> existingIt = null;
+		try (BedpeWriter writer = new BedpeWriter(pc.getDictionary(), bedpe);
+				BufferedWriter seWriter = Files.newBufferedWriter(bed.toPath(), StandardCharsets.US_ASCII)) {
+			for (File f : INPUT) {
+				VCFFileReader vcfReader = new VCFFileReader(f, true);
+				fileIt.add(getFilteredIterator(pc, vcfReader, vcfReader.query(contig.getSequenceName(), 1, contig.getSequenceLength()), NORMAL_ORDINAL));
+			}
+			existingIt = existing == null ? ImmutableList.<Pair<BreakendSummary, Integer>>of().iterator() : getExistingPON(pc.getDictionary(), existing[0], existing[1]);
+			Iterator<Pair<BreakendSummary, Integer>> mergedIt = Iterators.mergeSorted(ImmutableList.of(
+					Iterators.mergeSorted(fileIt, ByBreakendStartEnd),
+					existingIt), ByBreakendStartEnd);
+			writePon(pc, mergedIt, writer, seWriter);
+		} finally {
+			for (CloseableIterator<Pair<BreakendSummary, Integer>> it : fileIt) {
+				it.close();
+			}
+			CloserUtil.close(existingIt);
+		}
+		return new File[] { bedpe, bed };
+	}
+
 	private static <T> Iterable<T> expand(Pair<T, Integer> pair) {
 		List<T> result = new ArrayList<>(pair.getSecond());
 		for (int i = 0; i < pair.getSecond(); i++) {
@@ -218,7 +355,9 @@ public class GeneratePonBedpe extends CommandLineProgram {
 	}
 	private CloseableIterator<Pair<BreakendSummary, Integer>> getFilteredIterator(GenomicProcessingContext pc, File file, List<Integer> ordinals) {
 		VCFFileReader vcfReader = new VCFFileReader(file, false);
-		CloseableIterator<VariantContext> it = vcfReader.iterator();
+		return getFilteredIterator(pc, vcfReader, vcfReader.iterator(), ordinals);
+	}
+	private CloseableIterator<Pair<BreakendSummary, Integer>> getFilteredIterator(GenomicProcessingContext pc, VCFFileReader vcfReader, CloseableIterator<VariantContext> it, List<Integer> ordinals) {
 		Iterator<Pair<BreakendSummary, Integer>> idsvIt = Iterators.transform(it, variant -> getBreakendSummary(pc.getDictionary(), variant, ordinals));
 		Iterator<Pair<BreakendSummary, Integer>> idsvFilteredIt = Iterators.filter(idsvIt, pair -> pair != null && pair.getSecond() > 0);
 		Iterator<Pair<BreakendSummary, Integer>> bpit = new PairBreakendSummaryWindowedSortingIterator(pc.getLinear(), idsvFilteredIt, MAX_BREAKPOINT_HOMOLOGY_LENGTH);
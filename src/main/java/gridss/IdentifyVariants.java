@@ -22,6 +22,14 @@ public class IdentifyVariants extends FullEvidenceCommandLineProgram {
 	private static final Log log = Log.getInstance(IdentifyVariants.class);
 	@Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="VCF structural variation calls.")
     public File OUTPUT_VCF;
+	@Argument(doc="Used for scaling variant calling across multiple jobs. This is the zero-based index of this job.", optional=true)
+	public int JOB_INDEX = 0;
+	@Argument(doc="Used for scaling variant calling across multiple jobs. " +
+			"This is the total number of jobs to spread variant calling over. " +
+			"Work will be allocated across all jobs based on an even distribution of genomic regions to process. " +
+			"After all jobs have completed, output should be gathered by running GatherIdentifiedVariants " +
+			"or by rerunning IdentifyVariants with JOB_NODES=1.", optional=true)
+	public int JOB_NODES = 1;
 	public static void main(String[] argv) {
         System.exit(new IdentifyVariants().instanceMain(argv));
     }
@@ -29,8 +37,23 @@ public class IdentifyVariants extends FullEvidenceCommandLineProgram {
 	public int doWork(ExecutorService threadpool) throws IOException, InterruptedException, ExecutionException {
 		IOUtil.assertFileIsWritable(OUTPUT_VCF);
 		VariantCaller caller = new VariantCaller(getContext(), getSamEvidenceSources(), getAssemblySource());
-		caller.callBreakends(OUTPUT_VCF, threadpool);
-		log.info("Raw variant calls written to " + OUTPUT_VCF);
+		caller.callBreakends(OUTPUT_VCF, threadpool, JOB_INDEX, JOB_NODES);
+		if (JOB_NODES == 1) {
+			log.info("Raw variant calls written to " + OUTPUT_VCF);
+		}
 		return 0;
 	}
+	@Override
+	protected String[] customCommandLineValidation() {
+		if (JOB_NODES < 1) {
+			return new String[] { "JOB_NODES must be at least 1."};
+		}
+		if (JOB_INDEX < 0) {
+			return new String[] { "JOB_INDEX cannot be less than 0."};
+		}
+		if (JOB_INDEX >= JOB_NODES) {
+			return new String[] { "JOB_INDEX is zero-based: JOB_INDEX must be less than JOB_NODES."};
+		}
+		return super.customCommandLineValidation();
+	}
 }
@@ -4,7 +4,9 @@ import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.SAMRecordChangeTracker;
 import au.edu.wehi.idsv.StreamingSplitReadRealigner;
+import au.edu.wehi.idsv.alignment.AlignmentCache;
 import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
+import au.edu.wehi.idsv.alignment.CachingStreamingAligner;
 import au.edu.wehi.idsv.alignment.StreamingAligner;
 import au.edu.wehi.idsv.util.AsyncBufferedIterator;
 import au.edu.wehi.idsv.util.FileHelper;
@@ -59,6 +61,9 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 	@Argument(doc="Base quality score to sent to aligner if quality scores are missing.", optional=true)
 	public byte FALLBACK_BASE_QUALITY = new SoftClipsToSplitReads().FALLBACK_BASE_QUALITY;
+	@Argument(doc="Number of distinct sequences to cache alignments for. "
+			+ "Identical sequences are only aligned once while cached. Set to 0 to disable caching.", optional=true)
+	public int ALIGNER_CACHE_SIZE = new SoftClipsToSplitReads().ALIGNER_CACHE_SIZE;
 	public static void main(String[] argv) {
         System.exit(new PreprocessForBreakendAssembly().instanceMain(argv));
     }
@@ -94,6 +99,10 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 				// 25bp per read ensures we're unlikely to be forced to flush.
 				int bwaBufferSizeInBases = ALIGNER_BATCH_SIZE * 25;
 				sa = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, bwaBufferSizeInBases);
+				if (ALIGNER_CACHE_SIZE > 0) {
+					// bwa does not use base qualities for alignment
+					sa = new CachingStreamingAligner(sa, new AlignmentCache(ALIGNER_CACHE_SIZE, false));
+				}
 				break;
 			case EXTERNAL:
 			default:
@@ -139,7 +148,7 @@ public class PreprocessForBreakendAssembly extends ReferenceCommandLineProgram {
 					try (SAMFileWriter writer = writerFactory.makeSAMOrBAMWriter(header, true, tmpOutput)) {
 						CloseableIterator<SAMRecord> asyncIn = new AsyncBufferedIterator<>(it, threadPrefix + "raw");
 						// We can reuse the non-blocking task thread pool since the transforms aren't blocking operations
-						Iterator<SAMRecord> tagFixedIt = tags.transform(AsyncReadTaskRunner.getNonBlockingThreadpool(), Defaults.ASYNC_BUFFER_SIZE, asyncIn, tracker);
+						Iterator<SAMRecord> tagFixedIt = tags.transform(AsyncReadTaskRunner.getNonBlockingThreadpool(), Defaults.PARALLEL_TRANSFORM_BATCH_SIZE, 2 * WORKER_THREADS, asyncIn, tracker);
 						realigner.process(tagFixedIt, writer, writer);
 					}
 					if (tmpOutput != OUTPUT) {
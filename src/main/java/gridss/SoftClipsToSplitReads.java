@@ -4,9 +4,14 @@ import au.edu.wehi.idsv.GenomicProcessingContext;
 import au.edu.wehi.idsv.IterativeSplitReadRealigner;
 import au.edu.wehi.idsv.SplitReadRealigner;
 import au.edu.wehi.idsv.StreamingSplitReadRealigner;
+import au.edu.wehi.idsv.alignment.AlignmentCache;
 import au.edu.wehi.idsv.alignment.BwaStreamingAligner;
+import au.edu.wehi.idsv.alignment.CachingFastqAligner;
+import au.edu.wehi.idsv.alignment.CachingStreamingAligner;
 import au.edu.wehi.idsv.alignment.ExternalProcessFastqAligner;
 import au.edu.wehi.idsv.alignment.ExternalProcessStreamingAligner;
+import au.edu.wehi.idsv.alignment.FastqAligner;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import gridss.cmdline.ReferenceCommandLineProgram;
@@ -84,6 +89,9 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
 	public List<String> ALIGNER_COMMAND_LINE = Lists.newArrayList(BWA_COMMAND_LINE);
 	@Argument(doc="Base quality score to sent to aligner if quality scores are missing.", optional=true)
 	public byte FALLBACK_BASE_QUALITY = 20;
+	@Argument(doc="Number of distinct sequences to cache alignments for. "
+			+ "Identical sequences are only aligned once while cached. Set to 0 to disable caching.", optional=true)
+	public int ALIGNER_CACHE_SIZE = 100000;
 	/**
 	 * Which aligner to perform the alignment with
 	 */
@@ -107,18 +115,28 @@ public class SoftClipsToSplitReads extends ReferenceCommandLineProgram {
         	SAMFileWriterFactory writerFactory = new SAMFileWriterFactory();
         	switch (ALIGNER) {
 				case BWAMEM:
-					BwaStreamingAligner bwaAligner = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
+					StreamingAligner bwaAligner = new BwaStreamingAligner(REFERENCE_SEQUENCE, getReference().getSequenceDictionary(), WORKER_THREADS, ALIGNER_BATCH_SIZE * 150);
+					if (ALIGNER_CACHE_SIZE > 0) {
+						// bwa does not use base qualities for alignment
+						bwaAligner = new CachingStreamingAligner(bwaAligner, new AlignmentCache(ALIGNER_CACHE_SIZE, false));
+					}
 					realigner = new StreamingSplitReadRealigner(pc, bwaAligner, ALIGNER_BATCH_SIZE);
 					toClose.add(bwaAligner);
 					break;
 				case EXTERNAL:
 				default:
 					if (ALIGNER_STREAMING) {
-						ExternalProcessStreamingAligner streamingAligner = new ExternalProcessStreamingAligner(readerFactory, ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, getReference().getSequenceDictionary());
+						StreamingAligner streamingAligner = new ExternalProcessStreamingAligner(readerFactory, ALIGNER_COMMAND_LINE, REFERENCE_SEQUENCE, WORKER_THREADS, getReference().getSequenceDictionary());
+						if (ALIGNER_CACHE_SIZE > 0) {
+							streamingAligner = new CachingStreamingAligner(streamingAligner, new AlignmentCache(ALIGNER_CACHE_SIZE, true));
+						}
 						toClose.add(streamingAligner);
 						realigner = new StreamingSplitReadRealigner(pc, streamingAligner, ALIGNER_BATCH_SIZE);
 					} else {
-						ExternalProcessFastqAligner externalAligner = new ExternalProcessFastqAligner(readerFactory, writerFactory, ALIGNER_COMMAND_LINE);
+						FastqAligner externalAligner = new ExternalProcessFastqAligner(readerFactory, writerFactory, ALIGNER_COMMAND_LINE);
+						if (ALIGNER_CACHE_SIZE > 0) {
+							externalAligner = new CachingFastqAligner(externalAligner, new AlignmentCache(ALIGNER_CACHE_SIZE, true), readerFactory, writerFactory);
+						}
 						realigner = new IterativeSplitReadRealigner(pc, externalAligner);
 					}
 					break;
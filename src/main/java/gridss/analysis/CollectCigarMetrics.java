@@ -34,7 +34,7 @@ import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.util.IOUtil;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
-import picard.analysis.SinglePassSamProgram;
+import picard.analysis.ShardableSamProgram;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -48,7 +48,7 @@ import java.util.List;
         oneLineSummary = "Writes CIGAR distribution metrics for a SAM or BAM file",
         programGroup = gridss.cmdline.programgroups.Metrics.class
 )
-public class CollectCigarMetrics extends SinglePassSamProgram {
+public class CollectCigarMetrics extends ShardableSamProgram<CollectCigarMetrics> {
 	public static final String METRICS_SUFFIX = ".cigar_metrics";
 	
 	@Argument(shortName="Z", doc="If set to true include a zero length operator for each operator not included in the alignment CIGAR.")
@@ -67,11 +67,35 @@ public class CollectCigarMetrics extends SinglePassSamProgram {
     @Override
     protected void setup(final SAMFileHeader header, final File samFile) {
         IOUtil.assertFileIsWritable(OUTPUT);
+        cigar = createCigarLookup();
+    }
+
+    private static EnumMap<CigarOperator, List<CigarDetailMetrics>> createCigarLookup() {
         HashMap<CigarOperator, List<CigarDetailMetrics>> hm = new HashMap<CigarOperator, List<CigarDetailMetrics>>();
         for (CigarOperator op : CigarOperator.values()) {
 			hm.put(op, new ArrayList<CigarDetailMetrics>());
 		}
-        cigar = new EnumMap<>(hm);
+        return new EnumMap<>(hm);
+    }
+
+    @Override
+    protected CollectCigarMetrics createShard() {
+        CollectCigarMetrics shard = new CollectCigarMetrics();
+        shard.INCLUDE_OMITTED_OPERATORS = INCLUDE_OMITTED_OPERATORS;
+        shard.INCLUDE_DUPLICATES = INCLUDE_DUPLICATES;
+        shard.cigar = createCigarLookup();
+        return shard;
+    }
+
+    @Override
+    protected void mergeShard(final CollectCigarMetrics shard) {
+        for (List<CigarDetailMetrics> shardList : shard.cigar.values()) {
+            for (CigarDetailMetrics cdm : shardList) {
+                if (cdm.COUNT > 0) {
+                    acceptCigarElement(new CigarElement(cdm.LENGTH, CigarOperator.characterToEnum(cdm.OPERATOR)), cdm.COUNT);
+                }
+            }
+        }
     }
 
     @Override
@@ -118,6 +142,10 @@ public class CollectCigarMetrics extends SinglePassSamProgram {
     }
     
     private void acceptCigarElement(CigarElement ce) {
+    	acceptCigarElement(ce, 1);
+    }
+
+    private void acceptCigarElement(CigarElement ce, long count) {
     	List<CigarDetailMetrics> list = cigar.get(ce.getOperator());
     	int length = ce.getLength();
     	while (list.size() <= length) {
@@ -127,7 +155,7 @@ public class CollectCigarMetrics extends SinglePassSamProgram {
     		cdm.COUNT = 0;
     		list.add(cdm);
     	}
-    	list.get(ce.getLength()).COUNT++;
+    	list.get(ce.getLength()).COUNT += count;
 	}
     
     @Override
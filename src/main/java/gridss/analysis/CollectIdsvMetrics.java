@@ -10,7 +10,7 @@ import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.util.IOUtil;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
-import picard.analysis.SinglePassSamProgram;
+import picard.analysis.ShardableSamProgram;
 
 import java.io.File;
 
@@ -20,7 +20,7 @@ import java.io.File;
         oneLineSummary = "Writes idsv metrics for a SAM or BAM file",
         programGroup = gridss.cmdline.programgroups.Metrics.class
 )
-public class CollectIdsvMetrics extends SinglePassSamProgram {
+public class CollectIdsvMetrics extends ShardableSamProgram<CollectIdsvMetrics> {
 	public static final String METRICS_SUFFIX = ".idsv_metrics";
 	
 	@Argument(doc = "Include secondary alignments in read counts", optional=true)
@@ -90,7 +90,41 @@ public class CollectIdsvMetrics extends SinglePassSamProgram {
 	    	}
     	}
     }
-    
+
+    @Override
+    protected CollectIdsvMetrics createShard() {
+    	CollectIdsvMetrics shard = new CollectIdsvMetrics();
+    	shard.COUNT_SECONDARY = COUNT_SECONDARY;
+    	shard.COUNT_SUPPLEMENTARY = COUNT_SUPPLEMENTARY;
+    	shard.INCLUDE_DUPLICATES = INCLUDE_DUPLICATES;
+    	shard.idsv = new IdsvMetrics();
+    	return shard;
+    }
+
+    @Override
+    protected void mergeShard(final CollectIdsvMetrics shard) {
+    	IdsvMetrics other = shard.idsv;
+    	idsv.MAX_READ_LENGTH = Math.max(idsv.MAX_READ_LENGTH, other.MAX_READ_LENGTH);
+    	idsv.MAX_READ_MAPPED_LENGTH = Math.max(idsv.MAX_READ_MAPPED_LENGTH, other.MAX_READ_MAPPED_LENGTH);
+    	if (idsv.MAX_PROPER_PAIR_FRAGMENT_LENGTH == null) {
+    		idsv.MAX_PROPER_PAIR_FRAGMENT_LENGTH = other.MAX_PROPER_PAIR_FRAGMENT_LENGTH;
+    	} else if (other.MAX_PROPER_PAIR_FRAGMENT_LENGTH != null) {
+    		idsv.MAX_PROPER_PAIR_FRAGMENT_LENGTH = Math.max(idsv.MAX_PROPER_PAIR_FRAGMENT_LENGTH, other.MAX_PROPER_PAIR_FRAGMENT_LENGTH);
+    	}
+    	if (idsv.MIN_PROPER_PAIR_FRAGMENT_LENGTH == null) {
+    		idsv.MIN_PROPER_PAIR_FRAGMENT_LENGTH = other.MIN_PROPER_PAIR_FRAGMENT_LENGTH;
+    	} else if (other.MIN_PROPER_PAIR_FRAGMENT_LENGTH != null) {
+    		idsv.MIN_PROPER_PAIR_FRAGMENT_LENGTH = Math.min(idsv.MIN_PROPER_PAIR_FRAGMENT_LENGTH, other.MIN_PROPER_PAIR_FRAGMENT_LENGTH);
+    	}
+    	idsv.READS += other.READS;
+    	idsv.MAPPED_READS += other.MAPPED_READS;
+    	idsv.READ_PAIRS += other.READ_PAIRS;
+    	idsv.READ_PAIRS_BOTH_MAPPED += other.READ_PAIRS_BOTH_MAPPED;
+    	idsv.READ_PAIRS_ONE_MAPPED += other.READ_PAIRS_ONE_MAPPED;
+    	idsv.READ_PAIRS_ZERO_MAPPED += other.READ_PAIRS_ZERO_MAPPED;
+    	idsv.SECONDARY_NOT_SPLIT += other.SECONDARY_NOT_SPLIT;
+    }
+
     private boolean shouldCount(SAMRecord record) {
     	return (COUNT_SECONDARY || !record.isSecondaryAlignment()) &&
     			(COUNT_SUPPLEMENTARY || !record.getSupplementaryAlignmentFlag());
@@ -10,7 +10,7 @@ import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import picard.PicardException;
 import picard.analysis.MetricAccumulationLevel;
-import picard.analysis.SinglePassSamProgram;
+import picard.analysis.ShardableSamProgram;
 import picard.util.RExecutor;
 
 import java.io.File;
@@ -29,7 +29,7 @@ import java.util.Set;
         oneLineSummary = "Writes mapq distribution metrics for a SAM or BAM file",
         programGroup = gridss.cmdline.programgroups.Metrics.class
 )
-public class CollectMapqMetrics extends SinglePassSamProgram {
+public class CollectMapqMetrics extends ShardableSamProgram<CollectMapqMetrics> {
 	public static final String METRICS_SUFFIX = ".mapq_metrics";
 	public static final String HISTOGRAM_SUFFIX = ".mapq_histogram.pdf";
     private static final String Histogram_R_SCRIPT = "gridss/analysis/mapqHistogram.R";
@@ -79,6 +79,17 @@ public class CollectMapqMetrics extends SinglePassSamProgram {
         multiCollector.acceptRecord(record, ref);
     }
 
+    @Override protected CollectMapqMetrics createShard() {
+        final CollectMapqMetrics shard = new CollectMapqMetrics();
+        shard.INCLUDE_DUPLICATES = INCLUDE_DUPLICATES;
+        shard.multiCollector = multiCollector.createEmptyCopy();
+        return shard;
+    }
+
+    @Override protected void mergeShard(final CollectMapqMetrics shard) {
+        multiCollector.merge(shard.multiCollector);
+    }
+
     @Override protected void finish() {
         multiCollector.finish();
 
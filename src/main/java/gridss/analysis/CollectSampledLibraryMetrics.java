@@ -0,0 +1,195 @@
+package gridss.analysis;
+
+import com.google.common.collect.ImmutableList;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.metrics.MetricsFile;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.util.CollectionUtil;
+import htsjdk.samtools.util.Histogram;
+import htsjdk.samtools.util.IOUtil;
+import htsjdk.samtools.util.Log;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
+import picard.analysis.CollectInsertSizeMetrics;
+import picard.analysis.InsertSizeMetrics;
+import picard.analysis.MetricAccumulationLevel;
+import picard.analysis.SinglePassSamProgram;
+import picard.analysis.directed.InsertSizeMetricsCollector;
+import picard.cmdline.CommandLineProgram;
+import picard.cmdline.StandardOptionDefinitions;
+import picard.cmdline.argumentcollections.RequiredOutputArgumentCollection;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Estimates library metrics from reads sampled across the genome.
+ *
+ * Windows spread across the genome are sampled until the insert size
+ * distribution quantiles converge. The output files are in the same format
+ * as those written by CollectGridssMetrics but all counts are of the sampled
+ * reads only.
+ *
+ * @author Daniel Cameron
+ */
+@CommandLineProgramProperties(
+		summary = "Estimates the library fragment size distribution and read metrics from reads sampled "
+				+ "across the genome of a coordinate sorted and indexed SAM/BAM. "
+				+ "Sampling stops once the insert size distribution quantiles converge. "
+				+ "Metrics are written in the same format as CollectGridssMetrics but all counts are of the sampled reads only.",
+		oneLineSummary = "Writes library metrics estimated from a sample of a SAM/BAM",
+		programGroup = gridss.cmdline.programgroups.Metrics.class
+)
+public class CollectSampledLibraryMetrics extends CommandLineProgram {
+	private static final Log log = Log.getInstance(CollectSampledLibraryMetrics.class);
+	public static final String INSERT_SIZE_METRICS_SUFFIX = ".insert_size_metrics";
+
+	@Argument(shortName = StandardOptionDefinitions.INPUT_SHORT_NAME, doc = "Input SAM or BAM file.")
+	public File INPUT;
+
+	@Argument(shortName = StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc = "Base name of output files.")
+	public String OUTPUT;
+
+	@Argument(doc = "Size of each sampled genomic window.")
+	public int WINDOW_SIZE = 100000;
+
+	@Argument(doc = "Maximum number of genomic windows to sample.")
+	public int MAX_WINDOWS = 8192;
+
+	@Argument(doc = "Minimum number of read pairs to sample before checking for convergence.")
+	public int MIN_READ_PAIRS = 100000;
+
+	@Argument(doc = "Insert size distribution quantiles checked for convergence.")
+	public List<Double> QUANTILE = Arrays.asList(0.005, 0.5, 0.995);
+
+	@Argument(doc = "Maximum relative change in each insert size quantile when the number of sampled read pairs is doubled for the sampled distribution to be considered converged.")
+	public double TOLERANCE = 0.01;
+
+	@Argument(doc = "If true, also include reads marked as duplicates.")
+	public boolean INCLUDE_DUPLICATES = false;
+
+	public static void main(final String[] args) {
+		new CollectSampledLibraryMetrics().instanceMainWithExit(args);
+	}
+
+	@Override
+	protected String[] customCommandLineValidation() {
+		if (WINDOW_SIZE <= 0 || MAX_WINDOWS <= 0) {
+			return new String[] { "WINDOW_SIZE and MAX_WINDOWS must be positive." };
+		}
+		for (double q : QUANTILE) {
+			if (q <= 0 || q >= 1) {
+				return new String[] { "QUANTILE must be between 0 and 1." };
+			}
+		}
+		return super.customCommandLineValidation();
+	}
+
+	@Override
+	protected int doWork() {
+		IOUtil.assertFileIsReadable(INPUT);
+		SampledInsertSizeMetrics insertSize = new SampledInsertSizeMetrics(INCLUDE_DUPLICATES, MIN_READ_PAIRS, QUANTILE, TOLERANCE);
+		insertSize.output = new RequiredOutputArgumentCollection(new File(OUTPUT + INSERT_SIZE_METRICS_SUFFIX));
+		CollectIdsvMetrics idsv = new CollectIdsvMetrics();
+		idsv.output = new RequiredOutputArgumentCollection(new File(OUTPUT + CollectIdsvMetrics.METRICS_SUFFIX));
+		idsv.INCLUDE_DUPLICATES = INCLUDE_DUPLICATES;
+		CollectCigarMetrics cigar = new CollectCigarMetrics();
+		cigar.output = new RequiredOutputArgumentCollection(new File(OUTPUT + CollectCigarMetrics.METRICS_SUFFIX));
+		cigar.INCLUDE_DUPLICATES = INCLUDE_DUPLICATES;
+		CollectMapqMetrics mapq = new CollectMapqMetrics();
+		mapq.output = new RequiredOutputArgumentCollection(new File(OUTPUT + CollectMapqMetrics.METRICS_SUFFIX));
+		mapq.INCLUDE_DUPLICATES = INCLUDE_DUPLICATES;
+		List<SinglePassSamProgram> programs = ImmutableList.of(insertSize, idsv, cigar, mapq);
+		for (SinglePassSamProgram program : programs) {
+			program.INPUT = INPUT;
+		}
+		SinglePassSamProgram.makeItSoSampled(INPUT, programs, WINDOW_SIZE, MAX_WINDOWS, insertSize::isConverged);
+		log.info(String.format("Estimated insert size distribution from %d read pairs (%s).", (long)insertSize.histogram.getCount(), insertSize.isConverged() ? "converged" : "not converged"));
+		return 0;
+	}
+
+	/**
+	 * Insert size metrics that track the convergence of the sampled insert size distribution
+	 */
+	private static class SampledInsertSizeMetrics extends SinglePassSamProgram {
+		private final boolean includeDuplicates;
+		private final int minReadPairs;
+		private final List<Double> quantiles;
+		private final double tolerance;
+		private final Histogram<Integer> histogram = new Histogram<>();
+		private InsertSizeMetricsCollector collector;
+		private double[] checkpointQuantiles = null;
+		private double checkpointCount = 0;
+		private boolean converged = false;
+
+		public SampledInsertSizeMetrics(boolean includeDuplicates, int minReadPairs, List<Double> quantiles, double tolerance) {
+			this.includeDuplicates = includeDuplicates;
+			this.minReadPairs = minReadPairs;
+			this.quantiles = quantiles;
+			this.tolerance = tolerance;
+		}
+
+		@Override
+		protected void setup(final SAMFileHeader header, final File samFile) {
+			IOUtil.assertFileIsWritable(OUTPUT);
+			CollectInsertSizeMetrics defaults = new CollectInsertSizeMetrics();
+			collector = new InsertSizeMetricsCollector(
+					CollectionUtil.makeSet(MetricAccumulationLevel.ALL_READS),
+					header.getReadGroups(),
+					defaults.MINIMUM_PCT,
+					defaults.HISTOGRAM_WIDTH,
+					defaults.MIN_HISTOGRAM_WIDTH,
+					defaults.DEVIATIONS,
+					includeDuplicates);
+		}
+
+		@Override
+		protected void acceptRead(final SAMRecord record, final ReferenceSequence ref) {
+			collector.acceptRecord(record, ref);
+			// same read filters as InsertSizeMetricsCollector
+			if (!record.getReadPairedFlag() ||
+					record.getReadUnmappedFlag() ||
+					record.getMateUnmappedFlag() ||
+					record.getFirstOfPairFlag() ||
+					record.isSecondaryOrSupplementary() ||
+					(record.getDuplicateReadFlag() && !includeDuplicates) ||
+					record.getInferredInsertSize() == 0) {
+				return;
+			}
+			histogram.increment(Math.abs(record.getInferredInsertSize()));
+		}
+
+		/**
+		 * Determines whether the insert size quantiles have changed by less than
+		 * the tolerance since the number of sampled read pairs was half the current count.
+		 */
+		public boolean isConverged() {
+			double count = histogram.getCount();
+			if (converged || count < minReadPairs || count < 2 * checkpointCount) {
+				return converged;
+			}
+			double[] current = quantiles.stream().mapToDouble(histogram::getPercentile).toArray();
+			if (checkpointQuantiles != null) {
+				converged = true;
+				for (int i = 0; i < current.length; i++) {
+					if (Math.abs(current[i] - checkpointQuantiles[i]) > tolerance * Math.max(1, checkpointQuantiles[i])) {
+						converged = false;
+					}
+				}
+			}
+			checkpointQuantiles = current;
+			checkpointCount = count;
+			return converged;
+		}
+
+		@Override
+		protected void finish() {
+			collector.finish();
+			MetricsFile<InsertSizeMetrics, Integer> file = getMetricsFile();
+			collector.addAllLevelsToFile(file);
+			file.write(OUTPUT);
+		}
+	}
+}
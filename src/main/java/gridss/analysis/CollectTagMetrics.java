@@ -32,7 +32,7 @@ import htsjdk.samtools.reference.ReferenceSequence;
 import htsjdk.samtools.util.IOUtil;
 import org.broadinstitute.barclay.argparser.Argument;
 import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
-import picard.analysis.SinglePassSamProgram;
+import picard.analysis.ShardableSamProgram;
 
 import java.io.File;
 import java.util.Comparator;
@@ -45,7 +45,7 @@ import java.util.Map;
         oneLineSummary = "Writes SAM tag metrics for a SAM or BAM file",
         programGroup = gridss.cmdline.programgroups.Metrics.class
 )
-public class CollectTagMetrics extends SinglePassSamProgram {
+public class CollectTagMetrics extends ShardableSamProgram<CollectTagMetrics> {
 	public static final String METRICS_SUFFIX = ".tag_metrics";
 	
 	@Argument(doc="If true, also include reads marked as duplicates.")
@@ -80,7 +80,26 @@ public class CollectTagMetrics extends SinglePassSamProgram {
     		
     	}
     }
-    
+
+    @Override
+    protected CollectTagMetrics createShard() {
+    	CollectTagMetrics shard = new CollectTagMetrics();
+    	shard.INCLUDE_DUPLICATES = INCLUDE_DUPLICATES;
+    	return shard;
+    }
+
+    @Override
+    protected void mergeShard(final CollectTagMetrics shard) {
+    	for (TagSummaryMetrics shardMetric : shard.tags.values()) {
+    		TagSummaryMetrics metric = tags.get(shardMetric.TAG);
+    		if (metric == null) {
+    			tags.put(shardMetric.TAG, shardMetric);
+    		} else {
+    			metric.COUNT += shardMetric.COUNT;
+    		}
+    	}
+    }
+
     @Override
     protected void finish() {
         final MetricsFile<TagSummaryMetrics, Integer> metrics = getMetricsFile();
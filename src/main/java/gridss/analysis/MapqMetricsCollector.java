@@ -33,6 +33,7 @@ import picard.analysis.MetricAccumulationLevel;
 import picard.metrics.MultiLevelCollector;
 import picard.metrics.PerUnitMetricCollector;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
 
@@ -41,10 +42,39 @@ import java.util.Set;
  */
 public class MapqMetricsCollector extends MultiLevelCollector<MapqMetrics, Integer, Integer> {
 
+    private final Set<MetricAccumulationLevel> accumulationLevels;
+    private final List<SAMReadGroupRecord> samRgRecords;
+    /**
+     * Child collectors in creation order
+     */
+    private final List<PerUnitMapqMetricsCollector> children = new ArrayList<>();
+
     public MapqMetricsCollector(final Set<MetricAccumulationLevel> accumulationLevels, final List<SAMReadGroupRecord> samRgRecords) {
+        this.accumulationLevels = accumulationLevels;
+        this.samRgRecords = samRgRecords;
         setup(accumulationLevels, samRgRecords);
     }
 
+    /**
+     * Creates a collector for the same accumulation levels with no records
+     */
+    public MapqMetricsCollector createEmptyCopy() {
+        return new MapqMetricsCollector(accumulationLevels, samRgRecords);
+    }
+
+    /**
+     * Adds the histograms of the given collector to this collector
+     * @param other collector created by createEmptyCopy()
+     */
+    public void merge(final MapqMetricsCollector other) {
+        if (children.size() != other.children.size()) {
+            throw new IllegalArgumentException("Collectors have different accumulation levels");
+        }
+        for (int i = 0; i < children.size(); i++) {
+            children.get(i).histogram.addHistogram(other.children.get(i).histogram);
+        }
+    }
+
     @Override
     protected Integer makeArg(SAMRecord samRecord, ReferenceSequence refSeq) {
     	return samRecord.getMappingQuality();
@@ -53,7 +83,9 @@ public class MapqMetricsCollector extends MultiLevelCollector<MapqMetrics, Integ
     /** Make an InsertSizeCollector with the given arguments */
     @Override
     protected PerUnitMetricCollector<MapqMetrics, Integer, Integer> makeChildCollector(final String sample, final String library, final String readGroup) {
-        return new PerUnitMapqMetricsCollector(sample, library, readGroup);
+        final PerUnitMapqMetricsCollector collector = new PerUnitMapqMetricsCollector(sample, library, readGroup);
+        children.add(collector);
+        return collector;
     }
 
     @Override
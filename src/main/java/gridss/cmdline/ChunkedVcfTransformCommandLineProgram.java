@@ -0,0 +1,143 @@
+package gridss.cmdline;
+
+import au.edu.wehi.idsv.FileSystemContext;
+import au.edu.wehi.idsv.IdsvVariantContext;
+import au.edu.wehi.idsv.QueryIntervalUtil;
+import au.edu.wehi.idsv.SAMEvidenceSource;
+import au.edu.wehi.idsv.VariantContextDirectedEvidence;
+import au.edu.wehi.idsv.util.AutoClosingIterator;
+import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.vcf.BinaryVcfReader;
+import au.edu.wehi.idsv.vcf.VcfFileUtil;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.samtools.util.Log;
+import htsjdk.tribble.Tribble;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broadinstitute.barclay.argparser.Argument;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Base class for VCF transforms in which the annotation of a call depends only on nearby evidence.
+ * 
+ * When INPUT_VCF is indexed, each genomic chunk is annotated independently in parallel
+ * and the results concatenated in chunk order.
+ *
+ */
+public abstract class ChunkedVcfTransformCommandLineProgram extends VcfTransformCommandLineProgram {
+	private static final Log log = Log.getInstance(ChunkedVcfTransformCommandLineProgram.class);
+	@Argument(doc="Annotate each genomic chunk of the VCF in parallel."
+			+ " Only used when INPUT_VCF is indexed and more than one worker thread is used.", optional=true)
+	public boolean CHUNKED = true;
+	/**
+	 * Transforms the calls of a single genomic chunk.
+	 * Only the evidence overlapping the given intervals should be loaded.
+	 * @param calls calls starting within the chunk
+	 * @param evidenceIntervals chunk intervals padded by {@link #getChunkPadding()}
+	 * @param threadpool worker thread pool
+	 */
+	public abstract CloseableIterator<VariantContextDirectedEvidence> iterator(CloseableIterator<VariantContextDirectedEvidence> calls, QueryInterval[] evidenceIntervals, ExecutorService threadpool);
+	/**
+	 * Indicates whether the current inputs allow each chunk to be annotated independently.
+	 */
+	protected boolean canTransformChunks() {
+		return true;
+	}
+	/**
+	 * Distance around each chunk from which evidence is loaded
+	 */
+	protected int getChunkPadding() {
+		return 2 * SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource());
+	}
+	@Override
+	protected void transform(ExecutorService threadpool) throws IOException, InterruptedException, ExecutionException {
+		if (CHUNKED && WORKER_THREADS > 1 && isIndexed(INPUT_VCF) && canTransformChunks()) {
+			transformChunks(threadpool);
+		} else {
+			super.transform(threadpool);
+		}
+	}
+	private static boolean isIndexed(File vcf) {
+		return Tribble.indexFile(vcf).exists() || Tribble.tabixIndexFile(vcf).exists();
+	}
+	/**
+	 * Annotates each genomic chunk in parallel and concatenates the results in chunk order.
+	 * Each call is annotated in the chunk containing its nominal VCF position.
+	 */
+	private void transformChunks(ExecutorService threadpool) throws IOException, InterruptedException, ExecutionException {
+		List<QueryInterval[]> chunks = getContext().getReference().getIntervals(getContext().getConfig().chunkSize, getContext().getConfig().chunkSequenceChangePenalty);
+		log.info(String.format("Annotating %d chunks in parallel", chunks.size()));
+		List<File> chunkFiles = new ArrayList<>();
+		VCFHeader header = getOutputHeader();
+		// chunks are run on their own pool so the worker thread pool remains available to the transforms
+		ExecutorService chunkpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("VcfTransform-%d").build());
+		try {
+			List<Future<Void>> tasks = new ArrayList<>();
+			for (int i = 0; i < chunks.size(); i++) {
+				QueryInterval[] chunk = chunks.get(i);
+				File f = FileSystemContext.getWorkingFileFor(new File(OUTPUT_VCF.getPath() + VcfFileUtil.BINARY_VCF_SUFFIX), String.format("gridss.tmp.chunk%d.", i));
+				chunkFiles.add(f);
+				// writing the header updates it so each chunk needs its own copy
+				VCFHeader chunkHeader = new VCFHeader(header);
+				tasks.add(chunkpool.submit(() -> { transformChunk(f, chunkHeader, chunk, threadpool); return null; }));
+			}
+			for (Future<Void> task : tasks) {
+				task.get();
+			}
+		} finally {
+			chunkpool.shutdownNow();
+		}
+		saveVcf(OUTPUT_VCF, header, concatChunks(chunkFiles));
+		if (gridss.Defaults.DELETE_TEMPORARY_FILES) {
+			for (File f : chunkFiles) {
+				FileHelper.delete(f, true);
+			}
+		}
+	}
+	private void transformChunk(File output, VCFHeader header, QueryInterval[] chunk, ExecutorService threadpool) throws IOException {
+		List<VariantContext> calls = new ArrayList<>();
+		try (VCFFileReader vcfReader = new VCFFileReader(INPUT_VCF, true)) {
+			for (QueryInterval qi : chunk) {
+				String contig = getContext().getDictionary().getSequence(qi.referenceIndex).getSequenceName();
+				try (CloseableIterator<VariantContext> it = vcfReader.query(contig, qi.start, qi.end)) {
+					while (it.hasNext()) {
+						VariantContext vc = it.next();
+						// calls overlapping the start of the interval are annotated in the preceding chunk
+						if (vc.getStart() >= qi.start) {
+							calls.add(vc);
+						}
+					}
+				}
+			}
+		}
+		QueryInterval[] evidenceIntervals = QueryIntervalUtil.padIntervals(getContext().getDictionary(), chunk, getChunkPadding());
+		try (CloseableIterator<VariantContextDirectedEvidence> it = iterator(new AutoClosingIterator<>(asBreakends(calls.iterator())), evidenceIntervals, threadpool)) {
+			saveVcf(output, header, asAllCalls(calls.iterator(), it));
+		}
+	}
+	private Iterator<IdsvVariantContext> concatChunks(List<File> chunkFiles) {
+		Iterator<Iterator<VariantContext>> it = Iterators.transform(chunkFiles.iterator(), f -> {
+			// chunk files are small enough to load in their entirety
+			try (BinaryVcfReader vcfReader = new BinaryVcfReader(f)) {
+				try (CloseableIterator<VariantContext> chunkIt = vcfReader.iterator()) {
+					return Lists.newArrayList(chunkIt).iterator();
+				}
+			}
+		});
+		return Iterators.transform(Iterators.concat(it), variant -> IdsvVariantContext.create(getContext().getDictionary(), null, variant));
+	}
+}
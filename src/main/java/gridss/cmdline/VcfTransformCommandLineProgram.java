@@ -56,20 +56,29 @@ public abstract class VcfTransformCommandLineProgram extends FullEvidenceCommand
 			return 1;
 		}
 		log.info("Annotating variants in " + INPUT_VCF);
+		transform(threadpool);
+		log.info("Annotated variants written to " + OUTPUT_VCF);
+		return 0;
+	}
+	/**
+	 * Transforms INPUT_VCF and writes the result to OUTPUT_VCF
+	 */
+	protected void transform(ExecutorService threadpool) throws IOException, InterruptedException, ExecutionException {
 		try (CloseableIterator<VariantContextDirectedEvidence> it = iterator(getBreakends(INPUT_VCF), threadpool)) {
 			saveVcf(OUTPUT_VCF, getAllCalls(INPUT_VCF, it));
 		}
-		log.info("Annotated variants written to " + OUTPUT_VCF);
-		return 0;
 	}
 	public CloseableIterator<VariantContextDirectedEvidence> getBreakends(File file) {
 		VCFFileReader vcfReader = new VCFFileReader(file, false);
 		CloseableIterator<VariantContext> it = vcfReader.iterator();
+		return new AutoClosingIterator<VariantContextDirectedEvidence>(asBreakends(it), it, vcfReader);
+	}
+	protected Iterator<VariantContextDirectedEvidence> asBreakends(Iterator<VariantContext> it) {
 		Iterator<IdsvVariantContext> idsvIt = Iterators.transform(it, variant -> IdsvVariantContext.create(getContext().getDictionary(), null, variant));
 		Iterator<VariantContextDirectedEvidence> beit = Iterators.filter(idsvIt, VariantContextDirectedEvidence.class);
 		// resort by evidence start
 		beit = new DirectEvidenceWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), beit);
-		return new AutoClosingIterator<VariantContextDirectedEvidence>(beit, it, vcfReader);
+		return beit;
 	}
 	public Iterator<IdsvVariantContext> getAllCalls(File file, CloseableIterator<VariantContextDirectedEvidence> breakendCalls) {
 		VCFFileReader vcfReader = new VCFFileReader(file, false);
@@ -77,17 +86,22 @@ public abstract class VcfTransformCommandLineProgram extends FullEvidenceCommand
 			inputHeader = vcfReader.getFileHeader();
 		}
 		CloseableIterator<VariantContext> it = vcfReader.iterator();
+		return new AutoClosingIterator<>(asAllCalls(it, breakendCalls), vcfReader, it);
+	}
+	protected Iterator<IdsvVariantContext> asAllCalls(Iterator<VariantContext> it, CloseableIterator<VariantContextDirectedEvidence> breakendCalls) {
 		Iterator<IdsvVariantContext> idsvIt = Iterators.transform(it, variant -> IdsvVariantContext.create(getContext().getDictionary(), null, variant));
 		Iterator<IdsvVariantContext> nonbeIt = Iterators.filter(idsvIt, variant -> !(variant instanceof VariantContextDirectedEvidence));
 		// sort back to nominal VCF position
 		Iterator<VariantContextDirectedEvidence> bpit = new VariantContextWindowedSortingIterator<>(getContext(), SAMEvidenceSource.maximumWindowSize(getContext(), getSamEvidenceSources(), getAssemblySource()), breakendCalls);
-		Iterator<IdsvVariantContext> mergedIt = Iterators.mergeSorted(ImmutableList.of(bpit, nonbeIt), IdsvVariantContext.ByLocationStart); 
-		return new AutoClosingIterator<>(mergedIt, vcfReader, it);
+		return Iterators.mergeSorted(ImmutableList.of(bpit, nonbeIt), IdsvVariantContext.ByLocationStart);
 	}
 	protected void saveVcf(File file, Iterator<IdsvVariantContext> calls) throws IOException {
+		saveVcf(file, getOutputHeader(), calls);
+	}
+	protected void saveVcf(File file, VCFHeader header, Iterator<IdsvVariantContext> calls) throws IOException {
 		File tmp = gridss.Defaults.OUTPUT_TO_TEMP_FILE ? FileSystemContext.getWorkingFileFor(file) : file;
 		final ProgressLogger writeProgress = new ProgressLogger(log);
-		try (VariantContextWriter vcfWriter = getContext().getVariantContextWriter(tmp, getOutputHeader(), true)) {
+		try (VariantContextWriter vcfWriter = getContext().getVariantContextWriter(tmp, header, true)) {
 			while (calls.hasNext()) {
 				IdsvVariantContext record = calls.next();
 				vcfWriter.add(record);
@@ -1,12 +1,14 @@
 package gridss.kraken;
 
+import au.edu.wehi.idsv.FileSystemContext;
 import au.edu.wehi.idsv.debruijn.ContigKmerCounter;
+import au.edu.wehi.idsv.debruijn.ContigKmerIndex;
 import au.edu.wehi.idsv.kraken.KrakenReportLine;
 import au.edu.wehi.idsv.kraken.SeqIdToTaxIdMap;
-import au.edu.wehi.idsv.ncbi.MinimalTaxonomyNode;
-import au.edu.wehi.idsv.ncbi.TaxonomyHelper;
+import au.edu.wehi.idsv.ncbi.TaxonomyIndex;
 import au.edu.wehi.idsv.ncbi.TaxonomyLevel;
-import au.edu.wehi.idsv.ncbi.TaxonomyNode;
+import au.edu.wehi.idsv.util.FileHelper;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Streams;
 import gridss.cmdline.ReferenceCommandLineProgram;
 import htsjdk.samtools.SAMSequenceRecord;
@@ -46,6 +48,7 @@ import static java.util.stream.Collectors.toMap;
 )
 public class ExtractBestViralReference extends CommandLineProgram {
     private static final Log log = Log.getInstance(ExtractBestViralReference.class);
+    private static final int READ_BATCH_SIZE = 1024;
     private static final Comparator<KrakenReportLine> SORT_ORDER = KrakenReportLine.ByCountAssignedDirectly.reversed().thenComparing(KrakenReportLine.ByCountAssignedToTree.reversed());
     @Argument(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="TSV from gridss.IdentifyViralTaxa")
     public File INPUT_SUMMARY;
@@ -63,6 +66,10 @@ public class ExtractBestViralReference extends CommandLineProgram {
     public int STRIDE = 16;
     @Argument(doc="NCBI taxonomy nodes.dmp. Download and extract from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip")
     public File NCBI_NODES_DMP;
+    @Argument(doc="Taxonomy index of NCBI_NODES_DMP." +
+            " The index is created if it does not exist or is out of date and reused by subsequent invocations." +
+            " If not specified, NCBI_NODES_DMP is parsed on each invocation.", optional = true)
+    public File NCBI_TAXONOMY_INDEX;
     @Argument(doc="Kraken2 seqid2taxid.map mapping file")
     public File SEQID2TAXID_MAP;
     @Argument(doc="Kraken2 library.fna files." +
@@ -73,6 +80,14 @@ public class ExtractBestViralReference extends CommandLineProgram {
     public List<File> KRAKEN_REFERENCES;
     @Argument(doc="Maximum number of contigs to extract per NCBI taxonomic identifiers.", optional = true)
     public int CONTIGS_PER_TAXID = 1;
+    @Argument(doc="Kmer index of all KRAKEN_REFERENCES contigs." +
+            " The index is created if it does not exist and reused by subsequent invocations with the same KRAKEN_REFERENCES, KMER and STRIDE." +
+            " If not specified, an in-memory index of the candidate contigs is created on each invocation.", optional = true)
+    public File KMER_INDEX;
+    @Argument(doc = "Number of worker threads to spawn. Defaults to number of cores available."
+            + " Note that I/O threads are not included in this worker thread count so CPU usage can be higher than the number of worker thread.",
+            shortName = "THREADS")
+    public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
 
     @Override
     protected String[] customCommandLineValidation() {
@@ -99,7 +114,7 @@ public class ExtractBestViralReference extends CommandLineProgram {
             log.info("Loading seqid2taxid.map from ", SEQID2TAXID_MAP);
             Map<String, Integer> seq2taxLookup = SeqIdToTaxIdMap.createLookup(SEQID2TAXID_MAP);
             log.info("Loading NCBI taxonomy from ", NCBI_NODES_DMP);
-            Map<Integer, TaxonomyNode> taxa = TaxonomyHelper.parseFull(NCBI_NODES_DMP);
+            TaxonomyIndex taxa = TaxonomyIndex.open(NCBI_NODES_DMP, NCBI_TAXONOMY_INDEX);
             log.info("Parsing ", INPUT_SUMMARY);
             List<List<String>> summaryLines = Files.readAllLines(INPUT_SUMMARY.toPath()).stream()
                     .map(line -> Arrays.asList(line.split("\t")))
@@ -108,28 +123,32 @@ public class ExtractBestViralReference extends CommandLineProgram {
                     .skip(1) // ignore header
                     .map(line -> Integer.parseInt(line.get(6)))
                     .collect(Collectors.toSet());
-            boolean[] taxidInTreeOfInterest = TaxonomyHelper.createInclusionLookup(taxaOfInterest, taxa);
+            boolean[] taxidInTreeOfInterest = taxa.createInclusionLookup(taxaOfInterest);
 
-            List<ReferenceSequence> candidateContigs = ref.stream()
-                .flatMap(r -> r.getSequenceDictionary()
-                    .getSequences()
-                    .stream()
-                    .filter(s -> taxidInTreeOfInterest[seq2taxLookup.get(s.getSequenceName())])
-                    .map(s -> r.getSequence(s.getSequenceName())))
-                .collect(Collectors.toList());
-            ContigKmerCounter ckc = new ContigKmerCounter(candidateContigs, KMER, STRIDE);
+            ContigKmerCounter ckc;
+            if (KMER_INDEX != null) {
+                ckc = new ContigKmerCounter(loadOrCreateKmerIndex(ref));
+            } else {
+                List<ReferenceSequence> candidateContigs = ref.stream()
+                    .flatMap(r -> r.getSequenceDictionary()
+                        .getSequences()
+                        .stream()
+                        .filter(s -> taxidInTreeOfInterest[seq2taxLookup.get(s.getSequenceName())])
+                        .map(s -> r.getSequence(s.getSequenceName())))
+                    .collect(Collectors.toList());
+                ckc = new ContigKmerCounter(candidateContigs, KMER, STRIDE);
+            }
             if (INPUT_VIRAL_READS != null) {
                 log.info("Identifying best viral reference genomes from ", INPUT_VIRAL_READS);
-                FastqReader fqr = new FastqReader(INPUT_VIRAL_READS);
-                while (fqr.hasNext()) {
-                    FastqRecord fq = fqr.next();
-                    ckc.count(fq.getReadBases());
+                try (FastqReader fqr = new FastqReader(INPUT_VIRAL_READS)) {
+                    ckc.count(Iterators.transform(fqr, FastqRecord::getReadBases), WORKER_THREADS, READ_BATCH_SIZE);
                 }
             }
             Map<Integer, List<Pair<String, Long>>> candidateContigCountsByTaxa = Streams.zip(
                     ckc.getContigs().stream(),
                     ckc.getKmerCounts().stream(),
                     Pair::of)
+                .filter(p -> taxidInTreeOfInterest[seq2taxLookup.get(p.getKey())])
                 .collect(groupingBy(p -> getParentTaxaOfInterest(taxaOfInterest, taxa, seq2taxLookup.get(p.getKey()))));
             if (OUTPUT_MATCHING_KMERS != null) {
                 log.info("Writing matching kmer counts to ", OUTPUT_MATCHING_KMERS);
@@ -213,9 +232,40 @@ public class ExtractBestViralReference extends CommandLineProgram {
         return 0;
     }
 
-    private int getParentTaxaOfInterest(Set<Integer> taxaOfInterest, Map<Integer, ? extends MinimalTaxonomyNode> taxa, int taxId) {
+    /**
+     * Loads the kmer index of all reference contigs, creating it if required.
+     */
+    private ContigKmerIndex loadOrCreateKmerIndex(List<IndexedFastaSequenceFile> ref) throws IOException {
+        Map<String, Long> sources = new LinkedHashMap<>();
+        for (File f : KRAKEN_REFERENCES) {
+            sources.put(f.getAbsolutePath(), f.length());
+        }
+        if (!KMER_INDEX.exists()) {
+            log.info("Creating kmer index ", KMER_INDEX);
+            // lazily load each contig so only one contig is in memory at a time
+            Iterator<ReferenceSequence> it = Iterators.concat(Iterators.transform(ref.iterator(),
+                    r -> Iterators.transform(r.getSequenceDictionary().getSequences().iterator(),
+                            s -> r.getSequence(s.getSequenceName()))));
+            File tmp = FileSystemContext.getWorkingFileFor(KMER_INDEX);
+            ContigKmerIndex.write(it, KMER, STRIDE, sources, tmp);
+            FileHelper.move(tmp, KMER_INDEX, false);
+        }
+        log.info("Loading kmer index ", KMER_INDEX);
+        ContigKmerIndex index = ContigKmerIndex.load(KMER_INDEX);
+        if (index.getK() != KMER || index.getStride() != STRIDE) {
+            throw new IllegalArgumentException(String.format("%s was created with KMER=%d and STRIDE=%d. Delete the index or use matching KMER and STRIDE.",
+                    KMER_INDEX, index.getK(), index.getStride()));
+        }
+        if (!index.getSources().equals(sources)) {
+            throw new IllegalArgumentException(String.format("%s was created from KRAKEN_REFERENCES %s but KRAKEN_REFERENCES are %s. Delete the index or use matching KRAKEN_REFERENCES.",
+                    KMER_INDEX, index.getSources(), sources));
+        }
+        return index;
+    }
+
+    private int getParentTaxaOfInterest(Set<Integer> taxaOfInterest, TaxonomyIndex taxa, int taxId) {
         while (!taxaOfInterest.contains(taxId)) {
-            int parentTaxId = taxa.get(taxId).parentTaxId;
+            int parentTaxId = taxa.getParent(taxId);
             if (parentTaxId <= 1) return taxId;
             taxId = parentTaxId;
         }
@@ -3,10 +3,8 @@ package gridss.kraken;
 import au.edu.wehi.idsv.debruijn.ContigKmerCounter;
 import au.edu.wehi.idsv.kraken.KrakenReportLine;
 import au.edu.wehi.idsv.kraken.SeqIdToTaxIdMap;
-import au.edu.wehi.idsv.ncbi.MinimalTaxonomyNode;
-import au.edu.wehi.idsv.ncbi.TaxonomyHelper;
+import au.edu.wehi.idsv.ncbi.TaxonomyIndex;
 import au.edu.wehi.idsv.ncbi.TaxonomyLevel;
-import au.edu.wehi.idsv.ncbi.TaxonomyNode;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Streams;
@@ -62,6 +60,10 @@ public class IdentifyViralTaxa extends CommandLineProgram {
     public File TAXONOMY_ID_LIST;
     @Argument(doc="NCBI taxonomy nodes.dmp. Download and extract from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip")
     public File NCBI_NODES_DMP;
+    @Argument(doc="Taxonomy index of NCBI_NODES_DMP." +
+            " The index is created if it does not exist or is out of date and reused by subsequent invocations." +
+            " If not specified, NCBI_NODES_DMP is parsed on each invocation.", optional = true)
+    public File NCBI_TAXONOMY_INDEX;
     @Argument(doc="Kraken2 seqid2taxid.map mapping file")
     public File SEQID2TAXID_MAP;
     @Argument(doc="Kraken2 library.fna files." +
@@ -123,9 +125,9 @@ public class IdentifyViralTaxa extends CommandLineProgram {
             log.info("Loading seqid2taxid.map from ", SEQID2TAXID_MAP);
             Map<String, Integer> seq2taxLookup = SeqIdToTaxIdMap.createLookup(SEQID2TAXID_MAP);
             log.info("Loading NCBI taxonomy from ", NCBI_NODES_DMP);
-            Map<Integer, MinimalTaxonomyNode> taxa = TaxonomyHelper.parseMinimal(NCBI_NODES_DMP);
-            boolean[] taxIdLookup = TaxonomyHelper.createInclusionLookup(TAXONOMY_IDS, taxa);
-            boolean[] relevantTaxIdAndAncestors = TaxonomyHelper.addAncestors(taxIdLookup, taxa);
+            TaxonomyIndex taxa = TaxonomyIndex.open(NCBI_NODES_DMP, NCBI_TAXONOMY_INDEX);
+            boolean[] taxIdLookup = taxa.createInclusionLookup(TAXONOMY_IDS);
+            boolean[] relevantTaxIdAndAncestors = taxa.addAncestors(taxIdLookup);
             log.info("Parsing Kraken2 report from ", INPUT_KRAKEN2_REPORT);
             List<KrakenReportLine> fullReport = Files.lines(INPUT_KRAKEN2_REPORT.toPath())
                     .map(s -> new KrakenReportLine(s))
@@ -174,7 +176,7 @@ public class IdentifyViralTaxa extends CommandLineProgram {
         return "taxid_genus\tname_genus\treads_genus_tree\ttaxid_species\tname_species\treads_species_tree\ttaxid_assigned\tname_assigned\treads_assigned_tree\treads_assigned_direct";
     }
 
-    private String createSummaryLine(List<KrakenReportLine> fullReport, Map<Integer, MinimalTaxonomyNode> taxa, KrakenReportLine line) {
+    private String createSummaryLine(List<KrakenReportLine> fullReport, TaxonomyIndex taxa, KrakenReportLine line) {
         Map<Integer, KrakenReportLine> lookup = fullReport.stream().collect(Collectors.toMap(x -> x.taxonomyId, x -> x));
         KrakenReportLine genus = line;
         KrakenReportLine species = line;
@@ -188,7 +190,7 @@ public class IdentifyViralTaxa extends CommandLineProgram {
                     genus = current;
                     break;
             }
-            int parent_taxid = taxa.get(current.taxonomyId).parentTaxId;
+            int parent_taxid = taxa.getParent(current.taxonomyId);
             if (parent_taxid <= 1) break;
             current = lookup.get(parent_taxid);
         }
@@ -205,7 +207,7 @@ public class IdentifyViralTaxa extends CommandLineProgram {
      * @param level
      * @return
      */
-    public static Int2IntMap createTaxaGroupLookup(Map<Integer, ? extends MinimalTaxonomyNode> taxa, List<KrakenReportLine> fullReport, TaxonomyLevel level) {
+    public static Int2IntMap createTaxaGroupLookup(TaxonomyIndex taxa, List<KrakenReportLine> fullReport, TaxonomyLevel level) {
         Map<Integer, KrakenReportLine> reportLookup = fullReport.stream().collect(Collectors.toMap(krl -> krl.taxonomyId, krl -> krl));
         Int2IntMap taxaGroupLookup = new Int2IntOpenHashMap();
         for (KrakenReportLine krl : fullReport) {
@@ -216,9 +218,9 @@ public class IdentifyViralTaxa extends CommandLineProgram {
                     if (level.krakenAbbreviation().equals(parent.rank)) {
                         groupTaxa = parent.taxonomyId;
                     }
-                    if (taxa.get(parent.taxonomyId) == null) break;
-                    if (parent.taxonomyId == taxa.get(parent.taxonomyId).parentTaxId) break;
-                    parent = reportLookup.get(taxa.get(parent.taxonomyId).parentTaxId);
+                    if (!taxa.contains(parent.taxonomyId)) break;
+                    if (parent.taxonomyId == taxa.getParent(parent.taxonomyId)) break;
+                    parent = reportLookup.get(taxa.getParent(parent.taxonomyId));
                 }
             }
             taxaGroupLookup.put(krl.taxonomyId, groupTaxa);
@@ -1,9 +1,10 @@
 package gridss.kraken;
 
-import au.edu.wehi.idsv.kraken.KrakenClassification;
 import au.edu.wehi.idsv.kraken.KrakenClassificationChecker;
-import au.edu.wehi.idsv.kraken.KrakenParser;
+import au.edu.wehi.idsv.util.BatchedParallelTransformIterator;
+import au.edu.wehi.idsv.util.LineChunkIterator;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.RuntimeIOException;
@@ -13,8 +14,9 @@ import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CommandLineProgramProperties(
         summary = "Processes Kraken2 output and subsets to only those records under the given taxonomic IDs. ",
@@ -24,6 +26,10 @@ import java.util.List;
 public class SubsetToTaxonomy extends CommandLineProgram {
     private static final int NCBI_VIRUS_TAXID = 10239;
     private static final Log log = Log.getInstance(SubsetToTaxonomy.class);
+    /**
+     * Size of each block of Kraken2 output processed by a worker thread
+     */
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
     @Argument(shortName= StandardOptionDefinitions.INPUT_SHORT_NAME, doc="Kraken2 output file.")
     public File INPUT;
     @Argument(shortName=StandardOptionDefinitions.OUTPUT_SHORT_NAME, doc="Output file")
@@ -34,6 +40,14 @@ public class SubsetToTaxonomy extends CommandLineProgram {
     public List<Integer> TAXONOMY_IDS = Lists.newArrayList(NCBI_VIRUS_TAXID);
     @Argument(doc="NCBI taxonomy nodes.dmp. Download and extract from https://ftp.ncbi.nlm.nih.gov/pub/taxonomy/taxdmp.zip")
     public File NCBI_NODES_DMP;
+    @Argument(doc="Taxonomy index of NCBI_NODES_DMP." +
+            " The index is created if it does not exist or is out of date and reused by subsequent invocations." +
+            " If not specified, NCBI_NODES_DMP is parsed on each invocation.", optional = true)
+    public File NCBI_TAXONOMY_INDEX;
+    @Argument(doc = "Number of worker threads to spawn. Defaults to number of cores available."
+            + " Note that I/O threads are not included in this worker thread count so CPU usage can be higher than the number of worker thread.",
+            shortName = "THREADS")
+    public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
     //@Argument(doc="Include in output if any kmer unambiguously matches the taxonomic classification.", optional = true)
     //public Boolean ANY_KMER = true;
 
@@ -53,34 +67,61 @@ public class SubsetToTaxonomy extends CommandLineProgram {
         IOUtil.assertFileIsReadable(INPUT);
         IOUtil.assertFileIsReadable(NCBI_NODES_DMP);
         IOUtil.assertFileIsWritable(OUTPUT);
-        try (KrakenParser parser = new KrakenParser(new BufferedReader(new InputStreamReader(new FileInputStream(INPUT))))) {
-            KrakenClassificationChecker kcc = new KrakenClassificationChecker(TAXONOMY_IDS, NCBI_NODES_DMP);
+        ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SubsetToTaxonomy-%d").build());
+        try {
+            KrakenClassificationChecker kcc = new KrakenClassificationChecker(TAXONOMY_IDS, NCBI_NODES_DMP, NCBI_TAXONOMY_INDEX);
             log.info("Performing taxonomy lookup on ", INPUT);
-            try (BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(OUTPUT))) {
-                while (parser.hasNext()) {
-                    KrakenClassification kc = parser.next();
-                    if (kcc.isOfInterest(kc)) {
-                        switch (FORMAT) {
-                            case READ_NAME:
-                                os.write(kc.sequenceId.getBytes(StandardCharsets.UTF_8));
-                                os.write('\n');
-                                break;
-                            case KRAKEN:
-                            default:
-                                os.write(kc.toKrakenOutput().getBytes(StandardCharsets.UTF_8));
-                                os.write('\n');
-                                break;
-                        }
-                    }
+            try (LineChunkIterator chunks = new LineChunkIterator(new FileInputStream(INPUT), CHUNK_SIZE);
+                    BatchedParallelTransformIterator<byte[], byte[]> it = new BatchedParallelTransformIterator<>(chunks, chunk -> subset(kcc, chunk), 1, 2 * WORKER_THREADS, threadpool);
+                    BufferedOutputStream os = new BufferedOutputStream(new FileOutputStream(OUTPUT))) {
+                while (it.hasNext()) {
+                    os.write(it.next());
                 }
             }
         } catch (IOException e) {
             log.error(e);
             throw new RuntimeIOException(e);
+        } finally {
+            threadpool.shutdownNow();
         }
         return 0;
     }
 
+    /**
+     * Filters a chunk of Kraken2 output lines
+     * @param chunk newline separated Kraken2 output
+     * @return output for the lines of interest
+     */
+    private byte[] subset(KrakenClassificationChecker kcc, byte[] chunk) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int lineStart = 0;
+        while (lineStart < chunk.length) {
+            int lineEnd = lineStart;
+            while (lineEnd < chunk.length && chunk[lineEnd] != '\n') lineEnd++;
+            int next = lineEnd + 1;
+            if (lineEnd > lineStart && chunk[lineEnd - 1] == '\r') lineEnd--;
+            if (lineEnd > lineStart && kcc.isOfInterest(chunk, lineStart, lineEnd)) {
+                switch (FORMAT) {
+                    case READ_NAME:
+                        int nameStart = lineStart;
+                        while (nameStart < lineEnd && chunk[nameStart++] != '\t');
+                        int nameEnd = nameStart;
+                        while (nameEnd < lineEnd && chunk[nameEnd] != '\t') nameEnd++;
+                        out.write(chunk, nameStart, nameEnd - nameStart);
+                        out.write('\n');
+                        break;
+                    case KRAKEN:
+                    default:
+                        out.write(chunk, lineStart, lineEnd - lineStart);
+                        out.write('\n');
+                        break;
+                }
+            }
+            lineStart = next;
+        }
+        return out.toByteArray();
+    }
+
     public static void main(String[] argv) {
         System.exit(new SubsetToTaxonomy().instanceMain(argv));
     }
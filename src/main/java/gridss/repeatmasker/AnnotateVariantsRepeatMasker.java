@@ -1,19 +1,18 @@
 package gridss.repeatmasker;
 
-import au.edu.wehi.idsv.kraken.KrakenParser;
 import au.edu.wehi.idsv.repeatmasker.AnnotateRepeatMasker;
-import au.edu.wehi.idsv.repeatmasker.RepeatMaskerCodec;
 import au.edu.wehi.idsv.repeatmasker.RepeatMaskerFeature;
+import au.edu.wehi.idsv.repeatmasker.RepeatMaskerIndex;
+import au.edu.wehi.idsv.util.BatchedParallelTransformIterator;
 import au.edu.wehi.idsv.vcf.VcfInfoAttributes;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.TreeMultimap;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.SAMSequenceDictionary;
 import htsjdk.samtools.util.CloseableIterator;
 import htsjdk.samtools.util.IOUtil;
 import htsjdk.samtools.util.Log;
 import htsjdk.samtools.util.RuntimeIOException;
-import htsjdk.tribble.AbstractFeatureReader;
-import htsjdk.tribble.CloseableTribbleIterator;
-import htsjdk.tribble.readers.LineIterator;
+import htsjdk.samtools.util.Tuple;
 import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
@@ -24,14 +23,22 @@ import org.broadinstitute.barclay.argparser.CommandLineProgramProperties;
 import picard.cmdline.CommandLineProgram;
 import picard.cmdline.StandardOptionDefinitions;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 @CommandLineProgramProperties(
         summary = "Annotates single breakend and breakpoint inserted sequences with RepeatMasker classifications." +
-				" Since RepeatMasker does not retain record ordering, this program must be given enough memory to" +
-				" load the entire RepeatMasker output file into memory.",
+				" Since RepeatMasker does not retain record ordering, the entire RepeatMasker output file is loaded" +
+				" into a compact in-memory index.",
         oneLineSummary = "Annotates single breakend and breakpoint inserted sequences with RepeatMasker classifications",
         programGroup = gridss.cmdline.programgroups.VariantCalling.class
 )
@@ -47,55 +54,68 @@ public class AnnotateVariantsRepeatMasker extends CommandLineProgram {
 	public File REPEAT_MASKER;
 	@Argument(doc="INFO fields to populate. Valid values are INSRM, INSRMRT, INSRMRC, INSRMRO, INSRMP")
 	public List<String> TAGS = AnnotateRepeatMasker.REPEAT_MASKER_ATTRIBUTES.stream().map(x -> x.attribute()).collect(Collectors.toList());
+	@Argument(doc = "Number of worker threads to spawn. Defaults to number of cores available." +
+			" Note that I/O threads are not included in this worker thread count so CPU usage can be higher than the number of worker thread.",
+			shortName = "THREADS")
+	public int WORKER_THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int BATCH_SIZE = 1024;
 	@Override
 	public int doWork() {
 		IOUtil.assertFileIsReadable(INPUT);
 		IOUtil.assertFileIsReadable(REPEAT_MASKER);
 		IOUtil.assertFileIsWritable(OUTPUT);
-		try (KrakenParser parser = new KrakenParser(new BufferedReader(new InputStreamReader(new FileInputStream(INPUT))))) {
-			try (VCFFileReader vcfReader = new VCFFileReader(INPUT, false)) {
-				VCFHeader header = vcfReader.getFileHeader();
-				if (header.getSequenceDictionary() == null) {
-					throw new RuntimeException("INPUT VCF missing sequence definitions.");
-				}
-				log.info("Loading ", REPEAT_MASKER);
-				Multimap<String, RepeatMaskerFeature> lookup = TreeMultimap.create(String::compareTo, RepeatMaskerFeature.ByUniqueID);
-				try (AbstractFeatureReader<RepeatMaskerFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(REPEAT_MASKER.getPath(), new RepeatMaskerCodec(), false)) {
-					try(CloseableTribbleIterator<RepeatMaskerFeature> rmit = reader.iterator()) {
-						while (rmit.hasNext()) {
-							RepeatMaskerFeature f = rmit.next();
-							lookup.put(f.getContig(), f);
-					}
-				}
-				log.info("Loaded ", lookup.size(), " RepeatMasker records.");
-				log.info("Annotating ", OUTPUT);
-					try (CloseableIterator<VariantContext> it = vcfReader.iterator()) {
-						VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
-								.setReferenceDictionary(header.getSequenceDictionary())
-								.setOutputFile(OUTPUT);
-						try (VariantContextWriter vcfWriter = builder.build()) {
-							for (VcfInfoAttributes a : AnnotateRepeatMasker.REPEAT_MASKER_ATTRIBUTES) {
-								if (TAGS.contains(a.attribute())) {
-									header.addMetaDataLine(a.infoHeader());
-								}
-							}
-							vcfWriter.writeHeader(header);
-							while (it.hasNext()) {
-								VariantContext vc = it.next();
-								vc = AnnotateRepeatMasker.annotate(header.getSequenceDictionary(), TAGS, vc, lookup.removeAll(vc.getID()));
-								vcfWriter.add(vc);
-							}
+		ExecutorService threadpool = Executors.newFixedThreadPool(WORKER_THREADS, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("AnnotateVariantsRepeatMasker-%d").build());
+		try (VCFFileReader vcfReader = new VCFFileReader(INPUT, false)) {
+			VCFHeader header = vcfReader.getFileHeader();
+			SAMSequenceDictionary dict = header.getSequenceDictionary();
+			if (dict == null) {
+				throw new RuntimeException("INPUT VCF missing sequence definitions.");
+			}
+			log.info("Loading ", REPEAT_MASKER);
+			RepeatMaskerIndex lookup = RepeatMaskerIndex.create(REPEAT_MASKER);
+			log.info("Loaded ", lookup.size(), " RepeatMasker records.");
+			log.info("Annotating ", OUTPUT);
+			// RepeatMasker annotations are only reported for the first record with each ID
+			Set<String> consumed = new HashSet<>();
+			try (CloseableIterator<VariantContext> rawIt = vcfReader.iterator();
+					BatchedParallelTransformIterator<Tuple<VariantContext, Boolean>, VariantContext> it = new BatchedParallelTransformIterator<>(
+							Iterators.transform(rawIt, vc -> new Tuple<>(vc, consumed.add(vc.getID()))),
+							t -> AnnotateRepeatMasker.annotate(dict, TAGS, t.a, t.b ? getFeatures(lookup, t.a.getID()) : Collections.emptyList()),
+							BATCH_SIZE, 2 * WORKER_THREADS, threadpool)) {
+				VariantContextWriterBuilder builder = new VariantContextWriterBuilder()
+						.setReferenceDictionary(dict)
+						.setOutputFile(OUTPUT);
+				try (VariantContextWriter vcfWriter = builder.build()) {
+					for (VcfInfoAttributes a : AnnotateRepeatMasker.REPEAT_MASKER_ATTRIBUTES) {
+						if (TAGS.contains(a.attribute())) {
+							header.addMetaDataLine(a.infoHeader());
 						}
 					}
+					vcfWriter.writeHeader(header);
+					while (it.hasNext()) {
+						vcfWriter.add(it.next());
+					}
 				}
 			}
 		} catch (IOException e) {
 			log.error(e);
 			throw new RuntimeIOException(e);
+		} finally {
+			threadpool.shutdownNow();
 		}
 		return 0;
 	}
 
+	/**
+	 * RepeatMasker annotations of the inserted sequence of the given variant.
+	 * Annotations sharing a RepeatMasker ID are reported once.
+	 */
+	private static Collection<RepeatMaskerFeature> getFeatures(RepeatMaskerIndex lookup, String id) {
+		Set<RepeatMaskerFeature> features = new TreeSet<>(RepeatMaskerFeature.ByUniqueID);
+		features.addAll(lookup.getFeatures(id));
+		return features;
+	}
+
 	public static void main(String[] argv) {
 		System.exit(new AnnotateVariantsRepeatMasker().instanceMain(argv));
 	}
@@ -0,0 +1,355 @@
+package htsjdk.variant.variantcontext.writer;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.util.RuntimeIOException;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.GenotypesContext;
+import htsjdk.variant.variantcontext.LazyGenotypesContext;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFConstants;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLineCount;
+import htsjdk.variant.vcf.VCFInfoHeaderLine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * VCF writer for records with many INFO fields such as GRIDSS breakend calls.
+ *
+ * Output is identical to {@link VCFWriter} but the INFO field order is pre-computed
+ * from the header instead of sorting the attributes of every record, floating point
+ * values are formatted without {@link String#format}, and each record is encoded into
+ * reusable line buffers. Genotype fields are encoded by {@link VCFEncoder}.
+ *
+ * Missing header fields are not permitted.
+ */
+public class FastVCFWriter extends IndexingVariantContextWriter {
+    private static final String QUAL_FORMAT_EXTENSION_TO_TRIM = ".00";
+    private static final long[] POWERS_OF_TEN = { 1, 10, 100, 1000 };
+    /**
+     * Largest scaled value formatted directly. The floating point error of
+     * larger values is too large to determine the rounding direction.
+     */
+    private static final double MAX_DIRECT_SCALED_VALUE = 1e9;
+    /**
+     * Scaled values this close to a rounding boundary are formatted exactly
+     */
+    private static final double ROUNDING_BOUNDARY_TOLERANCE = 1e-3;
+    private final StringBuilder line = new StringBuilder(4096);
+    private byte[] lineBytes = new byte[4096];
+    private VCFHeader header;
+    private VCFEncoder encoder;
+    /**
+     * INFO fields in output order
+     */
+    private String[] infoKeys;
+    /**
+     * Indicates whether the INFO field is a flag and should never be written with a value
+     */
+    private boolean[] infoIsFlag;
+
+    public FastVCFWriter(File location, OutputStream output, SAMSequenceDictionary refDict, boolean enableOnTheFlyIndexing) {
+        super(writerName(location, output), location, output, refDict, enableOnTheFlyIndexing);
+    }
+
+    @Override
+    public void writeHeader(VCFHeader header) {
+        if (this.header != null) {
+            throw new IllegalStateException("The header cannot be modified after the header or variants have been written to the output stream.");
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            Writer writer = new OutputStreamWriter(buffer, VCFEncoder.VCF_CHARSET);
+            VCFWriter.writeHeader(header, writer, VCFWriter.getVersionLine(), getStreamName());
+            writer.flush();
+            buffer.writeTo(getOutputStream());
+        } catch (IOException e) {
+            throw new RuntimeIOException("Couldn't write file " + getStreamName(), e);
+        }
+        setHeader(header);
+    }
+
+    @Override
+    public void setHeader(VCFHeader header) {
+        this.header = header;
+        this.encoder = new VCFEncoder(header, false, false);
+        List<String> keys = new ArrayList<>();
+        for (VCFInfoHeaderLine info : header.getInfoHeaderLines()) {
+            keys.add(info.getID());
+        }
+        // same ordering as the TreeMap used by VCFEncoder
+        Collections.sort(keys);
+        infoKeys = keys.toArray(new String[0]);
+        infoIsFlag = new boolean[infoKeys.length];
+        for (int i = 0; i < infoKeys.length; i++) {
+            VCFInfoHeaderLine info = header.getInfoHeaderLine(infoKeys[i]);
+            infoIsFlag[i] = info.getCountType() == VCFHeaderLineCount.INTEGER && info.getCount() == 0;
+        }
+    }
+
+    @Override
+    public void add(VariantContext vc) {
+        if (header == null) {
+            throw new IllegalStateException("The VCF Header must be written before records can be added: " + getStreamName());
+        }
+        super.add(vc);
+        line.setLength(0);
+        encode(vc, line);
+        line.append('\n');
+        try {
+            writeLine();
+        } catch (IOException e) {
+            throw new RuntimeIOException("Unable to write the VCF object to " + getStreamName(), e);
+        }
+    }
+
+    private void writeLine() throws IOException {
+        int length = line.length();
+        if (lineBytes.length < length) {
+            lineBytes = new byte[Math.max(length, 2 * lineBytes.length)];
+        }
+        for (int i = 0; i < length; i++) {
+            char c = line.charAt(i);
+            if (c > 0x7F) {
+                getOutputStream().write(line.toString().getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            lineBytes[i] = (byte)c;
+        }
+        getOutputStream().write(lineBytes, 0, length);
+    }
+
+    /**
+     * Encodes the given record as a VCF line, excluding the line terminator.
+     */
+    public void encode(VariantContext vc, StringBuilder sb) {
+        sb.append(vc.getContig()).append(VCFConstants.FIELD_SEPARATOR);
+        sb.append(vc.getStart()).append(VCFConstants.FIELD_SEPARATOR);
+        sb.append(vc.getID()).append(VCFConstants.FIELD_SEPARATOR);
+        sb.append(vc.getReference().getDisplayString()).append(VCFConstants.FIELD_SEPARATOR);
+        if (vc.isVariant()) {
+            List<Allele> alts = vc.getAlternateAlleles();
+            for (int i = 0; i < alts.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(alts.get(i).getDisplayString());
+            }
+        } else {
+            sb.append(VCFConstants.EMPTY_ALTERNATE_ALLELE_FIELD);
+        }
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+        if (vc.hasLog10PError()) {
+            appendQual(sb, vc.getPhredScaledQual());
+        } else {
+            sb.append(VCFConstants.MISSING_VALUE_v4);
+        }
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+        appendFilter(sb, vc);
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+        appendInfo(sb, vc);
+        appendGenotypes(sb, vc);
+    }
+
+    private void appendFilter(StringBuilder sb, VariantContext vc) {
+        if (vc.isFiltered()) {
+            for (String filter : vc.getFilters()) {
+                if (!header.hasFilterLine(filter)) {
+                    fieldIsMissingFromHeaderError(vc, filter, "FILTER");
+                }
+            }
+            String[] filters = vc.getFilters().toArray(new String[0]);
+            Arrays.sort(filters);
+            for (int i = 0; i < filters.length; i++) {
+                if (i > 0) sb.append(';');
+                sb.append(filters[i]);
+            }
+        } else if (vc.filtersWereApplied()) {
+            sb.append(VCFConstants.PASSES_FILTERS_v4);
+        } else {
+            sb.append(VCFConstants.UNFILTERED);
+        }
+    }
+
+    private void appendInfo(StringBuilder sb, VariantContext vc) {
+        Map<String, Object> attributes = vc.getAttributes();
+        int start = sb.length();
+        int found = 0;
+        for (int i = 0; i < infoKeys.length && found < attributes.size(); i++) {
+            String key = infoKeys[i];
+            if (!attributes.containsKey(key)) continue;
+            found++;
+            Object value = attributes.get(key);
+            if (Boolean.FALSE.equals(value)) continue;
+            if (sb.length() > start) sb.append(VCFConstants.INFO_FIELD_SEPARATOR);
+            sb.append(key);
+            int keyEnd = sb.length();
+            sb.append('=');
+            appendValue(sb, value);
+            if (infoIsFlag[i] || sb.length() == keyEnd + 1) {
+                // flags and empty values are written without a value
+                sb.setLength(keyEnd);
+            }
+        }
+        if (found < attributes.size()) {
+            for (String key : attributes.keySet()) {
+                if (!header.hasInfoLine(key)) {
+                    fieldIsMissingFromHeaderError(vc, key, "INFO");
+                }
+            }
+        }
+        if (sb.length() == start) {
+            sb.append(VCFConstants.EMPTY_INFO_FIELD);
+        }
+    }
+
+    private void appendGenotypes(StringBuilder sb, VariantContext vc) {
+        GenotypesContext gc = vc.getGenotypes();
+        if (gc.isLazyWithData() && ((LazyGenotypesContext)gc).getUnparsedGenotypeData() instanceof String) {
+            sb.append(VCFConstants.FIELD_SEPARATOR);
+            sb.append(((LazyGenotypesContext)gc).getUnparsedGenotypeData().toString());
+            return;
+        }
+        List<String> keys = vc.calcVCFGenotypeKeys(header);
+        if (keys.isEmpty()) return;
+        for (String format : keys) {
+            if (!header.hasFormatLine(format)) {
+                fieldIsMissingFromHeaderError(vc, format, "FORMAT");
+            }
+        }
+        sb.append(VCFConstants.FIELD_SEPARATOR);
+        for (int i = 0; i < keys.size(); i++) {
+            if (i > 0) sb.append(VCFConstants.GENOTYPE_FIELD_SEPARATOR);
+            sb.append(keys.get(i));
+        }
+        encoder.addGenotypeData(vc, encoder.buildAlleleStrings(vc), keys, sb);
+    }
+
+    private static void fieldIsMissingFromHeaderError(VariantContext vc, String id, String field) {
+        throw new IllegalStateException("Key " + id + " found in VariantContext field " + field
+                + " at " + vc.getContig() + ":" + vc.getStart()
+                + " but this key isn't defined in the VCFHeader.  We require all VCFs to have complete VCF headers by default.");
+    }
+
+    /**
+     * Appends the given INFO value using the same representation as {@link VCFEncoder}
+     */
+    private static void appendValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append(VCFConstants.MISSING_VALUE_v4);
+        } else if (value instanceof Integer) {
+            sb.append((int)(Integer)value);
+        } else if (value instanceof String) {
+            sb.append((String)value);
+        } else if (value instanceof Double) {
+            appendDouble(sb, (Double)value);
+        } else if (value instanceof Boolean) {
+            // VCFEncoder writes true flags without a value
+            if (!(Boolean)value) sb.append("null");
+        } else if (value instanceof List) {
+            List<?> list = (List<?>)value;
+            if (list.isEmpty()) {
+                sb.append(VCFConstants.MISSING_VALUE_v4);
+            }
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) sb.append(',');
+                appendValue(sb, list.get(i));
+            }
+        } else if (value instanceof int[]) {
+            int[] array = (int[])value;
+            if (array.length == 0) {
+                sb.append(VCFConstants.MISSING_VALUE_v4);
+            }
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(array[i]);
+            }
+        } else if (value instanceof double[]) {
+            double[] array = (double[])value;
+            if (array.length == 0) {
+                sb.append(VCFConstants.MISSING_VALUE_v4);
+            }
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) sb.append(',');
+                appendDouble(sb, array[i]);
+            }
+        } else if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            if (length == 0) {
+                sb.append(VCFConstants.MISSING_VALUE_v4);
+            }
+            for (int i = 0; i < length; i++) {
+                if (i > 0) sb.append(',');
+                appendValue(sb, Array.get(value, i));
+            }
+        } else {
+            sb.append(value.toString());
+        }
+    }
+
+    /**
+     * Appends the given value in the format of {@link VCFEncoder#formatVCFDouble(double)}
+     */
+    static void appendDouble(StringBuilder sb, double d) {
+        if (d >= 1) {
+            appendFixed(sb, d, 2);
+        } else if (d >= 0.01) {
+            appendFixed(sb, d, 3);
+        } else {
+            sb.append(VCFEncoder.formatVCFDouble(d));
+        }
+    }
+
+    /**
+     * Appends the QUAL field. Equivalent to %.2f with any trailing .00 removed
+     */
+    static void appendQual(StringBuilder sb, double qual) {
+        int start = sb.length();
+        appendFixed(sb, qual, 2);
+        if (sb.length() - start > QUAL_FORMAT_EXTENSION_TO_TRIM.length()
+                && sb.lastIndexOf(QUAL_FORMAT_EXTENSION_TO_TRIM) == sb.length() - QUAL_FORMAT_EXTENSION_TO_TRIM.length()) {
+            sb.setLength(sb.length() - QUAL_FORMAT_EXTENSION_TO_TRIM.length());
+        }
+    }
+
+    /**
+     * Appends the given value with the given number of decimal places.
+     * Equivalent to String.format("%.<decimalPlaces>f", d)
+     */
+    static void appendFixed(StringBuilder sb, double d, int decimalPlaces) {
+        double scaled = d * POWERS_OF_TEN[decimalPlaces];
+        if (!((scaled > 0 || Double.doubleToRawLongBits(scaled) == 0L) && scaled < MAX_DIRECT_SCALED_VALUE)) {
+            // negative values, -0.0, NaN, infinities and large values
+            sb.append(String.format("%." + decimalPlaces + "f", d));
+            return;
+        }
+        double fraction = scaled - Math.floor(scaled);
+        if (Math.abs(fraction - 0.5) < ROUNDING_BOUNDARY_TOLERANCE) {
+            // Formatter rounds the shortest decimal representation half-up
+            sb.append(new BigDecimal(Double.toString(d)).setScale(decimalPlaces, RoundingMode.HALF_UP).toPlainString());
+            return;
+        }
+        long rounded = Math.round(scaled);
+        long integerPart = rounded / POWERS_OF_TEN[decimalPlaces];
+        long fractionalPart = rounded % POWERS_OF_TEN[decimalPlaces];
+        sb.append(integerPart);
+        sb.append('.');
+        for (long p = POWERS_OF_TEN[decimalPlaces] / 10; p > fractionalPart && p > 1; p /= 10) {
+            sb.append('0');
+        }
+        sb.append(fractionalPart);
+    }
+}
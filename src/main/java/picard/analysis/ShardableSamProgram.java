@@ -0,0 +1,30 @@
+package picard.analysis;
+
+/**
+ * Single pass program that can collect metrics over disjoint subsets of the input.
+ *
+ * When the input is indexed, shard copies of the program are run in parallel over
+ * genomic partitions of the input and merged back into the original program
+ * before finish() is called. Programs that require every record to be processed
+ * in coordinate order must not extend this class.
+ *
+ * @param <T> concrete program type
+ */
+public abstract class ShardableSamProgram<T extends ShardableSamProgram<T>> extends SinglePassSamProgram {
+    /**
+     * Creates an empty copy of this program with the same configuration.
+     * Called after setup(). The copy only has acceptRead() called on it and
+     * is merged back into this program using mergeShard().
+     */
+    protected abstract T createShard();
+
+    /**
+     * Merges the metrics collected by a shard copy created by createShard() into this program.
+     */
+    protected abstract void mergeShard(final T shard);
+
+    @SuppressWarnings("unchecked")
+    void mergeShardCopy(final ShardableSamProgram<?> shard) {
+        mergeShard((T)shard);
+    }
+}
@@ -1,349 +1,685 @@
-/*
- * The MIT License
- *
- * Copyright (c) 2015 The Broad Institute, 2019 Daniel Cameron
- *
- * Permission is hereby granted, free of charge, to any person obtaining a copy
- * of this software and associated documentation files (the "Software"), to deal
- * in the Software without restriction, including without limitation the rights
- * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
- * copies of the Software, and to permit persons to whom the Software is
- * furnished to do so, subject to the following conditions:
- *
- * The above copyright notice and this permission notice shall be included in
- * all copies or substantial portions of the Software.
- *
- * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
- * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
- * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
- * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
- * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
- * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
- * THE SOFTWARE.
- */
-
-package picard.analysis;
-
-import htsjdk.samtools.SAMFileHeader;
-import htsjdk.samtools.SAMFileHeader.SortOrder;
-import htsjdk.samtools.SAMRecord;
-import htsjdk.samtools.SamReader;
-import htsjdk.samtools.SamReaderFactory;
-import htsjdk.samtools.reference.ReferenceSequence;
-import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
-import htsjdk.samtools.util.*;
-import org.broadinstitute.barclay.argparser.Argument;
-import org.broadinstitute.barclay.argparser.ArgumentCollection;
-import picard.PicardException;
-import picard.cmdline.CommandLineProgram;
-import picard.cmdline.StandardOptionDefinitions;
-import picard.cmdline.argumentcollections.OutputArgumentCollection;
-import picard.cmdline.argumentcollections.RequiredOutputArgumentCollection;
-
-import java.io.File;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.TimeUnit;
-
-/**
- * Super class that is designed to provide some consistent structure between subclasses that
- * simply iterate once over a coordinate sorted BAM and collect information from the records
- * as the go in order to produce some kind of output.
- *
- * @author Tim Fennell
- */
-public abstract class SinglePassSamProgram extends CommandLineProgram {
-    @Argument(shortName = StandardOptionDefinitions.INPUT_SHORT_NAME, doc = "Input SAM or BAM file.")
-    public File INPUT;
-
-    @ArgumentCollection
-    public OutputArgumentCollection output = getOutputArgumentCollection();
-
-    protected OutputArgumentCollection getOutputArgumentCollection(){
-        return new RequiredOutputArgumentCollection();
-    }
-
-    protected File OUTPUT;
-
-    @Argument(doc = "If true (default), then the sort order in the header file will be ignored.",
-            shortName = StandardOptionDefinitions.ASSUME_SORTED_SHORT_NAME)
-    public boolean ASSUME_SORTED = true;
-
-    @Argument(doc = "Stop after processing N reads, mainly for debugging.")
-    public long STOP_AFTER = 0;
-
-    @Argument(doc = "Stop after processing N bases, mainly for debugging.")
-    public long STOP_AFTER_BASES = 0;
-
-    private static final Log log = Log.getInstance(SinglePassSamProgram.class);
-
-    @Argument(doc = "Allocate each metrics program it's own thread. I/O and record parsing is still shared.")
-    public boolean PROCESS_IN_PARALLEL = true;
-
-    /**
-     * Number of SAMRecords to batch together before allocating to worker threads.
-     * A larger batch size reduces thread synchronisation overhead.
-     */
-    private static final int BATCH_SIZE = 512;
-
-    /**
-     * Maximum number of outstanding batches.
-     * The default of two batches results in double buffering: one batch for I/O and parsing, and another
-     * being processed in parallel by the program worker threads.
-     */
-    private static final int IN_FLIGHT_BATCHES = 2;
-
-    /**
-     * End of stream sentinel value.
-     * Program worker threads use this object to indicate a unexceptional end of stream.
-     */
-    private static final Exception EOS_SENTINEL = new Exception();
-
-    /**
-     * Set the reference File.
-     */
-    public void setReferenceSequence(final File referenceFile) {
-        REFERENCE_SEQUENCE = referenceFile;
-    };
-
-    /**
-     * Final implementation of doWork() that checks and loads the input and optionally reference
-     * sequence files and the runs the sublcass through the setup() acceptRead() and finish() steps.
-     */
-    @Override
-    protected final int doWork() {
-        makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, STOP_AFTER_BASES, Arrays.asList(this), PROCESS_IN_PARALLEL, PROCESS_IN_PARALLEL);
-        return 0;
-    }
-    public static void makeItSo(final File input,
-                                final File referenceSequence,
-                                final boolean assumeSorted,
-                                final long stopAfter,
-                                final Collection<SinglePassSamProgram> programs) {
-        makeItSo(input, referenceSequence, assumeSorted, stopAfter, 0, programs);
-    }
-    public static void makeItSo(final File input,
-                                final File referenceSequence,
-                                final boolean assumeSorted,
-                                final long stopAfter,
-                                final long stopAfterBases,
-                                final Collection<SinglePassSamProgram> programs) {
-        makeItSo(input, referenceSequence, assumeSorted, stopAfter, stopAfterBases, programs, true, true);
-    }
-    public static void makeItSo(final File input,
-                                final File referenceSequence,
-                                final boolean assumeSorted,
-                                final long stopAfter,
-                                final long stopAfterBases,
-                                final Collection<SinglePassSamProgram> programs,
-                                boolean parallel,
-                                boolean useAsyncIterator) {
-
-        // Setup the standard inputs
-        IOUtil.assertFileIsReadable(input);
-        final SamReader in = SamReaderFactory.makeDefault().referenceSequence(referenceSequence).open(input);
-
-        // Optionally load up the reference sequence and double check sequence dictionaries
-        final ReferenceSequenceFileWalker walker;
-        if (referenceSequence == null) {
-            walker = null;
-        } else {
-            IOUtil.assertFileIsReadable(referenceSequence);
-            walker = new ReferenceSequenceFileWalker(referenceSequence);
-
-            if (!in.getFileHeader().getSequenceDictionary().isEmpty()) {
-                SequenceUtil.assertSequenceDictionariesEqual(in.getFileHeader().getSequenceDictionary(),
-                        walker.getSequenceDictionary());
-            }
-        }
-
-        // Check on the sort order of the BAM file
-        {
-            final SortOrder sort = in.getFileHeader().getSortOrder();
-            if (sort != SortOrder.coordinate) {
-                if (assumeSorted) {
-                    log.warn("File reports sort order '" + sort + "', assuming it's coordinate sorted anyway.");
-                } else {
-                    throw new PicardException("File " + input.getAbsolutePath() + " should be coordinate sorted but " +
-                            "the header says the sort order is " + sort + ". If you believe the file " +
-                            "to be coordinate sorted you may pass ASSUME_SORTED=true");
-                }
-            }
-        }
-
-        final List<ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>>> buffers = new ArrayList<>(programs.size());
-        final List<SinglePassSamProgramRunner> workers = new ArrayList<>(programs.size());
-        // Call the abstract setup method!
-        boolean anyUseNoRefReads = false;
-        for (final SinglePassSamProgram program : programs) {
-            if (program.OUTPUT == null) {
-                program.OUTPUT = program.output.getOutputFile();
-            }
-            program.setup(in.getFileHeader(), input);
-            anyUseNoRefReads = anyUseNoRefReads || program.usesNoRefReads();
-
-            if (parallel) {
-                ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer = new ArrayBlockingQueue<>(IN_FLIGHT_BATCHES);
-                SinglePassSamProgramRunner runner = new SinglePassSamProgramRunner(program, buffer);
-                buffers.add(buffer);
-                workers.add(runner);
-                Thread t = new Thread(runner);
-                t.setName(program.toString());
-                t.setDaemon(true);
-                t.start();
-            }
-        }
-
-        final ProgressLogger progress = new ProgressLogger(log, 10000000);
-        try (CloseableIterator<SAMRecord> it = useAsyncIterator ? new AsyncBufferedIterator<>(in.iterator(), BATCH_SIZE, IN_FLIGHT_BATCHES, "SinglePassSamProgram") : in.iterator()){
-            int basesProcessed = 0;
-            List<Tuple<ReferenceSequence, SAMRecord>> batch = new ArrayList<>();
-            while (it.hasNext()) {
-                final SAMRecord rec =  it.next();
-                final ReferenceSequence ref;
-                if (walker == null || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-                    ref = null;
-                } else {
-                    ref = walker.get(rec.getReferenceIndex());
-                }
-
-                if (parallel) {
-                    batch.add(new Tuple<>(ref, rec));
-                    if (batch.size() >= BATCH_SIZE) {
-                        asyncAcceptReads(buffers, workers, batch);
-                        batch = new ArrayList<>();
-                    }
-                } else {
-                    for (final SinglePassSamProgram program : programs) {
-                        program.acceptRead(rec, ref);
-                    }
-                }
-
-                progress.record(rec);
-                basesProcessed += rec.getReadLength();
-
-                // See if we need to terminate early?
-                if (stopAfter > 0 && progress.getCount() >= stopAfter) {
-                    break;
-                }
-                if (stopAfterBases > 0 && basesProcessed >= stopAfterBases) {
-                    break;
-                }
-
-                // And see if we're into the unmapped reads at the end
-                if (!anyUseNoRefReads && rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
-                    break;
-                }
-            }
-            if (parallel) {
-                if (batch.size() > 0) {
-                    asyncAcceptReads(buffers, workers, batch);
-                }
-                asyncAcceptReads(buffers, workers, new ArrayList<>()); // Empty batch is the EOS indicator
-                asyncWaitForCompletion(workers);
-            } else {
-                for (final SinglePassSamProgram program : programs) {
-                    program.finish();
-                }
-            }
-        } catch (Exception ex) {
-            throw new RuntimeException(ex);
-        } finally {
-            CloserUtil.close(in);
-        }
-    }
-    private static void asyncAcceptReads(
-            final List<ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>>> buffers,
-            final List<SinglePassSamProgramRunner> workers,
-            final List<Tuple<ReferenceSequence, SAMRecord>> batch) throws InterruptedException {
-        for (int i = 0; i < workers.size(); i++) {
-            asyncAcceptRead(buffers.get(i), workers.get(i), batch);
-        }
-    }
-    private static void asyncAcceptRead(
-            final ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer,
-            final SinglePassSamProgramRunner worker,
-            final List<Tuple<ReferenceSequence, SAMRecord>> batch) throws InterruptedException {
-        // Propagate exceptions on worker threads back to main
-        while (!buffer.offer(batch, 1, TimeUnit.SECONDS)) {
-            // Check if the worker thread is still alive
-            raiseAsyncException(worker);
-            if (worker.isComplete()) {
-                throw new RuntimeException(worker.program.getClass().getName() + " terminated before all records read.");
-            }
-        }
-    }
-    private static void raiseAsyncException(final SinglePassSamProgramRunner worker) {
-        Exception e = worker.getException();
-        if (e != null) {
-            throw new RuntimeException("Exception when running " + worker.program.getClass().getName(), e);
-        }
-    }
-    private static void asyncWaitForCompletion(final List<SinglePassSamProgramRunner> workers) throws InterruptedException {
-        for (SinglePassSamProgramRunner worker : workers) {
-            asyncWaitForCompletion(worker);
-        }
-    }
-    private static void asyncWaitForCompletion(final SinglePassSamProgramRunner worker) throws InterruptedException {
-        while (!worker.isComplete()) {
-            raiseAsyncException(worker);
-            Thread.sleep(50);
-        }
-    }
-    private static class SinglePassSamProgramRunner implements Runnable {
-        private final ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer;
-        private final SinglePassSamProgram program;
-        private volatile boolean isComplete = false;
-        private volatile Exception exception = null;
-        public SinglePassSamProgramRunner(SinglePassSamProgram program,  ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer) {
-            this.program = program;
-            this.buffer = buffer;
-        }
-
-        public boolean isComplete() {
-            return isComplete;
-        }
-
-        public Exception getException() {
-            return exception;
-        }
-
-        @Override
-        public void run() {
-            try {
-                List<Tuple<ReferenceSequence, SAMRecord>> batch = buffer.take();
-                while (batch.size() > 0) {
-                    for (Tuple<ReferenceSequence, SAMRecord> r : batch) {
-                        program.acceptRead(r.b, r.a);
-                    }
-                    batch = buffer.take();
-                }
-                program.finish();
-            } catch (Exception e) {
-                exception = e;
-            } finally {
-                isComplete = true;
-            }
-        }
-    }
-
-    /** Can be overridden and set to false if the section of unmapped reads at the end of the file isn't needed. */
-    protected boolean usesNoRefReads() { return true; }
-
-    /** Should be implemented by subclasses to do one-time initialization work. */
-    protected abstract void setup(final SAMFileHeader header, final File samFile);
-
-    /**
-     * Should be implemented by subclasses to accept SAMRecords one at a time.
-     * If the read has a reference sequence and a reference sequence file was supplied to the program
-     * it will be passed as 'ref'. Otherwise 'ref' may be null.
-     */
-    protected abstract void acceptRead(final SAMRecord rec, final ReferenceSequence ref);
-
-    /** Should be implemented by subclasses to do one-time finalization work. */
-    protected abstract void finish();
-
-}
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2015 The Broad Institute, 2019 Daniel Cameron
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package picard.analysis;
+
+import au.edu.wehi.idsv.picard.TwoBitBufferedReferenceSequenceFile;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import htsjdk.samtools.QueryInterval;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileHeader.SortOrder;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.reference.ReferenceSequence;
+import htsjdk.samtools.reference.ReferenceSequenceFile;
+import htsjdk.samtools.reference.ReferenceSequenceFileFactory;
+import htsjdk.samtools.reference.ReferenceSequenceFileWalker;
+import htsjdk.samtools.util.*;
+import org.broadinstitute.barclay.argparser.Argument;
+import org.broadinstitute.barclay.argparser.ArgumentCollection;
+import picard.PicardException;
+import picard.cmdline.CommandLineProgram;
+import picard.cmdline.StandardOptionDefinitions;
+import picard.cmdline.argumentcollections.OutputArgumentCollection;
+import picard.cmdline.argumentcollections.RequiredOutputArgumentCollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Super class that is designed to provide some consistent structure between subclasses that
+ * simply iterate once over a coordinate sorted BAM and collect information from the records
+ * as the go in order to produce some kind of output.
+ *
+ * @author Tim Fennell
+ */
+public abstract class SinglePassSamProgram extends CommandLineProgram {
+    @Argument(shortName = StandardOptionDefinitions.INPUT_SHORT_NAME, doc = "Input SAM or BAM file.")
+    public File INPUT;
+
+    @ArgumentCollection
+    public OutputArgumentCollection output = getOutputArgumentCollection();
+
+    protected OutputArgumentCollection getOutputArgumentCollection(){
+        return new RequiredOutputArgumentCollection();
+    }
+
+    protected File OUTPUT;
+
+    @Argument(doc = "If true (default), then the sort order in the header file will be ignored.",
+            shortName = StandardOptionDefinitions.ASSUME_SORTED_SHORT_NAME)
+    public boolean ASSUME_SORTED = true;
+
+    @Argument(doc = "Stop after processing N reads, mainly for debugging.")
+    public long STOP_AFTER = 0;
+
+    @Argument(doc = "Stop after processing N bases, mainly for debugging.")
+    public long STOP_AFTER_BASES = 0;
+
+    private static final Log log = Log.getInstance(SinglePassSamProgram.class);
+
+    @Argument(doc = "Allocate each metrics program it's own thread. I/O and record parsing is still shared.")
+    public boolean PROCESS_IN_PARALLEL = true;
+
+    /**
+     * Number of SAMRecords to batch together before allocating to worker threads.
+     * A larger batch size reduces thread synchronisation overhead.
+     */
+    private static final int BATCH_SIZE = 512;
+
+    /**
+     * Maximum number of outstanding batches.
+     * The default of two batches results in double buffering: one batch for I/O and parsing, and another
+     * being processed in parallel by the program worker threads.
+     */
+    private static final int IN_FLIGHT_BATCHES = 2;
+
+    /**
+     * Number of genomic partitions processed by each shard thread.
+     * Using more partitions than threads balances the load when the
+     * read density varies across the genome.
+     */
+    private static final int PARTITIONS_PER_SHARD = 4;
+
+    /**
+     * End of stream sentinel value.
+     * Program worker threads use this object to indicate a unexceptional end of stream.
+     */
+    private static final Exception EOS_SENTINEL = new Exception();
+
+    /**
+     * Set the reference File.
+     */
+    public void setReferenceSequence(final File referenceFile) {
+        REFERENCE_SEQUENCE = referenceFile;
+    };
+
+    /**
+     * Final implementation of doWork() that checks and loads the input and optionally reference
+     * sequence files and the runs the sublcass through the setup() acceptRead() and finish() steps.
+     */
+    @Override
+    protected final int doWork() {
+        makeItSo(INPUT, REFERENCE_SEQUENCE, ASSUME_SORTED, STOP_AFTER, STOP_AFTER_BASES, Arrays.asList(this), PROCESS_IN_PARALLEL, PROCESS_IN_PARALLEL);
+        return 0;
+    }
+    public static void makeItSo(final File input,
+                                final File referenceSequence,
+                                final boolean assumeSorted,
+                                final long stopAfter,
+                                final Collection<SinglePassSamProgram> programs) {
+        makeItSo(input, referenceSequence, assumeSorted, stopAfter, 0, programs);
+    }
+    public static void makeItSo(final File input,
+                                final File referenceSequence,
+                                final boolean assumeSorted,
+                                final long stopAfter,
+                                final long stopAfterBases,
+                                final Collection<SinglePassSamProgram> programs) {
+        makeItSo(input, referenceSequence, assumeSorted, stopAfter, stopAfterBases, programs, true, true);
+    }
+    public static void makeItSo(final File input,
+                                final File referenceSequence,
+                                final boolean assumeSorted,
+                                final long stopAfter,
+                                final long stopAfterBases,
+                                final Collection<SinglePassSamProgram> programs,
+                                boolean parallel,
+                                boolean useAsyncIterator) {
+        makeItSo(input, referenceSequence, assumeSorted, stopAfter, stopAfterBases, programs, parallel, useAsyncIterator, parallel ? gridss.Defaults.METRICS_SHARDS : 1);
+    }
+
+    /**
+     * Runs the given programs over the input file.
+     *
+     * If the input is indexed and the full file is to be processed, disjoint genomic
+     * partitions of the input are processed in parallel by shard copies of each
+     * {@link ShardableSamProgram}. The shard results are merged back into the original
+     * programs before finish() is called.
+     * All other programs are run concurrently over the input in a single pass with each
+     * program optionally allocated its own thread.
+     *
+     * @param shards number of threads to process genomic partitions with.
+     */
+    public static void makeItSo(final File input,
+                                final File referenceSequence,
+                                final boolean assumeSorted,
+                                final long stopAfter,
+                                final long stopAfterBases,
+                                final Collection<SinglePassSamProgram> programs,
+                                boolean parallel,
+                                boolean useAsyncIterator,
+                                int shards) {
+
+        // Setup the standard inputs
+        IOUtil.assertFileIsReadable(input);
+        final SamReader in = SamReaderFactory.makeDefault().referenceSequence(referenceSequence).open(input);
+
+        // Optionally load up the reference sequence and double check sequence dictionaries
+        final ReferenceSequenceFileWalker walker;
+        if (referenceSequence == null) {
+            walker = null;
+        } else {
+            IOUtil.assertFileIsReadable(referenceSequence);
+            walker = new ReferenceSequenceFileWalker(referenceSequence);
+
+            if (!in.getFileHeader().getSequenceDictionary().isEmpty()) {
+                SequenceUtil.assertSequenceDictionariesEqual(in.getFileHeader().getSequenceDictionary(),
+                        walker.getSequenceDictionary());
+            }
+        }
+
+        // Check on the sort order of the BAM file
+        {
+            final SortOrder sort = in.getFileHeader().getSortOrder();
+            if (sort != SortOrder.coordinate) {
+                if (assumeSorted) {
+                    log.warn("File reports sort order '" + sort + "', assuming it's coordinate sorted anyway.");
+                } else {
+                    throw new PicardException("File " + input.getAbsolutePath() + " should be coordinate sorted but " +
+                            "the header says the sort order is " + sort + ". If you believe the file " +
+                            "to be coordinate sorted you may pass ASSUME_SORTED=true");
+                }
+            }
+        }
+
+        final ReferenceSequenceFile indexedReference = shards > 1 && referenceSequence != null ? ReferenceSequenceFileFactory.getReferenceSequenceFile(referenceSequence) : null;
+        final boolean canShard = shards > 1
+                && stopAfter <= 0
+                && stopAfterBases <= 0
+                && in.hasIndex()
+                && (referenceSequence == null || indexedReference.isIndexed());
+        final List<ShardableSamProgram<?>> shardedPrograms = new ArrayList<>();
+        final List<SinglePassSamProgram> singlePassPrograms = new ArrayList<>();
+        for (final SinglePassSamProgram program : programs) {
+            if (canShard && program instanceof ShardableSamProgram) {
+                shardedPrograms.add((ShardableSamProgram<?>)program);
+            } else {
+                singlePassPrograms.add(program);
+            }
+        }
+        if (indexedReference != null && shardedPrograms.isEmpty()) {
+            CloserUtil.close(indexedReference);
+        }
+        final List<ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>>> buffers = new ArrayList<>(programs.size());
+        final List<SinglePassSamProgramRunner> workers = new ArrayList<>(programs.size());
+        // Call the abstract setup method!
+        boolean anyUseNoRefReads = false;
+        boolean anyShardUseNoRefReads = false;
+        for (final SinglePassSamProgram program : programs) {
+            if (program.OUTPUT == null) {
+                program.OUTPUT = program.output.getOutputFile();
+            }
+            program.setup(in.getFileHeader(), input);
+            if (shardedPrograms.contains(program)) {
+                anyShardUseNoRefReads = anyShardUseNoRefReads || program.usesNoRefReads();
+                continue;
+            }
+            anyUseNoRefReads = anyUseNoRefReads || program.usesNoRefReads();
+
+            if (parallel) {
+                ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer = new ArrayBlockingQueue<>(IN_FLIGHT_BATCHES);
+                SinglePassSamProgramRunner runner = new SinglePassSamProgramRunner(program, buffer);
+                buffers.add(buffer);
+                workers.add(runner);
+                Thread t = new Thread(runner);
+                t.setName(program.toString());
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        final ExecutorService threadpool = shardedPrograms.isEmpty() ? null : Executors.newFixedThreadPool(shards, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("SinglePassSamProgram-%d").build());
+        try {
+            // Shards run in the background while the single pass programs are processed
+            final List<Future<List<ShardableSamProgram<?>>>> shardResults = shardedPrograms.isEmpty() ? new ArrayList<>() :
+                    startShards(threadpool, input, referenceSequence, indexedReference, in.getFileHeader().getSequenceDictionary(), shardedPrograms, shards, anyShardUseNoRefReads);
+            if (!singlePassPrograms.isEmpty()) {
+                processSinglePass(in, walker, stopAfter, stopAfterBases, singlePassPrograms, buffers, workers, parallel, useAsyncIterator, anyUseNoRefReads);
+            }
+            // merge in partition order so the output does not depend on thread scheduling
+            for (final Future<List<ShardableSamProgram<?>>> result : shardResults) {
+                final List<ShardableSamProgram<?>> shardPrograms = result.get();
+                for (int i = 0; i < shardedPrograms.size(); i++) {
+                    shardedPrograms.get(i).mergeShardCopy(shardPrograms.get(i));
+                }
+            }
+            for (final SinglePassSamProgram program : shardedPrograms) {
+                program.finish();
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        } finally {
+            if (threadpool != null) {
+                threadpool.shutdownNow();
+            }
+            CloserUtil.close(in);
+            CloserUtil.close(indexedReference);
+        }
+    }
+
+    private static void processSinglePass(
+            final SamReader in,
+            final ReferenceSequenceFileWalker walker,
+            final long stopAfter,
+            final long stopAfterBases,
+            final List<SinglePassSamProgram> programs,
+            final List<ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>>> buffers,
+            final List<SinglePassSamProgramRunner> workers,
+            final boolean parallel,
+            final boolean useAsyncIterator,
+            final boolean anyUseNoRefReads) throws Exception {
+        final ProgressLogger progress = new ProgressLogger(log, 10000000);
+        try (CloseableIterator<SAMRecord> it = useAsyncIterator ? new AsyncBufferedIterator<>(in.iterator(), BATCH_SIZE, IN_FLIGHT_BATCHES, "SinglePassSamProgram") : in.iterator()){
+            int basesProcessed = 0;
+            List<Tuple<ReferenceSequence, SAMRecord>> batch = new ArrayList<>();
+            while (it.hasNext()) {
+                final SAMRecord rec =  it.next();
+                final ReferenceSequence ref;
+                if (walker == null || rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    ref = null;
+                } else {
+                    ref = walker.get(rec.getReferenceIndex());
+                }
+
+                if (parallel) {
+                    batch.add(new Tuple<>(ref, rec));
+                    if (batch.size() >= BATCH_SIZE) {
+                        asyncAcceptReads(buffers, workers, batch);
+                        batch = new ArrayList<>();
+                    }
+                } else {
+                    for (final SinglePassSamProgram program : programs) {
+                        program.acceptRead(rec, ref);
+                    }
+                }
+
+                progress.record(rec);
+                basesProcessed += rec.getReadLength();
+
+                // See if we need to terminate early?
+                if (stopAfter > 0 && progress.getCount() >= stopAfter) {
+                    break;
+                }
+                if (stopAfterBases > 0 && basesProcessed >= stopAfterBases) {
+                    break;
+                }
+
+                // And see if we're into the unmapped reads at the end
+                if (!anyUseNoRefReads && rec.getReferenceIndex() == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                    break;
+                }
+            }
+            if (parallel) {
+                if (batch.size() > 0) {
+                    asyncAcceptReads(buffers, workers, batch);
+                }
+                asyncAcceptReads(buffers, workers, new ArrayList<>()); // Empty batch is the EOS indicator
+                asyncWaitForCompletion(workers);
+            } else {
+                for (final SinglePassSamProgram program : programs) {
+                    program.finish();
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts processing each genomic partition of the input
+     * @return shard copies of the given programs for each partition, in genomic order
+     */
+    private static List<Future<List<ShardableSamProgram<?>>>> startShards(
+            final ExecutorService threadpool,
+            final File input,
+            final File referenceSequence,
+            final ReferenceSequenceFile indexedReference,
+            final SAMSequenceDictionary dictionary,
+            final List<ShardableSamProgram<?>> programs,
+            final int shards,
+            final boolean includeUnmapped) {
+        final List<List<QueryInterval>> partitions = partitionGenome(dictionary, shards * PARTITIONS_PER_SHARD);
+        log.info(String.format("Processing %s in %d partitions using %d threads", input, partitions.size(), shards));
+        // Contigs are cached in 2bit format and only loaded if a shard requests them
+        final TwoBitBufferedReferenceSequenceFile reference = indexedReference == null ? null : new TwoBitBufferedReferenceSequenceFile(indexedReference);
+        final List<Future<List<ShardableSamProgram<?>>>> results = new ArrayList<>(partitions.size() + 1);
+        for (final List<QueryInterval> partition : partitions) {
+            results.add(threadpool.submit(() -> processShard(input, referenceSequence, reference, programs, partition)));
+        }
+        if (includeUnmapped) {
+            results.add(threadpool.submit(() -> processShard(input, referenceSequence, reference, programs, null)));
+        }
+        return results;
+    }
+
+    /**
+     * Processes the reads starting in the given partition
+     * @param partition genomic intervals to process. Unmapped reads without a position are processed if null.
+     * @return shard copies of the given programs
+     */
+    private static List<ShardableSamProgram<?>> processShard(
+            final File input,
+            final File referenceSequence,
+            final ReferenceSequenceFile reference,
+            final List<ShardableSamProgram<?>> programs,
+            final List<QueryInterval> partition) throws IOException {
+        final List<ShardableSamProgram<?>> shardPrograms = new ArrayList<>(programs.size());
+        for (final ShardableSamProgram<?> program : programs) {
+            shardPrograms.add(program.createShard());
+        }
+        try (SamReader in = SamReaderFactory.makeDefault().referenceSequence(referenceSequence).open(input)) {
+            // Reads overlapping the start of the partition are processed by the preceding partition
+            final int firstReferenceIndex = partition == null ? SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX : partition.get(0).referenceIndex;
+            final int firstStart = partition == null ? 0 : partition.get(0).start;
+            ReferenceSequence ref = null;
+            int refIndex = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX;
+            try (CloseableIterator<SAMRecord> it = partition == null ? in.queryUnmapped() : in.query(partition.toArray(new QueryInterval[0]), false)) {
+                while (it.hasNext()) {
+                    final SAMRecord rec = it.next();
+                    final int recIndex = rec.getReferenceIndex();
+                    if (recIndex == firstReferenceIndex && rec.getAlignmentStart() < firstStart) {
+                        continue;
+                    }
+                    if (reference != null && recIndex != refIndex) {
+                        refIndex = recIndex;
+                        ref = recIndex == SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX ? null : reference.getSequence(rec.getReferenceName());
+                    }
+                    for (final SinglePassSamProgram program : shardPrograms) {
+                        program.acceptRead(rec, ref);
+                    }
+                }
+            }
+        }
+        return shardPrograms;
+    }
+
+    /**
+     * Splits the genome into contiguous partitions of approximately equal size
+     * @param dictionary genome to partition
+     * @param partitionCount target number of partitions
+     * @return sorted, disjoint query intervals covering each partition
+     */
+    static List<List<QueryInterval>> partitionGenome(final SAMSequenceDictionary dictionary, final int partitionCount) {
+        final long partitionSize = Math.max(1, (dictionary.getReferenceLength() + partitionCount - 1) / partitionCount);
+        final List<List<QueryInterval>> partitions = new ArrayList<>(partitionCount);
+        List<QueryInterval> current = new ArrayList<>();
+        long remaining = partitionSize;
+        for (final SAMSequenceRecord seq : dictionary.getSequences()) {
+            final int length = seq.getSequenceLength();
+            int start = 1;
+            while (length - start + 1 > remaining) {
+                final int end = start + (int)remaining - 1;
+                current.add(new QueryInterval(seq.getSequenceIndex(), start, end));
+                partitions.add(current);
+                current = new ArrayList<>();
+                remaining = partitionSize;
+                start = end + 1;
+            }
+            // extend to the end of the contig so reads placed past the contig end are not lost
+            current.add(new QueryInterval(seq.getSequenceIndex(), start, -1));
+            remaining -= Math.max(0, length - start + 1);
+            if (remaining <= 0) {
+                partitions.add(current);
+                current = new ArrayList<>();
+                remaining = partitionSize;
+            }
+        }
+        if (!current.isEmpty()) {
+            partitions.add(current);
+        }
+        return partitions;
+    }
+
+    /**
+     * Runs the given programs over reads sampled from windows spread across the genome,
+     * stopping early once enough reads have been sampled.
+     *
+     * Windows are visited in van der Corput order such that every prefix of the
+     * visited windows is approximately evenly spread across the genome.
+     * Unplaced unmapped reads are not sampled.
+     * If the input is not indexed, reads are taken from the start of the file instead
+     * and a window is considered processed once the reads move to a different window
+     * of the same windowSize-aligned layout.
+     *
+     * @param windowSize size of each sampled window
+     * @param maxWindows maximum number of windows to sample
+     * @param stopSampling checked after each window is processed. Sampling stops when true is returned.
+     * @return number of records sampled
+     */
+    public static long makeItSoSampled(final File input,
+                                       final Collection<SinglePassSamProgram> programs,
+                                       final int windowSize,
+                                       final int maxWindows,
+                                       final BooleanSupplier stopSampling) {
+        IOUtil.assertFileIsReadable(input);
+        final ProgressLogger progress = new ProgressLogger(log, 10000000);
+        int windows = 0;
+        try (SamReader in = SamReaderFactory.makeDefault().open(input)) {
+            for (final SinglePassSamProgram program : programs) {
+                if (program.OUTPUT == null) {
+                    program.OUTPUT = program.output.getOutputFile();
+                }
+                program.setup(in.getFileHeader(), input);
+            }
+            if (!in.hasIndex()) {
+                log.warn("Missing index for " + input + ". Sampling reads from the start of the file.");
+                try (CloseableIterator<SAMRecord> it = in.iterator()) {
+                    int windowReferenceIndex = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX;
+                    int windowStart = 0;
+                    while (it.hasNext()) {
+                        final SAMRecord rec = it.next();
+                        final int referenceIndex = rec.getReferenceIndex();
+                        // unplaced reads do not advance the window
+                        if (referenceIndex != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX
+                                && (referenceIndex != windowReferenceIndex
+                                    || rec.getAlignmentStart() < windowStart
+                                    || rec.getAlignmentStart() >= windowStart + windowSize)) {
+                            if (windowReferenceIndex != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                                windows++;
+                                if (stopSampling.getAsBoolean()) {
+                                    windowReferenceIndex = SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX;
+                                    break;
+                                }
+                            }
+                            windowReferenceIndex = referenceIndex;
+                            windowStart = rec.getAlignmentStart() - (rec.getAlignmentStart() - 1) % windowSize;
+                        }
+                        for (final SinglePassSamProgram program : programs) {
+                            program.acceptRead(rec, null);
+                        }
+                        progress.record(rec);
+                    }
+                    if (windowReferenceIndex != SAMRecord.NO_ALIGNMENT_REFERENCE_INDEX) {
+                        // final partially read window
+                        windows++;
+                    }
+                }
+            } else {
+                for (final QueryInterval window : sampleWindows(in.getFileHeader().getSequenceDictionary(), windowSize, maxWindows)) {
+                    try (CloseableIterator<SAMRecord> it = in.query(new QueryInterval[] { window }, false)) {
+                        while (it.hasNext()) {
+                            final SAMRecord rec = it.next();
+                            if (rec.getAlignmentStart() < window.start) continue;
+                            for (final SinglePassSamProgram program : programs) {
+                                program.acceptRead(rec, null);
+                            }
+                            progress.record(rec);
+                        }
+                    }
+                    windows++;
+                    if (stopSampling.getAsBoolean()) {
+                        break;
+                    }
+                }
+            }
+            log.info(String.format("Sampled %d reads from %d windows of %s", progress.getCount(), windows, input));
+            for (final SinglePassSamProgram program : programs) {
+                program.finish();
+            }
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        return progress.getCount();
+    }
+
+    /**
+     * Disjoint windows spread across the genome
+     * @param dictionary genome to sample
+     * @param windowSize size of each window. Windows are truncated at contig boundaries.
+     * @param maxWindows maximum number of windows to return
+     * @return windows in sampling order
+     */
+    static List<QueryInterval> sampleWindows(final SAMSequenceDictionary dictionary, final int windowSize, final int maxWindows) {
+        final List<SAMSequenceRecord> sequences = dictionary.getSequences();
+        // windows are allocated to slots within each contig so no window spans a contig boundary
+        final long[] contigFirstSlot = new long[sequences.size() + 1];
+        for (int i = 0; i < sequences.size(); i++) {
+            contigFirstSlot[i + 1] = contigFirstSlot[i] + (sequences.get(i).getSequenceLength() + windowSize - 1) / windowSize;
+        }
+        final long slots = contigFirstSlot[sequences.size()];
+        final int windowCount = (int)Math.min(slots, maxWindows);
+        final List<QueryInterval> windows = new ArrayList<>(windowCount);
+        final BitSet used = new BitSet();
+        for (int k = 0; windows.size() < windowCount; k++) {
+            // base 2 radical inverse of k
+            final double fraction = Integer.toUnsignedLong(Integer.reverse(k)) / 4294967296.0;
+            final int slot = (int)(fraction * slots);
+            if (used.get(slot)) continue;
+            used.set(slot);
+            int contig = Arrays.binarySearch(contigFirstSlot, slot);
+            contig = contig >= 0 ? contig : -contig - 2;
+            // skip over zero length contigs
+            while (contigFirstSlot[contig + 1] <= slot) contig++;
+            final int start = (int)((slot - contigFirstSlot[contig]) * windowSize) + 1;
+            final int end = (int)Math.min(sequences.get(contig).getSequenceLength(), start + (long)windowSize - 1);
+            windows.add(new QueryInterval(contig, start, end));
+        }
+        return windows;
+    }
+
+    private static void asyncAcceptReads(
+            final List<ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>>> buffers,
+            final List<SinglePassSamProgramRunner> workers,
+            final List<Tuple<ReferenceSequence, SAMRecord>> batch) throws InterruptedException {
+        for (int i = 0; i < workers.size(); i++) {
+            asyncAcceptRead(buffers.get(i), workers.get(i), batch);
+        }
+    }
+    private static void asyncAcceptRead(
+            final ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer,
+            final SinglePassSamProgramRunner worker,
+            final List<Tuple<ReferenceSequence, SAMRecord>> batch) throws InterruptedException {
+        // Propagate exceptions on worker threads back to main
+        while (!buffer.offer(batch, 1, TimeUnit.SECONDS)) {
+            // Check if the worker thread is still alive
+            raiseAsyncException(worker);
+            if (worker.isComplete()) {
+                throw new RuntimeException(worker.program.getClass().getName() + " terminated before all records read.");
+            }
+        }
+    }
+    private static void raiseAsyncException(final SinglePassSamProgramRunner worker) {
+        Exception e = worker.getException();
+        if (e != null) {
+            throw new RuntimeException("Exception when running " + worker.program.getClass().getName(), e);
+        }
+    }
+    private static void asyncWaitForCompletion(final List<SinglePassSamProgramRunner> workers) throws InterruptedException {
+        for (SinglePassSamProgramRunner worker : workers) {
+            asyncWaitForCompletion(worker);
+        }
+    }
+    private static void asyncWaitForCompletion(final SinglePassSamProgramRunner worker) throws InterruptedException {
+        while (!worker.isComplete()) {
+            raiseAsyncException(worker);
+            Thread.sleep(50);
+        }
+    }
+    private static class SinglePassSamProgramRunner implements Runnable {
+        private final ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer;
+        private final SinglePassSamProgram program;
+        private volatile boolean isComplete = false;
+        private volatile Exception exception = null;
+        public SinglePassSamProgramRunner(SinglePassSamProgram program,  ArrayBlockingQueue<List<Tuple<ReferenceSequence, SAMRecord>>> buffer) {
+            this.program = program;
+            this.buffer = buffer;
+        }
+
+        public boolean isComplete() {
+            return isComplete;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<Tuple<ReferenceSequence, SAMRecord>> batch = buffer.take();
+                while (batch.size() > 0) {
+                    for (Tuple<ReferenceSequence, SAMRecord> r : batch) {
+                        program.acceptRead(r.b, r.a);
+                    }
+                    batch = buffer.take();
+                }
+                program.finish();
+            } catch (Exception e) {
+                exception = e;
+            } finally {
+                isComplete = true;
+            }
+        }
+    }
+
+    /** Can be overridden and set to false if the section of unmapped reads at the end of the file isn't needed. */
+    protected boolean usesNoRefReads() { return true; }
+
+    /** Should be implemented by subclasses to do one-time initialization work. */
+    protected abstract void setup(final SAMFileHeader header, final File samFile);
+
+    /**
+     * Should be implemented by subclasses to accept SAMRecords one at a time.
+     * If the read has a reference sequence and a reference sequence file was supplied to the program
+     * it will be passed as 'ref'. Otherwise 'ref' may be null.
+     */
+    protected abstract void acceptRead(final SAMRecord rec, final ReferenceSequence ref);
+
+    /** Should be implemented by subclasses to do one-time finalization work. */
+    protected abstract void finish();
+
+}
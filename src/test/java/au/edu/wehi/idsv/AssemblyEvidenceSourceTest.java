@@ -3,6 +3,7 @@ package au.edu.wehi.idsv;
 import au.edu.wehi.idsv.picard.InMemoryReferenceSequenceFile;
 import au.edu.wehi.idsv.sam.SAMRecordUtil;
 import au.edu.wehi.idsv.util.FileHelper;
+import au.edu.wehi.idsv.util.FileSystemWorkQueue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import htsjdk.samtools.SAMFileHeader;
@@ -43,6 +44,33 @@ public class AssemblyEvidenceSourceTest extends IntermediateFilesTest {
 		assertTrue(assemblyFile.exists());
 	}
 	@Test
+	public void dynamic_job_allocation_should_merge_output() throws IOException {
+		createInput(RP(0, 1, 2, 1));
+		SAMEvidenceSource ses = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
+		FileHelper.copy(ses.getFile(), ses.getSVFile(), true);
+		AssemblyEvidenceSource aes = new AssemblyEvidenceSource(getCommandlineContext(), ImmutableList.of(ses), assemblyFile);
+		try (FileSystemWorkQueue queue = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			aes.assembleBreakends(null, 0, 2, queue);
+		}
+		assertTrue(assemblyFile.exists());
+	}
+	@Test
+	public void dynamic_job_allocation_should_not_overwrite_output_of_jobs_with_the_same_index() throws IOException {
+		createInput(RP(0, 1, 2, 1));
+		SAMEvidenceSource ses = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
+		FileHelper.copy(ses.getFile(), ses.getSVFile(), true);
+		AssemblyEvidenceSource aes = new AssemblyEvidenceSource(getCommandlineContext(), ImmutableList.of(ses), assemblyFile);
+		try (FileSystemWorkQueue queue = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			aes.assembleBreakends(null, 0, 2, queue);
+		}
+		try (FileSystemWorkQueue queue = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			aes.assembleBreakends(null, 0, 2, queue);
+		}
+		FileSystemContext fsc = getCommandlineContext().getFileSystemContext();
+		assertTrue(fsc.getAssemblyExcludedRegions(assemblyFile, 0).exists());
+		assertTrue(fsc.getAssemblyExcludedRegions(assemblyFile, 1).exists());
+	}
+	@Test
 	public void breakend_bam_should_be_coordinate_sorted() throws IOException {
 		createInput(RP(0, 1, 2, 1));
 		SAMEvidenceSource ses = new SAMEvidenceSource(getCommandlineContext(), input, null, 0);
@@ -1,9 +1,12 @@
 package au.edu.wehi.idsv;
 
+import com.google.common.hash.Hashing;
 import htsjdk.samtools.SAMRecord;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
 import java.util.regex.Pattern;
 
 public class HashedEvidenceIdentifierGeneratorTest extends EvidenceIdentifierGeneratorTest {
@@ -29,4 +32,31 @@ public class HashedEvidenceIdentifierGeneratorTest extends EvidenceIdentifierGen
 			Assert.assertTrue(Pattern.matches("^[0-9a-zA-Z_-]{32}$", hash));
 		}
 	}
+	private static String hashOfString(String s, int bytes) {
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(Hashing.murmur3_128().hashString(s, StandardCharsets.US_ASCII).asBytes()).substring(0, bytes);
+	}
+	private static String hashOfStrings(StringEvidenceIdentifierGenerator sgen, SAMRecord r, String evidenceId) {
+		return hashOfString(sgen.getSegmentUniqueName(r), 20) + hashOfString(sgen.getAlignmentUniqueName(r), 6) + hashOfString(evidenceId, 6);
+	}
+	@Test
+	public void should_match_hash_of_string_evidence_identifier() {
+		HashedEvidenceIdentifierGenerator gen = new HashedEvidenceIdentifierGenerator();
+		StringEvidenceIdentifierGenerator sgen = new StringEvidenceIdentifierGenerator();
+		SAMRecord r = Read(0, 12345, "10S10M5D10M10S");
+		r.setReadName("read/with:special#chars");
+		SoftClipEvidence sc = SCE(FWD, r);
+		Assert.assertEquals(hashOfStrings(sgen, r, sgen.getEvidenceID(sc)), gen.getEvidenceID(sc));
+		IndelEvidence ie = IndelEvidence.create(SES(), r, 2);
+		Assert.assertEquals(hashOfStrings(sgen, r, sgen.getEvidenceID(ie)), gen.getEvidenceID(ie));
+		DiscordantReadPair dp = (DiscordantReadPair)NRRP(DP(0, 100, "100M", true, 1, 200, "100M", false));
+		SAMRecord local = dp.getLocalledMappedRead();
+		Assert.assertEquals(hashOfStrings(sgen, local, sgen.getEvidenceID(dp)), gen.getEvidenceID(dp));
+		NonReferenceReadPair oea = NRRP(OEA(0, 100, "100M", true));
+		Assert.assertEquals(hashOfStrings(sgen, oea.getLocalledMappedRead(), sgen.getEvidenceID(oea)), gen.getEvidenceID(oea));
+		Assert.assertEquals(hashOfString(sgen.getSegmentUniqueName(r), 20), gen.getSegmentUniqueName(r));
+		Assert.assertEquals(hashOfString(sgen.getSegmentUniqueName(r), 20) + hashOfString(sgen.getAlignmentUniqueName(r), 6), gen.getAlignmentUniqueName(r));
+		SAMRecord unmapped = Unmapped(10);
+		unmapped.setReadName("unmapped");
+		Assert.assertEquals(hashOfString(sgen.getAlignmentUniqueName(unmapped), 6), gen.getAlignmentUniqueName(unmapped).substring(20));
+	}
 }
@@ -0,0 +1,67 @@
+package au.edu.wehi.idsv;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+public class PonIndexTest extends TestHelper {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private static PonIndex createIndex() {
+        return new PonIndex.Builder()
+                .add(new BreakpointSummary(0, FWD, 100, 100, 110, 1, BWD, 200, 200, 200), 3)
+                .add(new BreakpointSummary(0, FWD, 500, 1, BWD, 600), 2)
+                .add(new BreakpointSummary(1, BWD, 50, 2, FWD, 60), 1)
+                .add(new BreakendSummary(0, FWD, 1000, 990, 1010), 5)
+                .add(new BreakendSummary(1, BWD, 10), 4)
+                .build();
+    }
+
+    private static void assertLookups(PonIndex index) {
+        assertEquals(3, index.getBreakpointSize());
+        assertEquals(2, index.getBreakendSize());
+        assertEquals(3, index.getBreakpointCount(new BreakpointSummary(0, FWD, 105, 1, BWD, 200), 0));
+        // both breakends must overlap
+        assertEquals(0, index.getBreakpointCount(new BreakpointSummary(0, FWD, 105, 1, BWD, 210), 0));
+        assertEquals(3, index.getBreakpointCount(new BreakpointSummary(0, FWD, 105, 1, BWD, 210), 10));
+        // direction must match
+        assertEquals(0, index.getBreakpointCount(new BreakpointSummary(0, BWD, 105, 1, BWD, 200), 0));
+        // either breakend can be used for lookup
+        assertEquals(2, index.getBreakpointCount(new BreakpointSummary(1, BWD, 600, 0, FWD, 500), 0));
+        assertEquals(1, index.getBreakpointCount(new BreakpointSummary(1, BWD, 49, 2, FWD, 61), 1));
+        assertEquals(0, index.getBreakpointCount(new BreakpointSummary(1, BWD, 48, 2, FWD, 60), 1));
+        assertEquals(5, index.getBreakendCount(new BreakendSummary(0, FWD, 1000), 0));
+        assertEquals(5, index.getBreakendCount(new BreakendSummary(0, FWD, 1015), 5));
+        assertEquals(0, index.getBreakendCount(new BreakendSummary(0, FWD, 1015), 4));
+        assertEquals(0, index.getBreakendCount(new BreakendSummary(0, BWD, 1000), 0));
+        assertEquals(4, index.getBreakendCount(new BreakendSummary(1, BWD, 10), 0));
+        assertEquals(0, index.getBreakendCount(new BreakendSummary(2, BWD, 10), 0));
+    }
+
+    @Test
+    public void should_find_overlapping_pon_entries() {
+        assertLookups(createIndex());
+    }
+
+    @Test
+    public void should_round_trip_index_file() throws IOException {
+        File file = new File(testFolder.getRoot(), "pon.idx");
+        createIndex().write(file);
+        assertLookups(PonIndex.load(file));
+    }
+
+    @Test
+    public void should_handle_empty_pon() throws IOException {
+        File file = new File(testFolder.getRoot(), "empty.idx");
+        new PonIndex.Builder().build().write(file);
+        PonIndex index = PonIndex.load(file);
+        assertEquals(0, index.getBreakpointCount(new BreakpointSummary(0, FWD, 105, 1, BWD, 200), 10));
+        assertEquals(0, index.getBreakendCount(new BreakendSummary(0, FWD, 1000), 10));
+    }
+}
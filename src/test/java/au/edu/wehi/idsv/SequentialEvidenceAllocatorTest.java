@@ -91,6 +91,25 @@ public class SequentialEvidenceAllocatorTest extends TestHelper {
 		assertEquals(1, result.get(0).support.size());
 	}
 	@Test
+	public void should_add_evidence_to_call_builder_during_allocation() {
+		ArrayList<VariantContextDirectedEvidence> calls = new ArrayList<>();
+		VariantContextDirectedEvidence be = (VariantContextDirectedEvidence)minimalBreakend()
+				.breakend(new BreakendSummary(0, BWD, 10), "")
+				.phredScore(10).make();
+		calls.add(be);
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(getContext(), null, 0, 0, 100);
+		ses.evidence.add(SCE(BWD, withReadName("r1", Read(0, 10, "10S10M"))[0]));
+		ses.evidence.add(SCE(BWD, withReadName("r2", Read(0, 10, "5S10M"))[0]));
+		CalledBreakpointPositionLookup lookup = new CalledBreakpointPositionLookup();
+		SequentialEvidenceAllocator allocator = new SequentialEvidenceAllocator(getContext(), calls.iterator(), ses.evidence.iterator(), ImmutableList.<DirectedEvidence>of().iterator(), 1000000, true,
+				call -> new StructuralVariationCallBuilder(getContext(), lookup, call));
+		ArrayList<VariantEvidenceSupport> result = Lists.newArrayList(allocator);
+		assertEquals(1, result.size());
+		assertEquals(0, result.get(0).support.size());
+		VariantContextDirectedEvidence call = result.get(0).builder.make();
+		assertEquals(2, call.getBreakendEvidenceCountSoftClip());
+	}
+	@Test
 	public void RemoteOverlap_localLookup_should_split_on_referenceIndex_and_direction() {
 		final ProcessingContext pc = getContext();
 		pc.getVariantCallingParameters().writeFiltered = true;
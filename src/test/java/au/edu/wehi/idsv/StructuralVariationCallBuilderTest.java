@@ -1028,6 +1028,22 @@ public class StructuralVariationCallBuilderTest extends TestHelper {
 		assertAttr(VcfInfoAttributes.BREAKEND_VARIANT_FRAGMENTS , VcfFormatAttributes.BREAKEND_VARIANT_FRAGMENTS, new int[] { 1, 0, }, bp);
 	}
 	@Test
+	public void should_write_sorted_distinct_supporting_read_names() {
+		ProcessingContext pc = getContext();
+		pc.getConfig().getVariantCalling().includeSupportingReadNames = true;
+		StructuralVariationCallBuilder cb = new StructuralVariationCallBuilder(pc, new CalledBreakpointPositionLookup(), (VariantContextDirectedEvidence)minimalBreakend()
+				.breakpoint(BP, "GT").make(), false);
+		DirectedEvidence e1 = new rsc(1, true);
+		DirectedEvidence e2 = new rsc(2, true);
+		cb.addEvidence(e2);
+		cb.addEvidence(e1);
+		cb.addEvidence(e2);
+		VariantContextDirectedEvidence bp = cb.make();
+		List<String> names = bp.getAttributeAsStringList(VcfInfoAttributes.SUPPORTING_BREAKPOINT_READ_NAMES.attribute(), null);
+		assertEquals(2, names.size());
+		assertTrue(names.get(0).compareTo(names.get(1)) < 0);
+	}
+	@Test
 	public void should_set_VcfAttribute_BREAKEND_ASSEMBLY_READ_COUNT() {
 		assertAttr(VcfInfoAttributes.BREAKEND_SOFTCLIP_COUNT, VcfFormatAttributes.BREAKEND_SOFTCLIP_COUNT, new int[] { 2,  1, }, complex_bp());
 	}
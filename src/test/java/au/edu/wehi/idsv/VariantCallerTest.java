@@ -3,16 +3,20 @@ package au.edu.wehi.idsv;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.MoreExecutors;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.variant.variantcontext.VariantContext;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 public class VariantCallerTest extends IntermediateFilesTest {
@@ -87,4 +91,66 @@ public class VariantCallerTest extends IntermediateFilesTest {
 			assertEquals(3 * ((DirectedBreakpoint)ses.evidence.get(0)).getBreakpointQual(), variant.getPhredScaledQual(), 0.01);
 		}
 	}
+	@Test
+	public void should_gather_calls_from_multiple_jobs() throws IOException {
+		final int fragSize = 4;
+		final List<SAMRecord> in = new ArrayList<SAMRecord>();
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, input, 0, 0, fragSize);
+		for (int i = 1; i <= 5; i++) {
+			SAMRecord[] dp = DP(0, i, "1M", true, 1, i, "1M", true);
+			ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+			ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+			in.add(dp[0]);
+			in.add(dp[1]);
+		}
+		StubAssemblyEvidenceSource aes = new StubAssemblyEvidenceSource(pc);
+		aes.fragSize = fragSize;
+		Collections.sort(ses.evidence, DirectedEvidenceOrder.ByNatural);
+		createInput(in);
+		output.delete();
+		VariantCaller vc = new VariantCaller(pc, ImmutableList.<SAMEvidenceSource>of(ses), ImmutableList.of(aes));
+		vc.callBreakends(output, MoreExecutors.newDirectExecutorService(), 0, 2);
+		assertFalse(output.exists());
+		vc.callBreakends(output, MoreExecutors.newDirectExecutorService(), 1, 2);
+		assertFalse(output.exists());
+		VariantCaller.gatherBreakends(pc, output);
+		List<IdsvVariantContext> calls = getVcf(output, null);
+		assertEquals(2 * 3, calls.size());
+	}
+	@Test
+	public void gathered_calls_should_be_sorted() throws IOException {
+		final int fragSize = 4;
+		final List<SAMRecord> in = new ArrayList<SAMRecord>();
+		final ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().chunkSize = 100;
+		pc.getVariantCallingParameters().writeFiltered = true;
+		pc.getVariantCallingParameters().breakendMargin = 0;
+		StubSAMEvidenceSource ses = new StubSAMEvidenceSource(pc, input, 0, 0, fragSize);
+		for (int i = 1; i <= 300; i += 20) {
+			for (int j = 0; j < 5; j++) {
+				// remote breakends in descending order so chunk calls are not in genomic order
+				SAMRecord[] dp = DP(0, i + j, "1M", true, 1, 400 - i + j, "1M", true);
+				ses.evidence.add(NonReferenceReadPair.create(dp[0], dp[1], ses));
+				ses.evidence.add(NonReferenceReadPair.create(dp[1], dp[0], ses));
+				in.add(dp[0]);
+				in.add(dp[1]);
+			}
+		}
+		StubAssemblyEvidenceSource aes = new StubAssemblyEvidenceSource(pc);
+		aes.fragSize = fragSize;
+		Collections.sort(ses.evidence, DirectedEvidenceOrder.ByNatural);
+		createInput(in);
+		output.delete();
+		VariantCaller vc = new VariantCaller(pc, ImmutableList.<SAMEvidenceSource>of(ses), ImmutableList.of(aes));
+		vc.callBreakends(output, MoreExecutors.newDirectExecutorService());
+		List<IdsvVariantContext> calls = getVcf(output, null);
+		assertFalse(calls.isEmpty());
+		Comparator<VariantContext> order = IdsvVariantContext.VariantContextByLocationStart(pc.getDictionary());
+		for (int i = 1; i < calls.size(); i++) {
+			assertTrue(order.compare(calls.get(i - 1), calls.get(i)) <= 0);
+		}
+	}
 }
@@ -0,0 +1,103 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import htsjdk.samtools.*;
+import htsjdk.samtools.fastq.BasicFastqWriter;
+import htsjdk.samtools.fastq.FastqReader;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.fastq.FastqWriter;
+import htsjdk.samtools.util.SequenceUtil;
+import org.apache.commons.lang3.ArrayUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingFastqAlignerTest extends IntermediateFilesTest {
+    /**
+     * Aligns reads to the negative strand with the read sequence encoded in the mapping position
+     */
+    private class CountingFastqAligner implements FastqAligner {
+        private int reads = 0;
+        private int invocations = 0;
+        @Override
+        public void align(File fastq, File output, File reference, int threads, SAMSequenceDictionary dict) throws IOException {
+            invocations++;
+            SAMFileHeader header = new SAMFileHeader();
+            header.setSequenceDictionary(dict);
+            try (FastqReader reader = new FastqReader(fastq)) {
+                try (SAMFileWriter writer = new SAMFileWriterFactory().makeSAMOrBAMWriter(header, true, output)) {
+                    for (FastqRecord fq : reader) {
+                        reads++;
+                        SAMRecord r = new SAMRecord(header);
+                        r.setReadName(fq.getReadName());
+                        r.setReadBases(fq.getReadBases());
+                        r.setBaseQualities(fq.getBaseQualities());
+                        SequenceUtil.reverseComplement(r.getReadBases());
+                        ArrayUtils.reverse(r.getBaseQualities());
+                        r.setReadNegativeStrandFlag(true);
+                        r.setReferenceIndex(0);
+                        r.setAlignmentStart(1 + Math.abs(fq.getReadString().hashCode() % 1000));
+                        r.setCigarString(fq.getReadLength() + "M");
+                        writer.addAlignment(r);
+                    }
+                }
+            }
+        }
+    }
+    private File writeFastq(String name, List<FastqRecord> reads) {
+        File file = new File(testFolder.getRoot(), name);
+        try (FastqWriter writer = new BasicFastqWriter(file)) {
+            for (FastqRecord fq : reads) {
+                writer.write(fq);
+            }
+        }
+        return file;
+    }
+    private List<String> align(FastqAligner aligner, File fastq, String name) throws IOException {
+        File out = new File(testFolder.getRoot(), name);
+        aligner.align(fastq, out, SMALL_FA_FILE, 1, SMALL_FA.getSequenceDictionary());
+        try (SamReader reader = SamReaderFactory.makeDefault().open(out)) {
+            return reader.iterator().stream().map(SAMRecord::getSAMString).collect(Collectors.toList());
+        }
+    }
+    @Test
+    public void should_align_each_distinct_sequence_once() throws IOException {
+        List<FastqRecord> reads = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String seq = S(RANDOM).substring(10 * (i % 3), 10 * (i % 3) + 20);
+            String qual = S(RANDOM).substring(i, i + 20);
+            reads.add(new FastqRecord("read" + i, seq, "", qual));
+        }
+        File fastq = writeFastq("in.fq", reads);
+        List<String> expected = align(new CountingFastqAligner(), fastq, "expected.bam");
+        CountingFastqAligner underlying = new CountingFastqAligner();
+        CachingFastqAligner cached = new CachingFastqAligner(underlying, new AlignmentCache(100, false), SamReaderFactory.makeDefault(), new SAMFileWriterFactory());
+        assertEquals(expected, align(cached, fastq, "actual.bam"));
+        assertEquals(3, underlying.reads);
+        // cache persists between invocations
+        assertEquals(expected, align(cached, fastq, "actual2.bam"));
+        assertEquals(3, underlying.reads);
+        assertEquals(1, underlying.invocations);
+        assertEquals(57, cached.getCache().getHits());
+    }
+    @Test
+    public void should_realign_evicted_sequences() throws IOException {
+        List<FastqRecord> reads = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            String seq = S(RANDOM).substring(10 * (i % 3), 10 * (i % 3) + 20);
+            reads.add(new FastqRecord("read" + i, seq, "", seq));
+        }
+        File fastq = writeFastq("in.fq", reads);
+        List<String> expected = align(new CountingFastqAligner(), fastq, "expected.bam");
+        CountingFastqAligner underlying = new CountingFastqAligner();
+        CachingFastqAligner cached = new CachingFastqAligner(underlying, new AlignmentCache(2, false), SamReaderFactory.makeDefault(), new SAMFileWriterFactory());
+        assertEquals(expected, align(cached, fastq, "actual.bam"));
+        assertEquals(30, underlying.reads);
+    }
+}
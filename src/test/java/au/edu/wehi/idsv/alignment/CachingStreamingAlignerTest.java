@@ -0,0 +1,81 @@
+package au.edu.wehi.idsv.alignment;
+
+import au.edu.wehi.idsv.TestHelper;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMUtils;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.samtools.util.SequenceUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CachingStreamingAlignerTest extends TestHelper {
+    private static List<FastqRecord> createReads() {
+        List<FastqRecord> reads = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            int offset = 1000 + 100 * (i % 5);
+            byte[] seq = B(S(RANDOM).substring(offset, offset + 60));
+            if (i % 5 == 3) {
+                SequenceUtil.reverseComplement(seq);
+            }
+            byte[] qual = new byte[seq.length];
+            for (int j = 0; j < qual.length; j++) {
+                qual[j] = (byte)((i + j) % 40);
+            }
+            reads.add(new FastqRecord("read" + i, S(seq), "", SAMUtils.phredToFastq(qual)));
+        }
+        return reads;
+    }
+    /**
+     * Aligns the given reads
+     * @return read name, flags, cigar, bases and base qualities of each alignment.
+     * Mapping location is omitted as bwa arbitrarily chooses between equally good alignment locations
+     * and every sequence in the test reference is repeated.
+     */
+    private static List<String> align(StreamingAligner aligner, List<FastqRecord> reads) throws IOException {
+        for (FastqRecord fq : reads) {
+            aligner.asyncAlign(fq);
+        }
+        aligner.flush();
+        List<String> result = new ArrayList<>();
+        while (aligner.processedAlignmentRecords() > 0) {
+            SAMRecord r = aligner.getAlignment();
+            result.add(String.join(" ", r.getReadName(), Integer.toString(r.getFlags()), r.getCigarString(), r.getReadString(), r.getBaseQualityString()));
+        }
+        return result;
+    }
+    @Test
+    public void should_match_uncached_alignments() throws IOException {
+        List<FastqRecord> reads = createReads();
+        BwaStreamingAligner bwa = new BwaStreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1000);
+        List<String> expected = align(bwa, reads);
+        AlignmentCache cache = new AlignmentCache(100, false);
+        CachingStreamingAligner cached = new CachingStreamingAligner(new BwaStreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1000), cache);
+        List<String> actual = align(cached, reads);
+        assertEquals(reads.size(), expected.size());
+        assertEquals(expected, actual);
+        assertEquals(5, cache.getMisses());
+        assertEquals(35, cache.getHits());
+    }
+    @Test
+    public void should_realign_evicted_sequences() throws IOException {
+        List<FastqRecord> reads = createReads();
+        AlignmentCache cache = new AlignmentCache(4, false);
+        CachingStreamingAligner cached = new CachingStreamingAligner(new BwaStreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1000), cache);
+        align(cached, reads);
+        // sequences are requested round-robin so LRU eviction always evicts the next sequence
+        assertEquals(reads.size(), cache.getMisses());
+    }
+    @Test
+    public void should_key_on_base_qualities_if_requested() throws IOException {
+        List<FastqRecord> reads = createReads();
+        AlignmentCache cache = new AlignmentCache(100, true);
+        CachingStreamingAligner cached = new CachingStreamingAligner(new BwaStreamingAligner(SMALL_FA_FILE, SMALL_FA.getSequenceDictionary(), 2, 1000), cache);
+        align(cached, reads);
+        assertEquals(reads.size(), cache.getMisses());
+    }
+}
@@ -2,10 +2,23 @@ package au.edu.wehi.idsv.debruijn;
 
 import au.edu.wehi.idsv.TestHelper;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import htsjdk.samtools.reference.ReferenceSequence;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 public class ContigKmerCounterTest extends TestHelper {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
     @Test
     public void should_count_at_end_of_read_and_reference() {
         ContigKmerCounter ckc = new ContigKmerCounter(ImmutableList.of("test1", "test2"), ImmutableList.of(B("AACCGGTTT"), B("A")), 4, 1);
@@ -42,4 +55,72 @@ public class ContigKmerCounterTest extends TestHelper {
         Assert.assertEquals(2, ckc.getKmerCounts().getLong(0));
         Assert.assertEquals(1, ckc.getKmerCounts().getLong(1));
     }
-}
\ No newline at end of file
+    @Test
+    public void should_match_in_memory_index_after_write_and_load() throws IOException {
+        ContigKmerIndex index = ContigKmerIndex.build(ImmutableList.of(
+                new ReferenceSequence("test1", 0, B("CCACCCAGTTNACGT")),
+                new ReferenceSequence("test2", 1, B("AACCA"))).iterator(), 3, 1);
+        File file = new File(testFolder.getRoot(), "test.kmers");
+        index.write(file);
+        ContigKmerIndex loaded = ContigKmerIndex.load(file);
+        Assert.assertEquals(index.getK(), loaded.getK());
+        Assert.assertEquals(index.getStride(), loaded.getStride());
+        Assert.assertEquals(index.getContigs(), loaded.getContigs());
+        Assert.assertEquals(index.size(), loaded.size());
+        ContigKmerCounter expected = new ContigKmerCounter(index);
+        ContigKmerCounter actual = new ContigKmerCounter(loaded);
+        for (String read : new String[] { "CCACCCAGTT", "AACCA", "ACGTNACGT", "TTTTT", "TGGTT" }) {
+            Assert.assertEquals(expected.count(B(read)), actual.count(B(read)));
+        }
+        Assert.assertEquals(expected.getKmerCounts(), actual.getKmerCounts());
+    }
+    @Test
+    public void external_index_should_match_in_memory_index() throws IOException {
+        List<ReferenceSequence> ref = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ref.add(new ReferenceSequence("contig" + i, i, Arrays.copyOfRange(RANDOM, i * 100, i * 100 + 200)));
+        }
+        ref.add(new ReferenceSequence("contig4", 4, B("CCACCCAGTTNACGTCCACCCAGTT")));
+        ContigKmerIndex index = ContigKmerIndex.build(ref.iterator(), 5, 1);
+        File file = new File(testFolder.getRoot(), "external.kmers");
+        // small chunks so the index is merged from many spilled chunks
+        ContigKmerIndex.write(ref.iterator(), 5, 1, ImmutableMap.of("ref.fa", 1234L), file, 37);
+        ContigKmerIndex loaded = ContigKmerIndex.load(file);
+        Assert.assertEquals(index.getContigs(), loaded.getContigs());
+        Assert.assertEquals(index.size(), loaded.size());
+        Assert.assertEquals(ImmutableMap.of("ref.fa", 1234L), loaded.getSources());
+        ContigKmerCounter expected = new ContigKmerCounter(index);
+        ContigKmerCounter actual = new ContigKmerCounter(loaded);
+        for (int i = 0; i < 500; i += 7) {
+            byte[] read = Arrays.copyOfRange(RANDOM, i, i + 50);
+            Assert.assertEquals(expected.count(read), actual.count(read));
+        }
+        Assert.assertEquals(expected.count(B("CCACCCAGTT")), actual.count(B("CCACCCAGTT")));
+        Assert.assertEquals(expected.getKmerCounts(), actual.getKmerCounts());
+        Assert.assertEquals(1, testFolder.getRoot().listFiles().length);
+    }
+    @Test
+    public void parallel_count_should_match_sequential_count() {
+        Random rng = new Random(0);
+        List<String> contigs = new ArrayList<>();
+        List<byte[]> sequences = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            contigs.add("contig" + i);
+            sequences.add(Arrays.copyOfRange(RANDOM, i * 1000, i * 1000 + 1000));
+        }
+        List<byte[]> reads = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            byte[] seq = sequences.get(rng.nextInt(sequences.size()));
+            int start = rng.nextInt(seq.length - 100);
+            reads.add(Arrays.copyOfRange(seq, start, start + 100));
+        }
+        ContigKmerCounter sequential = new ContigKmerCounter(contigs, sequences, 16, 4);
+        ContigKmerCounter parallel = new ContigKmerCounter(contigs, sequences, 16, 4);
+        for (byte[] read : reads) {
+            sequential.count(read);
+        }
+        parallel.count(reads.iterator(), 4, 7);
+        Assert.assertEquals(sequential.getKmerCounts(), parallel.getKmerCounts());
+        Assert.assertTrue(sequential.getKmerCounts().getLong(0) > 0);
+    }
+}
@@ -39,6 +39,19 @@ public class PackedSequenceTest extends TestHelper {
 		}
 	}
 	@Test
+	public void getKmers_should_match_getKmer() {
+		String seq = "CATTAATCGCAAGAGCGGGTTGTATTCGACGCCAAGTCAGCTGAAGCACCATTACCCGATCAAAACATATCAGAAATGATTGACGTATCACAAGCCGG";
+		PackedSequence list = new PackedSequence(B(seq), false, false);
+		for (int k = 1; k <= 32; k++) {
+			long[] kmers = list.getKmers(k);
+			assertEquals(seq.length() - k + 1, kmers.length);
+			for (int i = 0; i < kmers.length; i++) {
+				assertEquals(list.getKmer(i, k), kmers[i]);
+			}
+		}
+		assertEquals(0, new PackedSequence(B("ACG"), false, false).getKmers(4).length);
+	}
+	@Test
 	public void should_reverse() {
 		PackedSequence seq = new PackedSequence(B("AACGT"), true, false);
 		assertEquals("TGCAA", S(seq.getBytes(0, 5)));
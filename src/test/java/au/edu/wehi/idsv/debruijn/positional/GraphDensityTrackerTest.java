@@ -0,0 +1,64 @@
+package au.edu.wehi.idsv.debruijn.positional;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.util.DensityThrottlingIterator;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GraphDensityTrackerTest extends TestHelper {
+	private static class IntDensityThrottlingIterator extends DensityThrottlingIterator<Integer> {
+		public IntDensityThrottlingIterator() {
+			super(ImmutableList.<Integer>of().iterator(), 10, 1, 1);
+		}
+		@Override
+		protected long getPosition(Integer record) {
+			return record;
+		}
+		@Override
+		protected boolean excludedFromThrottling(Integer record) {
+			return false;
+		}
+	}
+	@Test
+	public void should_count_nodes_edges_and_kmers() {
+		GraphDensityTracker tracker = new GraphDensityTracker(null, 1);
+		KmerPathNode n1 = KPN(4, "AAAAT", 1, 10, false);
+		KmerPathNode n2 = KPN(4, "AATT", 3, 12, false);
+		KmerPathNode.addEdge(n1, n2);
+		tracker.add(n1);
+		tracker.add(n2);
+		tracker.add(KPN(4, "CCCC", 1, 10, true));
+		tracker.windowLoaded(1, 11);
+		assertEquals(2, tracker.getTotalNodes());
+		assertEquals(1, tracker.getTotalEdges());
+		assertEquals(2 * 10 + 1 * 10, tracker.getTotalKmers());
+		assertEquals(0.2, tracker.getLastDensity(), 0);
+	}
+	@Test
+	public void should_tighten_throttle_when_density_exceeds_threshold() {
+		GraphDensityTracker tracker = new GraphDensityTracker(new IntDensityThrottlingIterator(), 0.1);
+		tracker.add(KPN(4, "AAAA", 1, 10, false));
+		tracker.add(KPN(4, "TTTT", 1, 10, false));
+		tracker.add(KPN(4, "CCCC", 1, 10, false));
+		tracker.add(KPN(4, "GGGG", 1, 10, false));
+		tracker.windowLoaded(1, 11);
+		assertEquals(0.25, tracker.getThrottleScale(), 0.0001);
+	}
+	@Test
+	public void should_relax_throttle_when_density_drops() {
+		GraphDensityTracker tracker = new GraphDensityTracker(new IntDensityThrottlingIterator(), 0.1);
+		tracker.add(KPN(4, "AAAA", 1, 10, false));
+		tracker.add(KPN(4, "TTTT", 1, 10, false));
+		tracker.add(KPN(4, "CCCC", 1, 10, false));
+		tracker.add(KPN(4, "GGGG", 1, 10, false));
+		tracker.windowLoaded(1, 11);
+		assertTrue(tracker.getThrottleScale() < 1);
+		tracker.windowLoaded(11, 21);
+		tracker.windowLoaded(21, 31);
+		tracker.windowLoaded(31, 41);
+		assertEquals(1, tracker.getThrottleScale(), 0);
+	}
+}
@@ -323,7 +323,7 @@ public class KmerEvidenceTest extends TestHelper {
 		MockSAMEvidenceSource ses = SES(0, 100);
 		ses.getContext().getAssemblyParameters().positional.trimSelfIntersectingReads = true;
 		KmerEvidence e = KmerEvidence.create(4, NRRP(ses, withSequence("AATTAATTAATT", DP(0, 1, "12M", false, 1, 1, "12M", true))));
-		for (int i = e.length(); i > e.length() - 4; i--) {
+		for (int i = e.length() - 1; i > e.length() - 4; i--) {
 			assertNotNull(e.node(i));
 		}
 		for (int i = e.length() - 4; i >=0; i--) {
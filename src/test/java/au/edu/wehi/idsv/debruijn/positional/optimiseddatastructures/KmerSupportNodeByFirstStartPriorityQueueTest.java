@@ -0,0 +1,45 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.SingleReadEvidence;
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.debruijn.positional.KmerEvidence;
+import au.edu.wehi.idsv.debruijn.positional.KmerSupportNode;
+import org.junit.Test;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KmerSupportNodeByFirstStartPriorityQueueTest extends TestHelper {
+    @Test
+    public void should_poll_in_first_start_order() {
+        PriorityQueue<Integer> pq = new PriorityQueue<>();
+        KmerSupportNodeByFirstStartPriorityQueue optimisepq = new KmerSupportNodeByFirstStartPriorityQueue();
+        MockSAMEvidenceSource ses = SES();
+        KmerEvidence[] evidence = new KmerEvidence[3000];
+        for (int i = 0; i < evidence.length; i++) {
+            evidence[i] = KmerEvidence.create(2, SingleReadEvidence.createEvidence(ses, 0, Read(0, i + 1, "3M3S")).get(0));
+        }
+        Random rng = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            KmerEvidence e = evidence[rng.nextInt(evidence.length)];
+            int offset = rng.nextInt(e.length());
+            pq.add(e.startPosition() + offset);
+            optimisepq.add(e, offset);
+            assertEquals(pq.size(), optimisepq.size());
+            assertEquals((int)pq.peek(), optimisepq.peekFirstStart());
+            assertEquals((int)pq.peek(), optimisepq.peek().firstStart());
+            if (rng.nextBoolean()) {
+                KmerSupportNode node = optimisepq.poll();
+                assertEquals((int)pq.poll(), node.firstStart());
+                assertEquals(node.evidence().kmer(node.offset()), node.firstKmer());
+            }
+        }
+        while (!pq.isEmpty()) {
+            assertEquals((int)pq.poll(), optimisepq.poll().firstStart());
+        }
+        assertTrue(optimisepq.isEmpty());
+        assertNull(optimisepq.poll());
+    }
+}
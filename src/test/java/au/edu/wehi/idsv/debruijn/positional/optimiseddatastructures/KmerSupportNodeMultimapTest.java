@@ -0,0 +1,70 @@
+package au.edu.wehi.idsv.debruijn.positional.optimiseddatastructures;
+
+import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.debruijn.positional.KmerEvidence;
+import au.edu.wehi.idsv.debruijn.positional.KmerSupportNode;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KmerSupportNodeMultimapTest extends TestHelper {
+	private static List<KmerSupportNode> chain(KmerSupportNodeMultimap map, long kmer) {
+		List<KmerSupportNode> list = new ArrayList<>();
+		for (int slot = map.first(kmer); slot != KmerSupportNodeMultimap.NONE; slot = map.next(slot)) {
+			list.add(map.node(slot));
+		}
+		return list;
+	}
+	@Test
+	public void should_chain_nodes_by_kmer() {
+		KmerEvidence e = KmerEvidence.create(4, SCE(FWD, Read(0, 1, "4M4S")));
+		KmerSupportNodeMultimap map = new KmerSupportNodeMultimap();
+		map.put(1, e, 0, 0);
+		map.put(1, e, 1, 1);
+		map.put(2, e, 2, 2);
+		assertEquals(3, map.size());
+		assertEquals(2, map.kmerCount());
+		assertEquals(2, map.maxChainLength());
+		assertEquals(2, chain(map, 1).size());
+		assertTrue(map.contains(1, e, 0));
+		assertFalse(map.contains(2, e, 0));
+		assertEquals(0, chain(map, 3).size());
+	}
+	@Test
+	public void remove_should_unlink_slot() {
+		KmerEvidence e = KmerEvidence.create(4, SCE(FWD, Read(0, 1, "4M4S")));
+		KmerSupportNodeMultimap map = new KmerSupportNodeMultimap();
+		map.put(1, e, 0, 0);
+		map.put(1, e, 1, 1);
+		map.put(1, e, 2, 2);
+		// chain order is most recent first
+		int head = map.first(1);
+		int middle = map.next(head);
+		assertEquals(1, map.handle(middle));
+		assertEquals(map.next(middle), map.remove(1, head, middle));
+		assertEquals(2, chain(map, 1).size());
+		assertFalse(map.contains(1, e, 1));
+		map.remove(1, KmerSupportNodeMultimap.NONE, map.first(1));
+		map.remove(1, KmerSupportNodeMultimap.NONE, map.first(1));
+		assertEquals(0, map.size());
+		assertEquals(0, map.kmerCount());
+		assertEquals(KmerSupportNodeMultimap.NONE, map.first(1));
+	}
+	@Test
+	public void should_reuse_removed_slots() {
+		KmerEvidence e = KmerEvidence.create(4, SCE(FWD, Read(0, 1, "4M4S")));
+		KmerSupportNodeMultimap map = new KmerSupportNodeMultimap();
+		for (int i = 0; i < 5000; i++) {
+			int slot = map.put(i, e, i % e.length(), i);
+			assertEquals(i, map.handle(slot));
+		}
+		int slot = map.first(7);
+		map.remove(7, KmerSupportNodeMultimap.NONE, slot);
+		assertEquals(slot, map.put(8000, e, 0, 8000));
+		assertEquals(5000, map.size());
+		assertEquals(5000, map.values().count());
+	}
+}
@@ -0,0 +1,50 @@
+package au.edu.wehi.idsv.graph;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ArrayBackedRectangleGraphMaximalCliqueCalculatorTest extends RectangleGraphMaximalCliqueCalculatorTest {
+	@Override
+	protected RectangleGraphMaximalCliqueCaller createCalculator() {
+		return new ArrayBackedRectangleGraphMaximalCliqueCalculator();
+	}
+	private static RectangleGraphNode[] getCliques(RectangleGraphMaximalCliqueCaller calc, RectangleGraphNode[] nodes) {
+		List<RectangleGraphNode> result = new ArrayList<>();
+		for (RectangleGraphNode n : RectangleGraphNode.ByStartXYEndXY.sortedCopy(Arrays.asList(nodes))) {
+			result.addAll(calc.next(n));
+		}
+		result.addAll(calc.complete());
+		return result.toArray(new RectangleGraphNode[0]);
+	}
+	private static void assertMatchesObjectImplementation(Random rng, int count, int width, int maxSize) {
+		RectangleGraphNode[] nodes = new RectangleGraphNode[count];
+		for (int j = 0; j < nodes.length; j++) {
+			long startX = rng.nextInt(width);
+			long startY = rng.nextInt(width);
+			nodes[j] = new RectangleGraphNode(startX, startX + rng.nextInt(maxSize), startY, startY + rng.nextInt(maxSize), 1 + rng.nextInt(3));
+		}
+		assertEquals(
+				toString(getCliques(new RectangleGraphMaximalCliqueCalculator(), nodes)),
+				toString(getCliques(new ArrayBackedRectangleGraphMaximalCliqueCalculator(), nodes)));
+	}
+	@Test
+	public void should_match_object_implementation() {
+		Random rng = new Random(0);
+		for (int i = 0; i < 500; i++) {
+			assertMatchesObjectImplementation(rng, 1 + rng.nextInt(64), 32, 8);
+		}
+	}
+	@Test
+	public void should_match_object_implementation_when_scanline_indexed() {
+		Random rng = new Random(0);
+		for (int i = 0; i < 10; i++) {
+			assertMatchesObjectImplementation(rng, 4000, 2000, 200);
+		}
+	}
+}
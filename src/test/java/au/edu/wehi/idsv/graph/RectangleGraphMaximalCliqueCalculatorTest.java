@@ -16,10 +16,13 @@ public class RectangleGraphMaximalCliqueCalculatorTest {
 	private RectangleGraphNode N(long startX, long endX, long startY, long endY, int weight) {
 		return new RectangleGraphNode(startX, endX, startY, endY, weight);
 	}
-	RectangleGraphMaximalCliqueCalculator graph; 
-	private RectangleGraphNode[] getCliques(RectangleGraphNode[] nodes) {
+	RectangleGraphMaximalCliqueCaller graph; 
+	protected RectangleGraphMaximalCliqueCaller createCalculator() {
+		return new RectangleGraphMaximalCliqueCalculator();
+	}
+	protected RectangleGraphNode[] getCliques(RectangleGraphNode[] nodes) {
 		Arrays.sort(nodes, 0, nodes.length, RectangleGraphNode.ByStartXYEndXY);
-		graph = new RectangleGraphMaximalCliqueCalculator();
+		graph = createCalculator();
 		List<RectangleGraphNode> result = Lists.newArrayList();
 		for (int i = 0; i < nodes.length; i++) {
 			result.addAll(graph.next(nodes[i]));
@@ -34,7 +37,7 @@ public class RectangleGraphMaximalCliqueCalculatorTest {
 		}
 		return r;
 	}
-	private String toString(RectangleGraphNode[] nodes) {
+	protected static String toString(RectangleGraphNode[] nodes) {
 		StringBuilder sb = new StringBuilder();
 		List<RectangleGraphNode> x = RectangleGraphNode.ByStartXYEndXY.sortedCopy(Arrays.asList(nodes));
 		for (RectangleGraphNode n : x) {
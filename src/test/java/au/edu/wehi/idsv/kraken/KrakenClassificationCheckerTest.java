@@ -7,6 +7,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class KrakenClassificationCheckerTest {
     @Test
@@ -34,4 +35,25 @@ public class KrakenClassificationCheckerTest {
         // read2 is good
         Assert.assertTrue(kkc.isOfInterest(new KrakenClassification("C\tid1\t1\t10\t1:1|:|9606:1 10239:1")));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void byte_level_check_should_match_parsed_check() throws IOException {
+        KrakenClassificationChecker kkc = new KrakenClassificationChecker(ImmutableList.of(207598), new File("src/test/resources/ncbi/homo_sapiens.nodes.dmp"));
+        for (String line : new String[] {
+                "C\tid1\t1\t10\t1:1",
+                "C\tid1\t1\t10\t9606:1 10239:1",
+                "C\tid1\t1\t10\t10239:1 9606:1",
+                "C\tid1\t1\t10\t10239:1 9606:1 10239:1",
+                "C\tid1\t9606\t10\t10239:1 9606:1 10239:1",
+                "C\tid1\t10239\t10\tA:1 1:1 2759:1 9606:1 10239:1",
+                "C\tid1\t10239\t10\t10239:1 9606:1 A:1 1:1 2759:1",
+                "C\tid1\t1\t10|10\t1:1|:|9606:1 10239:1",
+                "C\tid1\t1\t10|10\t9606:1 10239:1 |:|10239:1",
+                "U\tid1\t0\t151\t0:117",
+                "U\tid1\t0\t151",
+        }) {
+            byte[] padded = ("\n" + line + "\n").getBytes(StandardCharsets.UTF_8);
+            Assert.assertEquals(line, kkc.isOfInterest(new KrakenClassification(line)), kkc.isOfInterest(padded, 1, padded.length - 1));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package au.edu.wehi.idsv.ncbi;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class TaxonomyIndexTest {
+    private static final File NODES_DMP = new File("src/test/resources/ncbi/homo_sapiens.nodes.dmp");
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void should_match_TaxonomyHelper() throws IOException {
+        TaxonomyIndex index = TaxonomyIndex.parse(NODES_DMP);
+        Map<Integer, MinimalTaxonomyNode> lookup = TaxonomyHelper.parseMinimal(NODES_DMP);
+        Assert.assertEquals(TaxonomyHelper.maxTaxId(lookup), index.maxTaxId());
+        for (List<Integer> taxIds : ImmutableList.<List<Integer>>of(
+                ImmutableList.of(9606),
+                ImmutableList.of(8287),
+                ImmutableList.of(314293, 376912))) {
+            boolean[] expected = TaxonomyHelper.createInclusionLookup(taxIds, lookup);
+            boolean[] actual = index.createInclusionLookup(taxIds);
+            Assert.assertArrayEquals(expected, actual);
+            Assert.assertArrayEquals(TaxonomyHelper.addAncestors(expected, lookup), index.addAncestors(actual));
+        }
+        Assert.assertArrayEquals(TaxonomyHelper.leafNodes(lookup), index.leafNodes());
+        for (MinimalTaxonomyNode node : lookup.values()) {
+            Assert.assertEquals(node.parentTaxId, index.getParent(node.taxId));
+        }
+    }
+
+    @Test
+    public void isDescendantOf_should_include_self_and_descendants() throws IOException {
+        TaxonomyIndex index = TaxonomyIndex.parse(NODES_DMP);
+        Assert.assertTrue(index.isDescendantOf(9606, 9606));
+        Assert.assertTrue(index.isDescendantOf(9606, 8287));
+        Assert.assertTrue(index.isDescendantOf(376913, 8287));
+        Assert.assertFalse(index.isDescendantOf(8287, 9606));
+        Assert.assertFalse(index.isDescendantOf(117571, 8287));
+        Assert.assertFalse(index.isDescendantOf(9605, 9606));
+    }
+
+    @Test
+    public void should_reuse_index_file() throws IOException {
+        File nodesdmp = new File(testFolder.getRoot(), "nodes.dmp");
+        Files.copy(NODES_DMP, nodesdmp);
+        File cache = testFolder.newFile("nodes.taxonomy");
+        cache.delete();
+        TaxonomyIndex created = TaxonomyIndex.open(nodesdmp, cache);
+        Assert.assertTrue(cache.exists());
+        long lastModified = cache.lastModified();
+        TaxonomyIndex loaded = TaxonomyIndex.open(nodesdmp, cache);
+        Assert.assertEquals(lastModified, cache.lastModified());
+        Assert.assertEquals(created.maxTaxId(), loaded.maxTaxId());
+        Assert.assertArrayEquals(created.createInclusionLookup(ImmutableList.of(8287)), loaded.createInclusionLookup(ImmutableList.of(8287)));
+        Assert.assertArrayEquals(created.leafNodes(), loaded.leafNodes());
+        Assert.assertTrue(loaded.isDescendantOf(376913, 8287));
+    }
+
+    @Test
+    public void should_not_write_index_file_if_not_specified() throws IOException {
+        File nodesdmp = new File(testFolder.getRoot(), "nodes.dmp");
+        Files.copy(NODES_DMP, nodesdmp);
+        TaxonomyIndex index = TaxonomyIndex.open(nodesdmp, null);
+        Assert.assertTrue(index.isDescendantOf(376913, 8287));
+        Assert.assertArrayEquals(new String[] { "nodes.dmp" }, testFolder.getRoot().list());
+    }
+}
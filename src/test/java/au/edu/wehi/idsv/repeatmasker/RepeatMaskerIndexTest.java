@@ -0,0 +1,89 @@
+package au.edu.wehi.idsv.repeatmasker;
+
+import com.google.common.collect.Lists;
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.readers.LineIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class RepeatMaskerIndexTest {
+
+    private static List<RepeatMaskerFeature> parse(File file) throws IOException {
+        try (AbstractFeatureReader<RepeatMaskerFeature, LineIterator> reader = AbstractFeatureReader.getFeatureReader(file.getPath(), new RepeatMaskerCodec(), false)) {
+            return Lists.newArrayList((Iterable<? extends RepeatMaskerFeature>) reader.iterator());
+        }
+    }
+
+    private static void assertEquals(RepeatMaskerFeature expected, RepeatMaskerFeature actual) {
+        Assert.assertEquals(expected.getContig(), actual.getContig());
+        Assert.assertEquals(expected.getStart(), actual.getStart());
+        Assert.assertEquals(expected.getEnd(), actual.getEnd());
+        Assert.assertEquals(expected.getSwScore(), actual.getSwScore(), 0);
+        Assert.assertEquals(expected.getStrand(), actual.getStrand());
+        Assert.assertEquals(expected.getRepeatType(), actual.getRepeatType());
+        Assert.assertEquals(expected.getRepeatClass(), actual.getRepeatClass());
+        Assert.assertEquals(expected.getUniqueID(), actual.getUniqueID());
+        RepeatAlignmentSummaryInformation e = expected.getRepeatAlignmentSummaryInformation();
+        RepeatAlignmentSummaryInformation a = actual.getRepeatAlignmentSummaryInformation();
+        Assert.assertEquals(e.getPercentageSubstituted(), a.getPercentageSubstituted(), 0);
+        Assert.assertEquals(e.getPercentageDeleted(), a.getPercentageDeleted(), 0);
+        Assert.assertEquals(e.getPercentageInserted(), a.getPercentageInserted(), 0);
+        Assert.assertEquals(e.getBasesInQueryPastMatch(), a.getBasesInQueryPastMatch());
+        Assert.assertEquals(e.getMatchStart(), a.getMatchStart());
+        Assert.assertEquals(e.getMatchEnd(), a.getMatchEnd());
+        Assert.assertEquals(e.getBasesInRepeatPastMatch(), a.getBasesInRepeatPastMatch());
+        Assert.assertEquals(expected.getRepeatAlignmentInformation(false) == null, actual.getRepeatAlignmentInformation(false) == null);
+        Assert.assertEquals(expected.getRepeatAlignmentInformation(true).getCigar(), actual.getRepeatAlignmentInformation(true).getCigar());
+        Assert.assertEquals(expected.getRepeatAlignmentInformation(true).getRepeatStart(), actual.getRepeatAlignmentInformation(true).getRepeatStart());
+        Assert.assertEquals(expected.getRepeatAlignmentInformation(true).getNestedBases(), actual.getRepeatAlignmentInformation(true).getNestedBases());
+    }
+
+    private static void assertMatchesCodec(File file, RepeatMaskerIndex index) throws IOException {
+        List<RepeatMaskerFeature> features = parse(file);
+        Assert.assertEquals(features.size(), index.size());
+        for (String contig : features.stream().map(RepeatMaskerFeature::getContig).distinct().collect(Collectors.toList())) {
+            List<RepeatMaskerFeature> expected = features.stream().filter(f -> f.getContig().equals(contig)).collect(Collectors.toList());
+            List<RepeatMaskerFeature> actual = index.getFeatures(contig);
+            Assert.assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), actual.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void should_match_codec_output_file() throws IOException {
+        File file = new File("src/test/resources/repeatmasker/ebv/merged.bwa.fa.out");
+        assertMatchesCodec(file, RepeatMaskerIndex.create(file));
+    }
+
+    @Test
+    public void should_match_codec_alignment_file() throws IOException {
+        File file = new File("src/test/resources/repeatmasker/rmtest.fa.cat");
+        assertMatchesCodec(file, RepeatMaskerIndex.create(file));
+    }
+
+    @Test
+    public void should_return_empty_for_unannotated_sequence() throws IOException {
+        RepeatMaskerIndex index = RepeatMaskerIndex.create(new File("src/test/resources/repeatmasker/norepeats.fa.out"));
+        Assert.assertEquals(0, index.size());
+        Assert.assertTrue(index.getFeatures("gridss0b_160b").isEmpty());
+        index = RepeatMaskerIndex.create(new File("src/test/resources/repeatmasker/rmtest.fa.out"));
+        Assert.assertTrue(index.getFeatures("not_a_sequence").isEmpty());
+    }
+
+    @Test
+    public void getOverlapping_should_filter_by_query_position() throws IOException {
+        RepeatMaskerIndex index = RepeatMaskerIndex.create(new File("src/test/resources/repeatmasker/rmtest.fa.out"));
+        // gridss0b_160b 79-366
+        Assert.assertEquals(1, index.getOverlapping("gridss0b_160b", 1, 79).size());
+        Assert.assertEquals(1, index.getOverlapping("gridss0b_160b", 366, 400).size());
+        Assert.assertEquals(0, index.getOverlapping("gridss0b_160b", 1, 78).size());
+        Assert.assertEquals(0, index.getOverlapping("gridss0b_160b", 367, 400).size());
+    }
+}
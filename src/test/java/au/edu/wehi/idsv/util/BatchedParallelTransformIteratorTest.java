@@ -0,0 +1,122 @@
+package au.edu.wehi.idsv.util;
+
+import au.edu.wehi.idsv.util.AsyncBufferedIteratorTest.CIT;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+
+public class BatchedParallelTransformIteratorTest {
+	@Test
+	public void should_apply_transform() {
+		for (int batchSize = 1; batchSize < 6; batchSize++) {
+			for (int batches = 1; batches < 4; batches++) {
+				List<Integer> list = Ints.asList(0, 1, 2, 3, 4, 5, 6);
+				BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(list.iterator(), n -> n + 1, batchSize, batches, Runnable::run);
+				assertEquals(Ints.asList(1, 2, 3, 4, 5, 6, 7), Lists.newArrayList(it));
+			}
+		}
+	}
+	@Test
+	public void should_read_ahead_whole_batches() {
+		CIT cit = new CIT(64);
+		BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(cit, n -> n, 4, 2, Runnable::run);
+		assertEquals(64, cit.recordsleft);
+		it.next();
+		// current batch plus two batches in flight
+		assertEquals(64 - 3 * 4, cit.recordsleft);
+		it.next();
+		it.next();
+		it.next();
+		assertEquals(64 - 3 * 4, cit.recordsleft);
+		it.next();
+		assertEquals(64 - 4 * 4, cit.recordsleft);
+	}
+	@Test
+	public void should_retain_iteration_order() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(4);
+		CIT cit = new CIT(64);
+		BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(cit, n -> {
+			try {
+				Thread.sleep(n % 7);
+			} catch (InterruptedException e) {
+			}
+			return n;
+		}, 3, 8, threadpool);
+		for (int i = 64; i > 0; i--) assertEquals(i, (int)it.next());
+		threadpool.shutdown();
+	}
+	@Test
+	public void should_propagate_transform_exception() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(2);
+		BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(new CIT(16), n -> {
+			if (n == 8) throw new IllegalStateException();
+			return n;
+		}, 2, 2, threadpool);
+		try {
+			while (it.hasNext()) it.next();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		threadpool.shutdown();
+	}
+	@Test(timeout = 10000)
+	public void should_fail_fast_after_transform_exception() {
+		ExecutorService threadpool = Executors.newFixedThreadPool(2);
+		BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(new CIT(16), n -> {
+			if (n == 8) throw new ArithmeticException();
+			return n;
+		}, 2, 2, threadpool);
+		try {
+			while (it.hasNext()) it.next();
+			fail();
+		} catch (ArithmeticException e) {
+		}
+		try {
+			it.hasNext();
+			fail();
+		} catch (IllegalStateException e) {
+			assertTrue(e.getCause() instanceof ArithmeticException);
+		}
+		try {
+			it.next();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		threadpool.shutdown();
+	}
+	@Test
+	public void should_limit_bytes_in_flight() {
+		CIT cit = new CIT(64);
+		BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(cit, n -> n, 4, 8, n -> 10, 50, Runnable::run);
+		assertEquals(64, (int)it.next());
+		// second batch is truncated once the 50 byte limit is reached
+		// then a third batch is dispatched once the first batch is returned
+		assertEquals(64 - 4 - 1 - 4, cit.recordsleft);
+		assertEquals(50, it.getBytesInFlight());
+		assertEquals(2, it.getBatchesInFlight());
+		for (int i = 63; i > 0; i--) assertEquals(i, (int)it.next());
+		assertFalse(it.hasNext());
+	}
+	@Test
+	public void should_dispatch_records_larger_than_byte_limit() {
+		List<Integer> list = Ints.asList(0, 1, 2, 3);
+		BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(list.iterator(), n -> n, 2, 2, n -> 1000, 10, Runnable::run);
+		assertEquals(list, Lists.newArrayList(it));
+	}
+	@Test
+	public void close_should_stop_iteration_and_close_underlying() {
+		CIT cit = new CIT(64);
+		BatchedParallelTransformIterator<Integer, Integer> it = new BatchedParallelTransformIterator<>(cit, n -> n, 4, 2, Runnable::run);
+		it.next();
+		it.close();
+		assertFalse(it.hasNext());
+		assertTrue(cit.isClosed);
+	}
+}
@@ -45,4 +45,17 @@ public class DensityThrottlingIteratorTest {
 		List<Integer> result = Lists.newArrayList(new IntDensityThrottlingIterator(input.iterator(), 4, 2.0, 4.0));
 		assertEquals(2048, result.size(), 64);
 	}
+	@Test
+	public void density_scale_should_tighten_throttle() {
+		List<Integer> input = new ArrayList<Integer>();
+		for (int i = 0; i < 1024; i++) {
+			for (int j = 0; j < 32; j++) {
+				input.add(i);
+			}
+		}
+		IntDensityThrottlingIterator it = new IntDensityThrottlingIterator(input.iterator(), 4, 2.0, 4.0);
+		it.setDensityScale(0.5);
+		List<Integer> result = Lists.newArrayList(it);
+		assertEquals(1024, result.size(), 64);
+	}
 }
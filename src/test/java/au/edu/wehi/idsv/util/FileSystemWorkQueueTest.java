@@ -0,0 +1,98 @@
+package au.edu.wehi.idsv.util;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class FileSystemWorkQueueTest {
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	@Test
+	public void should_allow_only_single_claim() throws IOException {
+		try (FileSystemWorkQueue q1 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			try (FileSystemWorkQueue q2 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+				assertTrue(q1.tryClaim("a"));
+				assertFalse(q2.tryClaim("a"));
+				assertTrue(q2.tryClaim("b"));
+				assertTrue(q1.isClaimed("b"));
+			}
+		}
+	}
+	@Test
+	public void should_allow_claim_after_release() throws IOException {
+		try (FileSystemWorkQueue q1 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			try (FileSystemWorkQueue q2 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+				assertTrue(q1.tryClaim("a"));
+				q1.release("a");
+				assertFalse(q1.isClaimed("a"));
+				assertTrue(q2.tryClaim("a"));
+			}
+		}
+	}
+	@Test
+	public void should_reclaim_expired_lease() throws IOException {
+		try (FileSystemWorkQueue q1 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			try (FileSystemWorkQueue q2 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+				assertTrue(q1.tryClaim("a"));
+				q1.getLeaseFile("a").setLastModified(System.currentTimeMillis() - 120000);
+				assertFalse(q2.isClaimed("a"));
+				assertTrue(q2.tryClaim("a"));
+				// q1 should not remove the lease now held by q2
+				q1.release("a");
+				assertTrue(q2.isClaimed("a"));
+			}
+		}
+	}
+	@Test
+	public void should_not_allow_multiple_claims_from_same_process() throws IOException {
+		try (FileSystemWorkQueue q1 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			assertTrue(q1.tryClaim("a"));
+			assertFalse(q1.tryClaim("a"));
+			q1.release("a");
+			assertTrue(q1.tryClaim("a"));
+		}
+	}
+	@Test
+	public void should_allow_only_single_reclaim_of_expired_lease() throws Exception {
+		try (FileSystemWorkQueue q1 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000)) {
+			assertTrue(q1.tryClaim("a"));
+			q1.getLeaseFile("a").setLastModified(System.currentTimeMillis() - 120000);
+			List<FileSystemWorkQueue> queues = new ArrayList<>();
+			ExecutorService threadpool = Executors.newFixedThreadPool(8);
+			try {
+				List<Future<Boolean>> claims = new ArrayList<>();
+				for (int i = 0; i < 32; i++) {
+					FileSystemWorkQueue q = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000);
+					queues.add(q);
+					claims.add(threadpool.submit(() -> q.tryClaim("a")));
+				}
+				int successful = 0;
+				for (Future<Boolean> f : claims) {
+					if (f.get()) successful++;
+				}
+				assertEquals(1, successful);
+			} finally {
+				threadpool.shutdown();
+				for (FileSystemWorkQueue q : queues) {
+					q.close();
+				}
+			}
+		}
+	}
+	@Test
+	public void close_should_release_leases() throws IOException {
+		FileSystemWorkQueue q1 = new FileSystemWorkQueue(testFolder.getRoot(), "test", 60000);
+		assertTrue(q1.tryClaim("a"));
+		q1.close();
+		assertFalse(q1.getLeaseFile("a").exists());
+	}
+}
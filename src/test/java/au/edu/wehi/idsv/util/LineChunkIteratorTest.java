@@ -0,0 +1,50 @@
+package au.edu.wehi.idsv.util;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class LineChunkIteratorTest {
+	private static List<byte[]> chunks(String s, int chunkSize) {
+		return Lists.newArrayList(new LineChunkIterator(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)), chunkSize));
+	}
+	private static String concat(List<byte[]> chunks) {
+		StringBuilder sb = new StringBuilder();
+		for (byte[] chunk : chunks) {
+			sb.append(new String(chunk, StandardCharsets.UTF_8));
+		}
+		return sb.toString();
+	}
+	@Test
+	public void should_split_on_line_boundaries() {
+		String s = "a\nbb\nccc\ndddd\n";
+		for (int chunkSize = 1; chunkSize < s.length() + 2; chunkSize++) {
+			List<byte[]> chunks = chunks(s, chunkSize);
+			Assert.assertEquals(s, concat(chunks));
+			for (byte[] chunk : chunks) {
+				Assert.assertEquals('\n', chunk[chunk.length - 1]);
+			}
+		}
+	}
+	@Test
+	public void should_return_final_line_without_newline() {
+		List<byte[]> chunks = chunks("a\nbb", 3);
+		Assert.assertEquals(2, chunks.size());
+		Assert.assertEquals("a\n", new String(chunks.get(0), StandardCharsets.UTF_8));
+		Assert.assertEquals("bb", new String(chunks.get(1), StandardCharsets.UTF_8));
+	}
+	@Test
+	public void should_group_lines_up_to_chunk_size() {
+		List<byte[]> chunks = chunks("a\nb\nc\nd\n", 5);
+		Assert.assertEquals(2, chunks.size());
+		Assert.assertEquals("a\nb\n", new String(chunks.get(0), StandardCharsets.UTF_8));
+	}
+	@Test
+	public void should_handle_empty_input() {
+		Assert.assertEquals(0, chunks("", 16).size());
+	}
+}
@@ -0,0 +1,79 @@
+package au.edu.wehi.idsv.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+
+public class PartitioningIterableTest {
+	@Test
+	public void should_route_records_to_partition() {
+		List<Integer> list = ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7);
+		PartitioningIterable<Integer> pi = new PartitioningIterable<>(2, list.iterator(), i -> i % 2, 1, 8);
+		Iterator<Integer> even = pi.iterator(0);
+		Iterator<Integer> odd = pi.iterator(1);
+		assertEquals(0, (int)even.next());
+		assertEquals(1, (int)odd.next());
+		assertEquals(ImmutableList.of(2, 4, 6), Lists.newArrayList(even));
+		assertEquals(ImmutableList.of(3, 5, 7), Lists.newArrayList(odd));
+	}
+	@Test
+	public void should_discard_records_with_negative_partition() {
+		List<Integer> list = ImmutableList.of(0, 1, 2, 3, 4, 5, 6, 7);
+		PartitioningIterable<Integer> pi = new PartitioningIterable<>(1, list.iterator(), i -> i < 4 ? -1 : 0, 2, 1);
+		assertEquals(ImmutableList.of(4, 5, 6, 7), Lists.newArrayList(pi.iterator(0)));
+	}
+	@Test
+	public void should_flush_partial_batches() throws InterruptedException {
+		List<Integer> list = IntStream.range(0, 1000).boxed().collect(Collectors.toList());
+		PartitioningIterable<Integer> pi = new PartitioningIterable<>(3, list.iterator(), i -> i % 3, 64, 2);
+		ConsumerThread t0 = new ConsumerThread(pi.iterator(0));
+		ConsumerThread t1 = new ConsumerThread(pi.iterator(1));
+		List<Integer> p2 = Lists.newArrayList(pi.iterator(2));
+		t0.join();
+		t1.join();
+		assertEquals(334, t0.result.size());
+		assertEquals(333, t1.result.size());
+		assertEquals(333, p2.size());
+		assertEquals(list.stream().filter(i -> i % 3 == 1).collect(Collectors.toList()), t1.result);
+	}
+	@Test
+	public void should_propagate_underlying_iterator_exception() {
+		Iterator<Integer> it = new Iterator<Integer>() {
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+			@Override
+			public Integer next() {
+				throw new IllegalStateException();
+			}
+		};
+		PartitioningIterable<Integer> pi = new PartitioningIterable<>(1, it, i -> 0, 1, 1);
+		try {
+			pi.iterator(0).hasNext();
+			fail();
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+	private static class ConsumerThread extends Thread {
+		private final Iterator<Integer> it;
+		private List<Integer> result;
+		public ConsumerThread(Iterator<Integer> it) {
+			this.it = it;
+			start();
+		}
+		@Override
+		public void run() {
+			result = Lists.newArrayList(it);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package au.edu.wehi.idsv.vcf;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.GenotypeBuilder;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BinaryVcfCodecTest {
+	private static final File[] VCFS = new File[] {
+			new File("src/test/resources/colo829_1.gridss.somatic.vcf"),
+			new File("src/test/resources/gridss294.colo829.somatic.vcf"),
+	};
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+	private static VCFHeader readHeader(File file) {
+		try (VCFFileReader reader = new VCFFileReader(file, false)) {
+			return reader.getFileHeader();
+		}
+	}
+	private static List<VariantContext> read(File file) {
+		try (CloseableIterator<VariantContext> it = VcfFileUtil.open(file).iterator()) {
+			return Lists.newArrayList(it);
+		}
+	}
+	private File write(VCFHeader header, List<VariantContext> records, String name) {
+		File file = new File(testFolder.getRoot(), name + VcfFileUtil.BINARY_VCF_SUFFIX);
+		try (BinaryVcfWriter writer = new BinaryVcfWriter(file)) {
+			writer.writeHeader(header);
+			for (VariantContext vc : records) {
+				writer.add(vc);
+			}
+		}
+		return file;
+	}
+	private static void assertSameVcf(VCFHeader header, List<VariantContext> expected, List<VariantContext> actual) {
+		VCFEncoder encoder = new VCFEncoder(header, false, false);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(encoder.encode(expected.get(i)), encoder.encode(actual.get(i)));
+		}
+	}
+	@Test
+	public void should_round_trip_vcf_records() {
+		for (File vcf : VCFS) {
+			VCFHeader header = readHeader(vcf);
+			List<VariantContext> records = read(vcf);
+			File file = write(header, records, vcf.getName());
+			try (BinaryVcfReader reader = new BinaryVcfReader(file)) {
+				assertEquals(header.getInfoHeaderLines().size(), reader.getHeader().getInfoHeaderLines().size());
+				assertEquals(header.getGenotypeSamples(), reader.getHeader().getGenotypeSamples());
+			}
+			assertSameVcf(header, records, read(file));
+		}
+	}
+	@Test
+	public void should_retain_attribute_types_and_precision() {
+		VCFHeader header = readHeader(VCFS[1]);
+		List<String> samples = header.getGenotypeSamples();
+		Allele ref = Allele.create("T", true);
+		Allele alt = Allele.create("T[7:110394461[", false);
+		VariantContext vc = new VariantContextBuilder("test", "7", 100, 100, ImmutableList.of(ref, alt))
+				.id("bp1")
+				.log10PError(-1.0 / 3)
+				.filters(ImmutableSet.of("LOW_QUAL", "NOT_IN_HEADER"))
+				.attribute("ASQ", 1.0 / 3)
+				.attribute("SR", 7)
+				.attribute("BEID", ImmutableList.of("asm1", "asm2"))
+				.attribute("CIPOS", new int[] { -3, 3 })
+				.attribute("IMPRECISE", true)
+				.attribute("LOCAL_LINKED_BY", null)
+				.attribute("NOT_IN_HEADER", "value")
+				.genotypes(
+						new GenotypeBuilder(samples.get(0), ImmutableList.of(Allele.NO_CALL)).attribute("ASQ", 2.0 / 3).attribute("SR", 3).make(),
+						new GenotypeBuilder(samples.get(1), ImmutableList.of(ref, alt)).phased(true).GQ(30).DP(12).AD(new int[] { 5, 7 }).PL(new int[] { 0, 10, 100 }).filter("GFILTER").make())
+				.make();
+		VariantContext unfiltered = new VariantContextBuilder(vc).unfiltered().rmAttribute("NOT_IN_HEADER").noID().log10PError(VariantContext.NO_LOG10_PERROR).noGenotypes().make();
+		VariantContext pass = new VariantContextBuilder(unfiltered).passFilters().make();
+		List<VariantContext> actual = read(write(header, ImmutableList.of(vc, unfiltered, pass), "types"));
+		VariantContext result = actual.get(0);
+		assertEquals(1.0 / 3, (Double)result.getAttribute("ASQ"), 0);
+		assertEquals(7, result.getAttribute("SR"));
+		assertEquals(ImmutableList.of("asm1", "asm2"), result.getAttribute("BEID"));
+		assertEquals(ImmutableList.of(-3, 3), result.getAttribute("CIPOS"));
+		assertEquals(true, result.getAttribute("IMPRECISE"));
+		assertTrue(result.hasAttribute("LOCAL_LINKED_BY"));
+		assertNull(result.getAttribute("LOCAL_LINKED_BY"));
+		assertEquals("value", result.getAttribute("NOT_IN_HEADER"));
+		assertEquals(vc.getLog10PError(), result.getLog10PError(), 0);
+		assertEquals(vc.getFilters(), result.getFilters());
+		assertEquals(2.0 / 3, (Double)result.getGenotype(samples.get(0)).getExtendedAttribute("ASQ"), 0);
+		assertEquals(vc.getGenotype(samples.get(1)).toString(), result.getGenotype(samples.get(1)).toString());
+		assertFalse(actual.get(1).filtersWereApplied());
+		assertFalse(actual.get(1).hasLog10PError());
+		assertFalse(actual.get(1).hasGenotypes());
+		assertTrue(actual.get(2).filtersWereApplied());
+		assertFalse(actual.get(2).isFiltered());
+		assertSameVcf(header, ImmutableList.of(unfiltered, pass), actual.subList(1, 3));
+	}
+	@Test
+	public void codec_should_support_sorting_collection_usage() {
+		VCFHeader header = readHeader(VCFS[0]);
+		List<VariantContext> records = read(VCFS[0]);
+		BinaryVcfCodec codec = new BinaryVcfCodec(header);
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		codec.setOutputStream(os);
+		for (VariantContext vc : records) {
+			codec.encode(vc);
+		}
+		BinaryVcfCodec decoder = codec.clone();
+		decoder.setInputStream(new ByteArrayInputStream(os.toByteArray()));
+		List<VariantContext> actual = new ArrayList<>();
+		for (VariantContext vc = decoder.decode(); vc != null; vc = decoder.decode()) {
+			actual.add(vc);
+		}
+		assertSameVcf(header, records, actual);
+	}
+	@Test
+	public void concat_should_copy_records() throws IOException {
+		VCFHeader header = readHeader(VCFS[0]);
+		List<VariantContext> records = read(VCFS[0]);
+		int split = records.size() / 3;
+		List<File> input = ImmutableList.of(
+				write(header, records.subList(0, split), "a"),
+				write(header, ImmutableList.of(), "b"),
+				write(header, records.subList(split, records.size()), "c"));
+		File binaryOutput = new File(testFolder.getRoot(), "out" + VcfFileUtil.BINARY_VCF_SUFFIX);
+		VcfFileUtil.concat(header.getSequenceDictionary(), input, binaryOutput);
+		assertSameVcf(header, records, read(binaryOutput));
+		File vcfOutput = new File(testFolder.getRoot(), "out.vcf");
+		VcfFileUtil.concat(header.getSequenceDictionary(), input, vcfOutput);
+		assertSameVcf(header, records, read(vcfOutput));
+	}
+	@Test(expected=IllegalArgumentException.class)
+	public void concat_should_require_matching_headers() throws IOException {
+		List<File> input = ImmutableList.of(
+				write(readHeader(VCFS[0]), ImmutableList.of(), "a"),
+				write(readHeader(VCFS[1]), ImmutableList.of(), "b"));
+		VcfFileUtil.concat(null, input, new File(testFolder.getRoot(), "out" + VcfFileUtil.BINARY_VCF_SUFFIX));
+	}
+}
@@ -1,14 +1,80 @@
 package au.edu.wehi.idsv.vcf;
 
 import au.edu.wehi.idsv.TestHelper;
+import au.edu.wehi.idsv.alignment.StreamingAligner;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.fastq.FastqRecord;
+import htsjdk.variant.variantcontext.VariantContext;
 import org.junit.Assert;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class InsertedSequenceAnnotatorTest extends TestHelper {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+    /**
+     * Aligns each sequence to a contig named after the sequence
+     */
+    private static class SequenceNameAligner implements StreamingAligner {
+        private final Queue<SAMRecord> out = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final List<String> aligned = new ArrayList<>();
+        @Override
+        public synchronized void asyncAlign(FastqRecord fq) throws IOException {
+            aligned.add(fq.getReadString());
+            SAMRecord r = new SAMRecord(null);
+            r.setReadName(fq.getReadName());
+            r.setReferenceName(fq.getReadString());
+            r.setAlignmentStart(1);
+            r.setCigarString(fq.getReadLength() + "M");
+            r.setMappingQuality(60);
+            out.add(r);
+        }
+        @Override
+        public void flush() throws IOException { }
+        @Override
+        public int processedAlignmentRecords() {
+            return out.size();
+        }
+        @Override
+        public int outstandingAlignmentRecord() {
+            return 0;
+        }
+        @Override
+        public SAMRecord getAlignment() {
+            return out.poll();
+        }
+        @Override
+        public void close() throws IOException { }
+    }
+    private File writeVcf(List<String> alts) throws IOException {
+        List<String> lines = Lists.newArrayList(
+                "##fileformat=VCFv4.2",
+                "##contig=<ID=chr1,length=10000>",
+                "##INFO=<ID=BEALN,Number=.,Type=String,Description=\"Breakend alignments\">",
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        for (int i = 0; i < alts.size(); i++) {
+            lines.add(String.format("chr1\t%d\tbe%d\tA\t%s\t.\t.\t.", i + 1, i, alts.get(i)));
+        }
+        File file = new File(testFolder.getRoot(), "ins.vcf");
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+        return file;
+    }
     @Test
     public void should_replace_pipes_with_underscores() {
         SAMRecord r = new SAMRecord(null);
@@ -22,4 +88,47 @@ public class InsertedSequenceAnnotatorTest extends TestHelper {
         Assert.assertEquals("with_pipe:1|+|50M|5", result.get(0));
         Assert.assertEquals("chr_piped:5|-|50M|", result.get(1));
     }
-}
\ No newline at end of file
+    @Test
+    public void should_align_each_distinct_sequence_once() throws IOException {
+        String a = "AAAAACCCCC";
+        String c = "CCCCCGGGGG";
+        String g = "GGGGGTTTTT";
+        List<String> seqs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            seqs.add(ImmutableList.of(a, c, g, "AC").get(i % 4));
+        }
+        List<String> alts = new ArrayList<>();
+        for (int i = 0; i < seqs.size(); i++) {
+            alts.add(i % 2 == 0 ? "A" + seqs.get(i) + "." : "A" + seqs.get(i) + "[chr1:5000[");
+        }
+        File vcf = writeVcf(alts);
+        ExecutorService threadpool = Executors.newFixedThreadPool(4);
+        try {
+            for (int cacheSize : new int[] { 1, 2, 3, 100 }) {
+                SequenceNameAligner aligner = new SequenceNameAligner();
+                List<VariantContext> result;
+                try (InsertedSequenceAnnotator ann = new InsertedSequenceAnnotator(vcf, aligner, 5, true, false, 7, 4, cacheSize, threadpool)) {
+                    result = Lists.newArrayList(ann);
+                }
+                Assert.assertEquals(seqs.size(), result.size());
+                for (int i = 0; i < seqs.size(); i++) {
+                    VariantContext vc = result.get(i);
+                    Assert.assertEquals("be" + i, vc.getID());
+                    String seq = seqs.get(i);
+                    if (seq.length() < 5) {
+                        Assert.assertFalse(vc.hasAttribute(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute()));
+                    } else {
+                        Assert.assertEquals(ImmutableList.of(seq + ":1|+|10M|60"), vc.getAttributeAsStringList(VcfInfoAttributes.BREAKEND_ALIGNMENTS.attribute(), null));
+                    }
+                }
+                if (cacheSize >= 3) {
+                    Assert.assertEquals(ImmutableList.of(a, c, g), aligner.aligned);
+                } else {
+                    Assert.assertEquals(150, aligner.aligned.size());
+                }
+            }
+        } finally {
+            threadpool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package gridss;
+
+import au.edu.wehi.idsv.*;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.variant.variantcontext.VariantContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnnotateReferenceCoverageTest extends IntermediateFilesTest {
+	private File annotate(ProcessingContext pc, SAMEvidenceSource ses, File vcf, boolean chunked, String name) throws IOException, InterruptedException, ExecutionException {
+		AnnotateReferenceCoverage cmd = new AnnotateReferenceCoverage();
+		cmd.setContext(pc);
+		cmd.setSamEvidenceSources(ImmutableList.of(ses));
+		cmd.setAssemblySource(ImmutableList.of());
+		cmd.INPUT_VCF = vcf;
+		cmd.OUTPUT_VCF = new File(testFolder.getRoot(), name);
+		cmd.CHUNKED = chunked;
+		cmd.WORKER_THREADS = 4;
+		assertEquals(0, cmd.doWork(MoreExecutors.newDirectExecutorService()));
+		return cmd.OUTPUT_VCF;
+	}
+	@Test
+	public void chunked_annotation_should_match_sequential_annotation() throws IOException, InterruptedException, ExecutionException {
+		ProcessingContext pc = getCommandlineContext();
+		pc.getConfig().chunkSize = 500;
+		assertTrue(pc.getReference().getIntervals(pc.getConfig().chunkSize, pc.getConfig().chunkSequenceChangePenalty).size() > 1);
+		List<SAMRecord> reads = new ArrayList<>();
+		for (int pos = 1; pos < 1800; pos += 37) {
+			reads.add(Read(1, pos, "50M"));
+			for (SAMRecord r : RP(1, pos, pos + 200, 50)) {
+				reads.add(r);
+			}
+		}
+		createInput(reads);
+		SAMEvidenceSource ses = new SAMEvidenceSource(pc, input, null, 0);
+		ses.ensureMetrics();
+		List<VariantContext> calls = new ArrayList<>();
+		int i = 0;
+		for (int pos = 100; pos < 1900; pos += 97) {
+			BreakendSummary be = new BreakendSummary(1, i % 2 == 0 ? FWD : BWD, pos);
+			String id = "be" + i++;
+			calls.add(new IdsvVariantContextBuilder(pc) {{
+				breakend(be, "");
+				id(id);
+				phredScore(10);
+			}}.make());
+		}
+		File vcf = new File(testFolder.getRoot(), "calls.vcf");
+		createVCF(pc, vcf, calls.toArray(new VariantContext[0]));
+
+		File sequential = annotate(pc, ses, vcf, false, "sequential.vcf");
+		File chunked = annotate(pc, ses, vcf, true, "chunked.vcf");
+		List<String> expected = getRawVcf(sequential).stream().map(VariantContext::toString).collect(Collectors.toList());
+		List<String> actual = getRawVcf(chunked).stream().map(VariantContext::toString).collect(Collectors.toList());
+		assertEquals(calls.size(), expected.size());
+		assertEquals(expected, actual);
+		assertTrue(getRawVcf(sequential).stream().anyMatch(v -> v.getAttributeAsInt("REF", 0) > 0));
+	}
+}
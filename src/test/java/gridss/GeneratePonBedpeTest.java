@@ -3,20 +3,27 @@ package gridss;
 import au.edu.wehi.idsv.Hg19Tests;
 import au.edu.wehi.idsv.IdsvVariantContext;
 import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.PonIndex;
 import au.edu.wehi.idsv.ProcessingContext;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Streams;
+import htsjdk.tribble.Tribble;
+import htsjdk.tribble.index.IndexFactory;
+import htsjdk.variant.vcf.VCFCodec;
 import org.apache.commons.math3.util.Pair;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class GeneratePonBedpeTest extends IntermediateFilesTest {
@@ -150,4 +157,115 @@ public class GeneratePonBedpeTest extends IntermediateFilesTest {
         assertEquals(S(Files.readAllBytes(out_bed.toPath())), S(Files.readAllBytes(out2_bed.toPath())));
         assertEquals(S(Files.readAllBytes(out_bedpe.toPath())), S(Files.readAllBytes(out2_bedpe.toPath())));
     }
-}
\ No newline at end of file
+    private static final String SMALL_VCF = String.join("\n",
+            "##fileformat=VCFv4.2",
+            "##contig=<ID=polyA,length=10000>",
+            "##contig=<ID=polyACGT,length=10000>",
+            "##contig=<ID=random,length=10000>",
+            "##contig=<ID=Npower2,length=10000>",
+            "##contig=<ID=REF,length=10000>",
+            "##contig=<ID=REF2,length=10000>",
+            "##contig=<ID=homology,length=9996>",
+            "##contig=<ID=decoy,length=10000>",
+            "##INFO=<ID=MATEID,Number=.,Type=String,Description=\"ID of mate breakend\">",
+            "##INFO=<ID=SVTYPE,Number=1,Type=String,Description=\"Type of structural variant\">",
+            "##FORMAT=<ID=QUAL,Number=1,Type=Float,Description=\"Breakpoint quality\">",
+            "##FORMAT=<ID=BQ,Number=1,Type=Float,Description=\"Breakend quality\">",
+            "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tnormal\ttumour",
+            "polyA\t100\tbp1o\tN\tN[polyACGT:200[\t100\t.\tMATEID=bp1h;SVTYPE=BND\tQUAL:BQ\t100:100\t100:100",
+            "polyA\t500\tbe1\tN\tN.\t500\t.\tSVTYPE=BND\tQUAL:BQ\t0:500\t0:500",
+            "polyA\t1000\tbp2o\tN\tN]polyA:2000]\t100\t.\tMATEID=bp2h;SVTYPE=BND\tQUAL:BQ\t100:100\t100:100",
+            "polyA\t2000\tbp2h\tN\tN]polyA:1000]\t100\t.\tMATEID=bp2o;SVTYPE=BND\tQUAL:BQ\t100:100\t100:100",
+            "polyACGT\t200\tbp1h\tN\t]polyA:100]N\t100\t.\tMATEID=bp1o;SVTYPE=BND\tQUAL:BQ\t100:100\t100:100",
+            "random\t300\tbe2\tN\t.N\t500\t.\tSVTYPE=BND\tQUAL:BQ\t0:500\t0:500",
+            "random\t400\tbp3o\tN\tN[decoy:50[\t10\t.\tMATEID=bp3h;SVTYPE=BND\tQUAL:BQ\t10:10\t10:10",
+            "REF\t50\tbp4o\tN\tN[decoy:60[\t100\t.\tMATEID=bp4h;SVTYPE=BND\tQUAL:BQ\t100:100\t100:100",
+            "decoy\t50\tbp3h\tN\t]random:400]N\t10\t.\tMATEID=bp3o;SVTYPE=BND\tQUAL:BQ\t10:10\t10:10",
+            "decoy\t60\tbp4h\tN\t]REF:50]N\t100\t.\tMATEID=bp4o;SVTYPE=BND\tQUAL:BQ\t100:100\t100:100",
+            "");
+    @Test
+    public void should_match_sequential_pon_when_processing_small_indexed_vcf_per_contig() throws IOException {
+        File vcf = new File(testFolder.getRoot(), "small.vcf");
+        Files.write(vcf.toPath(), SMALL_VCF.getBytes(StandardCharsets.US_ASCII));
+        IndexFactory.writeIndex(IndexFactory.createDynamicIndex(vcf, new VCFCodec()), Tribble.indexFile(vcf));
+        File existing_bed = new File(testFolder.getRoot(), "existing.bed");
+        File existing_bedpe = new File(testFolder.getRoot(), "existing.bedpe");
+        File out_bed = new File(testFolder.getRoot(), "out.bed");
+        File out_bedpe = new File(testFolder.getRoot(), "out.bedpe");
+        File out2_bed = new File(testFolder.getRoot(), "out2.bed");
+        File out2_bedpe = new File(testFolder.getRoot(), "out2.bedpe");
+        assertEquals(0, new GeneratePonBedpe().instanceMain(new String[] {
+                "INPUT=" + vcf.getAbsolutePath(),
+                "OUTPUT_BED=" + existing_bed.getAbsolutePath(),
+                "OUTPUT_BEDPE=" + existing_bedpe.getAbsolutePath(),
+                "NORMAL_ORDINAL=0",
+                "THREADS=1",
+                "R=" + SMALL_FA_FILE.getAbsolutePath()
+        }));
+        assertEquals(0, new GeneratePonBedpe().instanceMain(new String[] {
+                "INPUT=" + vcf.getAbsolutePath(),
+                "INPUT_BED=" + existing_bed.getAbsolutePath(),
+                "INPUT_BEDPE=" + existing_bedpe.getAbsolutePath(),
+                "OUTPUT_BED=" + out_bed.getAbsolutePath(),
+                "OUTPUT_BEDPE=" + out_bedpe.getAbsolutePath(),
+                "NORMAL_ORDINAL=0",
+                "NORMAL_ORDINAL=1",
+                "THREADS=1",
+                "R=" + SMALL_FA_FILE.getAbsolutePath()
+        }));
+        assertEquals(0, new GeneratePonBedpe().instanceMain(new String[] {
+                "INPUT=" + vcf.getAbsolutePath(),
+                "INPUT_BED=" + existing_bed.getAbsolutePath(),
+                "INPUT_BEDPE=" + existing_bedpe.getAbsolutePath(),
+                "OUTPUT_BED=" + out2_bed.getAbsolutePath(),
+                "OUTPUT_BEDPE=" + out2_bedpe.getAbsolutePath(),
+                "NORMAL_ORDINAL=0",
+                "NORMAL_ORDINAL=1",
+                "THREADS=4",
+                "R=" + SMALL_FA_FILE.getAbsolutePath()
+        }));
+        List<String> bedpe = Files.readAllLines(out_bedpe.toPath());
+        List<String> bed = Files.readAllLines(out_bed.toPath());
+        // breakpoints on 3 chromosomes, single breakends on 2 chromosomes, low quality breakpoint filtered
+        assertEquals(3, bedpe.size());
+        assertEquals(2, bed.size());
+        assertTrue(bedpe.stream().allMatch(s -> s.split("\t")[7].equals("3")));
+        assertEquals(bedpe, Files.readAllLines(out2_bedpe.toPath()));
+        assertEquals(bed, Files.readAllLines(out2_bed.toPath()));
+        assertFalse(Arrays.stream(testFolder.getRoot().listFiles()).anyMatch(f -> f.getName().startsWith("gridss.tmp.")));
+    }
+    @Test
+    @Category(Hg19Tests.class)
+    public void should_match_sequential_pon_when_processing_indexed_vcfs_per_contig() throws IOException {
+        File indexedVcf = new File(testFolder.getRoot(), "indexed.vcf");
+        Files.copy(colo829.toPath(), indexedVcf.toPath());
+        IndexFactory.writeIndex(IndexFactory.createDynamicIndex(indexedVcf, new VCFCodec()), Tribble.indexFile(indexedVcf));
+        File out_bed = new File(testFolder.getRoot(), "out.bed");
+        File out_bedpe = new File(testFolder.getRoot(), "out.bedpe");
+        File out2_bed = new File(testFolder.getRoot(), "out2.bed");
+        File out2_bedpe = new File(testFolder.getRoot(), "out2.bedpe");
+        File out2_index = new File(testFolder.getRoot(), "out2.pon.idx");
+        new GeneratePonBedpe().instanceMain(new String[] {
+                "INPUT=" + colo829.getAbsolutePath(),
+                "OUTPUT_BED=" + out_bed.getAbsolutePath(),
+                "OUTPUT_BEDPE=" + out_bedpe.getAbsolutePath(),
+                "NORMAL_ORDINAL=1",
+                "THREADS=1",
+                "R=" + Hg19Tests.findBroadHg19Reference().getAbsolutePath()
+        });
+        new GeneratePonBedpe().instanceMain(new String[] {
+                "INPUT=" + indexedVcf.getAbsolutePath(),
+                "OUTPUT_BED=" + out2_bed.getAbsolutePath(),
+                "OUTPUT_BEDPE=" + out2_bedpe.getAbsolutePath(),
+                "OUTPUT_INDEX=" + out2_index.getAbsolutePath(),
+                "NORMAL_ORDINAL=1",
+                "THREADS=4",
+                "R=" + Hg19Tests.findBroadHg19Reference().getAbsolutePath()
+        });
+        assertEquals(S(Files.readAllBytes(out_bed.toPath())), S(Files.readAllBytes(out2_bed.toPath())));
+        assertEquals(S(Files.readAllBytes(out_bedpe.toPath())), S(Files.readAllBytes(out2_bedpe.toPath())));
+        PonIndex index = PonIndex.load(out2_index);
+        assertEquals(Files.readAllLines(out2_bedpe.toPath()).size(), index.getBreakpointSize());
+        assertEquals(Files.readAllLines(out2_bed.toPath()).size(), index.getBreakendSize());
+    }
+}
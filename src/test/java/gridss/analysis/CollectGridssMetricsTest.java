@@ -1,13 +1,20 @@
 package gridss.analysis;
 
 import au.edu.wehi.idsv.IntermediateFilesTest;
+import com.google.common.collect.ImmutableList;
 import gridss.cmdline.CommandLineProgramHelper;
 import org.junit.Ignore;
 import org.junit.Test;
+import picard.analysis.SinglePassSamProgram;
+import picard.cmdline.argumentcollections.RequiredOutputArgumentCollection;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 public class CollectGridssMetricsTest extends IntermediateFilesTest {
@@ -36,5 +43,45 @@ public class CollectGridssMetricsTest extends IntermediateFilesTest {
 		cmd.run();
 		assertTrue(new File(prefix + ".mapq_histogram.pdf").exists());
 	}
+	private List<SinglePassSamProgram> createPrograms(File input, String prefix) {
+		CollectCigarMetrics cigar = new CollectCigarMetrics();
+		cigar.output = new RequiredOutputArgumentCollection(new File(prefix + CollectCigarMetrics.METRICS_SUFFIX));
+		CollectIdsvMetrics idsv = new CollectIdsvMetrics();
+		idsv.output = new RequiredOutputArgumentCollection(new File(prefix + CollectIdsvMetrics.METRICS_SUFFIX));
+		CollectMapqMetrics mapq = new CollectMapqMetrics();
+		mapq.output = new RequiredOutputArgumentCollection(new File(prefix + CollectMapqMetrics.METRICS_SUFFIX));
+		CollectTagMetrics tag = new CollectTagMetrics();
+		tag.output = new RequiredOutputArgumentCollection(new File(prefix + CollectTagMetrics.METRICS_SUFFIX));
+		// requires coordinate order so is not sharded
+		ReportThresholdCoverage coverage = new ReportThresholdCoverage();
+		coverage.THRESHOLD_COVERAGE = 2;
+		coverage.output = new RequiredOutputArgumentCollection(new File(prefix + ReportThresholdCoverage.SUFFIX));
+		List<SinglePassSamProgram> programs = ImmutableList.of(cigar, idsv, mapq, tag, coverage);
+		for (SinglePassSamProgram p : programs) {
+			p.INPUT = input;
+		}
+		return programs;
+	}
+	private static List<String> readMetrics(File file) throws IOException {
+		// ignore header lines containing the command line and timestamp
+		return Files.readAllLines(file.toPath()).stream()
+				.filter(line -> !line.startsWith("#"))
+				.collect(Collectors.toList());
+	}
+	@Test
+	public void sharded_metrics_should_match_single_pass() throws IOException {
+		File input = new File("src/test/resources/203541.bam");
+		String singlePrefix = new File(testFolder.getRoot(), "single").getAbsolutePath();
+		String shardedPrefix = new File(testFolder.getRoot(), "sharded").getAbsolutePath();
+		SinglePassSamProgram.makeItSo(input, null, true, 0, 0, createPrograms(input, singlePrefix), true, true, 1);
+		SinglePassSamProgram.makeItSo(input, null, true, 0, 0, createPrograms(input, shardedPrefix), true, true, 4);
+		for (String suffix : ImmutableList.of(CollectCigarMetrics.METRICS_SUFFIX, CollectIdsvMetrics.METRICS_SUFFIX, CollectMapqMetrics.METRICS_SUFFIX, CollectTagMetrics.METRICS_SUFFIX)) {
+			List<String> expected = readMetrics(new File(singlePrefix + suffix));
+			assertTrue(expected.size() > 2);
+			assertEquals(expected, readMetrics(new File(shardedPrefix + suffix)));
+		}
+		List<String> expectedCoverage = readMetrics(new File(singlePrefix + ReportThresholdCoverage.SUFFIX));
+		assertTrue(expectedCoverage.size() > 1);
+		assertEquals(expectedCoverage, readMetrics(new File(shardedPrefix + ReportThresholdCoverage.SUFFIX)));
+	}
 }
-
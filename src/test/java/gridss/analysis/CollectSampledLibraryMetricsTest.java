@@ -0,0 +1,89 @@
+package gridss.analysis;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import au.edu.wehi.idsv.metrics.IdsvSamFileMetrics;
+import gridss.cmdline.CommandLineProgramHelper;
+import htsjdk.samtools.SAMRecord;
+import org.junit.Test;
+import picard.analysis.SinglePassSamProgram;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class CollectSampledLibraryMetricsTest extends IntermediateFilesTest {
+	private void createReadPairs() {
+		Random rng = new Random(0);
+		List<SAMRecord> reads = new ArrayList<>();
+		for (int referenceIndex = 0; referenceIndex < SMALL_FA.getSequenceDictionary().size(); referenceIndex++) {
+			for (int pos = 1; pos < 9000; pos += 20) {
+				int fragmentSize = 300 + (int)(rng.nextGaussian() * 30);
+				for (SAMRecord r : RP(referenceIndex, pos, pos + fragmentSize - 50, 50)) {
+					reads.add(r);
+				}
+			}
+		}
+		createInput(reads);
+	}
+	private IdsvSamFileMetrics run(String name, int minReadPairs) {
+		String prefix = new File(testFolder.getRoot(), name).getAbsolutePath();
+		CommandLineProgramHelper cmd = new CommandLineProgramHelper(new CollectSampledLibraryMetrics());
+		cmd.addArg("I", input.getAbsolutePath());
+		cmd.addArg("O", prefix);
+		cmd.addArg("WINDOW_SIZE", 1000);
+		cmd.addArg("MIN_READ_PAIRS", minReadPairs);
+		cmd.addArg("TOLERANCE", 0.05);
+		cmd.run();
+		assertTrue(new File(prefix + ".insert_size_metrics").exists());
+		assertTrue(new File(prefix + ".idsv_metrics").exists());
+		assertTrue(new File(prefix + ".cigar_metrics").exists());
+		assertTrue(new File(prefix + ".mapq_metrics").exists());
+		return new IdsvSamFileMetrics(
+				new File(prefix + ".insert_size_metrics"),
+				new File(prefix + ".idsv_metrics"),
+				new File(prefix + ".mapq_metrics"),
+				new File(prefix + ".cigar_metrics"),
+				false);
+	}
+	@Test
+	public void should_write_gridss_metrics() throws IOException {
+		createReadPairs();
+		IdsvSamFileMetrics metrics = run("full", Integer.MAX_VALUE);
+		assertNotNull(metrics.getInsertSizeDistribution());
+		assertTrue(metrics.getIdsvMetrics().MAX_READ_LENGTH > 0);
+		assertEquals(8 * 450, metrics.getInsertSizeMetrics().READ_PAIRS);
+	}
+	@Test
+	public void should_stop_early_when_converged() throws IOException {
+		createReadPairs();
+		IdsvSamFileMetrics full = run("full", Integer.MAX_VALUE);
+		IdsvSamFileMetrics sampled = run("sampled", 200);
+		assertTrue(sampled.getInsertSizeMetrics().READ_PAIRS < full.getInsertSizeMetrics().READ_PAIRS);
+		assertEquals(full.getInsertSizeMetrics().MEDIAN_INSERT_SIZE, sampled.getInsertSizeMetrics().MEDIAN_INSERT_SIZE, full.getInsertSizeMetrics().MEDIAN_INSERT_SIZE * 0.05);
+	}
+	@Test
+	public void unindexed_input_should_check_stopping_condition_per_window() throws IOException {
+		createReadPairs();
+		for (File index : new File[] {
+				new File(input.getParentFile(), input.getName().replaceFirst("\\.bam$", ".bai")),
+				new File(input.getAbsolutePath() + ".bai") }) {
+			index.delete();
+		}
+		AtomicInteger checks = new AtomicInteger();
+		long reads = SinglePassSamProgram.makeItSoSampled(input, Collections.emptyList(), 1000, Integer.MAX_VALUE, () -> {
+			checks.incrementAndGet();
+			return false;
+		});
+		assertEquals(8 * 450 * 2, reads);
+		// reads cover 10 windows of each of the 8 contigs; the last window is never checked
+		assertEquals(8 * 10 - 1, checks.get());
+	}
+}
@@ -22,6 +22,7 @@ public class ExtractBestViralReferenceTest extends IntermediateFilesTest {
     private File intermediateTsv;
     private File finalTsv;
     private File viralReads;
+    private File kmerIndex = null;
     @Before
     @Override
     public void setup() throws IOException {
@@ -58,6 +59,7 @@ public class ExtractBestViralReferenceTest extends IntermediateFilesTest {
         cmd2.OUTPUT = fasta;
         cmd2.OUTPUT_SUMMARY = finalTsv;
         cmd2.INPUT_VIRAL_READS = viralReads;
+        cmd2.KMER_INDEX = kmerIndex;
         cmd1.doWork();
         cmd2.doWork();
         return cmd2;
@@ -129,4 +131,46 @@ public class ExtractBestViralReferenceTest extends IntermediateFilesTest {
         List<String> outputSummary = Files.readAllLines(cmd.OUTPUT_SUMMARY.toPath());
         Assert.assertEquals(2+1, outputSummary.size());
     }
-}
\ No newline at end of file
+    @Test
+    public void should_create_and_reuse_kmer_index() throws IOException {
+        String datadir = "src/test/resources/kraken/multiple_dictionaries/";
+        viralReads.createNewFile();
+        kmerIndex = new File(output.toString() + ".kmers");
+        for (int i = 0; i < 2; i++) {
+            ExtractBestViralReference cmd = setup(
+                    new File(datadir + "all_subspecies.txt"),
+                    ImmutableList.of(
+                            new File(datadir + "kraken.fa"),
+                            new File(datadir + "virushostdb.fa")
+                    ),
+                    new File(datadir + "matching.nodes.dmp"),
+                    new File(datadir + "seqid2taxid.map"),
+                    ImmutableList.of(10239),
+                    50);
+            Assert.assertTrue(kmerIndex.exists());
+            List<String> summary = Files.readAllLines(cmd.OUTPUT_SUMMARY.toPath());
+            Assert.assertTrue(summary.get(1).contains("kraken:taxid|10593|X74479"));
+        }
+    }
+    @Test(expected = IllegalArgumentException.class)
+    public void should_reject_kmer_index_of_different_references() throws IOException {
+        String datadir = "src/test/resources/kraken/multiple_dictionaries/";
+        viralReads.createNewFile();
+        kmerIndex = new File(output.toString() + ".kmers");
+        setup(new File(datadir + "all_subspecies.txt"),
+                ImmutableList.of(
+                        new File(datadir + "kraken.fa"),
+                        new File(datadir + "virushostdb.fa")
+                ),
+                new File(datadir + "matching.nodes.dmp"),
+                new File(datadir + "seqid2taxid.map"),
+                ImmutableList.of(10239),
+                50);
+        setup(new File(datadir + "all_subspecies.txt"),
+                ImmutableList.of(new File(datadir + "kraken.fa")),
+                new File(datadir + "matching.nodes.dmp"),
+                new File(datadir + "seqid2taxid.map"),
+                ImmutableList.of(10239),
+                50);
+    }
+}
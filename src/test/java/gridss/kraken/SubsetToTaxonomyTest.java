@@ -0,0 +1,43 @@
+package gridss.kraken;
+
+import au.edu.wehi.idsv.IntermediateFilesTest;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class SubsetToTaxonomyTest extends IntermediateFilesTest {
+    private static final File KRAKEN_OUTPUT = new File("src/test/resources/kraken2_output.tsv");
+    private List<String> run(SubsetToTaxonomy.OutputFormat format, int threads) throws IOException {
+        SubsetToTaxonomy cmd = new SubsetToTaxonomy();
+        cmd.INPUT = KRAKEN_OUTPUT;
+        cmd.OUTPUT = output;
+        cmd.NCBI_NODES_DMP = new File("src/test/resources/ncbi/homo_sapiens.nodes.dmp");
+        cmd.TAXONOMY_IDS = ImmutableList.of(9606);
+        cmd.FORMAT = format;
+        cmd.WORKER_THREADS = threads;
+        cmd.doWork();
+        return Files.readAllLines(output.toPath());
+    }
+    @Test
+    public void should_subset_kraken_output() throws IOException {
+        List<String> expected = Files.readAllLines(KRAKEN_OUTPUT.toPath()).stream()
+                .filter(line -> line.split("\t")[2].equals("9606"))
+                .collect(Collectors.toList());
+        Assert.assertEquals(2, expected.size());
+        Assert.assertEquals(expected, run(SubsetToTaxonomy.OutputFormat.KRAKEN, 1));
+        Assert.assertEquals(expected, run(SubsetToTaxonomy.OutputFormat.KRAKEN, 4));
+    }
+    @Test
+    public void should_output_read_names() throws IOException {
+        Assert.assertEquals(ImmutableList.of(
+                "A00624:8:HHKYHDSXX:1:1245:9670:18239",
+                "A00624:8:HHKYHDSXX:1:1245:9670:18239"),
+                run(SubsetToTaxonomy.OutputFormat.READ_NAME, 2));
+    }
+}
@@ -2,12 +2,18 @@ package gridss.repeatmasker;
 
 import au.edu.wehi.idsv.IntermediateFilesTest;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.writer.Options;
+import htsjdk.variant.variantcontext.writer.VariantContextWriter;
+import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.stream.Collectors;
 
 public class AnnotateVariantsRepeatMaskerTest extends IntermediateFilesTest {
     @Test
@@ -49,4 +55,35 @@ public class AnnotateVariantsRepeatMaskerTest extends IntermediateFilesTest {
         Assert.assertEquals("LSU-rRNA_Hsa", vc.getAttributeAsString("INSRMRT", ""));
         Assert.assertEquals("LSU-rRNA_Hsa#rRNA|2099|+|7=2M1=1I3=2X1M42=1M1=2I16=|273|5", vc.getAttributeAsStringList("INSRM", "").get(0));
     }
-}
\ No newline at end of file
+    @Test
+    public void should_only_annotate_first_record_with_each_id() throws IOException {
+        File input = new File(testFolder.getRoot(), "in.vcf");
+        try (VCFFileReader reader = new VCFFileReader(new File("src/test/resources/repeatmasker/ebv/merged.bwa.bam.gridss.vcf"), false)) {
+            VCFHeader header = reader.getFileHeader();
+            try (VariantContextWriter writer = new VariantContextWriterBuilder()
+                    .setReferenceDictionary(header.getSequenceDictionary())
+                    .setOutputFile(input)
+                    .unsetOption(Options.INDEX_ON_THE_FLY)
+                    .build()) {
+                writer.writeHeader(header);
+                for (VariantContext vc : reader) {
+                    writer.add(vc);
+                    if (vc.getID().equals("gridss312b_2342b")) {
+                        writer.add(vc);
+                    }
+                }
+            }
+        }
+        AnnotateVariantsRepeatMasker cmd = new AnnotateVariantsRepeatMasker();
+        File output = new File(testFolder.getRoot(), "out.vcf");
+        cmd.INPUT = input;
+        cmd.REPEAT_MASKER = new File("src/test/resources/repeatmasker/ebv/merged.bwa.fa.out");
+        cmd.OUTPUT = output;
+        cmd.doWork();
+
+        List<VariantContext> vcf = getRawVcf(output).stream().filter(x -> x.getID().equals("gridss312b_2342b")).collect(Collectors.toList());
+        Assert.assertEquals(2, vcf.size());
+        Assert.assertTrue(vcf.get(0).hasAttribute("INSRM"));
+        Assert.assertFalse(vcf.get(1).hasAttribute("INSRM"));
+    }
+}
@@ -0,0 +1,165 @@
+package htsjdk.variant.variantcontext.writer;
+
+import htsjdk.samtools.util.CloseableIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import htsjdk.variant.vcf.VCFEncoder;
+import htsjdk.variant.vcf.VCFFileReader;
+import htsjdk.variant.vcf.VCFHeader;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class FastVCFWriterTest {
+    private static final File[] VCFS = new File[] {
+            new File("src/test/resources/colo829_1.gridss.somatic.vcf"),
+            new File("src/test/resources/gridss294.colo829.somatic.vcf"),
+    };
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private static void assertMatchesEncoder(File file, boolean decode) {
+        try (VCFFileReader reader = new VCFFileReader(file, false)) {
+            VCFHeader header = reader.getFileHeader();
+            VCFEncoder expectedEncoder = new VCFEncoder(header, false, false);
+            FastVCFWriter writer = new FastVCFWriter(null, new ByteArrayOutputStream(), null, false);
+            writer.setHeader(header);
+            StringBuilder sb = new StringBuilder();
+            int count = 0;
+            for (VariantContext vc : reader) {
+                if (decode) {
+                    vc = vc.fullyDecode(header, false);
+                }
+                sb.setLength(0);
+                writer.encode(vc, sb);
+                Assert.assertEquals(expectedEncoder.encode(vc), sb.toString());
+                count++;
+            }
+            Assert.assertTrue(count > 0);
+        }
+    }
+
+    @Test
+    public void encode_should_match_htsjdk_lazy_records() {
+        for (File file : VCFS) {
+            assertMatchesEncoder(file, false);
+        }
+    }
+
+    @Test
+    public void encode_should_match_htsjdk_decoded_records() {
+        for (File file : VCFS) {
+            assertMatchesEncoder(file, true);
+        }
+    }
+
+    @Test
+    public void encode_should_match_htsjdk_modified_records() {
+        try (VCFFileReader reader = new VCFFileReader(VCFS[1], false)) {
+            VCFHeader header = reader.getFileHeader();
+            VCFEncoder expectedEncoder = new VCFEncoder(header, false, false);
+            FastVCFWriter writer = new FastVCFWriter(null, new ByteArrayOutputStream(), null, false);
+            writer.setHeader(header);
+            Random rng = new Random(0);
+            for (VariantContext vc : reader) {
+                VariantContext modified = new VariantContextBuilder(vc.fullyDecode(header, false))
+                        .attribute("ASQ", rng.nextDouble() * 1000)
+                        .attribute("SR", rng.nextInt(100))
+                        .attribute("TAF", new double[] { rng.nextDouble(), -rng.nextDouble() * 100 })
+                        .attribute("IMPRECISE", rng.nextBoolean())
+                        .unfiltered()
+                        .log10PError(-rng.nextDouble() * 100)
+                        .make();
+                StringBuilder sb = new StringBuilder();
+                writer.encode(modified, sb);
+                Assert.assertEquals(expectedEncoder.encode(modified), sb.toString());
+            }
+        }
+    }
+
+    @Test
+    public void appendDouble_should_match_htsjdk_formatting() {
+        Random rng = new Random(0);
+        StringBuilder sb = new StringBuilder();
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            values.add(rng.nextDouble() * Math.pow(10, rng.nextInt(14) - 4));
+            values.add(rng.nextInt(100000) / 1000.0 + 0.0005);
+            values.add(rng.nextInt(100000) / 1000.0);
+            values.add(rng.nextInt(1000000) / 200.0);
+        }
+        values.add(0.0);
+        values.add(-0.0);
+        values.add(-1.5);
+        values.add(Double.NaN);
+        values.add(Double.POSITIVE_INFINITY);
+        values.add(Double.NEGATIVE_INFINITY);
+        values.add(1e20);
+        values.add(Double.MIN_VALUE);
+        for (double d : values) {
+            sb.setLength(0);
+            FastVCFWriter.appendDouble(sb, d);
+            Assert.assertEquals(Double.toString(d), VCFEncoder.formatVCFDouble(d), sb.toString());
+            sb.setLength(0);
+            FastVCFWriter.appendFixed(sb, d, 2);
+            Assert.assertEquals(Double.toString(d), String.format("%.2f", d), sb.toString());
+        }
+    }
+
+    @Test
+    public void should_write_same_file_as_htsjdk() throws IOException {
+        File expected = testFolder.newFile("expected.vcf");
+        File actual = testFolder.newFile("actual.vcf");
+        try (VCFFileReader reader = new VCFFileReader(VCFS[0], false)) {
+            VCFHeader header = reader.getFileHeader();
+            try (VariantContextWriter htsjdkWriter = new VariantContextWriterBuilder()
+                        .setOutputFile(expected)
+                        .clearOptions()
+                        .clearIndexCreator()
+                        .build();
+                    VariantContextWriter fastWriter = new FastVCFWriter(actual, new FileOutputStream(actual), null, false)) {
+                htsjdkWriter.writeHeader(header);
+                fastWriter.writeHeader(header);
+                try (CloseableIterator<VariantContext> it = reader.iterator()) {
+                    while (it.hasNext()) {
+                        VariantContext vc = it.next();
+                        htsjdkWriter.add(vc);
+                        fastWriter.add(vc);
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(new String(Files.readAllBytes(expected.toPath())), new String(Files.readAllBytes(actual.toPath())));
+    }
+
+    @Test
+    public void should_create_index() throws IOException {
+        File output = new File(testFolder.getRoot(), "indexed.vcf");
+        try (VCFFileReader reader = new VCFFileReader(VCFS[0], false)) {
+            VCFHeader header = reader.getFileHeader();
+            try (VariantContextWriter writer = new FastVCFWriter(output, new FileOutputStream(output), header.getSequenceDictionary(), true)) {
+                writer.writeHeader(header);
+                for (VariantContext vc : reader) {
+                    writer.add(vc);
+                }
+            }
+        }
+        Assert.assertTrue(new File(output.getPath() + ".idx").exists());
+        try (VCFFileReader reader = new VCFFileReader(output, true)) {
+            VariantContext first = reader.iterator().next();
+            try (CloseableIterator<VariantContext> it = reader.query(first.getContig(), first.getStart(), first.getStart())) {
+                Assert.assertTrue(it.hasNext());
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package performancetesting;
+
+import au.edu.wehi.idsv.graph.ArrayBackedRectangleGraphMaximalCliqueCalculator;
+import au.edu.wehi.idsv.graph.RectangleGraphMaximalCliqueCaller;
+import au.edu.wehi.idsv.graph.RectangleGraphMaximalCliqueCalculator;
+import au.edu.wehi.idsv.graph.RectangleGraphNode;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Compares maximal clique caller implementations on a simulated high-depth
+ * repetitive region in which many breakpoint evidence rectangles overlap.
+ */
+public class RectangleGraphMaximalCliqueCalculatorBenchmark {
+	private static List<RectangleGraphNode> simulate(int count, int width, int maxSize) {
+		Random rng = new Random(0);
+		List<RectangleGraphNode> nodes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			long startX = rng.nextInt(width);
+			long startY = 1000000000L + rng.nextInt(width);
+			nodes.add(new RectangleGraphNode(startX, startX + rng.nextInt(maxSize), startY, startY + rng.nextInt(maxSize), 1 + rng.nextInt(60)));
+		}
+		nodes.sort(RectangleGraphNode.ByStartXYEndXY);
+		return nodes;
+	}
+	private static long run(Supplier<RectangleGraphMaximalCliqueCaller> factory, List<RectangleGraphNode> nodes) {
+		RectangleGraphMaximalCliqueCaller calc = factory.get();
+		long cliques = 0;
+		for (RectangleGraphNode n : nodes) {
+			cliques += calc.next(n).size();
+		}
+		cliques += calc.complete().size();
+		return cliques;
+	}
+	private static void benchmark(String name, Supplier<RectangleGraphMaximalCliqueCaller> factory, List<RectangleGraphNode> nodes) {
+		long cliques = 0;
+		for (int i = 0; i < 3; i++) {
+			cliques = run(factory, nodes); // warm up
+		}
+		long start = System.nanoTime();
+		int iterations = 5;
+		for (int i = 0; i < iterations; i++) {
+			run(factory, nodes);
+		}
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format("%s: %d nodes, %d cliques, %.1fms per iteration", name, nodes.size(), cliques, elapsed / 1000000.0 / iterations));
+	}
+	@Ignore // TODO: performance testing group
+	@Test
+	public void compare_implementations() {
+		for (int count : new int[] { 10000, 50000, 200000 }) {
+			List<RectangleGraphNode> nodes = simulate(count, 100000, 600);
+			benchmark("RectangleGraphMaximalCliqueCalculator", RectangleGraphMaximalCliqueCalculator::new, nodes);
+			benchmark("ArrayBackedRectangleGraphMaximalCliqueCalculator", ArrayBackedRectangleGraphMaximalCliqueCalculator::new, nodes);
+		}
+	}
+}